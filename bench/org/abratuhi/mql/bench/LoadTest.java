@@ -0,0 +1,186 @@
+package org.abratuhi.mql.bench;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.metrics.LatencyHistogram;
+
+/**
+ * <p>
+ * Load test parsing and evaluating generated queries from several threads.
+ * Each operation parses a query drawn from the generated workload and
+ * evaluates it against all generated records.
+ * </p>
+ * <p>
+ * After a warm-up, the latencies of the operations and of their parsing are
+ * counted in {@link LatencyHistogram}s; the throughput and the 50th, 99th and
+ * 99.9th percentiles are reported. Options are given as
+ * <code>--name=value</code>, e.g. with Ant:
+ * </p>
+ *
+ * <pre>
+ * ant loadtest -Dloadtest.args="--threads=8 --records=100000 --depth=4"
+ * </pre>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class LoadTest {
+
+    /**
+     * Default values of the options.
+     */
+    private static final String[][] OPTIONS = {
+	    { "seed", "42", "seed of the generated workload" },
+	    { "records", "10000", "number of records" },
+	    { "queries", "1000", "number of distinct queries" },
+	    { "fields", "8", "number of fields of a record" },
+	    { "cardinality", "100", "number of distinct values of a field" },
+	    { "depth", "3", "nesting depth of the queries" },
+	    { "fanout", "3", "number of children of a condition" },
+	    { "like", "0.3", "share of regular expression comparisons" },
+	    { "threads", "4", "number of threads" },
+	    { "warmup", "5", "seconds of warm-up" },
+	    { "seconds", "20", "seconds of measurement" } };
+
+    /**
+     * Utility class.
+     */
+    private LoadTest() {
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args
+     *            options as <code>--name=value</code>
+     * @throws InterruptedException
+     *             in case the test has been interrupted
+     */
+    public static void main(final String[] args) throws InterruptedException {
+	Map<String, String> options = new LinkedHashMap<String, String>();
+	for (String[] option : OPTIONS) {
+	    options.put(option[0], option[1]);
+	}
+	for (String arg : args) {
+	    int eq = arg.indexOf('=');
+	    if (!arg.startsWith("--") || eq < 0
+		    || !options.containsKey(arg.substring(2, eq))) {
+		usage(arg);
+		return;
+	    }
+	    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+	}
+
+	final long seed = Long.parseLong(options.get("seed"));
+	WorkloadGenerator generator = new WorkloadGenerator(seed,
+		Integer.parseInt(options.get("fields")),
+		Integer.parseInt(options.get("cardinality")),
+		Integer.parseInt(options.get("depth")),
+		Integer.parseInt(options.get("fanout")),
+		Double.parseDouble(options.get("like")));
+	final List<Map<String, String>> records = generator.records(Integer
+		.parseInt(options.get("records")));
+	final List<String> queries = generator.queries(Integer
+		.parseInt(options.get("queries")));
+	int threads = Integer.parseInt(options.get("threads"));
+	long warmup = Long.parseLong(options.get("warmup")) * 1000000000L;
+	long seconds = Long.parseLong(options.get("seconds"));
+
+	System.out.println("MQL load test " + options);
+	final LatencyHistogram operations = new LatencyHistogram();
+	final LatencyHistogram parses = new LatencyHistogram();
+	final AtomicLong matches = new AtomicLong();
+	final long start = System.nanoTime();
+	final long measure = start + warmup;
+	final long end = measure + seconds * 1000000000L;
+
+	Thread[] workers = new Thread[threads];
+	for (int t = 0; t < threads; t++) {
+	    final int thread = t;
+	    workers[t] = new Thread("mql-loadtest-" + t) {
+		@Override
+		public void run() {
+		    Random random = new Random(seed + thread);
+		    Parser<Map<String, String>> parser = new Parser<Map<String, String>>();
+		    long matched = 0;
+		    for (long now = System.nanoTime(); now < end; now = System
+			    .nanoTime()) {
+			String query = queries.get(random.nextInt(queries
+				.size()));
+			IEvaluatable<Map<String, String>> evaluatable;
+			try {
+			    evaluatable = parser.parse(query);
+			} catch (ParseException e) {
+			    throw new IllegalStateException(query, e);
+			}
+			long parsed = System.nanoTime();
+			for (Map<String, String> record : records) {
+			    if (evaluatable.evaluate(record)) {
+				matched++;
+			    }
+			}
+			if (now >= measure) {
+			    parses.record(parsed - now);
+			    operations.record(System.nanoTime() - now);
+			}
+		    }
+		    matches.addAndGet(matched);
+		}
+	    };
+	    workers[t].start();
+	}
+	for (Thread worker : workers) {
+	    worker.join();
+	}
+
+	long count = operations.getCount();
+	double elapsed = (System.nanoTime() - measure) / 1e9;
+	System.out.printf("operations:  %d in %.1fs, %.1f ops/s, %.0f records/s%n",
+		count, elapsed, count / elapsed, count * records.size()
+			/ elapsed);
+	System.out.printf("matches:     %d (checksum)%n", matches.get());
+	report("operation", operations);
+	report("parse", parses);
+    }
+
+    /**
+     * Print the percentiles of a histogram of latencies.
+     *
+     * @param name
+     *            name of the latencies
+     * @param histogram
+     *            latencies in nanoseconds
+     */
+    private static void report(final String name,
+	    final LatencyHistogram histogram) {
+	System.out.printf(
+		"%-12s p50 %.3fms, p99 %.3fms, p999 %.3fms, max %.3fms%n",
+		name + ":", histogram.getValueAtPercentile(50) / 1e6,
+		histogram.getValueAtPercentile(99) / 1e6,
+		histogram.getValueAtPercentile(99.9) / 1e6,
+		histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Print the usage.
+     *
+     * @param arg
+     *            unknown argument
+     */
+    private static void usage(final String arg) {
+	System.err.println("Unknown argument: " + arg);
+	System.err.println("Options:");
+	for (String[] option : OPTIONS) {
+	    System.err.printf("  --%s=<%s> (default %s)%n", option[0],
+		    option[2], option[1]);
+	}
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.abratuhi.mql.bench;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Generator of random but reproducible records and queries: the same seed
+ * and settings always generate the same workload.
+ * </p>
+ * <p>
+ * Records have the fields <code>f0</code> to <code>f(n-1)</code>, each
+ * present with a probability of 90%. Values are <code>v0</code> to
+ * <code>v(c-1)</code>, skewed towards the small numbers: value
+ * <code>vi</code> is drawn with a probability proportional to
+ * <code>1 / (i + 1)</code>.
+ * </p>
+ * <p>
+ * Queries are trees of the given nesting depth: conditions with the given
+ * fan-out at the inner levels - <code>AND</code> and <code>OR</code>, and
+ * <code>NOT</code> of a single subtree in 10% of the cases - and comparisons
+ * at the leaves, of which the given share are regular expression matches
+ * (<code>~</code>) and the others equalities (<code>=</code>). Subtrees end
+ * early with a probability of 25%.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class WorkloadGenerator {
+
+    /**
+     * Random numbers.
+     */
+    private final Random random;
+    /**
+     * Number of fields.
+     */
+    private final int fields;
+    /**
+     * Number of distinct values of a field.
+     */
+    private final int cardinality;
+    /**
+     * Nesting depth of the queries, <code>0</code> for single comparisons.
+     */
+    private final int depth;
+    /**
+     * Number of underlying conditions and comparisons of a condition.
+     */
+    private final int fanout;
+    /**
+     * Share of regular expression matches among the comparisons.
+     */
+    private final double likeRatio;
+    /**
+     * Cumulative probabilities of the values.
+     */
+    private final double[] cumulative;
+
+    /**
+     * Constructor.
+     *
+     * @param seed
+     *            seed of the random numbers
+     * @param fields
+     *            number of fields
+     * @param cardinality
+     *            number of distinct values of a field
+     * @param depth
+     *            nesting depth of the queries
+     * @param fanout
+     *            number of underlying conditions and comparisons of a
+     *            condition
+     * @param likeRatio
+     *            share of regular expression matches among the comparisons,
+     *            between <code>0</code> and <code>1</code>
+     */
+    public WorkloadGenerator(final long seed, final int fields,
+	    final int cardinality, final int depth, final int fanout,
+	    final double likeRatio) {
+	this.random = new Random(seed);
+	this.fields = fields;
+	this.cardinality = cardinality;
+	this.depth = depth;
+	this.fanout = fanout;
+	this.likeRatio = likeRatio;
+	this.cumulative = new double[cardinality];
+	double sum = 0;
+	for (int i = 0; i < cardinality; i++) {
+	    sum += 1.0 / (i + 1);
+	    cumulative[i] = sum;
+	}
+	for (int i = 0; i < cardinality; i++) {
+	    cumulative[i] /= sum;
+	}
+    }
+
+    /**
+     * Draw a value.
+     *
+     * @return value number
+     */
+    private int value() {
+	double r = random.nextDouble();
+	int low = 0;
+	int high = cardinality - 1;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (cumulative[mid] < r) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Generate a record.
+     *
+     * @return record
+     */
+    public final Map<String, String> record() {
+	Map<String, String> record = new HashMap<String, String>();
+	for (int f = 0; f < fields; f++) {
+	    if (random.nextInt(10) != 0) {
+		record.put("f" + f, "v" + value());
+	    }
+	}
+	return record;
+    }
+
+    /**
+     * Generate records.
+     *
+     * @param count
+     *            number of records
+     * @return records
+     */
+    public final List<Map<String, String>> records(final int count) {
+	List<Map<String, String>> records = new Vector<Map<String, String>>();
+	for (int i = 0; i < count; i++) {
+	    records.add(record());
+	}
+	return records;
+    }
+
+    /**
+     * Generate a query.
+     *
+     * @return query text
+     */
+    public final String query() {
+	StringBuffer sb = new StringBuffer();
+	query(sb, depth);
+	return sb.toString();
+    }
+
+    /**
+     * Generate queries.
+     *
+     * @param count
+     *            number of queries
+     * @return query texts
+     */
+    public final List<String> queries(final int count) {
+	List<String> queries = new Vector<String>();
+	for (int i = 0; i < count; i++) {
+	    queries.add(query());
+	}
+	return queries;
+    }
+
+    /**
+     * Generate a subtree of a query.
+     *
+     * @param sb
+     *            query text
+     * @param levels
+     *            remaining nesting depth
+     */
+    private void query(final StringBuffer sb, final int levels) {
+	if (levels == 0) {
+	    comparison(sb);
+	    return;
+	}
+	sb.append('(');
+	int children = fanout;
+	int r = random.nextInt(10);
+	if (r == 0) {
+	    sb.append("NOT");
+	    children = 1;
+	} else {
+	    sb.append(r % 2 == 0 ? "AND" : "OR");
+	}
+	for (int i = 0; i < children; i++) {
+	    query(sb, random.nextInt(4) == 0 ? 0 : levels - 1);
+	}
+	sb.append(')');
+    }
+
+    /**
+     * Generate a comparison.
+     *
+     * @param sb
+     *            query text
+     */
+    private void comparison(final StringBuffer sb) {
+	sb.append("('f").append(random.nextInt(fields)).append('\'');
+	int value = value();
+	if (random.nextDouble() < likeRatio) {
+	    switch (random.nextInt(3)) {
+	    case 0:
+		sb.append("~\"v").append(value).append(".*\")");
+		break;
+	    case 1:
+		sb.append("~\".*").append(value).append("\")");
+		break;
+	    default:
+		sb.append("~\"v").append(value).append("|v")
+			.append(value()).append("\")");
+		break;
+	    }
+	} else {
+	    sb.append("=\"v").append(value).append("\")");
+	}
+    }
+
+}
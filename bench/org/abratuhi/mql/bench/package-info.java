@@ -0,0 +1,5 @@
+/**
+ * Provides the load test of parsing and evaluating generated query
+ * workloads, run by the <code>loadtest</code> Ant target.
+ */
+package org.abratuhi.mql.bench;
@@ -0,0 +1,48 @@
+package org.abratuhi.mql;
+
+/**
+ * <p>
+ * This class represents the exception thrown when the evaluation of a query
+ * exceeds its {@link EvaluationBudget}. The scan is aborted, the statistics
+ * collected up to that point are attached to the exception.
+ * </p>
+ * <p>
+ * Note: this is an unchecked exception since it is raised from within
+ * {@link IEvaluatable#evaluate(Object)}.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+@SuppressWarnings("serial")
+public class BudgetExceededException extends RuntimeException {
+
+    /**
+     * Statistics of the aborted scan.
+     */
+    private final ScanStatistics statistics;
+
+    /**
+     * Constructor.
+     *
+     * @param message
+     *            error message
+     * @param statistics
+     *            statistics of the aborted scan
+     */
+    public BudgetExceededException(final String message,
+	    final ScanStatistics statistics) {
+	super(message + " (" + statistics + ")");
+	this.statistics = statistics;
+    }
+
+    /**
+     * Get statistics of the aborted scan.
+     *
+     * @return partial statistics
+     */
+    public final ScanStatistics getStatistics() {
+	return statistics;
+    }
+
+}
@@ -2,6 +2,8 @@ package org.abratuhi.mql;
 
 import java.util.Map;
 
+import org.abratuhi.mql.regex.Regex;
+
 /**
  * <p>
  * Comparison class represents a simple check on the value of a particular
@@ -21,8 +23,9 @@ import java.util.Map;
  * </pre>
  *
  * <p>
- * Note: <column> and <value> may contain ' and " respectively - they need to be
- * escaped as \' and \".
+ * Note: <column> and <value> may contain ', " and \ - they need to be
+ * escaped as \', \" and \\. A backslash followed by any other character is
+ * kept as it is.
  * </p>
  *
  * <p>
@@ -46,14 +49,14 @@ import java.util.Map;
  *
  */
 public class Comparison<T extends Map<String, String>> implements
-	IEvaluatable<T> {
+	IFieldEvaluatable<T> {
 
     /**
      * This enumeration represents a set of available comparison operators.
      * @author Alexei Bratuhin
      *
      */
-    enum ComparisonOperator {
+    public enum ComparisonOperator {
 	/**
 	 * Equality comparison operator.
 	 */
@@ -116,10 +119,23 @@ public class Comparison<T extends Map<String, String>> implements
      * Value of the field used for comparison.
      */
     private String value;
+    /**
+     * Value of the field compiled as regular expression, used by the
+     * {@link ComparisonOperator#LIKE} operator.
+     */
+    private Regex regex;
+    /**
+     * Number of modifications by the setters.
+     */
+    private volatile int modifications = 0;
 
     @Override
     public final boolean evaluate(final T record) {
-	String recordvalue = record.get(field);
+	return evaluateValue(record.get(field));
+    }
+
+    @Override
+    public final boolean evaluateValue(final String recordvalue) {
 	boolean result = false;
 	switch (operator) {
 	case EQUAL:
@@ -128,7 +144,7 @@ public class Comparison<T extends Map<String, String>> implements
 	    }
 	    break;
 	case LIKE:
-	    if (recordvalue != null && recordvalue.matches(value)) {
+	    if (recordvalue != null && getRegex().matches(recordvalue)) {
 		result = true;
 	    }
 	    break;
@@ -165,6 +181,15 @@ public class Comparison<T extends Map<String, String>> implements
 	return this.operator.toString();
     }
 
+    /**
+     * Get operator between field name and field value.
+     *
+     * @return operator
+     */
+    public final ComparisonOperator getComparisonOperator() {
+	return this.operator;
+    }
+
     /**
      * Set operator.
      *
@@ -175,6 +200,7 @@ public class Comparison<T extends Map<String, String>> implements
      */
     public final void setOperator(final String op) throws ParseException {
 	this.operator = ComparisonOperator.fromString(op);
+	modifications++;
     }
 
     /**
@@ -185,6 +211,7 @@ public class Comparison<T extends Map<String, String>> implements
      */
     public final void setField(final String field) {
 	this.field = field;
+	modifications++;
     }
 
     /**
@@ -195,12 +222,66 @@ public class Comparison<T extends Map<String, String>> implements
      */
     public final void setValue(final String value) {
 	this.value = value;
+	this.regex = null;
+	modifications++;
+    }
+
+    /**
+     * Get number of modifications of the field name, operator or value, so
+     * that structures derived from the comparison - e.g. a
+     * {@link LiteralAlternation} - can tell they are outdated.
+     *
+     * @return number of modifications
+     */
+    final int getModifications() {
+	return modifications;
+    }
+
+    /**
+     * Get field value compiled as regular expression. The value is compiled
+     * once, on first use.
+     *
+     * @return field value as regular expression
+     */
+    public final Regex getRegex() {
+	if (regex == null) {
+	    regex = Regex.compile(value);
+	}
+	return regex;
     }
 
     @Override
     public final String toString() {
-	return String.format("('%s'%s\"%s\")", getField().replaceAll("'", "\\\\'"), getOperator(),
-		getValue().replaceAll("\"", "\\\\\""));
+	return String.format("('%s'%s\"%s\")", escape(getField()), getOperator(),
+		escape(getValue()));
+    }
+
+    /**
+     * Escape ' and " of a field name or value, as well as backslashes
+     * followed by \\, ' or " or ending the text, so that the text returned by
+     * {@link Comparison#toString()} is parsed back to the same comparison.
+     * Other backslashes - e.g. within a regular expression - are kept as they
+     * are.
+     *
+     * @param text
+     *            field name or value
+     * @return escaped field name or value
+     */
+    static String escape(final String text) {
+	StringBuffer sb = new StringBuffer(text.length() + 8);
+	for (int i = 0; i < text.length(); i++) {
+	    char current = text.charAt(i);
+	    if (current == '\'' || current == '"') {
+		sb.append('\\');
+	    } else if (current == '\\') {
+		char next = i + 1 < text.length() ? text.charAt(i + 1) : '\\';
+		if (next == '\\' || next == '\'' || next == '"') {
+		    sb.append('\\');
+		}
+	    }
+	    sb.append(current);
+	}
+	return sb.toString();
     }
 
 }
@@ -1,5 +1,6 @@
 package org.abratuhi.mql;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -55,7 +56,7 @@ public class Condition<T extends Map<String, String>> implements
      * @author Alexei Bratuhin.
      *
      */
-    enum ConditionOperator {
+    public enum ConditionOperator {
 	/**
 	 * Logical AND.
 	 */
@@ -117,22 +118,36 @@ public class Condition<T extends Map<String, String>> implements
      * connected by the logical condition operator.
      */
     private List<IEvaluatable<T>> conditions = new Vector<IEvaluatable<T>>();
+    /**
+     * Underlying conditions and comparisons as evaluated by the OR operator,
+     * with the literal comparisons on the same field grouped into a
+     * {@link LiteralAlternation}. Built on first evaluation, and again once
+     * a grouped comparison has been modified.
+     */
+    private volatile List<IEvaluatable<T>> alternatives = null;
 
     @Override
     public final boolean evaluate(final T record) {
 	switch (operator) {
 	case AND:
-	    boolean resultAnd = true;
 	    for (IEvaluatable<T> condition : conditions) {
-		resultAnd &= condition.evaluate(record);
+		if (!condition.evaluate(record)) {
+		    return false;
+		}
 	    }
-	    return resultAnd;
+	    return true;
 	case OR:
-	    boolean resultOr = false;
-	    for (IEvaluatable<T> condition : conditions) {
-		resultOr |= condition.evaluate(record);
+	    List<IEvaluatable<T>> plan = alternatives;
+	    if (plan == null || !LiteralAlternation.isCurrent(plan)) {
+		plan = LiteralAlternation.fuse(conditions);
+		alternatives = plan;
+	    }
+	    for (IEvaluatable<T> condition : plan) {
+		if (condition.evaluate(record)) {
+		    return true;
+		}
 	    }
-	    return resultOr;
+	    return false;
 	case NOT:
 	    boolean resultNot = false;
 	    // evaluate (NOT) as (NOT(true))
@@ -160,6 +175,15 @@ public class Condition<T extends Map<String, String>> implements
 	return this.operator.toString();
     }
 
+    /**
+     * Get logical operator joining following conditions.
+     *
+     * @return logical operator
+     */
+    public final ConditionOperator getConditionOperator() {
+	return this.operator;
+    }
+
     /**
      * Set logical operator from string.
      *
@@ -178,6 +202,27 @@ public class Condition<T extends Map<String, String>> implements
      */
     public final void addCondition(final IEvaluatable<T> evaluatable) {
 	conditions.add(evaluatable);
+	alternatives = null;
+    }
+
+    /**
+     * Set the underlying conditions and comparisons as evaluated by the OR
+     * operator, grouped beforehand - see {@link PreparedQuery}. Rebuilt in
+     * case a grouped comparison is modified or a condition is added.
+     * @param plan the underlying conditions and comparisons, in any order,
+     *            with literal comparisons grouped by
+     *            {@link LiteralAlternation#fuse(List)}
+     */
+    final void setAlternatives(final List<IEvaluatable<T>> plan) {
+	alternatives = plan;
+    }
+
+    /**
+     * Get evaluatables joined by the logical operator.
+     * @return read-only list of underlying conditions and comparisons
+     */
+    public final List<IEvaluatable<T>> getConditions() {
+	return Collections.unmodifiableList(conditions);
     }
 
     @Override
@@ -0,0 +1,276 @@
+package org.abratuhi.mql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Limits on the cost of a single query execution: wall-clock time and number
+ * of regular expression steps (characters consumed by the matching engine).
+ * </p>
+ * <p>
+ * The budget starts running when it is created. To apply it, bind it to each
+ * thread evaluating the query:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * EvaluationBudget budget = new EvaluationBudget(100, 1000000);
+ * EvaluationBudget.Meter meter = budget.bind();
+ * try {
+ *     store.scan(query, handler);
+ * } finally {
+ *     meter.unbind();
+ * }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Scans report each evaluated record to the {@link Meter} of their thread,
+ * the regular expression engine reports its steps. Counts are kept per
+ * thread and checked against the limits every
+ * {@link EvaluationBudget#RECORDS_PER_CHECK} records or
+ * {@link EvaluationBudget#STEPS_PER_CHECK} steps, so the limits may be
+ * overrun by that much. Once a limit is exceeded, a
+ * {@link BudgetExceededException} with the statistics collected so far is
+ * thrown on every thread using the budget.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class EvaluationBudget {
+
+    /**
+     * Number of records evaluated between two checks of the limits.
+     */
+    public static final int RECORDS_PER_CHECK = 256;
+    /**
+     * Number of regular expression steps between two checks of the limits.
+     */
+    public static final int STEPS_PER_CHECK = 4096;
+
+    /**
+     * Meter of the budget bound to the current thread.
+     */
+    private static final ThreadLocal<Meter> METER = new ThreadLocal<Meter>();
+
+    /**
+     * <p>
+     * Per-thread counter of the evaluation cost, periodically adding its
+     * counts to the budget and checking the limits.
+     * </p>
+     */
+    public static final class Meter {
+	/**
+	 * Budget being metered.
+	 */
+	private final EvaluationBudget budget;
+	/**
+	 * Meter bound to the thread before, restored by
+	 * {@link Meter#unbind()}.
+	 */
+	private final Meter previous;
+	/**
+	 * Records evaluated since the last check.
+	 */
+	private long scanned = 0;
+	/**
+	 * Matching records since the last check.
+	 */
+	private long matched = 0;
+	/**
+	 * Steps since the last check.
+	 */
+	private long steps = 0;
+
+	/**
+	 * Constructor.
+	 * @param budget budget being metered
+	 * @param previous meter bound to the thread before
+	 */
+	private Meter(final EvaluationBudget budget, final Meter previous) {
+	    this.budget = budget;
+	    this.previous = previous;
+	}
+
+	/**
+	 * Count an evaluated record.
+	 *
+	 * @param match
+	 *            whether the record matched the query
+	 * @throws BudgetExceededException
+	 *             in case the budget has been exceeded
+	 */
+	public void record(final boolean match) {
+	    if (match) {
+		matched++;
+	    }
+	    if (++scanned >= RECORDS_PER_CHECK) {
+		check();
+	    }
+	}
+
+	/**
+	 * Count regular expression steps.
+	 *
+	 * @param count
+	 *            number of steps
+	 * @throws BudgetExceededException
+	 *             in case the budget has been exceeded
+	 */
+	public void step(final long count) {
+	    steps += count;
+	    if (steps >= STEPS_PER_CHECK) {
+		check();
+	    }
+	}
+
+	/**
+	 * Add the counts to the budget and check the limits.
+	 *
+	 * @throws BudgetExceededException
+	 *             in case the budget has been exceeded
+	 */
+	public void check() {
+	    flush();
+	    budget.check();
+	}
+
+	/**
+	 * Add the counts to the budget, unbind the budget from the current
+	 * thread and bind the meter bound before again.
+	 */
+	public void unbind() {
+	    flush();
+	    if (METER.get() == this) {
+		if (previous != null) {
+		    METER.set(previous);
+		} else {
+		    METER.remove();
+		}
+	    }
+	}
+
+	/**
+	 * Add the counts to the budget.
+	 */
+	private void flush() {
+	    budget.scanned.addAndGet(scanned);
+	    budget.matched.addAndGet(matched);
+	    budget.steps.addAndGet(steps);
+	    scanned = 0;
+	    matched = 0;
+	    steps = 0;
+	}
+    }
+
+    /**
+     * Start of the execution, as of {@link System#nanoTime()}.
+     */
+    private final long start;
+    /**
+     * Deadline, as of {@link System#nanoTime()}.
+     */
+    private final long deadline;
+    /**
+     * Maximal number of regular expression steps.
+     */
+    private final long maxSteps;
+    /**
+     * Records evaluated.
+     */
+    private final AtomicLong scanned = new AtomicLong();
+    /**
+     * Matching records.
+     */
+    private final AtomicLong matched = new AtomicLong();
+    /**
+     * Regular expression steps.
+     */
+    private final AtomicLong steps = new AtomicLong();
+    /**
+     * Reason the budget has been exceeded, <code>null</code> while within
+     * the limits.
+     */
+    private volatile String exceeded = null;
+
+    /**
+     * Constructor, the budget starts running immediately.
+     *
+     * @param timeoutMillis
+     *            maximal wall-clock time in milliseconds, <code>0</code> for
+     *            unlimited
+     * @param maxSteps
+     *            maximal number of regular expression steps,
+     *            <code>0</code> for unlimited
+     */
+    public EvaluationBudget(final long timeoutMillis, final long maxSteps) {
+	this.start = System.nanoTime();
+	this.deadline = timeoutMillis > 0 ? start + timeoutMillis * 1000000
+		: Long.MAX_VALUE;
+	this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the meter of the budget bound to the current thread.
+     *
+     * @return meter or <code>null</code> in case no budget is bound
+     */
+    public static Meter meter() {
+	return METER.get();
+    }
+
+    /**
+     * Bind the budget to the current thread. A meter already bound, e.g. of
+     * an outer execution, is bound again once the returned meter is unbound.
+     *
+     * @return meter of the current thread, to be unbound once the evaluation
+     *         is done
+     */
+    public final Meter bind() {
+	Meter meter = new Meter(this, METER.get());
+	METER.set(meter);
+	return meter;
+    }
+
+    /**
+     * Check the limits.
+     *
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    private void check() {
+	if (exceeded == null) {
+	    if (steps.get() > maxSteps) {
+		exceeded = "Exceeded " + maxSteps + " regular expression steps";
+	    } else if (System.nanoTime() > deadline) {
+		exceeded = "Exceeded time limit of "
+			+ (deadline - start) / 1000000 + "ms";
+	    }
+	}
+	if (exceeded != null) {
+	    throw new BudgetExceededException(exceeded, getStatistics());
+	}
+    }
+
+    /**
+     * Check whether the budget has been exceeded.
+     *
+     * @return whether a limit has been exceeded
+     */
+    public final boolean isExceeded() {
+	return exceeded != null;
+    }
+
+    /**
+     * Get statistics of the execution so far. Counts not yet added by the
+     * meters are missing.
+     *
+     * @return statistics
+     */
+    public final ScanStatistics getStatistics() {
+	return new ScanStatistics(scanned.get(), matched.get(), steps.get(),
+		System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.abratuhi.mql;
+
+/**
+ * <p>
+ * Specialization of {@link IEvaluatable} for criteria that depend on the value
+ * of a single field of the record only.
+ * </p>
+ * <p>
+ * Record stores keeping their records in a non-{@link java.util.Map} form
+ * use this interface to evaluate such criteria directly on the stored field
+ * value, without materializing the whole record.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ * @param <T>
+ */
+public interface IFieldEvaluatable<T> extends IEvaluatable<T> {
+
+    /**
+     * Get name of the field the criteria is defined on.
+     *
+     * @return field name
+     */
+    public String getField();
+
+    /**
+     * Evaluate the given field value against current criteria.
+     *
+     * @param value
+     *            - value of the field in the record, <code>null</code> in
+     *            case the record doesn't contain the field.
+     * @return <ul>
+     *         <li><code>true</code> - in case given value matches current
+     *         criteria</li>
+     *         <li><code>false</code> - otherwise</li>
+     *         </ul>
+     */
+    public boolean evaluateValue(final String value);
+
+}
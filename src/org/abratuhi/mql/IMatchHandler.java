@@ -0,0 +1,28 @@
+package org.abratuhi.mql;
+
+/**
+ * <p>
+ * Callback receiving the records matching a query during a scan.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ * @param <T>
+ */
+public interface IMatchHandler<T> {
+
+    /**
+     * Handle a matching record.
+     *
+     * @param id
+     *            - id of the record within the scanned collection.
+     * @param record
+     *            - matching record.
+     * @return <ul>
+     *         <li><code>true</code> - in case the scan shall continue</li>
+     *         <li><code>false</code> - in case the scan shall stop</li>
+     *         </ul>
+     */
+    public boolean onMatch(final int id, final T record);
+
+}
@@ -0,0 +1,381 @@
+package org.abratuhi.mql;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.abratuhi.mql.regex.AhoCorasick;
+
+/**
+ * <p>
+ * LiteralAlternation class represents a group of literal comparisons on the
+ * same field, joined by the logical OR, evaluated in a single pass over the
+ * field value by an {@link AhoCorasick} automaton.
+ * </p>
+ * <p>
+ * A comparison is literal in case it is an equality {@link Comparison}, or a
+ * match {@link Comparison} whose regular expression is a literal string,
+ * optionally preceded and/or followed by <code>.*</code>:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * ('name'="Potter")     - value equals Potter
+ * ('name'~"Potter")     - value equals Potter
+ * ('name'~"Potter.*")   - value starts with Potter
+ * ('name'~".*Potter")   - value ends with Potter
+ * ('name'~".*Potter.*") - value contains Potter
+ * }
+ * </pre>
+ *
+ * <p>
+ * Groups are built by {@link LiteralAlternation#fuse(List)}, used by
+ * {@link Condition} when evaluating the OR operator.
+ * </p>
+ *
+ * @param <T> base class of the objects being compared.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class LiteralAlternation<T extends Map<String, String>> implements
+	IFieldEvaluatable<T> {
+
+    /**
+     * Minimal number of literal comparisons on the same field worth an
+     * automaton.
+     */
+    public static final int MIN_GROUP_SIZE = 2;
+
+    /**
+     * Literal with the kind of match required.
+     */
+    private static final class Literal {
+	/**
+	 * Literal string.
+	 */
+	private final String text;
+	/**
+	 * Whether any text may precede the literal.
+	 */
+	private final boolean anyPrefix;
+	/**
+	 * Whether any text may follow the literal.
+	 */
+	private final boolean anySuffix;
+
+	/**
+	 * Constructor.
+	 * @param text literal string
+	 * @param anyPrefix whether any text may precede the literal
+	 * @param anySuffix whether any text may follow the literal
+	 */
+	Literal(final String text, final boolean anyPrefix,
+		final boolean anySuffix) {
+	    this.text = text;
+	    this.anyPrefix = anyPrefix;
+	    this.anySuffix = anySuffix;
+	}
+    }
+
+    /**
+     * Name of the field to compare.
+     */
+    private final String field;
+    /**
+     * Comparisons joined by this group.
+     */
+    private final List<Comparison<T>> comparisons;
+    /**
+     * Literals by automaton literal index.
+     */
+    private final Literal[] literals;
+    /**
+     * Automaton over all literals.
+     */
+    private final AhoCorasick automaton;
+    /**
+     * Modification counts of the comparisons as of the construction.
+     */
+    private final int[] modifications;
+
+    /**
+     * Constructor.
+     *
+     * @param comparisons
+     *            literal comparisons on the same field
+     */
+    LiteralAlternation(final List<Comparison<T>> comparisons) {
+	this.field = comparisons.get(0).getField();
+	this.comparisons = comparisons;
+	this.literals = new Literal[comparisons.size()];
+	this.modifications = new int[comparisons.size()];
+	List<String> texts = new Vector<String>();
+	for (int i = 0; i < literals.length; i++) {
+	    modifications[i] = comparisons.get(i).getModifications();
+	    literals[i] = literal(comparisons.get(i));
+	    texts.add(literals[i].text);
+	}
+	this.automaton = new AhoCorasick(texts);
+    }
+
+    /**
+     * <p>
+     * Replace the literal comparisons on the same field by a
+     * {@link LiteralAlternation} each, in case there are at least
+     * {@link LiteralAlternation#MIN_GROUP_SIZE} of them.
+     * </p>
+     * <p>
+     * Only valid for evaluatables joined by the logical OR.
+     * </p>
+     *
+     * @param <T>
+     *            base class of the objects being compared.
+     * @param evaluatables
+     *            evaluatables joined by the logical OR
+     * @return evaluatables with the literal comparisons grouped, the same
+     *         list in case there was nothing to group
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Map<String, String>> List<IEvaluatable<T>> fuse(
+	    final List<IEvaluatable<T>> evaluatables) {
+	Map<String, List<Comparison<T>>> groups = new LinkedHashMap<String, List<Comparison<T>>>();
+	for (IEvaluatable<T> evaluatable : evaluatables) {
+	    if (evaluatable instanceof Comparison
+		    && literal((Comparison<T>) evaluatable) != null) {
+		Comparison<T> comparison = (Comparison<T>) evaluatable;
+		List<Comparison<T>> group = groups.get(comparison.getField());
+		if (group == null) {
+		    group = new Vector<Comparison<T>>();
+		    groups.put(comparison.getField(), group);
+		}
+		group.add(comparison);
+	    }
+	}
+
+	boolean fused = false;
+	for (List<Comparison<T>> group : groups.values()) {
+	    fused |= group.size() >= MIN_GROUP_SIZE;
+	}
+	if (!fused) {
+	    return evaluatables;
+	}
+
+	// the group takes the place of its first comparison
+	List<IEvaluatable<T>> result = new Vector<IEvaluatable<T>>();
+	for (IEvaluatable<T> evaluatable : evaluatables) {
+	    List<Comparison<T>> group = evaluatable instanceof Comparison
+		    ? groups.get(((Comparison<T>) evaluatable).getField())
+		    : null;
+	    if (group == null || group.size() < MIN_GROUP_SIZE
+		    || !group.contains(evaluatable)) {
+		result.add(evaluatable);
+	    } else if (group.get(0) == evaluatable) {
+		result.add(new LiteralAlternation<T>(group));
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Check whether none of the comparisons grouped by the result of
+     * {@link LiteralAlternation#fuse(List)} has been modified since.
+     *
+     * @param <T>
+     *            base class of the objects being compared.
+     * @param fused
+     *            evaluatables with the literal comparisons grouped
+     * @return whether the groups still match their comparisons
+     */
+    static <T extends Map<String, String>> boolean isCurrent(
+	    final List<IEvaluatable<T>> fused) {
+	for (IEvaluatable<T> evaluatable : fused) {
+	    if (evaluatable instanceof LiteralAlternation
+		    && !((LiteralAlternation<T>) evaluatable).isCurrent()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Check whether none of the comparisons has been modified since the
+     * group was built.
+     *
+     * @return whether the group still matches its comparisons
+     */
+    private boolean isCurrent() {
+	for (int i = 0; i < modifications.length; i++) {
+	    if (comparisons.get(i).getModifications() != modifications[i]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Extract the literal from the comparison.
+     *
+     * @param comparison
+     *            comparison
+     * @return literal or <code>null</code> in case the comparison is not a
+     *         literal one
+     */
+    private static Literal literal(final Comparison<?> comparison) {
+	String value = comparison.getValue();
+	if (comparison.getComparisonOperator()
+		== Comparison.ComparisonOperator.EQUAL) {
+	    return hasSurrogates(value) ? null : new Literal(value, false,
+		    false);
+	}
+
+	boolean anyPrefix = value.startsWith(".*");
+	int start = anyPrefix ? 2 : 0;
+	int end = value.length();
+	boolean anySuffix = end - start >= 2 && value.endsWith(".*")
+		&& !escaped(value, end - 2);
+	if (anySuffix) {
+	    end -= 2;
+	}
+
+	StringBuilder text = new StringBuilder();
+	for (int i = start; i < end; i++) {
+	    char c = value.charAt(i);
+	    if (c == '\\') {
+		if (i + 1 == end) {
+		    return null;
+		}
+		c = value.charAt(++i);
+		if (Character.isLetterOrDigit(c)) {
+		    return null; // \d, \w, back reference, ...
+		}
+	    } else if ("\\.[](){}*+?^$|".indexOf(c) != -1) {
+		return null;
+	    }
+	    if (Character.isSurrogate(c)) {
+		return null;
+	    }
+	    text.append(c);
+	}
+	return text.length() == 0 ? null : new Literal(text.toString(),
+		anyPrefix, anySuffix);
+    }
+
+    /**
+     * Check whether the character at the given position is escaped.
+     *
+     * @param value
+     *            regular expression
+     * @param index
+     *            position of the character
+     * @return whether it is preceded by an odd number of backslashes
+     */
+    private static boolean escaped(final String value, final int index) {
+	int backslashes = 0;
+	for (int i = index - 1; i >= 0 && value.charAt(i) == '\\'; i--) {
+	    backslashes++;
+	}
+	return backslashes % 2 == 1;
+    }
+
+    /**
+     * Check whether the value contains surrogate characters.
+     *
+     * @param value
+     *            value
+     * @return whether any character is a surrogate
+     */
+    private static boolean hasSurrogates(final String value) {
+	for (int i = 0; i < value.length(); i++) {
+	    if (Character.isSurrogate(value.charAt(i))) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Check whether the character is a line terminator, not matched by
+     * <code>.</code> in regular expressions.
+     *
+     * @param c
+     *            character
+     * @return whether the character is a line terminator
+     */
+    private static boolean isLineTerminator(final char c) {
+	return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+		|| c == '\u2029';
+    }
+
+    @Override
+    public final boolean evaluate(final T record) {
+	return evaluateValue(record.get(field));
+    }
+
+    @Override
+    public final boolean evaluateValue(final String value) {
+	if (value == null) {
+	    return false;
+	}
+	int length = value.length();
+	int firstTerminator = length;
+	int lastTerminator = -1;
+	// largest end of a literal matched so far, which still requires
+	// the rest of the value to be free of line terminators
+	int pendingEnd = -1;
+	int state = AhoCorasick.ROOT;
+	for (int i = 0; i < length; i++) {
+	    char c = value.charAt(i);
+	    if (isLineTerminator(c)) {
+		firstTerminator = Math.min(firstTerminator, i);
+		lastTerminator = i;
+	    }
+	    state = automaton.step(state, c);
+	    int end = i + 1;
+	    for (int index : automaton.outputs(state)) {
+		Literal literal = literals[index];
+		int start = end - automaton.length(index);
+		boolean prefixOk = literal.anyPrefix ? firstTerminator >= start
+			: start == 0;
+		if (!prefixOk) {
+		    continue;
+		} else if (!literal.anySuffix) {
+		    if (end == length) {
+			return true;
+		    }
+		} else {
+		    pendingEnd = Math.max(pendingEnd, end);
+		}
+	    }
+	}
+	return pendingEnd > lastTerminator;
+    }
+
+    @Override
+    public final String getField() {
+	return field;
+    }
+
+    /**
+     * Get comparisons joined by this group.
+     *
+     * @return comparisons
+     */
+    public final List<Comparison<T>> getComparisons() {
+	return comparisons;
+    }
+
+    @Override
+    public final String toString() {
+	StringBuffer sb = new StringBuffer();
+	sb.append("(");
+	sb.append(Condition.ConditionOperator.OR);
+	for (Comparison<T> comparison : comparisons) {
+	    sb.append(comparison.toString());
+	}
+	sb.append(")");
+	return sb.toString();
+    }
+
+}
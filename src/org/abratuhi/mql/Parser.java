@@ -2,6 +2,9 @@ package org.abratuhi.mql;
 
 import java.util.Map;
 
+import org.abratuhi.mql.metrics.MetricsRegistry;
+import org.abratuhi.mql.metrics.ParseEvent;
+
 /**
  * <p>
  * Parser class represents the advanced query parser for advanced queries as
@@ -90,19 +93,111 @@ public class Parser<T extends Map<String, String>> {
     private static final String CHAR_END_EXPR = ")";
     private static final String CHAR_START_KEY = "'";
     private static final String CHAR_START_VALUE = "\"";
+    /**
+     * Marker of the placeholder values of a prepared query, noncharacters
+     * not expected in queries.
+     */
+    private static final String PLACEHOLDER_MARKER = "\uFDD0\uFDDF";
+
+    /**
+     * Whether identical subtrees of the parsed queries are shared.
+     */
+    private boolean sharing = false;
+
+    /**
+     * Set whether identical subtrees of the parsed queries are shared, see
+     * {@link QueryDag}. Disabled by default.
+     *
+     * @param sharing
+     *            whether to share identical subtrees
+     */
+    public final void setSharing(final boolean sharing) {
+	this.sharing = sharing;
+    }
+
+    /**
+     * Get whether identical subtrees of the parsed queries are shared.
+     *
+     * @return whether identical subtrees are shared
+     */
+    public final boolean isSharing() {
+	return sharing;
+    }
 
     /**
      * @param query
      *            - advanced query as entered by the user
      * @return construction that can be evaluated,
      *         returning true/false depending on whether the particular record
-     *         matches the given query.
+     *         matches the given query, a {@link QueryDag} in case sharing
+     *         is enabled.
+     *         Parsing is recorded as a {@link ParseEvent} and in the default
+     *         {@link MetricsRegistry}, if enabled.
      * @throws ParseException
      *             - in case the advanced query could not be parsed
      */
     public final IEvaluatable<T> parse(final String query)
 	    throws ParseException {
-	return parseCondition(query.trim());
+	ParseEvent event = new ParseEvent();
+	event.begin();
+	MetricsRegistry metrics = MetricsRegistry.getDefault();
+	boolean metered = metrics.isEnabled();
+	long start = metered ? System.nanoTime() : 0;
+	boolean success = false;
+	try {
+	    IEvaluatable<T> result = parseCondition(query.trim());
+	    success = true;
+	    return sharing ? QueryDag.share(result) : result;
+	} finally {
+	    if (event.shouldCommit()) {
+		event.setQuery(query);
+		event.setSuccess(success);
+		event.commit();
+	    }
+	    if (metered) {
+		metrics.recordParse(System.nanoTime() - start, success);
+	    }
+	}
+    }
+
+    /**
+     * Parse a query with placeholders - an unquoted <code>?</code> - instead
+     * of comparison values, e.g. <code>(AND('name'~?)('address'=?))</code>.
+     * Identical subtrees of a prepared query are not shared.
+     *
+     * @param query
+     *            - advanced query with placeholders
+     * @return prepared query to bind the values of the placeholders to
+     * @throws ParseException
+     *             - in case the advanced query could not be parsed
+     */
+    public final PreparedQuery<T> prepare(final String query)
+	    throws ParseException {
+	StringBuffer sb = new StringBuffer(query.length());
+	int count = 0;
+	boolean inName = false;
+	boolean inValue = false;
+	boolean inEscape = false;
+	for (int i = 0; i < query.length(); i++) {
+	    char current = query.charAt(i);
+	    if (inEscape) {
+		inEscape = false;
+	    } else if (current == '\\') {
+		inEscape = true;
+	    } else if (current == '\'' && !inValue) {
+		inName = !inName;
+	    } else if (current == '"' && !inName) {
+		inValue = !inValue;
+	    } else if (current == '?' && !inName && !inValue && i > 0
+		    && (query.charAt(i - 1) == '=' || query.charAt(i - 1) == '~')) {
+		sb.append(CHAR_START_VALUE).append(PLACEHOLDER_MARKER)
+			.append(count++).append(CHAR_START_VALUE);
+		continue;
+	    }
+	    sb.append(current);
+	}
+	return new PreparedQuery<T>(parseCondition(sb.toString().trim()), count,
+		PLACEHOLDER_MARKER);
     }
 
     /**
@@ -310,14 +405,7 @@ public class Parser<T extends Map<String, String>> {
 
 	// find the index of the closing single quote. Beware of the escaped
 	// single quotes - '\''
-	int closingSingleQuoteIndex = -1;
-	for (int i = 0; i < query1.length(); i++) {
-	    if (query1.charAt(i) == '\'' && i > 0
-		    && query1.charAt(i - 1) != '\\') {
-		closingSingleQuoteIndex = i;
-		break;
-	    }
-	}
+	int closingSingleQuoteIndex = indexOfUnescaped(query1, '\'');
 
 	// throw {@link ParseException} in case we haven't found the closing
 	// single quote.
@@ -328,8 +416,7 @@ public class Parser<T extends Map<String, String>> {
 
 	// extract the field name
 	String field = query1.substring(0, closingSingleQuoteIndex);
-	field = field.replaceAll("\\\\\\\\", "\\\\");
-	field = field.replaceAll("\\\\'", "'");
+	field = unescape(field);
 	comparison.setField(field);
 
 	// field name may not be empty !
@@ -356,14 +443,7 @@ public class Parser<T extends Map<String, String>> {
 		    ERROR_COMPARISON_VALUE_MUST_BE_DOUBLE_QUOTED);
 	}
 
-	int closingDoubleQuoteIndex = -1;
-	for (int i = 0; i < query3.length(); i++) {
-	    if (query3.charAt(i) == '\"' && i > 0
-		    && query3.charAt(i - 1) != '\\') {
-		closingDoubleQuoteIndex = i;
-		break;
-	    }
-	}
+	int closingDoubleQuoteIndex = indexOfUnescaped(query3, '"');
 
 	if (closingDoubleQuoteIndex == -1
 		|| closingDoubleQuoteIndex != query3.length() - 1) {
@@ -372,8 +452,7 @@ public class Parser<T extends Map<String, String>> {
 	}
 
 	String value = query3.substring(1, query3.length() - 1);
-	value = value.replaceAll("\\\\\\\\", "\\\\");
-	value = value.replaceAll("\\\\\"", "\"");
+	value = unescape(value);
 	comparison.setValue(value);
 
 	// once again, don't allow for null/empty values!
@@ -385,4 +464,55 @@ public class Parser<T extends Map<String, String>> {
 	return comparison;
     }
 
+    /**
+     * Find the first occurrence of a character not escaped by a backslash,
+     * ignoring the first character of the substring.
+     *
+     * @param query
+     *            - advanced query substring
+     * @param c
+     *            - character to find
+     * @return index of the character or -1 if not found
+     */
+    private static int indexOfUnescaped(final String query, final char c) {
+	for (int i = 0; i < query.length(); i++) {
+	    char current = query.charAt(i);
+	    if (current == '\\') {
+		i++; // skip the escaped character
+	    } else if (current == c && i > 0) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Unescape \\, \' and \" of a field name or value, a backslash followed
+     * by any other character - e.g. within a regular expression - is kept.
+     *
+     * @param text
+     *            - escaped field name or value
+     * @return unescaped field name or value
+     * @see Comparison#escape(String)
+     */
+    private static String unescape(final String text) {
+	if (text.indexOf('\\') == -1) {
+	    return text;
+	}
+	StringBuffer sb = new StringBuffer(text.length());
+	for (int i = 0; i < text.length(); i++) {
+	    char current = text.charAt(i);
+	    if (current == '\\' && i + 1 < text.length()) {
+		char next = text.charAt(i + 1);
+		if (next == '\\' || next == '\'' || next == '"') {
+		    sb.append(next);
+		    i++;
+		    continue;
+		}
+	    }
+	    sb.append(current);
+	}
+	return sb.toString();
+    }
+
 }
@@ -0,0 +1,315 @@
+package org.abratuhi.mql;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <p>
+ * PreparedQuery class represents a query parsed once with placeholders -
+ * <code>?</code> - instead of the values of some comparisons, see
+ * {@link Parser#prepare(String)}. Binding values to the placeholders creates
+ * an executable query without parsing the query again.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * PreparedQuery<Record> prepared = parser
+ * 	.prepare("(AND('name'~?)('address'=?))");
+ * IEvaluatable<Record> query = prepared.bind("Pot.*", "London");
+ * }
+ * </pre>
+ *
+ * <p>
+ * Bound values are taken as they are - no escaping of quotes or
+ * backslashes; {@link Comparison#toString()} escapes them, so the text of a
+ * bound query is parsed back to the same query. The bound query is a tree of
+ * {@link Condition}s and {@link Comparison}s sharing the subtrees without
+ * placeholders with the template: only the conditions on the paths from the root to the
+ * placeholders are created anew, so binding takes time proportional to the
+ * number of placeholders rather than to the size of the query. Within an OR
+ * condition containing placeholders, the literal comparisons without
+ * placeholders are grouped into {@link LiteralAlternation}s once, when
+ * preparing, and the groups are shared by the bound queries; only the bound
+ * comparisons are grouped on each binding.
+ * </p>
+ * <p>
+ * The bound comparisons of the last
+ * {@link PreparedQuery#CACHED_VALUES_PER_PLACEHOLDER} distinct values of
+ * each placeholder are kept and reused, so the regular expression of a
+ * placeholder value is compiled once rather than once per binding. Prepared
+ * queries may be bound by several threads concurrently.
+ * </p>
+ *
+ * @param <T> base class of the objects being evaluated.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class PreparedQuery<T extends Map<String, String>> {
+
+    /**
+     * Number of bound comparisons kept per placeholder.
+     */
+    public static final int CACHED_VALUES_PER_PLACEHOLDER = 64;
+
+    /**
+     * Parsed query, with the placeholder comparisons holding a marker value.
+     */
+    private final IEvaluatable<T> template;
+    /**
+     * Placeholder comparisons of the template and their index.
+     */
+    private final Map<IEvaluatable<T>, Integer> placeholders = new IdentityHashMap<IEvaluatable<T>, Integer>();
+    /**
+     * Conditions of the template containing placeholders.
+     */
+    private final Map<IEvaluatable<T>, Boolean> parameterized = new IdentityHashMap<IEvaluatable<T>, Boolean>();
+    /**
+     * Children without placeholders of the OR conditions of the template
+     * containing placeholders, with the literal comparisons grouped.
+     */
+    private final Map<IEvaluatable<T>, List<IEvaluatable<T>>> fused = new IdentityHashMap<IEvaluatable<T>, List<IEvaluatable<T>>>();
+    /**
+     * Placeholder comparisons by index.
+     */
+    private final List<Comparison<T>> comparisons;
+    /**
+     * Bound comparisons by value, by placeholder index.
+     */
+    private final List<Map<String, Comparison<T>>> cache;
+
+    /**
+     * Constructor, use {@link Parser#prepare(String)}.
+     *
+     * @param template
+     *            parsed query
+     * @param count
+     *            number of placeholders
+     * @param marker
+     *            value of a placeholder comparison is the marker followed by
+     *            the index of the placeholder
+     * @throws ParseException
+     *             in case a placeholder has not been parsed as a comparison
+     *             value
+     */
+    PreparedQuery(final IEvaluatable<T> template, final int count,
+	    final String marker) throws ParseException {
+	this.template = template;
+	Vector<Comparison<T>> placeholderComparisons = new Vector<Comparison<T>>(
+		count);
+	placeholderComparisons.setSize(count);
+	this.comparisons = placeholderComparisons;
+	this.cache = new Vector<Map<String, Comparison<T>>>(count);
+	collect(template, marker);
+	for (int i = 0; i < count; i++) {
+	    if (comparisons.get(i) == null) {
+		throw new ParseException("Placeholder " + (i + 1)
+			+ " is not the value of a comparison");
+	    }
+	    cache.add(new LinkedHashMap<String, Comparison<T>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+			final Map.Entry<String, Comparison<T>> eldest) {
+		    return size() > CACHED_VALUES_PER_PLACEHOLDER;
+		}
+	    });
+	}
+    }
+
+    /**
+     * Find the placeholder comparisons and the conditions containing them.
+     *
+     * @param evaluatable
+     *            node of the template
+     * @param marker
+     *            marker of the placeholder values
+     * @return whether the node contains placeholders
+     * @throws ParseException
+     *             in case a comparison value starts with the marker without
+     *             being a placeholder
+     */
+    private boolean collect(final IEvaluatable<T> evaluatable,
+	    final String marker) throws ParseException {
+	if (evaluatable instanceof Comparison) {
+	    Comparison<T> comparison = (Comparison<T>) evaluatable;
+	    String value = comparison.getValue();
+	    if (value.startsWith(marker)) {
+		int index = index(value.substring(marker.length()));
+		if (index == -1 || comparisons.get(index) != null) {
+		    throw new ParseException("Illegal comparison value "
+			    + value);
+		}
+		comparisons.set(index, comparison);
+		placeholders.put(comparison, index);
+		return true;
+	    }
+	} else if (evaluatable instanceof Condition) {
+	    Condition<T> condition = (Condition<T>) evaluatable;
+	    boolean found = false;
+	    List<IEvaluatable<T>> fixed = new Vector<IEvaluatable<T>>();
+	    for (IEvaluatable<T> child : condition.getConditions()) {
+		if (collect(child, marker)) {
+		    found = true;
+		} else {
+		    fixed.add(child);
+		}
+	    }
+	    if (found) {
+		parameterized.put(evaluatable, Boolean.TRUE);
+		if (condition.getConditionOperator()
+			== Condition.ConditionOperator.OR) {
+		    fused.put(evaluatable, LiteralAlternation.fuse(fixed));
+		}
+	    }
+	    return found;
+	}
+	return false;
+    }
+
+    /**
+     * Parse the index of a placeholder following the marker.
+     *
+     * @param suffix
+     *            value following the marker
+     * @return index or <code>-1</code> in case the suffix is not the index
+     *         of a placeholder
+     */
+    private int index(final String suffix) {
+	if (suffix.length() == 0 || suffix.length() > 9) {
+	    return -1;
+	}
+	for (int i = 0; i < suffix.length(); i++) {
+	    if (suffix.charAt(i) < '0' || suffix.charAt(i) > '9') {
+		return -1;
+	    }
+	}
+	int index = Integer.parseInt(suffix);
+	return index < comparisons.size() ? index : -1;
+    }
+
+    /**
+     * Get number of placeholders.
+     *
+     * @return number of placeholders
+     */
+    public final int getParameterCount() {
+	return comparisons.size();
+    }
+
+    /**
+     * Bind values to the placeholders.
+     *
+     * @param values
+     *            values of the placeholders, in the order of the
+     *            placeholders in the query
+     * @return executable query
+     * @throws ParseException
+     *             in case the number of values doesn't match the number of
+     *             placeholders or a value is empty
+     */
+    public final IEvaluatable<T> bind(final String... values)
+	    throws ParseException {
+	if (values.length != comparisons.size()) {
+	    throw new ParseException("Expected " + comparisons.size()
+		    + " values, got " + values.length);
+	}
+	List<Comparison<T>> bound = new Vector<Comparison<T>>(values.length);
+	for (int i = 0; i < values.length; i++) {
+	    if (values[i] == null || values[i].length() == 0) {
+		throw new ParseException(Parser.ERROR_FIELD_VALUE_MUST_NOT_BE_EMPTY);
+	    }
+	    bound.add(comparison(i, values[i]));
+	}
+	return bind(template, bound);
+    }
+
+    /**
+     * Get the bound comparison of a placeholder.
+     *
+     * @param index
+     *            index of the placeholder
+     * @param value
+     *            value
+     * @return comparison
+     */
+    private Comparison<T> comparison(final int index, final String value) {
+	Map<String, Comparison<T>> values = cache.get(index);
+	synchronized (values) {
+	    Comparison<T> comparison = values.get(value);
+	    if (comparison == null) {
+		Comparison<T> placeholder = comparisons.get(index);
+		comparison = new Comparison<T>();
+		comparison.setField(placeholder.getField());
+		try {
+		    comparison.setOperator(placeholder.getOperator());
+		} catch (ParseException e) {
+		    // operator has been parsed before
+		    throw new IllegalStateException(e);
+		}
+		comparison.setValue(value);
+		values.put(value, comparison);
+	    }
+	    return comparison;
+	}
+    }
+
+    /**
+     * Copy the path from a node of the template to the placeholders.
+     *
+     * @param evaluatable
+     *            node of the template
+     * @param bound
+     *            bound comparisons by placeholder index
+     * @return node of the bound query
+     */
+    private IEvaluatable<T> bind(final IEvaluatable<T> evaluatable,
+	    final List<Comparison<T>> bound) {
+	Integer index = placeholders.get(evaluatable);
+	if (index != null) {
+	    return bound.get(index);
+	} else if (!parameterized.containsKey(evaluatable)) {
+	    return evaluatable;
+	}
+	Condition<T> original = (Condition<T>) evaluatable;
+	Condition<T> condition = new Condition<T>();
+	try {
+	    condition.setOperator(original.getOperator());
+	} catch (ParseException e) {
+	    // operator has been parsed before
+	    throw new IllegalStateException(e);
+	}
+	List<IEvaluatable<T>> children = original.getConditions();
+	List<IEvaluatable<T>> created = new Vector<IEvaluatable<T>>();
+	for (int i = 0; i < children.size(); i++) {
+	    IEvaluatable<T> child = bind(children.get(i), bound);
+	    if (child != children.get(i)) {
+		created.add(child);
+	    }
+	    condition.addCondition(child);
+	}
+	List<IEvaluatable<T>> fixed = fused.get(original);
+	if (fixed != null) {
+	    List<IEvaluatable<T>> plan = new Vector<IEvaluatable<T>>(fixed);
+	    plan.addAll(LiteralAlternation.fuse(created));
+	    condition.setAlternatives(plan);
+	}
+	return condition;
+    }
+
+    @Override
+    public final String toString() {
+	StringBuffer sb = new StringBuffer(template.toString());
+	for (Comparison<T> comparison : comparisons) {
+	    String value = "\"" + comparison.getValue() + "\"";
+	    int i = sb.indexOf(value);
+	    sb.replace(i, i + value.length(), "?");
+	}
+	return sb.toString();
+    }
+
+}
@@ -0,0 +1,405 @@
+package org.abratuhi.mql;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <p>
+ * QueryDag class represents a parsed query with identical subtrees shared: a
+ * directed acyclic graph instead of a tree. Comparisons with the same field,
+ * operator and value and conditions with the same operator and the same
+ * underlying conditions and comparisons are built once.
+ * </p>
+ * <p>
+ * Each shared node worth remembering - any {@link Condition} and any
+ * {@link Comparison} but an equality one, which is as cheap to evaluate as to
+ * look up - is wrapped into a {@link Memo}. While one record is evaluated,
+ * a memo evaluates its node at most once; later references reuse the result
+ * stored in a slot of the evaluating thread. Slots are invalidated by
+ * stamping them with the number of the evaluation, so starting the
+ * evaluation of the next record doesn't clear anything.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * IEvaluatable<Record> query = QueryDag.share(parser.parse(text));
+ * // or
+ * parser.setSharing(true);
+ * IEvaluatable<Record> query = parser.parse(text);
+ * }
+ * </pre>
+ *
+ * <p>
+ * The canonical text of the query - {@link QueryDag#toString()} - is the one
+ * of the original tree.
+ * </p>
+ *
+ * @param <T> base class of the objects being evaluated.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class QueryDag<T extends Map<String, String>> implements
+	IEvaluatable<T> {
+
+    /**
+     * Memo slots of a thread.
+     */
+    private static final class Frame {
+	/**
+	 * Number of the evaluation in progress, <code>0</code> outside of an
+	 * evaluation.
+	 */
+	private int epoch = 0;
+	/**
+	 * Number of the last evaluation started.
+	 */
+	private int counter = 0;
+	/**
+	 * Number of the evaluation which stored the result, by memo.
+	 */
+	private final int[] stamps;
+	/**
+	 * Stored results, by memo.
+	 */
+	private final boolean[] results;
+
+	/**
+	 * Constructor.
+	 * @param size number of memos
+	 */
+	Frame(final int size) {
+	    stamps = new int[size];
+	    results = new boolean[size];
+	}
+    }
+
+    /**
+     * <p>
+     * Shared node of a {@link QueryDag}, evaluated at most once per record.
+     * Outside of the evaluation of its {@link QueryDag} the node is
+     * evaluated every time.
+     * </p>
+     *
+     * @param <T> base class of the objects being evaluated.
+     */
+    public static final class Memo<T extends Map<String, String>> implements
+	    IEvaluatable<T> {
+	/**
+	 * Graph the node is shared in.
+	 */
+	private final QueryDag<T> dag;
+	/**
+	 * Index of the memo slot.
+	 */
+	private final int slot;
+	/**
+	 * Shared node.
+	 */
+	private final IEvaluatable<T> evaluatable;
+
+	/**
+	 * Constructor.
+	 * @param dag graph the node is shared in
+	 * @param slot index of the memo slot
+	 * @param evaluatable shared node
+	 */
+	private Memo(final QueryDag<T> dag, final int slot,
+		final IEvaluatable<T> evaluatable) {
+	    this.dag = dag;
+	    this.slot = slot;
+	    this.evaluatable = evaluatable;
+	}
+
+	@Override
+	public boolean evaluate(final T record) {
+	    Frame frame = dag.frames.get();
+	    if (frame.epoch == 0) {
+		return evaluatable.evaluate(record);
+	    } else if (frame.stamps[slot] == frame.epoch) {
+		return frame.results[slot];
+	    }
+	    boolean result = evaluatable.evaluate(record);
+	    frame.stamps[slot] = frame.epoch;
+	    frame.results[slot] = result;
+	    return result;
+	}
+
+	/**
+	 * Get the shared node.
+	 *
+	 * @return condition or comparison
+	 */
+	public IEvaluatable<T> getEvaluatable() {
+	    return evaluatable;
+	}
+
+	@Override
+	public String toString() {
+	    return evaluatable.toString();
+	}
+    }
+
+    /**
+     * Root of the graph.
+     */
+    private IEvaluatable<T> root;
+    /**
+     * Number of distinct nodes.
+     */
+    private int nodeCount;
+    /**
+     * Number of memos.
+     */
+    private int memoCount = 0;
+    /**
+     * Memo slots by thread.
+     */
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>() {
+	@Override
+	protected Frame initialValue() {
+	    return new Frame(memoCount);
+	}
+    };
+
+    /**
+     * Constructor, use {@link QueryDag#share(IEvaluatable)}.
+     */
+    private QueryDag() {
+    }
+
+    /**
+     * Share the identical subtrees of the query.
+     *
+     * @param <T>
+     *            base class of the objects being evaluated.
+     * @param query
+     *            parsed query
+     * @return query with the identical subtrees shared
+     */
+    public static <T extends Map<String, String>> QueryDag<T> share(
+	    final IEvaluatable<T> query) {
+	QueryDag<T> dag = new QueryDag<T>();
+	Builder<T> builder = new Builder<T>(dag);
+	dag.root = builder.build(builder.intern(query));
+	dag.nodeCount = builder.nodes.size();
+	return dag;
+    }
+
+    /**
+     * <p>
+     * Builder of the graph: first interns every node of the tree by its key,
+     * counting the references to each distinct node, then builds the
+     * distinct nodes.
+     * </p>
+     *
+     * @param <T> base class of the objects being evaluated.
+     */
+    private static final class Builder<T extends Map<String, String>> {
+	/**
+	 * Graph being built.
+	 */
+	private final QueryDag<T> dag;
+	/**
+	 * Node index by key.
+	 */
+	private final Map<String, Integer> keys = new HashMap<String, Integer>();
+	/**
+	 * Node index of the nodes which can't be compared by a key.
+	 */
+	private final Map<IEvaluatable<T>, Integer> opaque = new IdentityHashMap<IEvaluatable<T>, Integer>();
+	/**
+	 * First occurrence of each node.
+	 */
+	private final List<IEvaluatable<T>> nodes = new Vector<IEvaluatable<T>>();
+	/**
+	 * Underlying node indexes of the conditions, by node index.
+	 */
+	private final List<int[]> children = new Vector<int[]>();
+	/**
+	 * Number of references, by node index.
+	 */
+	private int[] references = new int[16];
+	/**
+	 * Built node, by node index.
+	 */
+	private final Map<Integer, IEvaluatable<T>> built = new HashMap<Integer, IEvaluatable<T>>();
+
+	/**
+	 * Constructor.
+	 * @param dag graph being built
+	 */
+	Builder(final QueryDag<T> dag) {
+	    this.dag = dag;
+	}
+
+	/**
+	 * Intern the node and its underlying nodes.
+	 *
+	 * @param evaluatable
+	 *            node of the tree
+	 * @return node index
+	 */
+	int intern(final IEvaluatable<T> evaluatable) {
+	    String key;
+	    int[] underlying = null;
+	    if (evaluatable instanceof Comparison) {
+		Comparison<T> comparison = (Comparison<T>) evaluatable;
+		key = "C" + comparison.getField().length() + ":"
+			+ comparison.getField() + comparison.getOperator()
+			+ comparison.getValue();
+	    } else if (evaluatable instanceof Condition) {
+		Condition<T> condition = (Condition<T>) evaluatable;
+		List<IEvaluatable<T>> conditions = condition.getConditions();
+		underlying = new int[conditions.size()];
+		StringBuilder sb = new StringBuilder("N").append(
+			condition.getOperator());
+		for (int i = 0; i < underlying.length; i++) {
+		    underlying[i] = intern(conditions.get(i));
+		    sb.append(':').append(underlying[i]);
+		}
+		key = sb.toString();
+	    } else {
+		Integer index = opaque.get(evaluatable);
+		if (index == null) {
+		    index = add(evaluatable, null);
+		    opaque.put(evaluatable, index);
+		}
+		references[index]++;
+		return index;
+	    }
+
+	    Integer index = keys.get(key);
+	    if (index == null) {
+		index = add(evaluatable, underlying);
+		keys.put(key, index);
+	    }
+	    references[index]++;
+	    return index;
+	}
+
+	/**
+	 * Add a distinct node.
+	 *
+	 * @param evaluatable
+	 *            first occurrence
+	 * @param underlying
+	 *            underlying node indexes of a condition
+	 * @return node index
+	 */
+	private int add(final IEvaluatable<T> evaluatable,
+		final int[] underlying) {
+	    int index = nodes.size();
+	    nodes.add(evaluatable);
+	    children.add(underlying);
+	    if (index == references.length) {
+		references = Arrays.copyOf(references, index * 2);
+	    }
+	    return index;
+	}
+
+	/**
+	 * Build the distinct node and its underlying nodes.
+	 *
+	 * @param index
+	 *            node index
+	 * @return node of the graph
+	 */
+	IEvaluatable<T> build(final int index) {
+	    IEvaluatable<T> result = built.get(index);
+	    if (result != null) {
+		return result;
+	    }
+	    IEvaluatable<T> original = nodes.get(index);
+	    if (original instanceof Condition) {
+		Condition<T> condition = new Condition<T>();
+		try {
+		    condition.setOperator(((Condition<T>) original)
+			    .getOperator());
+		} catch (ParseException e) {
+		    // operator has been parsed before
+		    throw new IllegalStateException(e);
+		}
+		for (int child : children.get(index)) {
+		    condition.addCondition(build(child));
+		}
+		result = condition;
+	    } else {
+		result = original;
+	    }
+	    if (references[index] > 1 && worthRemembering(original)) {
+		result = new Memo<T>(dag, dag.memoCount++, result);
+	    }
+	    built.put(index, result);
+	    return result;
+	}
+
+	/**
+	 * Check whether remembering the result of a shared node saves time.
+	 *
+	 * @param evaluatable
+	 *            node
+	 * @return whether to wrap the node into a memo
+	 */
+	private static boolean worthRemembering(final IEvaluatable<?> evaluatable) {
+	    if (evaluatable instanceof Comparison) {
+		return ((Comparison<?>) evaluatable).getComparisonOperator()
+			!= Comparison.ComparisonOperator.EQUAL;
+	    }
+	    return evaluatable instanceof Condition;
+	}
+    }
+
+    @Override
+    public boolean evaluate(final T record) {
+	Frame frame = frames.get();
+	int outer = frame.epoch;
+	if (outer == 0 && frame.counter == Integer.MAX_VALUE) {
+	    Arrays.fill(frame.stamps, 0);
+	    frame.counter = 0;
+	}
+	frame.epoch = ++frame.counter;
+	try {
+	    return root.evaluate(record);
+	} finally {
+	    frame.epoch = outer;
+	}
+    }
+
+    /**
+     * Get the root of the graph.
+     *
+     * @return root node
+     */
+    public IEvaluatable<T> getRoot() {
+	return root;
+    }
+
+    /**
+     * Get number of distinct nodes.
+     *
+     * @return number of nodes
+     */
+    public int getNodeCount() {
+	return nodeCount;
+    }
+
+    /**
+     * Get number of shared nodes remembered per record.
+     *
+     * @return number of memos
+     */
+    public int getMemoCount() {
+	return memoCount;
+    }
+
+    @Override
+    public String toString() {
+	return root.toString();
+    }
+
+}
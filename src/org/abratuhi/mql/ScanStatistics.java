@@ -0,0 +1,92 @@
+package org.abratuhi.mql;
+
+/**
+ * <p>
+ * Statistics of a (possibly aborted) query execution.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class ScanStatistics {
+
+    /**
+     * Number of records evaluated.
+     */
+    private final long scanned;
+    /**
+     * Number of records matching the query.
+     */
+    private final long matched;
+    /**
+     * Number of regular expression steps.
+     */
+    private final long steps;
+    /**
+     * Elapsed time in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param scanned
+     *            number of records evaluated
+     * @param matched
+     *            number of records matching the query
+     * @param steps
+     *            number of regular expression steps
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds
+     */
+    public ScanStatistics(final long scanned, final long matched,
+	    final long steps, final long elapsedNanos) {
+	this.scanned = scanned;
+	this.matched = matched;
+	this.steps = steps;
+	this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get number of records evaluated.
+     *
+     * @return number of records
+     */
+    public final long getScanned() {
+	return scanned;
+    }
+
+    /**
+     * Get number of records matching the query.
+     *
+     * @return number of records
+     */
+    public final long getMatched() {
+	return matched;
+    }
+
+    /**
+     * Get number of regular expression steps.
+     *
+     * @return number of steps
+     */
+    public final long getSteps() {
+	return steps;
+    }
+
+    /**
+     * Get elapsed time.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    public final long getElapsedNanos() {
+	return elapsedNanos;
+    }
+
+    @Override
+    public final String toString() {
+	return String.format("scanned=%d, matched=%d, steps=%d, elapsed=%dms",
+		scanned, matched, steps, elapsedNanos / 1000000);
+    }
+
+}
@@ -0,0 +1,254 @@
+package org.abratuhi.mql.bean;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+
+/**
+ * <p>
+ * Accessor of a field of a class, bound once to a {@link MethodHandle}.
+ * </p>
+ * <p>
+ * A field is looked up as, in this order, a record component, a public
+ * <code>getX()</code> or <code>isX()</code> method and a field declared by
+ * the class or one of its superclasses.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class Accessor {
+
+    /**
+     * Name of the field.
+     */
+    private final String name;
+    /**
+     * Type of the field.
+     */
+    private final Class<?> type;
+    /**
+     * Handle of type <code>(Object)Object</code>, boxing primitive values.
+     */
+    private final MethodHandle object;
+    /**
+     * Handle of type <code>(Object)long</code> for fields of the integral
+     * primitive types, <code>null</code> otherwise.
+     */
+    private final MethodHandle integral;
+    /**
+     * Handle of type <code>(Object)double</code> for fields of type
+     * <code>double</code>, <code>null</code> otherwise.
+     */
+    private final MethodHandle floating;
+    /**
+     * Handle of type <code>(Object)boolean</code> for fields of type
+     * <code>boolean</code>, <code>null</code> otherwise.
+     */
+    private final MethodHandle bool;
+
+    /**
+     * Constructor.
+     * @param name name of the field
+     * @param handle handle reading the field
+     */
+    private Accessor(final String name, final MethodHandle handle) {
+	this.name = name;
+	this.type = handle.type().returnType();
+	this.object = handle.asType(MethodType.methodType(Object.class,
+		Object.class));
+	this.integral = type == long.class || type == int.class
+		|| type == short.class || type == byte.class ? handle
+		.asType(MethodType.methodType(long.class, Object.class)) : null;
+	this.floating = type == double.class ? handle.asType(MethodType
+		.methodType(double.class, Object.class)) : null;
+	this.bool = type == boolean.class ? handle.asType(MethodType
+		.methodType(boolean.class, Object.class)) : null;
+    }
+
+    /**
+     * Look up the accessor of a field.
+     *
+     * @param type
+     *            class declaring the field
+     * @param name
+     *            name of the field
+     * @return accessor or <code>null</code> in case the class has no such
+     *         field
+     * @throws IllegalAccessException
+     *             in case the field is not accessible
+     */
+    static Accessor resolve(final Class<?> type, final String name)
+	    throws IllegalAccessException {
+	MethodHandles.Lookup lookup = MethodHandles.lookup();
+	if (type.isRecord()) {
+	    for (RecordComponent component : type.getRecordComponents()) {
+		if (component.getName().equals(name)) {
+		    return new Accessor(name, privateLookup(type, lookup)
+			    .unreflect(component.getAccessor()));
+		}
+	    }
+	}
+
+	Method getter = getter(type, name);
+	if (getter != null) {
+	    return new Accessor(name, privateLookup(type, lookup).unreflect(
+		    getter));
+	}
+
+	for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+	    for (Field field : c.getDeclaredFields()) {
+		if (field.getName().equals(name)
+			&& !Modifier.isStatic(field.getModifiers())) {
+		    return new Accessor(name, privateLookup(c, lookup)
+			    .unreflectGetter(field));
+		}
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Find the public getter of a field.
+     *
+     * @param type
+     *            class declaring the getter
+     * @param name
+     *            name of the field
+     * @return <code>getX()</code> method, <code>isX()</code> method
+     *         returning <code>boolean</code> or <code>null</code>
+     */
+    private static Method getter(final Class<?> type, final String name) {
+	if (name.isEmpty()) {
+	    return null;
+	}
+	String suffix = Character.toUpperCase(name.charAt(0))
+		+ name.substring(1);
+	for (Method method : type.getMethods()) {
+	    if (method.getParameterCount() == 0
+		    && !Modifier.isStatic(method.getModifiers())
+		    && method.getReturnType() != void.class
+		    && (method.getName().equals("get" + suffix) || method
+			    .getName().equals("is" + suffix)
+			    && method.getReturnType() == boolean.class)) {
+		return method;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Get a lookup with private access to the class.
+     *
+     * @param type
+     *            class
+     * @param lookup
+     *            lookup of this package
+     * @return lookup
+     * @throws IllegalAccessException
+     *             in case the module of the class is not open to this one
+     */
+    private static MethodHandles.Lookup privateLookup(final Class<?> type,
+	    final MethodHandles.Lookup lookup) throws IllegalAccessException {
+	return MethodHandles.privateLookupIn(type, lookup);
+    }
+
+    /**
+     * Get name of the field.
+     *
+     * @return name
+     */
+    String getName() {
+	return name;
+    }
+
+    /**
+     * Get type of the field.
+     *
+     * @return type
+     */
+    Class<?> getType() {
+	return type;
+    }
+
+    /**
+     * Read the field as an object, boxing primitive values.
+     *
+     * @param bean
+     *            object to read from
+     * @return value of the field
+     */
+    Object get(final Object bean) {
+	try {
+	    return (Object) object.invokeExact(bean);
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Error e) {
+	    throw e;
+	} catch (Throwable e) {
+	    throw new IllegalStateException("Could not read field " + name, e);
+	}
+    }
+
+    /**
+     * Read a field of an integral primitive type.
+     *
+     * @param bean
+     *            object to read from
+     * @return value of the field
+     */
+    long getLong(final Object bean) {
+	try {
+	    return (long) integral.invokeExact(bean);
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Error e) {
+	    throw e;
+	} catch (Throwable e) {
+	    throw new IllegalStateException("Could not read field " + name, e);
+	}
+    }
+
+    /**
+     * Read a field of type <code>double</code>.
+     *
+     * @param bean
+     *            object to read from
+     * @return value of the field
+     */
+    double getDouble(final Object bean) {
+	try {
+	    return (double) floating.invokeExact(bean);
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Error e) {
+	    throw e;
+	} catch (Throwable e) {
+	    throw new IllegalStateException("Could not read field " + name, e);
+	}
+    }
+
+    /**
+     * Read a field of type <code>boolean</code>.
+     *
+     * @param bean
+     *            object to read from
+     * @return value of the field
+     */
+    boolean getBoolean(final Object bean) {
+	try {
+	    return (boolean) bool.invokeExact(bean);
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Error e) {
+	    throw e;
+	} catch (Throwable e) {
+	    throw new IllegalStateException("Could not read field " + name, e);
+	}
+    }
+
+}
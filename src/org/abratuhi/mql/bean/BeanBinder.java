@@ -0,0 +1,326 @@
+package org.abratuhi.mql.bean;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.QueryDag;
+import org.abratuhi.mql.True;
+import org.abratuhi.mql.regex.Regex;
+
+/**
+ * <p>
+ * BeanBinder class binds parsed queries to a class of plain objects or
+ * records, so that the queries are evaluated on the objects directly instead
+ * of on maps copied from them.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * BeanBinder<Student> binder = new BeanBinder<Student>(Student.class);
+ * IEvaluatable<Student> query = binder.bind(parser.parse(text));
+ * for (Student student : students) {
+ *     if (query.evaluate(student)) {
+ *         ...
+ *     }
+ * }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Field names of the comparisons are bound once per binder to
+ * {@link java.lang.invoke.MethodHandle}s reading record components, getters
+ * or fields, see {@link Accessor}. Values of fields of the primitive types
+ * <code>long</code>, <code>int</code>, <code>short</code>,
+ * <code>byte</code>, <code>double</code> and <code>boolean</code>, and of enum
+ * fields, are compared with the constant of an equality comparison converted
+ * once at bind time. The result is the same as comparing
+ * {@link String#valueOf(Object)} of the value, which is used for the other
+ * types and for regular expressions; <code>null</code> values match no
+ * comparison, like missing map entries.
+ * </p>
+ *
+ * @param <B> class of the objects being evaluated.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class BeanBinder<B> {
+
+    /**
+     * Bound class.
+     */
+    private final Class<B> type;
+    /**
+     * Accessors by field name.
+     */
+    private final Map<String, Accessor> accessors = new HashMap<String, Accessor>();
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            class of the objects being evaluated
+     */
+    public BeanBinder(final Class<B> type) {
+	this.type = type;
+    }
+
+    /**
+     * Get the bound class.
+     *
+     * @return class of the objects being evaluated
+     */
+    public final Class<B> getType() {
+	return type;
+    }
+
+    /**
+     * Bind a parsed query to the class.
+     *
+     * @param query
+     *            parsed query
+     * @return query evaluated on the objects of the class
+     * @throws ParseException
+     *             in case the class has no field named by a comparison or
+     *             the query contains an unsupported {@link IEvaluatable}
+     */
+    @SuppressWarnings("unchecked")
+    public final IEvaluatable<B> bind(
+	    final IEvaluatable<? extends Map<String, String>> query)
+	    throws ParseException {
+	if (query instanceof Condition) {
+	    return bindCondition((Condition<Map<String, String>>) query);
+	} else if (query instanceof Comparison) {
+	    return bindComparison((Comparison<Map<String, String>>) query);
+	} else if (query instanceof True) {
+	    return new True<B>();
+	} else if (query instanceof QueryDag) {
+	    return bind(((QueryDag<Map<String, String>>) query).getRoot());
+	} else if (query instanceof QueryDag.Memo) {
+	    return bind(((QueryDag.Memo<Map<String, String>>) query)
+		    .getEvaluatable());
+	}
+	throw new ParseException("Unsupported evaluatable: " + query);
+    }
+
+    /**
+     * Get the accessor of a field.
+     *
+     * @param field
+     *            name of the field
+     * @return accessor
+     * @throws ParseException
+     *             in case the class has no such field
+     */
+    private synchronized Accessor accessor(final String field)
+	    throws ParseException {
+	Accessor accessor = accessors.get(field);
+	if (accessor == null) {
+	    try {
+		accessor = Accessor.resolve(type, field);
+	    } catch (IllegalAccessException e) {
+		throw new ParseException("Field " + field + " of "
+			+ type.getName() + " is not accessible: "
+			+ e.getMessage());
+	    }
+	    if (accessor == null) {
+		throw new ParseException("Unknown field " + field + " of "
+			+ type.getName());
+	    }
+	    accessors.put(field, accessor);
+	}
+	return accessor;
+    }
+
+    /**
+     * Bind a condition.
+     *
+     * @param condition
+     *            condition
+     * @return bound condition
+     * @throws ParseException
+     *             in case an underlying comparison can't be bound
+     */
+    private IEvaluatable<B> bindCondition(
+	    final Condition<Map<String, String>> condition)
+	    throws ParseException {
+	List<IEvaluatable<Map<String, String>>> conditions = condition
+		.getConditions();
+	final List<IEvaluatable<B>> bound = new Vector<IEvaluatable<B>>(
+		conditions.size());
+	for (IEvaluatable<Map<String, String>> child : conditions) {
+	    bound.add(bind(child));
+	}
+
+	switch (condition.getConditionOperator()) {
+	case AND:
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    for (IEvaluatable<B> evaluatable : bound) {
+			if (!evaluatable.evaluate(bean)) {
+			    return false;
+			}
+		    }
+		    return true;
+		}
+	    };
+	case OR:
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    for (IEvaluatable<B> evaluatable : bound) {
+			if (evaluatable.evaluate(bean)) {
+			    return true;
+			}
+		    }
+		    return false;
+		}
+	    };
+	case NOT:
+	    // evaluate (NOT) as (NOT(true)), same as Condition does
+	    final IEvaluatable<B> negated = bound.isEmpty() ? new True<B>()
+		    : bound.get(0);
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return !negated.evaluate(bean);
+		}
+	    };
+	default:
+	    throw new ParseException("Unsupported condition operator: "
+		    + condition.getOperator());
+	}
+    }
+
+    /**
+     * Bind a comparison to the accessor of its field, converting the
+     * constant of an equality comparison to the type of the field.
+     *
+     * @param comparison
+     *            comparison
+     * @return bound comparison
+     * @throws ParseException
+     *             in case the class has no such field
+     */
+    private IEvaluatable<B> bindComparison(
+	    final Comparison<Map<String, String>> comparison)
+	    throws ParseException {
+	final Accessor accessor = accessor(comparison.getField());
+	final String value = comparison.getValue();
+	Class<?> fieldType = accessor.getType();
+
+	if (comparison.getComparisonOperator() == Comparison.ComparisonOperator.LIKE) {
+	    final Regex regex = comparison.getRegex();
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    Object v = accessor.get(bean);
+		    return v != null
+			    && regex.matches(v instanceof CharSequence ? (CharSequence) v
+				    : String.valueOf(v));
+		}
+	    };
+	} else if (fieldType == long.class || fieldType == int.class
+		|| fieldType == short.class || fieldType == byte.class) {
+	    final long constant;
+	    try {
+		constant = Long.parseLong(value);
+	    } catch (NumberFormatException e) {
+		return never();
+	    }
+	    if (!Long.toString(constant).equals(value)) {
+		// e.g. "+1" or "01", not the string value of any number
+		return never();
+	    }
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return accessor.getLong(bean) == constant;
+		}
+	    };
+	} else if (fieldType == double.class) {
+	    final long constant;
+	    try {
+		double d = Double.parseDouble(value);
+		if (!Double.toString(d).equals(value)) {
+		    return never();
+		}
+		// bits tell 0.0 and -0.0 apart, like their string values
+		constant = Double.doubleToLongBits(d);
+	    } catch (NumberFormatException e) {
+		return never();
+	    }
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return Double.doubleToLongBits(accessor.getDouble(bean)) == constant;
+		}
+	    };
+	} else if (fieldType == boolean.class) {
+	    if (!value.equals("true") && !value.equals("false")) {
+		return never();
+	    }
+	    final boolean constant = Boolean.parseBoolean(value);
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return accessor.getBoolean(bean) == constant;
+		}
+	    };
+	} else if (fieldType.isEnum()) {
+	    Object match = null;
+	    for (Object constant : fieldType.getEnumConstants()) {
+		if (constant.toString().equals(value)) {
+		    match = constant;
+		    break;
+		}
+	    }
+	    if (match == null) {
+		return never();
+	    }
+	    final Object constant = match;
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return accessor.get(bean) == constant;
+		}
+	    };
+	} else if (fieldType == String.class) {
+	    return new IEvaluatable<B>() {
+		@Override
+		public boolean evaluate(final B bean) {
+		    return value.equals(accessor.get(bean));
+		}
+	    };
+	}
+	return new IEvaluatable<B>() {
+	    @Override
+	    public boolean evaluate(final B bean) {
+		Object v = accessor.get(bean);
+		return v != null && value.equals(String.valueOf(v));
+	    }
+	};
+    }
+
+    /**
+     * Get a comparison matching no object.
+     *
+     * @return comparison
+     */
+    private IEvaluatable<B> never() {
+	return new IEvaluatable<B>() {
+	    @Override
+	    public boolean evaluate(final B bean) {
+		return false;
+	    }
+	};
+    }
+
+}
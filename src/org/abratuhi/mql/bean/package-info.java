@@ -0,0 +1,5 @@
+/**
+ * Provides evaluation of parsed queries over plain objects and records,
+ * accessing their fields directly instead of copying them into maps.
+ */
+package org.abratuhi.mql.bean;
@@ -0,0 +1,43 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Number of matching records.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Count<T extends Map<String, String>> implements
+	IAggregation<T, long[], Long> {
+
+    @Override
+    public final long[] newPartial() {
+	return new long[1];
+    }
+
+    @Override
+    public final boolean isRecordNeeded() {
+	return false;
+    }
+
+    @Override
+    public final void accumulate(final long[] partial, final T record) {
+	partial[0]++;
+    }
+
+    @Override
+    public final void merge(final long[] partial, final long[] other) {
+	partial[0] += other[0];
+    }
+
+    @Override
+    public final Long result(final long[] partial) {
+	return partial[0];
+    }
+
+}
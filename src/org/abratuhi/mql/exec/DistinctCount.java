@@ -0,0 +1,66 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Map;
+
+import org.abratuhi.mql.stats.HyperLogLog;
+
+/**
+ * <p>
+ * Estimated number of distinct values of a field among the matching
+ * records, by a {@link HyperLogLog} sketch - the memory used doesn't grow
+ * with the number of values. Records missing the field or having a
+ * <code>null</code> value are not counted.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class DistinctCount<T extends Map<String, String>> implements
+	IAggregation<T, HyperLogLog, Long> {
+
+    /**
+     * Name of the field.
+     */
+    private final String field;
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            name of the field
+     */
+    public DistinctCount(final String field) {
+	this.field = field;
+    }
+
+    @Override
+    public final HyperLogLog newPartial() {
+	return new HyperLogLog();
+    }
+
+    @Override
+    public final boolean isRecordNeeded() {
+	return true;
+    }
+
+    @Override
+    public final void accumulate(final HyperLogLog partial, final T record) {
+	String value = record.get(field);
+	if (value != null) {
+	    partial.add(value);
+	}
+    }
+
+    @Override
+    public final void merge(final HyperLogLog partial, final HyperLogLog other) {
+	partial.merge(other);
+    }
+
+    @Override
+    public final Long result(final HyperLogLog partial) {
+	return partial.estimate();
+    }
+
+}
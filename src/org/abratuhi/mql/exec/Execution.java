@@ -0,0 +1,101 @@
+package org.abratuhi.mql.exec;
+
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ScanStatistics;
+import org.abratuhi.mql.metrics.MetricsRegistry;
+import org.abratuhi.mql.metrics.QueryExecutionEvent;
+
+/**
+ * <p>
+ * Single execution of a query by a {@link Scan}: provides the budget and
+ * records the execution as a {@link QueryExecutionEvent} and in the default
+ * {@link MetricsRegistry}, if enabled.
+ * </p>
+ * <p>
+ * Counts are the difference of the statistics of the budget at the start
+ * and at the end of the execution, so a budget may be shared by several
+ * executions.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class Execution {
+
+    /**
+     * Budget of the execution.
+     */
+    private final EvaluationBudget budget;
+    /**
+     * Executed query.
+     */
+    private final IEvaluatable<?> query;
+    /**
+     * Flight Recorder event.
+     */
+    private final QueryExecutionEvent event = new QueryExecutionEvent();
+    /**
+     * Whether the default registry is updated.
+     */
+    private final boolean metered;
+    /**
+     * Start of the execution, as of {@link System#nanoTime()}.
+     */
+    private final long start;
+    /**
+     * Statistics of the budget at the start, <code>null</code> if the
+     * execution is not recorded.
+     */
+    private final ScanStatistics before;
+
+    /**
+     * Constructor, starts the execution.
+     *
+     * @param budget
+     *            budget or <code>null</code> for unlimited
+     * @param query
+     *            executed query
+     */
+    Execution(final EvaluationBudget budget, final IEvaluatable<?> query) {
+	this.budget = budget != null ? budget : new EvaluationBudget(0, 0);
+	this.query = query;
+	this.metered = MetricsRegistry.getDefault().isEnabled();
+	this.before = metered || event.isEnabled() ? this.budget
+		.getStatistics() : null;
+	this.start = metered ? System.nanoTime() : 0;
+	event.begin();
+    }
+
+    /**
+     * Get the budget of the execution.
+     *
+     * @return budget
+     */
+    EvaluationBudget getBudget() {
+	return budget;
+    }
+
+    /**
+     * End the execution, once the meters of all threads are unbound.
+     */
+    void end() {
+	if (before == null) {
+	    return;
+	}
+	ScanStatistics after = budget.getStatistics();
+	long scanned = after.getScanned() - before.getScanned();
+	long matched = after.getMatched() - before.getMatched();
+	long steps = after.getSteps() - before.getSteps();
+	if (event.shouldCommit()) {
+	    event.setQuery(query.toString());
+	    event.setCounts(scanned, matched, steps, budget.isExceeded());
+	    event.commit();
+	}
+	if (metered) {
+	    MetricsRegistry.getDefault().recordQuery(System.nanoTime() - start,
+		    scanned, matched, steps, budget.isExceeded());
+	}
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Base class of {@link Min} and {@link Max}: the extreme value of a field
+ * among the matching records, by the given order of the values. Records
+ * missing the field or having a <code>null</code> value are ignored.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public abstract class Extremum<T extends Map<String, String>> implements
+	IAggregation<T, String[], String> {
+
+    /**
+     * Orders the values lexicographically by their code points - unlike
+     * {@link String#compareTo(String)}, which compares UTF-16 chars, this is
+     * the order of the term dictionaries of
+     * {@link org.abratuhi.mql.store.IOrderedIndex}es.
+     */
+    public static final Comparator<String> LEXICOGRAPHIC = new Comparator<String>() {
+	@Override
+	public int compare(final String a, final String b) {
+	    int length = Math.min(a.length(), b.length());
+	    for (int i = 0; i < length; i++) {
+		int ca = a.charAt(i);
+		int cb = b.charAt(i);
+		if (ca != cb) {
+		    if (ca >= Character.MIN_SURROGATE
+			    && cb >= Character.MIN_SURROGATE) {
+			// surrogates sort after all other chars
+			ca = ca > Character.MAX_SURROGATE ? ca - 0x800 : ca + 0x2000;
+			cb = cb > Character.MAX_SURROGATE ? cb - 0x800 : cb + 0x2000;
+		    }
+		    return ca - cb;
+		}
+	    }
+	    return a.length() - b.length();
+	}
+    };
+
+    /**
+     * Orders the values as decimal numbers, values which are no numbers
+     * after all numbers.
+     */
+    public static final Comparator<String> NUMERIC = new Comparator<String>() {
+	@Override
+	public int compare(final String a, final String b) {
+	    Double da = parse(a);
+	    Double db = parse(b);
+	    if (da == null || db == null) {
+		return da != null ? -1 : db != null ? 1 : a.compareTo(b);
+	    }
+	    return da.compareTo(db);
+	}
+
+	private Double parse(final String value) {
+	    try {
+		return Double.valueOf(value);
+	    } catch (NumberFormatException e) {
+		return null;
+	    }
+	}
+    };
+
+    /**
+     * Name of the field.
+     */
+    private final String field;
+    /**
+     * Order of the values.
+     */
+    private final Comparator<String> order;
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            name of the field
+     * @param order
+     *            order of the values
+     */
+    protected Extremum(final String field, final Comparator<String> order) {
+	this.field = field;
+	this.order = order;
+    }
+
+    /**
+     * Check whether the value replaces the current extreme value.
+     *
+     * @param cmp
+     *            result of comparing the value with the current extreme value
+     * @return whether the value is more extreme
+     */
+    protected abstract boolean replaces(final int cmp);
+
+    @Override
+    public final String[] newPartial() {
+	return new String[1];
+    }
+
+    @Override
+    public final boolean isRecordNeeded() {
+	return true;
+    }
+
+    @Override
+    public final void accumulate(final String[] partial, final T record) {
+	String value = record.get(field);
+	if (value != null
+		&& (partial[0] == null || replaces(order.compare(value,
+			partial[0])))) {
+	    partial[0] = value;
+	}
+    }
+
+    @Override
+    public final void merge(final String[] partial, final String[] other) {
+	if (other[0] != null
+		&& (partial[0] == null || replaces(order.compare(other[0],
+			partial[0])))) {
+	    partial[0] = other[0];
+	}
+    }
+
+    @Override
+    public final String result(final String[] partial) {
+	return partial[0];
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.abratuhi.mql.exec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Aggregation of the matching records grouped by the value of a field, e.g.
+ * number of matching records by address:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * Map<String, Long> counts = scan.aggregate(store,
+ *         new GroupBy<Record, long[], Long>("address", new Count<Record>()));
+ * }
+ * </pre>
+ *
+ * <p>
+ * Records missing the field or having a <code>null</code> value form the
+ * group <code>null</code>.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ * @param <P> class of the partial aggregates of a group.
+ * @param <R> class of the result of a group.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class GroupBy<T extends Map<String, String>, P, R> implements
+	IAggregation<T, Map<String, P>, Map<String, R>> {
+
+    /**
+     * Name of the field to group by.
+     */
+    private final String field;
+    /**
+     * Aggregation of each group.
+     */
+    private final IAggregation<T, P, R> aggregation;
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            name of the field to group by
+     * @param aggregation
+     *            aggregation of each group
+     */
+    public GroupBy(final String field, final IAggregation<T, P, R> aggregation) {
+	this.field = field;
+	this.aggregation = aggregation;
+    }
+
+    @Override
+    public final Map<String, P> newPartial() {
+	return new HashMap<String, P>();
+    }
+
+    @Override
+    public final boolean isRecordNeeded() {
+	return true;
+    }
+
+    @Override
+    public final void accumulate(final Map<String, P> partial, final T record) {
+	String value = record.get(field);
+	P group = partial.get(value);
+	if (group == null) {
+	    group = aggregation.newPartial();
+	    partial.put(value, group);
+	}
+	aggregation.accumulate(group, record);
+    }
+
+    @Override
+    public final void merge(final Map<String, P> partial,
+	    final Map<String, P> other) {
+	for (Map.Entry<String, P> entry : other.entrySet()) {
+	    P group = partial.get(entry.getKey());
+	    if (group == null) {
+		partial.put(entry.getKey(), entry.getValue());
+	    } else {
+		aggregation.merge(group, entry.getValue());
+	    }
+	}
+    }
+
+    @Override
+    public final Map<String, R> result(final Map<String, P> partial) {
+	Map<String, R> result = new HashMap<String, R>();
+	for (Map.Entry<String, P> entry : partial.entrySet()) {
+	    result.put(entry.getKey(), aggregation.result(entry.getValue()));
+	}
+	return result;
+    }
+
+}
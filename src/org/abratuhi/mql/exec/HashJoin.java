@@ -0,0 +1,314 @@
+package org.abratuhi.mql.exec;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.abratuhi.mql.BudgetExceededException;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.store.AbstractRecordStore;
+import org.abratuhi.mql.store.IRecordPredicate;
+import org.abratuhi.mql.store.IRecordStore;
+import org.abratuhi.mql.stats.CollectionStatistics;
+import org.abratuhi.mql.stats.CostModel;
+
+/**
+ * <p>
+ * HashJoin class joins the records of two stores matching a query each, on
+ * the equality of a field of the left records and a field of the right
+ * records.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * HashJoin<Student, House> join = new HashJoin<Student, House>(
+ * 	studentQuery, "house", houseQuery, "name");
+ * join.execute(students, houses, new IJoinHandler<Student, House>() {
+ *     public boolean onMatch(Student student, House house) {
+ * 	...
+ * 	return true;
+ *     }
+ * });
+ * }
+ * </pre>
+ *
+ * <p>
+ * The side expected to have fewer matching records - estimated by the
+ * {@link CostModel} in case the store keeps {@link CollectionStatistics},
+ * by the number of records otherwise - is the build side: its matching
+ * records are put into a hash table by their join field. The other side is
+ * the probe side: its records are evaluated and looked up in the hash table
+ * in ranges, in parallel in case {@link HashJoin#getParallelism()} allows.
+ * Records are materialized only once they match the query of their side,
+ * records without the join field join no record.
+ * </p>
+ * <p>
+ * The handler is called by the probe threads concurrently, in no particular
+ * order; once it returned <code>false</code> all threads stop.
+ * </p>
+ *
+ * @param <L> base class of the records of the left side.
+ * @param <R> base class of the records of the right side.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class HashJoin<L extends Map<String, String>, R extends Map<String, String>> {
+
+    /**
+     * Number of records probed between two checks whether to stop.
+     */
+    private static final int RECORDS_PER_STOP_CHECK = 256;
+
+    /**
+     * Query of the left side.
+     */
+    private final IEvaluatable<L> leftQuery;
+    /**
+     * Join field of the left side.
+     */
+    private final String leftField;
+    /**
+     * Query of the right side.
+     */
+    private final IEvaluatable<R> rightQuery;
+    /**
+     * Join field of the right side.
+     */
+    private final String rightField;
+    /**
+     * Budget of the execution, <code>null</code> for unlimited.
+     */
+    private EvaluationBudget budget = null;
+    /**
+     * Maximal number of threads per side.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param leftQuery
+     *            query of the left side
+     * @param leftField
+     *            join field of the left side
+     * @param rightQuery
+     *            query of the right side
+     * @param rightField
+     *            join field of the right side
+     */
+    public HashJoin(final IEvaluatable<L> leftQuery, final String leftField,
+	    final IEvaluatable<R> rightQuery, final String rightField) {
+	this.leftQuery = leftQuery;
+	this.leftField = leftField;
+	this.rightQuery = rightQuery;
+	this.rightField = rightField;
+    }
+
+    /**
+     * Set the budget of the execution, shared by both sides. Note that the
+     * budget starts running when it is created.
+     *
+     * @param budget
+     *            budget or <code>null</code> for unlimited
+     */
+    public final void setBudget(final EvaluationBudget budget) {
+	this.budget = budget;
+    }
+
+    /**
+     * Get the budget of the execution.
+     *
+     * @return budget or <code>null</code> for unlimited
+     */
+    public final EvaluationBudget getBudget() {
+	return budget;
+    }
+
+    /**
+     * Set the maximal number of threads scanning a side, see
+     * {@link Scan#setParallelism(int)}.
+     *
+     * @param parallelism
+     *            number of threads, at least <code>1</code>
+     */
+    public final void setParallelism(final int parallelism) {
+	this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Get the maximal number of threads scanning a side.
+     *
+     * @return number of threads
+     */
+    public final int getParallelism() {
+	return parallelism;
+    }
+
+    /**
+     * Join the records of the stores.
+     *
+     * @param left
+     *            store of the left side
+     * @param right
+     *            store of the right side
+     * @param handler
+     *            handler of the pairs of joined records
+     * @return number of pairs passed to the handler
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final long execute(final IRecordStore<L> left,
+	    final IRecordStore<R> right, final IJoinHandler<? super L, ? super R> handler) {
+	if (isLeftBuilt(left, right)) {
+	    return join(left, leftQuery, leftField, right, rightQuery,
+		    rightField, true, handler);
+	}
+	return join(right, rightQuery, rightField, left, leftQuery, leftField,
+		false, handler);
+    }
+
+    /**
+     * Check whether the left side is the build side.
+     *
+     * @param left
+     *            store of the left side
+     * @param right
+     *            store of the right side
+     * @return whether the left side is expected to have fewer matching
+     *         records
+     */
+    final boolean isLeftBuilt(final IRecordStore<L> left,
+	    final IRecordStore<R> right) {
+	return estimate(left, leftQuery) <= estimate(right, rightQuery);
+    }
+
+    /**
+     * Estimate the number of matching records of a side.
+     *
+     * @param <T>
+     *            base class of the records
+     * @param store
+     *            store
+     * @param query
+     *            query
+     * @return estimated number of matching records
+     */
+    private static <T extends Map<String, String>> double estimate(
+	    final IRecordStore<T> store, final IEvaluatable<T> query) {
+	if (store instanceof AbstractRecordStore) {
+	    CollectionStatistics statistics = ((AbstractRecordStore<T>) store)
+		    .getStatistics();
+	    if (statistics != null) {
+		return store.size()
+			* new CostModel<T>(statistics).selectivity(query);
+	    }
+	}
+	return store.size();
+    }
+
+    /**
+     * Build the hash table of one side and probe it with the other.
+     *
+     * @param <B>
+     *            base class of the records of the build side
+     * @param <P>
+     *            base class of the records of the probe side
+     * @param build
+     *            store of the build side
+     * @param buildQuery
+     *            query of the build side
+     * @param buildField
+     *            join field of the build side
+     * @param probe
+     *            store of the probe side
+     * @param probeQuery
+     *            query of the probe side
+     * @param probeField
+     *            join field of the probe side
+     * @param buildIsLeft
+     *            whether the build side is the left side
+     * @param handler
+     *            handler of the pairs of joined records
+     * @return number of pairs passed to the handler
+     */
+    @SuppressWarnings("unchecked")
+    private <B extends Map<String, String>, P extends Map<String, String>> long join(
+	    final IRecordStore<B> build, final IEvaluatable<B> buildQuery,
+	    final String buildField, final IRecordStore<P> probe,
+	    final IEvaluatable<P> probeQuery, final String probeField,
+	    final boolean buildIsLeft,
+	    final IJoinHandler<? super L, ? super R> handler) {
+	Scan<B> buildScan = new Scan<B>(buildQuery);
+	buildScan.setBudget(budget);
+	buildScan.setParallelism(parallelism);
+	final Map<String, List<B>> table = new HashMap<String, List<B>>();
+	for (B record : buildScan.select(build, Integer.MAX_VALUE)) {
+	    String key = record.get(buildField);
+	    if (key != null) {
+		List<B> records = table.get(key);
+		if (records == null) {
+		    records = new Vector<B>(1);
+		    table.put(key, records);
+		}
+		records.add(record);
+	    }
+	}
+
+	if (table.isEmpty()) {
+	    return 0;
+	}
+	final AtomicLong pairs = new AtomicLong();
+	final IRecordPredicate predicate = probe.compile(probeQuery);
+	final AtomicBoolean stopped = new AtomicBoolean();
+	Scan<P> probeScan = new Scan<P>(probeQuery);
+	probeScan.setBudget(budget);
+	probeScan.setParallelism(parallelism);
+	probeScan.scan(probe.size(), probeScan.threads(probe.size()),
+		new Scan.IRangeScan() {
+		    @Override
+		    public void scan(final int thread, final int from,
+			    final int to) {
+			EvaluationBudget.Meter meter = EvaluationBudget.meter();
+			long count = 0;
+			for (int id = from; id < to; id++) {
+			    if ((id - from) % RECORDS_PER_STOP_CHECK == 0
+				    && stopped.get()) {
+				break;
+			    }
+			    boolean match = predicate.evaluate(id);
+			    meter.record(match);
+			    if (!match) {
+				continue;
+			    }
+			    P record = probe.get(id);
+			    String key = record.get(probeField);
+			    List<B> matches = key != null ? table.get(key) : null;
+			    if (matches == null) {
+				continue;
+			    }
+			    for (B other : matches) {
+				count++;
+				boolean more = buildIsLeft ? handler.onMatch(
+					(L) other, (R) record) : handler.onMatch(
+					(L) record, (R) other);
+				if (!more) {
+				    stopped.set(true);
+				    break;
+				}
+			    }
+			    if (stopped.get()) {
+				break;
+			    }
+			}
+			pairs.addAndGet(count);
+		    }
+		});
+	return pairs.get();
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Aggregation computed while scanning, without collecting the matching
+ * records. Each scanning thread accumulates the records it matches into a
+ * partial aggregate of its own; the partial aggregates are merged once the
+ * scan is complete.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ * @param <P> class of the partial aggregates.
+ * @param <R> class of the result.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public interface IAggregation<T extends Map<String, String>, P, R> {
+
+    /**
+     * Create an empty partial aggregate.
+     *
+     * @return partial aggregate
+     */
+    public P newPartial();
+
+    /**
+     * Check whether {@link IAggregation#accumulate(Object, Map)} reads the
+     * record. Stores don't materialize the matching records for aggregations
+     * which don't.
+     *
+     * @return whether the record is needed
+     */
+    public boolean isRecordNeeded();
+
+    /**
+     * Add a matching record to the partial aggregate.
+     *
+     * @param partial
+     *            partial aggregate of the current thread
+     * @param record
+     *            matching record, <code>null</code> in case the record is
+     *            not needed
+     */
+    public void accumulate(final P partial, final T record);
+
+    /**
+     * Merge two partial aggregates.
+     *
+     * @param partial
+     *            partial aggregate to merge into
+     * @param other
+     *            partial aggregate to merge, not used afterwards
+     */
+    public void merge(final P partial, final P other);
+
+    /**
+     * Get result of the aggregation.
+     *
+     * @param partial
+     *            partial aggregate of all matching records
+     * @return result
+     */
+    public R result(final P partial);
+
+}
@@ -0,0 +1,27 @@
+package org.abratuhi.mql.exec;
+
+/**
+ * <p>
+ * Handler of the pairs of joined records, see {@link HashJoin}.
+ * </p>
+ *
+ * @param <L> base class of the records of the left side.
+ * @param <R> base class of the records of the right side.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public interface IJoinHandler<L, R> {
+
+    /**
+     * Handle a pair of joined records.
+     *
+     * @param left
+     *            record of the left side
+     * @param right
+     *            record of the right side
+     * @return whether to continue the join
+     */
+    public boolean onMatch(final L left, final R right);
+
+}
@@ -0,0 +1,45 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * <p>
+ * The smallest value of a field among the matching records.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Min<T extends Map<String, String>> extends Extremum<T> {
+
+    /**
+     * Constructor, values ordered lexicographically.
+     *
+     * @param field
+     *            name of the field
+     */
+    public Min(final String field) {
+	this(field, LEXICOGRAPHIC);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            name of the field
+     * @param order
+     *            order of the values, e.g. {@link Extremum#NUMERIC}
+     */
+    public Min(final String field, final Comparator<String> order) {
+	super(field, order);
+    }
+
+    @Override
+    protected final boolean replaces(final int cmp) {
+	return cmp < 0;
+    }
+
+}
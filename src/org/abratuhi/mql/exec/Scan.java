@@ -0,0 +1,621 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.abratuhi.mql.BudgetExceededException;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.ScanStatistics;
+import org.abratuhi.mql.store.IOrderedIndex;
+import org.abratuhi.mql.store.IRecordPredicate;
+import org.abratuhi.mql.store.IRecordStore;
+
+/**
+ * <p>
+ * Scan class evaluates a query over a collection of records, optionally
+ * within an {@link EvaluationBudget}.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * Scan<Map<String, String>> scan = new Scan<Map<String, String>>(query);
+ * scan.setBudget(new EvaluationBudget(100, 1000000));
+ * try {
+ *     List<Map<String, String>> result = scan.select(records);
+ * } catch (BudgetExceededException e) {
+ *     log(e.getStatistics());
+ * }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Aggregations ({@link IAggregation}) are computed during the scan, without
+ * collecting the matching records. Records of an {@link IRecordStore} may be
+ * aggregated by several threads in parallel, see
+ * {@link Scan#setParallelism(int)}.
+ * </p>
+ * <p>
+ * Limit queries stop scanning - in all threads - once enough records
+ * matched. Top-K queries keep a bounded heap per thread, or walk the sorted
+ * index of an {@link IOrderedIndex}.
+ * </p>
+ * <p>
+ * Each execution is recorded as a
+ * {@link org.abratuhi.mql.metrics.QueryExecutionEvent} and in the default
+ * {@link org.abratuhi.mql.metrics.MetricsRegistry}, if enabled.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Scan<T extends Map<String, String>> {
+
+    /**
+     * Minimal number of records scanned by a thread of a parallel scan.
+     */
+    public static final int MIN_RECORDS_PER_THREAD = 1024;
+    /**
+     * Number of records scanned by a thread of a limit query between two
+     * checks whether the preceding threads found enough matches.
+     */
+    private static final int RECORDS_PER_LIMIT_CHECK = 256;
+
+    /**
+     * Scan of a range of record identifiers, run by one thread.
+     */
+    interface IRangeScan {
+	/**
+	 * Scan the range.
+	 *
+	 * @param thread
+	 *            index of the thread
+	 * @param from
+	 *            first identifier, inclusive
+	 * @param to
+	 *            last identifier, exclusive
+	 */
+	void scan(final int thread, final int from, final int to);
+    }
+
+    /**
+     * Query to evaluate.
+     */
+    private final IEvaluatable<T> query;
+    /**
+     * Budget of the execution, <code>null</code> for unlimited.
+     */
+    private EvaluationBudget budget = null;
+    /**
+     * Maximal number of threads scanning a store.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param query
+     *            query to evaluate
+     */
+    public Scan(final IEvaluatable<T> query) {
+	this.query = query;
+    }
+
+    /**
+     * Set the budget of the execution. Note that the budget starts running
+     * when it is created, not when the scan is executed.
+     *
+     * @param budget
+     *            budget or <code>null</code> for unlimited
+     */
+    public final void setBudget(final EvaluationBudget budget) {
+	this.budget = budget;
+    }
+
+    /**
+     * Get the budget of the execution.
+     *
+     * @return budget or <code>null</code> for unlimited
+     */
+    public final EvaluationBudget getBudget() {
+	return budget;
+    }
+
+    /**
+     * Set the maximal number of threads scanning the records of a store. Each
+     * thread scans at least {@link Scan#MIN_RECORDS_PER_THREAD} records.
+     *
+     * @param parallelism
+     *            maximal number of threads, <code>1</code> to scan in the
+     *            calling thread only
+     */
+    public final void setParallelism(final int parallelism) {
+	this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Get the maximal number of threads scanning the records of a store.
+     *
+     * @return maximal number of threads
+     */
+    public final int getParallelism() {
+	return parallelism;
+    }
+
+    /**
+     * Evaluate the query on the records, passing the matching ones to the
+     * handler. The identifier passed is the position of the record in the
+     * iteration.
+     *
+     * @param records
+     *            records to evaluate
+     * @param handler
+     *            handler of the matching records
+     * @return statistics of the execution
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final ScanStatistics execute(final Iterable<? extends T> records,
+	    final IMatchHandler<? super T> handler) {
+	Execution execution = new Execution(budget, query);
+	EvaluationBudget b = execution.getBudget();
+	EvaluationBudget.Meter meter = b.bind();
+	try {
+	    int id = 0;
+	    for (T record : records) {
+		boolean match = query.evaluate(record);
+		meter.record(match);
+		if (match && !handler.onMatch(id, record)) {
+		    break;
+		}
+		id++;
+	    }
+	} finally {
+	    meter.unbind();
+	    execution.end();
+	}
+	return b.getStatistics();
+    }
+
+    /**
+     * Evaluate the query on the records of the store, passing the matching
+     * ones to the handler.
+     *
+     * @param store
+     *            store to scan
+     * @param handler
+     *            handler of the matching records
+     * @return statistics of the execution
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final ScanStatistics execute(final IRecordStore<T> store,
+	    final IMatchHandler<? super T> handler) {
+	Execution execution = new Execution(budget, query);
+	EvaluationBudget b = execution.getBudget();
+	EvaluationBudget.Meter meter = b.bind();
+	try {
+	    store.scan(query, handler);
+	} finally {
+	    meter.unbind();
+	    execution.end();
+	}
+	return b.getStatistics();
+    }
+
+    /**
+     * Select the records matching the query.
+     *
+     * @param records
+     *            records to evaluate
+     * @return matching records
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final List<T> select(final Iterable<? extends T> records) {
+	final List<T> result = new Vector<T>();
+	execute(records, new IMatchHandler<T>() {
+	    @Override
+	    public boolean onMatch(final int id, final T record) {
+		result.add(record);
+		return true;
+	    }
+	});
+	return result;
+    }
+
+    /**
+     * Select the first records matching the query, stopping the scan once
+     * enough records matched.
+     *
+     * @param records
+     *            records to evaluate
+     * @param limit
+     *            maximal number of records
+     * @return matching records, in the order of the iteration
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final List<T> select(final Iterable<? extends T> records,
+	    final int limit) {
+	final List<T> result = new Vector<T>();
+	if (limit > 0) {
+	    execute(records, new IMatchHandler<T>() {
+		@Override
+		public boolean onMatch(final int id, final T record) {
+		    result.add(record);
+		    return result.size() < limit;
+		}
+	    });
+	}
+	return result;
+    }
+
+    /**
+     * <p>
+     * Select the matching records with the smallest identifiers, in parallel
+     * in case {@link Scan#getParallelism()} allows.
+     * </p>
+     * <p>
+     * Each thread scans a range of identifiers and stops once it found
+     * enough matches, or once the threads scanning the preceding ranges
+     * found enough matches together. The result is the same as of a scan in
+     * a single thread.
+     * </p>
+     *
+     * @param store
+     *            store to scan
+     * @param limit
+     *            maximal number of records
+     * @return matching records, in ascending order of their identifiers
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final List<T> select(final IRecordStore<T> store, final int limit) {
+	final IRecordPredicate predicate = store.compile(query);
+	final int threads = threads(store.size());
+	final AtomicIntegerArray counts = new AtomicIntegerArray(threads);
+	final int[][] found = new int[threads][];
+	scan(store.size(), threads, new IRangeScan() {
+	    @Override
+	    public void scan(final int thread, final int from, final int to) {
+		EvaluationBudget.Meter meter = EvaluationBudget.meter();
+		int[] ids = new int[Math.max(0, Math.min(limit, 16))];
+		int count = 0;
+		for (int id = from; id < to && count < limit; id++) {
+		    if ((id - from) % RECORDS_PER_LIMIT_CHECK == 0
+			    && preceding(counts, thread) >= limit) {
+			break;
+		    }
+		    boolean match = predicate.evaluate(id);
+		    meter.record(match);
+		    if (match) {
+			if (count == ids.length) {
+			    ids = Arrays.copyOf(ids, Math.min(limit, count * 2));
+			}
+			ids[count++] = id;
+			counts.set(thread, count);
+		    }
+		}
+		found[thread] = Arrays.copyOf(ids, count);
+	    }
+	});
+
+	List<T> result = new Vector<T>();
+	for (int thread = 0; thread < threads; thread++) {
+	    for (int i = 0; i < found[thread].length && result.size() < limit; i++) {
+		result.add(store.get(found[thread][i]));
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Get number of matches found by the threads scanning the preceding
+     * ranges.
+     *
+     * @param counts
+     *            number of matches by thread
+     * @param thread
+     *            index of the thread
+     * @return number of matches
+     */
+    private static int preceding(final AtomicIntegerArray counts,
+	    final int thread) {
+	int sum = 0;
+	for (int i = 0; i < thread; i++) {
+	    sum += counts.get(i);
+	}
+	return sum;
+    }
+
+    /**
+     * Select the first <code>k</code> records matching the query in order of
+     * a field's value, keeping a bounded heap instead of sorting all matching
+     * records. Records missing the field come last, records with equal values
+     * in the order of the iteration.
+     *
+     * @param records
+     *            records to evaluate
+     * @param field
+     *            name of the field to order by
+     * @param order
+     *            order of the values, e.g. {@link Extremum#LEXICOGRAPHIC}
+     * @param descending
+     *            whether to select the largest values
+     * @param k
+     *            maximal number of records
+     * @return matching records in order of the field's value
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final List<T> top(final Iterable<? extends T> records,
+	    final String field, final Comparator<String> order,
+	    final boolean descending, final int k) {
+	final TopK<T> heap = new TopK<T>(k, order, descending);
+	execute(records, new IMatchHandler<T>() {
+	    @Override
+	    public boolean onMatch(final int id, final T record) {
+		heap.offer(id, record.get(field), record);
+		return true;
+	    }
+	});
+	List<T> result = new Vector<T>();
+	for (TopK.Entry<T> entry : heap.entries()) {
+	    result.add(entry.record);
+	}
+	return result;
+    }
+
+    /**
+     * <p>
+     * Select the first <code>k</code> records of the store matching the query
+     * in order of a field's value. Records missing the field come last,
+     * records with equal values in ascending order of their identifiers.
+     * </p>
+     * <p>
+     * In case the store is an {@link IOrderedIndex} and the values are
+     * ordered by {@link Extremum#LEXICOGRAPHIC}, the sorted index is walked
+     * until <code>k</code> records matched. Otherwise the store is scanned,
+     * in parallel in case {@link Scan#getParallelism()} allows, each thread
+     * keeping a bounded heap.
+     * </p>
+     *
+     * @param store
+     *            store to scan
+     * @param field
+     *            name of the field to order by
+     * @param order
+     *            order of the values
+     * @param descending
+     *            whether to select the largest values
+     * @param k
+     *            maximal number of records
+     * @return matching records in order of the field's value
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final List<T> top(final IRecordStore<T> store, final String field,
+	    final Comparator<String> order, final boolean descending,
+	    final int k) {
+	final List<T> result = new Vector<T>();
+	if (k <= 0) {
+	    return result;
+	} else if (store instanceof IOrderedIndex
+		&& order == Extremum.LEXICOGRAPHIC) {
+	    Execution execution = new Execution(budget, query);
+	    EvaluationBudget.Meter meter = execution.getBudget().bind();
+	    try {
+		((IOrderedIndex<T>) store).scanOrdered(query, field, descending,
+			new IMatchHandler<T>() {
+			    @Override
+			    public boolean onMatch(final int id, final T record) {
+				result.add(record);
+				return result.size() < k;
+			    }
+			});
+	    } finally {
+		meter.unbind();
+		execution.end();
+	    }
+	    return result;
+	}
+
+	final IRecordPredicate predicate = store.compile(query);
+	int threads = threads(store.size());
+	final List<TopK<T>> heaps = new Vector<TopK<T>>();
+	for (int i = 0; i < threads; i++) {
+	    heaps.add(new TopK<T>(k, order, descending));
+	}
+	scan(store.size(), threads, new IRangeScan() {
+	    @Override
+	    public void scan(final int thread, final int from, final int to) {
+		TopK<T> heap = heaps.get(thread);
+		EvaluationBudget.Meter meter = EvaluationBudget.meter();
+		for (int id = from; id < to; id++) {
+		    boolean match = predicate.evaluate(id);
+		    meter.record(match);
+		    if (match) {
+			heap.offer(id, store.get(id).get(field), null);
+		    }
+		}
+	    }
+	});
+	for (int i = 1; i < threads; i++) {
+	    heaps.get(0).merge(heaps.get(i));
+	}
+	for (TopK.Entry<T> entry : heaps.get(0).entries()) {
+	    result.add(store.get(entry.id));
+	}
+	return result;
+    }
+
+    /**
+     * Aggregate the records matching the query.
+     *
+     * @param <P>
+     *            class of the partial aggregates
+     * @param <R>
+     *            class of the result
+     * @param records
+     *            records to evaluate
+     * @param aggregation
+     *            aggregation
+     * @return result of the aggregation
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final <P, R> R aggregate(final Iterable<? extends T> records,
+	    final IAggregation<T, P, R> aggregation) {
+	final P partial = aggregation.newPartial();
+	execute(records, new IMatchHandler<T>() {
+	    @Override
+	    public boolean onMatch(final int id, final T record) {
+		aggregation.accumulate(partial, record);
+		return true;
+	    }
+	});
+	return aggregation.result(partial);
+    }
+
+    /**
+     * Aggregate the records of the store matching the query, in parallel in
+     * case {@link Scan#getParallelism()} allows. The records are materialized
+     * one at a time, and only if the aggregation needs them.
+     *
+     * @param <P>
+     *            class of the partial aggregates
+     * @param <R>
+     *            class of the result
+     * @param store
+     *            store to scan
+     * @param aggregation
+     *            aggregation
+     * @return result of the aggregation
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    public final <P, R> R aggregate(final IRecordStore<T> store,
+	    final IAggregation<T, P, R> aggregation) {
+	final IRecordPredicate predicate = store.compile(query);
+	final boolean recordNeeded = aggregation.isRecordNeeded();
+	final List<P> partials = new Vector<P>();
+	int threads = threads(store.size());
+	for (int i = 0; i < threads; i++) {
+	    partials.add(aggregation.newPartial());
+	}
+	scan(store.size(), threads, new IRangeScan() {
+	    @Override
+	    public void scan(final int thread, final int from, final int to) {
+		P partial = partials.get(thread);
+		EvaluationBudget.Meter meter = EvaluationBudget.meter();
+		for (int id = from; id < to; id++) {
+		    boolean match = predicate.evaluate(id);
+		    meter.record(match);
+		    if (match) {
+			aggregation.accumulate(partial, recordNeeded ? store
+				.get(id) : null);
+		    }
+		}
+	    }
+	});
+	P result = partials.get(0);
+	for (int i = 1; i < threads; i++) {
+	    aggregation.merge(result, partials.get(i));
+	}
+	return aggregation.result(result);
+    }
+
+    /**
+     * Get number of threads scanning the given number of records.
+     *
+     * @param size
+     *            number of records
+     * @return number of threads, at least <code>1</code>
+     */
+    final int threads(final int size) {
+	return Math.max(1, Math.min(parallelism, size
+		/ MIN_RECORDS_PER_THREAD));
+    }
+
+    /**
+     * Scan the identifiers <code>0</code> to <code>size - 1</code>, split into
+     * consecutive ranges of about the same size, each scanned by a thread of
+     * its own with the budget bound. The first range is scanned by the
+     * calling thread.
+     *
+     * @param size
+     *            number of records
+     * @param threads
+     *            number of threads
+     * @param range
+     *            scan of a range
+     * @throws BudgetExceededException
+     *             in case the budget has been exceeded
+     */
+    final void scan(final int size, final int threads,
+	    final IRangeScan range) {
+	final Execution execution = new Execution(budget, query);
+	final EvaluationBudget b = execution.getBudget();
+	final Throwable[] failure = new Throwable[1];
+	Thread[] workers = new Thread[threads - 1];
+	for (int i = 1; i < threads; i++) {
+	    final int thread = i;
+	    workers[i - 1] = new Thread("mql-scan-" + i) {
+		@Override
+		public void run() {
+		    EvaluationBudget.Meter meter = b.bind();
+		    try {
+			range.scan(thread, (int) ((long) size * thread / threads),
+				(int) ((long) size * (thread + 1) / threads));
+		    } catch (Throwable t) {
+			synchronized (failure) {
+			    if (failure[0] == null) {
+				failure[0] = t;
+			    }
+			}
+		    } finally {
+			meter.unbind();
+		    }
+		}
+	    };
+	    workers[i - 1].start();
+	}
+
+	EvaluationBudget.Meter meter = b.bind();
+	try {
+	    range.scan(0, 0, size / threads);
+	} finally {
+	    meter.unbind();
+	    boolean interrupted = false;
+	    for (Thread worker : workers) {
+		while (worker.isAlive()) {
+		    try {
+			worker.join();
+		    } catch (InterruptedException e) {
+			interrupted = true;
+		    }
+		}
+	    }
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	    execution.end();
+	}
+	synchronized (failure) {
+	    if (failure[0] instanceof RuntimeException) {
+		throw (RuntimeException) failure[0];
+	    } else if (failure[0] instanceof Error) {
+		throw (Error) failure[0];
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Bounded heap keeping the first <code>k</code> records in order of a
+ * field's value, the memory used doesn't depend on the number of records
+ * offered.
+ * </p>
+ * <p>
+ * Records missing the field or having a <code>null</code> value come last
+ * in both directions, records with equal values in ascending order of their
+ * identifiers - so the result doesn't depend on the order the records are
+ * offered in.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class TopK<T extends Map<String, String>> {
+
+    /**
+     * Record offered to the heap.
+     */
+    static final class Entry<T> {
+	/**
+	 * Identifier of the record.
+	 */
+	final int id;
+	/**
+	 * Value of the field.
+	 */
+	final String value;
+	/**
+	 * Record, <code>null</code> in case it is to be materialized later.
+	 */
+	final T record;
+
+	/**
+	 * Constructor.
+	 * @param id identifier of the record
+	 * @param value value of the field
+	 * @param record record or <code>null</code>
+	 */
+	Entry(final int id, final String value, final T record) {
+	    this.id = id;
+	    this.value = value;
+	    this.record = record;
+	}
+    }
+
+    /**
+     * Number of records to keep.
+     */
+    private final int k;
+    /**
+     * Order of the result.
+     */
+    private final Comparator<Entry<T>> order;
+    /**
+     * Kept records, the last one in the result order on top.
+     */
+    private final PriorityQueue<Entry<T>> heap;
+
+    /**
+     * Constructor.
+     *
+     * @param k
+     *            number of records to keep
+     * @param values
+     *            order of the values
+     * @param descending
+     *            whether to keep the largest values
+     */
+    TopK(final int k, final Comparator<String> values,
+	    final boolean descending) {
+	this.k = k;
+	this.order = new Comparator<Entry<T>>() {
+	    @Override
+	    public int compare(final Entry<T> a, final Entry<T> b) {
+		int cmp;
+		if (a.value == null || b.value == null) {
+		    cmp = a.value != null ? -1 : b.value != null ? 1 : 0;
+		} else {
+		    cmp = values.compare(a.value, b.value);
+		    cmp = descending ? -cmp : cmp;
+		}
+		return cmp != 0 ? cmp : a.id < b.id ? -1 : a.id > b.id ? 1
+			: 0;
+	    }
+	};
+	this.heap = new PriorityQueue<Entry<T>>(Math.max(1, Math.min(k,
+		1024)), Collections.reverseOrder(order));
+    }
+
+    /**
+     * Offer a record.
+     *
+     * @param id
+     *            identifier of the record
+     * @param value
+     *            value of the field
+     * @param record
+     *            record or <code>null</code> in case it is to be
+     *            materialized later
+     */
+    void offer(final int id, final String value, final T record) {
+	offer(new Entry<T>(id, value, record));
+    }
+
+    /**
+     * Offer a record.
+     *
+     * @param entry
+     *            record
+     */
+    private void offer(final Entry<T> entry) {
+	if (heap.size() < k) {
+	    heap.add(entry);
+	} else if (k > 0 && order.compare(entry, heap.peek()) < 0) {
+	    heap.poll();
+	    heap.add(entry);
+	}
+    }
+
+    /**
+     * Offer the records kept by another heap.
+     *
+     * @param other
+     *            heap of the same order
+     */
+    void merge(final TopK<T> other) {
+	for (Entry<T> entry : other.heap) {
+	    offer(entry);
+	}
+    }
+
+    /**
+     * Get the kept records.
+     *
+     * @return records in the result order
+     */
+    List<Entry<T>> entries() {
+	List<Entry<T>> entries = new Vector<Entry<T>>(heap);
+	Collections.sort(entries, order);
+	return entries;
+    }
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides execution of parsed queries over record collections.
+ */
+package org.abratuhi.mql.exec;
@@ -0,0 +1,193 @@
+package org.abratuhi.mql.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free histogram of non-negative values, typically latencies in
+ * nanoseconds, with a relative error below 1% over the whole
+ * <code>long</code> range.
+ * </p>
+ * <p>
+ * Like an HDR histogram, values are counted in buckets of exponentially
+ * growing width, each divided into {@link LatencyHistogram#SUB_BUCKETS}
+ * linear sub-buckets: values below <code>256</code> are counted exactly,
+ * values of <code>[2^k, 2^(k+1))</code> for <code>k &gt;= 8</code> in
+ * sub-buckets of width <code>2^(k-7)</code>. Percentiles are reported as the
+ * highest value of their sub-bucket, at most <code>1/128</code> of the value
+ * above it.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of sub-buckets in the upper half of a bucket.
+     */
+    public static final int SUB_BUCKETS = 128;
+    /**
+     * Number of bits of the values counted exactly.
+     */
+    private static final int EXACT_BITS = 8;
+    /**
+     * Number of counters: the exact values, then the upper halves of the
+     * buckets of the remaining bit lengths.
+     */
+    private static final int SIZE = (Long.SIZE - EXACT_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Counts by sub-bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    /**
+     * Number of values.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Sum of the values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Maximal value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Count a value.
+     *
+     * @param value
+     *            value, negative values are counted as <code>0</code>
+     */
+    public final void record(final long value) {
+	long v = Math.max(value, 0);
+	counts.incrementAndGet(index(v));
+	count.incrementAndGet();
+	sum.addAndGet(v);
+	long m = max.get();
+	while (v > m && !max.compareAndSet(m, v)) {
+	    m = max.get();
+	}
+    }
+
+    /**
+     * Add the values counted by another histogram.
+     *
+     * @param other
+     *            histogram
+     */
+    public final void add(final LatencyHistogram other) {
+	for (int i = 0; i < SIZE; i++) {
+	    long c = other.counts.get(i);
+	    if (c != 0) {
+		counts.addAndGet(i, c);
+	    }
+	}
+	count.addAndGet(other.count.get());
+	sum.addAndGet(other.sum.get());
+	long v = other.max.get();
+	long m = max.get();
+	while (v > m && !max.compareAndSet(m, v)) {
+	    m = max.get();
+	}
+    }
+
+    /**
+     * Get index of the sub-bucket of a value.
+     *
+     * @param value
+     *            non-negative value
+     * @return index
+     */
+    static int index(final long value) {
+	int bucket = Math.max(0, Long.SIZE - EXACT_BITS
+		- Long.numberOfLeadingZeros(value));
+	return bucket * SUB_BUCKETS + (int) (value >>> bucket);
+    }
+
+    /**
+     * Get the highest value of a sub-bucket.
+     *
+     * @param index
+     *            index of the sub-bucket
+     * @return highest value counted by the sub-bucket
+     */
+    static long highest(final int index) {
+	int bucket = Math.max(0, index / SUB_BUCKETS - 1);
+	long sub = index - (long) bucket * SUB_BUCKETS;
+	long next = (sub + 1) << bucket;
+	// the last sub-bucket ends at Long.MAX_VALUE
+	return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    /**
+     * Get number of values.
+     *
+     * @return number of values
+     */
+    public final long getCount() {
+	return count.get();
+    }
+
+    /**
+     * Get maximal value.
+     *
+     * @return maximal value, <code>0</code> if empty
+     */
+    public final long getMax() {
+	return max.get();
+    }
+
+    /**
+     * Get mean of the values.
+     *
+     * @return mean, <code>0</code> if empty
+     */
+    public final double getMean() {
+	long c = count.get();
+	return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Get the value below or at which the given percentage of the values
+     * lie.
+     *
+     * @param percentile
+     *            percentage, between <code>0</code> and <code>100</code>
+     * @return value, <code>0</code> if empty
+     */
+    public final long getValueAtPercentile(final double percentile) {
+	long total = 0;
+	long[] snapshot = new long[SIZE];
+	for (int i = 0; i < SIZE; i++) {
+	    snapshot[i] = counts.get(i);
+	    total += snapshot[i];
+	}
+	long rank = Math.max(1,
+		(long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+	long seen = 0;
+	for (int i = 0; i < SIZE; i++) {
+	    seen += snapshot[i];
+	    if (seen >= rank) {
+		return Math.min(highest(i), max.get());
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * Forget all values. Values counted concurrently may be partially
+     * kept.
+     */
+    public final void reset() {
+	for (int i = 0; i < SIZE; i++) {
+	    counts.set(i, 0);
+	}
+	count.set(0);
+	sum.set(0);
+	max.set(0);
+    }
+
+}
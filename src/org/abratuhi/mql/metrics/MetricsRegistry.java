@@ -0,0 +1,267 @@
+package org.abratuhi.mql.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * In-process registry of named counters and latency histograms, updated
+ * without locks.
+ * </p>
+ * <p>
+ * The {@link MetricsRegistry#getDefault() default registry} is updated by
+ * the parser and by query executions once enabled; while disabled, they only
+ * read a volatile flag.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * MetricsRegistry.getDefault().setEnabled(true);
+ * ...
+ * String text = MetricsRegistry.getDefault().scrape();
+ * }
+ * </pre>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class MetricsRegistry {
+
+    /**
+     * Parsed queries, including failures.
+     */
+    public static final String PARSE_COUNT = "mql_parse_total";
+    /**
+     * Queries which could not be parsed.
+     */
+    public static final String PARSE_ERRORS = "mql_parse_errors_total";
+    /**
+     * Parse latency in nanoseconds.
+     */
+    public static final String PARSE_LATENCY = "mql_parse_latency_nanos";
+    /**
+     * Executed queries, including failures.
+     */
+    public static final String QUERY_COUNT = "mql_query_total";
+    /**
+     * Queries which exceeded their budget.
+     */
+    public static final String QUERY_BUDGET_EXCEEDED = "mql_query_budget_exceeded_total";
+    /**
+     * Records evaluated by queries.
+     */
+    public static final String QUERY_SCANNED = "mql_query_scanned_total";
+    /**
+     * Records matched by queries.
+     */
+    public static final String QUERY_MATCHED = "mql_query_matched_total";
+    /**
+     * Regular expression steps of queries.
+     */
+    public static final String QUERY_STEPS = "mql_query_regex_steps_total";
+    /**
+     * Query latency in nanoseconds.
+     */
+    public static final String QUERY_LATENCY = "mql_query_latency_nanos";
+
+    /**
+     * Percentiles reported by {@link MetricsRegistry#scrape()}.
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    /**
+     * Quantile labels of the reported percentiles.
+     */
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99",
+	    "0.999" };
+
+    /**
+     * Default registry.
+     */
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * Counters by name.
+     */
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    /**
+     * Histograms by name.
+     */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    /**
+     * Whether the registry is updated.
+     */
+    private volatile boolean enabled = false;
+
+    /**
+     * Get the registry updated by the parser and the query executions.
+     *
+     * @return default registry
+     */
+    public static MetricsRegistry getDefault() {
+	return DEFAULT;
+    }
+
+    /**
+     * Check whether the registry is updated.
+     *
+     * @return whether enabled
+     */
+    public final boolean isEnabled() {
+	return enabled;
+    }
+
+    /**
+     * Enable or disable updating the registry. Disabled by default.
+     *
+     * @param enabled
+     *            whether to update the registry
+     */
+    public final void setEnabled(final boolean enabled) {
+	this.enabled = enabled;
+    }
+
+    /**
+     * Get a counter, creating it if needed.
+     *
+     * @param name
+     *            name of the counter
+     * @return counter
+     */
+    public final LongAdder counter(final String name) {
+	LongAdder counter = counters.get(name);
+	if (counter == null) {
+	    LongAdder created = new LongAdder();
+	    counter = counters.putIfAbsent(name, created);
+	    if (counter == null) {
+		counter = created;
+	    }
+	}
+	return counter;
+    }
+
+    /**
+     * Get a histogram, creating it if needed.
+     *
+     * @param name
+     *            name of the histogram
+     * @return histogram
+     */
+    public final LatencyHistogram histogram(final String name) {
+	LatencyHistogram histogram = histograms.get(name);
+	if (histogram == null) {
+	    LatencyHistogram created = new LatencyHistogram();
+	    histogram = histograms.putIfAbsent(name, created);
+	    if (histogram == null) {
+		histogram = created;
+	    }
+	}
+	return histogram;
+    }
+
+    /**
+     * Record parsing of a query.
+     *
+     * @param nanos
+     *            duration
+     * @param success
+     *            whether the query has been parsed
+     */
+    public final void recordParse(final long nanos, final boolean success) {
+	counter(PARSE_COUNT).increment();
+	if (!success) {
+	    counter(PARSE_ERRORS).increment();
+	}
+	histogram(PARSE_LATENCY).record(nanos);
+    }
+
+    /**
+     * Record execution of a query.
+     *
+     * @param nanos
+     *            duration
+     * @param scanned
+     *            records evaluated
+     * @param matched
+     *            matching records
+     * @param steps
+     *            regular expression steps
+     * @param exceeded
+     *            whether the budget has been exceeded
+     */
+    public final void recordQuery(final long nanos, final long scanned,
+	    final long matched, final long steps, final boolean exceeded) {
+	counter(QUERY_COUNT).increment();
+	if (exceeded) {
+	    counter(QUERY_BUDGET_EXCEEDED).increment();
+	}
+	counter(QUERY_SCANNED).add(scanned);
+	counter(QUERY_MATCHED).add(matched);
+	counter(QUERY_STEPS).add(steps);
+	histogram(QUERY_LATENCY).record(nanos);
+    }
+
+    /**
+     * Get the current values of the counters.
+     *
+     * @return values by name, sorted by name
+     */
+    public final Map<String, Long> getCounters() {
+	Map<String, Long> result = new TreeMap<String, Long>();
+	for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+	    result.put(entry.getKey(), entry.getValue().sum());
+	}
+	return result;
+    }
+
+    /**
+     * Get the histograms.
+     *
+     * @return histograms by name, sorted by name
+     */
+    public final Map<String, LatencyHistogram> getHistograms() {
+	return new TreeMap<String, LatencyHistogram>(histograms);
+    }
+
+    /**
+     * Get the metrics in the Prometheus text format: one line per counter,
+     * and per histogram the percentiles, the number of values and the
+     * maximum.
+     *
+     * @return metrics, one per line
+     */
+    public final String scrape() {
+	StringBuffer sb = new StringBuffer();
+	for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+	    sb.append(entry.getKey()).append(' ').append(entry.getValue())
+		    .append('\n');
+	}
+	for (Map.Entry<String, LatencyHistogram> entry : getHistograms()
+		.entrySet()) {
+	    String name = entry.getKey();
+	    LatencyHistogram histogram = entry.getValue();
+	    for (int i = 0; i < PERCENTILES.length; i++) {
+		sb.append(name).append("{quantile=\"").append(QUANTILES[i])
+			.append("\"} ")
+			.append(histogram.getValueAtPercentile(PERCENTILES[i]))
+			.append('\n');
+	    }
+	    sb.append(name).append("_count ").append(histogram.getCount())
+		    .append('\n');
+	    sb.append(name).append("_max ").append(histogram.getMax())
+		    .append('\n');
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Remove all counters and histograms.
+     */
+    public final void clear() {
+	counters.clear();
+	histograms.clear();
+    }
+
+}
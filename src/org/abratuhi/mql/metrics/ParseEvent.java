@@ -0,0 +1,63 @@
+package org.abratuhi.mql.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * Flight Recorder event of parsing a query, committed by
+ * {@link org.abratuhi.mql.Parser#parse(String)}.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+@Name("org.abratuhi.mql.Parse")
+@Label("MQL Parse")
+@Category("MQL")
+@Description("Parsing of a query")
+@StackTrace(false)
+public final class ParseEvent extends Event {
+
+    /**
+     * Fingerprint of the query.
+     */
+    @Label("Fingerprint")
+    private String fingerprint;
+    /**
+     * Length of the query.
+     */
+    @Label("Length")
+    private int length;
+    /**
+     * Whether the query has been parsed.
+     */
+    @Label("Success")
+    private boolean success;
+
+    /**
+     * Set the parsed query.
+     *
+     * @param query
+     *            query text
+     */
+    public void setQuery(final String query) {
+	this.fingerprint = QueryFingerprint.of(query);
+	this.length = query.length();
+    }
+
+    /**
+     * Set whether the query has been parsed.
+     *
+     * @param success
+     *            whether the query has been parsed
+     */
+    public void setSuccess(final boolean success) {
+	this.success = success;
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.abratuhi.mql.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * Flight Recorder event of executing a query, committed by
+ * {@link org.abratuhi.mql.exec.Scan}.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+@Name("org.abratuhi.mql.QueryExecution")
+@Label("MQL Query Execution")
+@Category("MQL")
+@Description("Execution of a query over a record collection")
+@StackTrace(false)
+public final class QueryExecutionEvent extends Event {
+
+    /**
+     * Fingerprint of the query.
+     */
+    @Label("Fingerprint")
+    private String fingerprint;
+    /**
+     * Records evaluated.
+     */
+    @Label("Records Scanned")
+    private long scanned;
+    /**
+     * Matching records.
+     */
+    @Label("Records Matched")
+    private long matched;
+    /**
+     * Regular expression steps.
+     */
+    @Label("Regular Expression Steps")
+    private long steps;
+    /**
+     * Whether the budget of the execution has been exceeded.
+     */
+    @Label("Budget Exceeded")
+    private boolean exceeded;
+
+    /**
+     * Set the executed query.
+     *
+     * @param query
+     *            query text
+     */
+    public void setQuery(final String query) {
+	this.fingerprint = QueryFingerprint.of(query);
+    }
+
+    /**
+     * Set the counts of the execution.
+     *
+     * @param scanned
+     *            records evaluated
+     * @param matched
+     *            matching records
+     * @param steps
+     *            regular expression steps
+     * @param exceeded
+     *            whether the budget has been exceeded
+     */
+    public void setCounts(final long scanned, final long matched,
+	    final long steps, final boolean exceeded) {
+	this.scanned = scanned;
+	this.matched = matched;
+	this.steps = steps;
+	this.exceeded = exceeded;
+    }
+
+}
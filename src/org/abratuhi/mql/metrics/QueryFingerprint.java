@@ -0,0 +1,66 @@
+package org.abratuhi.mql.metrics;
+
+import org.abratuhi.mql.stats.Hashing;
+
+/**
+ * <p>
+ * Fingerprint of the shape of a query: queries differing only in their
+ * values have the same fingerprint, e.g.
+ * <code>('name'="Harry")</code> and <code>('name'="Ron")</code>.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class QueryFingerprint {
+
+    /**
+     * Utility class.
+     */
+    private QueryFingerprint() {
+    }
+
+    /**
+     * Get the shape of a query: the query with every double quoted value
+     * replaced by <code>?</code>.
+     *
+     * @param query
+     *            query text
+     * @return shape
+     */
+    public static String shape(final String query) {
+	StringBuilder sb = new StringBuilder(query.length());
+	boolean value = false;
+	for (int i = 0; i < query.length(); i++) {
+	    char c = query.charAt(i);
+	    if (value) {
+		if (c == '\\') {
+		    i++;
+		} else if (c == '"') {
+		    value = false;
+		    sb.append("?\"");
+		}
+	    } else {
+		sb.append(c);
+		value = c == '"';
+	    }
+	}
+	if (value) {
+	    sb.append('?');
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Get the fingerprint of a query.
+     *
+     * @param query
+     *            query text
+     * @return 64-bit hash of the shape, as 16 hexadecimal digits
+     */
+    public static String of(final String query) {
+	String hex = Long.toHexString(Hashing.hash64(shape(query)));
+	return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+}
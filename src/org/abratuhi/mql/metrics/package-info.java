@@ -0,0 +1,5 @@
+/**
+ * Provides the JDK Flight Recorder events and the in-process metrics of
+ * parsing and executing queries.
+ */
+package org.abratuhi.mql.metrics;
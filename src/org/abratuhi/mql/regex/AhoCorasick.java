@@ -0,0 +1,220 @@
+package org.abratuhi.mql.regex;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * <p>
+ * Aho-Corasick automaton finding all occurrences of a set of literal strings
+ * in a single pass over the value.
+ * </p>
+ * <p>
+ * The automaton is driven by the caller: starting with
+ * {@link AhoCorasick#ROOT}, each character of the value is fed to
+ * {@link AhoCorasick#step(int, char)}, and {@link AhoCorasick#outputs(int)}
+ * of the reached state lists the literals ending at the current position.
+ * </p>
+ * <p>
+ * Instances are not modified once built.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class AhoCorasick {
+
+    /**
+     * Initial state.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Sorted labels of the outgoing trie edges by state.
+     */
+    private char[][] labels;
+    /**
+     * Targets of the outgoing trie edges by state, in order of the labels.
+     */
+    private int[][] targets;
+    /**
+     * Failure link by state: state of the longest proper suffix which is a
+     * prefix of some literal.
+     */
+    private int[] failure;
+    /**
+     * Literals ending in the state, including those ending in any state
+     * along the failure links.
+     */
+    private int[][] outputs;
+    /**
+     * Length of the literals.
+     */
+    private final int[] lengths;
+
+    /**
+     * Build the automaton.
+     *
+     * @param literals
+     *            literals to find, must not be empty
+     */
+    public AhoCorasick(final List<String> literals) {
+	lengths = new int[literals.size()];
+	int capacity = 1;
+	for (int i = 0; i < lengths.length; i++) {
+	    lengths[i] = literals.get(i).length();
+	    capacity += lengths[i];
+	}
+	labels = new char[capacity][];
+	targets = new int[capacity][];
+	failure = new int[capacity];
+	outputs = new int[capacity][];
+
+	// build the trie
+	int size = 1;
+	labels[ROOT] = new char[0];
+	targets[ROOT] = new int[0];
+	outputs[ROOT] = new int[0];
+	for (int i = 0; i < lengths.length; i++) {
+	    String literal = literals.get(i);
+	    int state = ROOT;
+	    for (int j = 0; j < literal.length(); j++) {
+		int next = edge(state, literal.charAt(j));
+		if (next == -1) {
+		    next = size++;
+		    labels[next] = new char[0];
+		    targets[next] = new int[0];
+		    outputs[next] = new int[0];
+		    addEdge(state, literal.charAt(j), next);
+		}
+		state = next;
+	    }
+	    outputs[state] = append(outputs[state], i);
+	}
+
+	// compute failure links breadth-first, so that the failure state of
+	// a state is always complete before the state itself
+	Queue<Integer> queue = new LinkedList<Integer>();
+	for (int target : targets[ROOT]) {
+	    failure[target] = ROOT;
+	    queue.add(target);
+	}
+	while (!queue.isEmpty()) {
+	    int state = queue.poll();
+	    for (int i = 0; i < labels[state].length; i++) {
+		int target = targets[state][i];
+		failure[target] = step(failure[state], labels[state][i]);
+		for (int output : outputs[failure[target]]) {
+		    outputs[target] = append(outputs[target], output);
+		}
+		queue.add(target);
+	    }
+	}
+
+	labels = Arrays.copyOf(labels, size);
+	targets = Arrays.copyOf(targets, size);
+	failure = Arrays.copyOf(failure, size);
+	outputs = Arrays.copyOf(outputs, size);
+    }
+
+    /**
+     * Consume a character.
+     *
+     * @param state
+     *            current state
+     * @param c
+     *            character
+     * @return following state
+     */
+    public int step(final int state, final char c) {
+	int s = state;
+	while (true) {
+	    int next = edge(s, c);
+	    if (next != -1) {
+		return next;
+	    } else if (s == ROOT) {
+		return ROOT;
+	    }
+	    s = failure[s];
+	}
+    }
+
+    /**
+     * Get the literals ending in the state.
+     *
+     * @param state
+     *            state
+     * @return indexes of the literals, do not modify
+     */
+    public int[] outputs(final int state) {
+	return outputs[state];
+    }
+
+    /**
+     * Get length of the literal.
+     *
+     * @param literal
+     *            index of the literal
+     * @return length
+     */
+    public int length(final int literal) {
+	return lengths[literal];
+    }
+
+    /**
+     * Follow the trie edge.
+     *
+     * @param state
+     *            state
+     * @param c
+     *            label
+     * @return target or <code>-1</code> in case there is no such edge
+     */
+    private int edge(final int state, final char c) {
+	int i = Arrays.binarySearch(labels[state], c);
+	return i < 0 ? -1 : targets[state][i];
+    }
+
+    /**
+     * Add a trie edge, keeping the labels sorted.
+     *
+     * @param state
+     *            state
+     * @param c
+     *            label
+     * @param target
+     *            target
+     */
+    private void addEdge(final int state, final char c, final int target) {
+	char[] l = labels[state];
+	int[] t = targets[state];
+	int i = -Arrays.binarySearch(l, c) - 1;
+	char[] newLabels = new char[l.length + 1];
+	int[] newTargets = new int[t.length + 1];
+	System.arraycopy(l, 0, newLabels, 0, i);
+	System.arraycopy(t, 0, newTargets, 0, i);
+	newLabels[i] = c;
+	newTargets[i] = target;
+	System.arraycopy(l, i, newLabels, i + 1, l.length - i);
+	System.arraycopy(t, i, newTargets, i + 1, t.length - i);
+	labels[state] = newLabels;
+	targets[state] = newTargets;
+    }
+
+    /**
+     * Append a value to an array.
+     *
+     * @param array
+     *            array
+     * @param value
+     *            value
+     * @return new array
+     */
+    private static int[] append(final int[] array, final int value) {
+	int[] result = Arrays.copyOf(array, array.length + 1);
+	result[array.length] = value;
+	return result;
+    }
+
+}
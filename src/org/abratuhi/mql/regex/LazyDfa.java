@@ -0,0 +1,265 @@
+package org.abratuhi.mql.regex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Deterministic finite automaton built lazily from an {@link Nfa}: each DFA
+ * state is a set of NFA states, transitions are computed the first time they
+ * are needed and then cached.
+ * </p>
+ * <p>
+ * Matching takes time linear in the length of the value, no matter how the
+ * regular expression looks like. The number of cached states is bounded by
+ * {@link LazyDfa#MAX_STATES}; once exceeded, the cache is dropped and built
+ * anew.
+ * </p>
+ * <p>
+ * Matching is thread-safe: cached transitions are read without locking,
+ * computing a new transition is synchronized.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class LazyDfa {
+
+    /**
+     * Maximal number of cached states.
+     */
+    static final int MAX_STATES = 10000;
+
+    /**
+     * Result of {@link LazyDfa#matches(CharSequence)}: value matches.
+     */
+    static final int MATCH = 1;
+    /**
+     * Result of {@link LazyDfa#matches(CharSequence)}: value doesn't match.
+     */
+    static final int NO_MATCH = 0;
+    /**
+     * Result of {@link LazyDfa#matches(CharSequence)}: value contains
+     * supplementary characters which the automaton can't handle.
+     */
+    static final int UNDECIDED = -1;
+
+    /**
+     * State of the deterministic automaton.
+     */
+    static final class State {
+	/**
+	 * Sorted NFA states (consuming and accepting ones only).
+	 */
+	final int[] nfaStates;
+	/**
+	 * Whether the state is accepting.
+	 */
+	final boolean accepting;
+	/**
+	 * Whether no value can be matched anymore from this state.
+	 */
+	final boolean dead;
+	/**
+	 * Cached transitions on ASCII characters.
+	 */
+	final State[] ascii = new State[128];
+	/**
+	 * Cached transitions on other characters.
+	 */
+	final Map<Character, State> other = new HashMap<Character, State>();
+
+	/**
+	 * Constructor.
+	 * @param nfaStates sorted NFA states
+	 */
+	State(final int[] nfaStates) {
+	    this.nfaStates = nfaStates;
+	    this.dead = nfaStates.length == 0;
+	    this.accepting = nfaStates.length > 0
+		    && nfaStates[0] == Nfa.MATCH;
+	}
+    }
+
+    /**
+     * Key of a state in the cache.
+     */
+    private static final class Key {
+	/**
+	 * Sorted NFA states.
+	 */
+	private final int[] nfaStates;
+
+	/**
+	 * Constructor.
+	 * @param nfaStates sorted NFA states
+	 */
+	Key(final int[] nfaStates) {
+	    this.nfaStates = nfaStates;
+	}
+
+	@Override
+	public int hashCode() {
+	    return Arrays.hashCode(nfaStates);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+	    return o instanceof Key
+		    && Arrays.equals(nfaStates, ((Key) o).nfaStates);
+	}
+    }
+
+    /**
+     * Underlying non-deterministic automaton.
+     */
+    private final Nfa nfa;
+    /**
+     * Cached states.
+     */
+    private Map<Key, State> cache = new HashMap<Key, State>();
+    /**
+     * Start state.
+     */
+    private volatile State start;
+
+    /**
+     * Constructor.
+     *
+     * @param nfa
+     *            non-deterministic automaton
+     */
+    LazyDfa(final Nfa nfa) {
+	this.nfa = nfa;
+	BitSet closure = new BitSet(nfa.size);
+	close(nfa.start, closure);
+	this.start = state(closure);
+    }
+
+    /**
+     * Check whether the whole value matches.
+     *
+     * @param value
+     *            value
+     * @return {@link LazyDfa#MATCH}, {@link LazyDfa#NO_MATCH} or
+     *         {@link LazyDfa#UNDECIDED}
+     */
+    int matches(final CharSequence value) {
+	State state = start;
+	int length = value.length();
+	for (int i = 0; i < length; i++) {
+	    if (state.dead) {
+		// the characters consumed so far are single code points, no
+		// other engine could match either
+		return NO_MATCH;
+	    }
+	    char c = value.charAt(i);
+	    if (Character.isSurrogate(c)) {
+		return UNDECIDED;
+	    }
+	    State following = c < 128 ? state.ascii[c] : null;
+	    if (following == null) {
+		following = step(state, c);
+	    }
+	    state = following;
+	}
+	return state.accepting ? MATCH : NO_MATCH;
+    }
+
+    /**
+     * Compute (or look up) the transition on a character.
+     *
+     * @param state
+     *            current state
+     * @param c
+     *            character
+     * @return following state
+     */
+    private synchronized State step(final State state, final char c) {
+	if (c >= 128) {
+	    State following = state.other.get(c);
+	    if (following != null) {
+		return following;
+	    }
+	}
+
+	BitSet closure = new BitSet(nfa.size);
+	for (int s : state.nfaStates) {
+	    if (s != Nfa.MATCH && nfa.accepts(s, c)) {
+		close(nfa.next[s], closure);
+	    }
+	}
+	State following = state(closure);
+
+	if (c < 128) {
+	    state.ascii[c] = following;
+	} else {
+	    state.other.put(c, following);
+	}
+	return following;
+    }
+
+    /**
+     * Get the cached state for the set of NFA states, creating it if
+     * needed.
+     *
+     * @param closure
+     *            set of NFA states
+     * @return state
+     */
+    private synchronized State state(final BitSet closure) {
+	int[] nfaStates = new int[closure.cardinality()];
+	int n = 0;
+	for (int s = closure.nextSetBit(0); s >= 0; s = closure
+		.nextSetBit(s + 1)) {
+	    nfaStates[n++] = s;
+	}
+
+	Key key = new Key(nfaStates);
+	State state = cache.get(key);
+	if (state == null) {
+	    if (cache.size() >= MAX_STATES) {
+		// drop the cache, states still in use by running matches
+		// stay valid
+		cache = new HashMap<Key, State>();
+		start = new State(start.nfaStates);
+		cache.put(new Key(start.nfaStates), start);
+	    }
+	    state = new State(nfaStates);
+	    cache.put(key, state);
+	}
+	return state;
+    }
+
+    /**
+     * Add the state and all states reachable from it without consuming a
+     * character to the closure, leaving out the epsilon states themselves.
+     *
+     * @param state
+     *            state
+     * @param closure
+     *            closure
+     */
+    private void close(final int state, final BitSet closure) {
+	BitSet visited = new BitSet(nfa.size);
+	int[] stack = new int[2 * nfa.size + 1];
+	int top = 0;
+	stack[top++] = state;
+	while (top > 0) {
+	    int s = stack[--top];
+	    if (s == Nfa.NONE || visited.get(s)) {
+		continue;
+	    }
+	    visited.set(s);
+	    if (nfa.isEpsilon(s)) {
+		stack[top++] = nfa.next[s];
+		stack[top++] = nfa.split[s];
+	    } else {
+		closure.set(s);
+	    }
+	}
+    }
+
+}
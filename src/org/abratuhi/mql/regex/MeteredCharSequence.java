@@ -0,0 +1,73 @@
+package org.abratuhi.mql.regex;
+
+import org.abratuhi.mql.EvaluationBudget;
+
+/**
+ * <p>
+ * Character sequence reporting each character access as a step to the
+ * {@link EvaluationBudget.Meter}, so that backtracking matches by
+ * {@link java.util.regex} can be aborted once the budget is exceeded.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class MeteredCharSequence implements CharSequence {
+
+    /**
+     * Number of character accesses reported at once.
+     */
+    private static final int BATCH = 1024;
+
+    /**
+     * Underlying character sequence.
+     */
+    private final CharSequence value;
+    /**
+     * Meter to report the steps to.
+     */
+    private final EvaluationBudget.Meter meter;
+    /**
+     * Character accesses not reported yet.
+     */
+    private int accesses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param value
+     *            underlying character sequence
+     * @param meter
+     *            meter to report the steps to
+     */
+    MeteredCharSequence(final CharSequence value,
+	    final EvaluationBudget.Meter meter) {
+	this.value = value;
+	this.meter = meter;
+    }
+
+    @Override
+    public char charAt(final int index) {
+	if (++accesses == BATCH) {
+	    accesses = 0;
+	    meter.step(BATCH);
+	}
+	return value.charAt(index);
+    }
+
+    @Override
+    public int length() {
+	return value.length();
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+	return new MeteredCharSequence(value.subSequence(start, end), meter);
+    }
+
+    @Override
+    public String toString() {
+	return value.toString();
+    }
+
+}
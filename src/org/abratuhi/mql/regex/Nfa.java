@@ -0,0 +1,195 @@
+package org.abratuhi.mql.regex;
+
+import java.util.Arrays;
+
+import org.abratuhi.mql.regex.RegexParser.AlternationNode;
+import org.abratuhi.mql.regex.RegexParser.CharNode;
+import org.abratuhi.mql.regex.RegexParser.ConcatNode;
+import org.abratuhi.mql.regex.RegexParser.Node;
+import org.abratuhi.mql.regex.RegexParser.RepetitionNode;
+
+/**
+ * <p>
+ * Non-deterministic finite automaton built from a parsed regular expression
+ * by Thompson's construction.
+ * </p>
+ * <p>
+ * Each state either consumes a character out of its character ranges and
+ * moves to {@link Nfa#next}, or - in case it has no ranges - moves to
+ * {@link Nfa#next} and {@link Nfa#split} without consuming anything. State
+ * {@link Nfa#MATCH} is the only accepting state.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class Nfa {
+
+    /**
+     * Accepting state.
+     */
+    static final int MATCH = 0;
+    /**
+     * Missing transition.
+     */
+    static final int NONE = -1;
+    /**
+     * Maximal number of states - nested bounded repetitions multiply the
+     * size of the automaton, larger ones are left to
+     * {@link java.util.regex}.
+     */
+    static final int MAX_STATES = 1 << 16;
+
+    /**
+     * Character ranges by state, <code>null</code> for states not consuming
+     * a character.
+     */
+    int[][] ranges = new int[16][];
+    /**
+     * First following state by state.
+     */
+    int[] next = new int[16];
+    /**
+     * Second following state by state, for states not consuming a character.
+     */
+    int[] split = new int[16];
+    /**
+     * Number of states.
+     */
+    int size = 0;
+    /**
+     * Start state.
+     */
+    int start;
+
+    /**
+     * Build the automaton.
+     *
+     * @param node
+     *            parsed regular expression
+     * @throws UnsupportedRegexException
+     *             in case the automaton exceeds {@link Nfa#MAX_STATES}
+     */
+    Nfa(final Node node) throws UnsupportedRegexException {
+	add(null, NONE, NONE); // MATCH
+	start = compile(node, MATCH);
+    }
+
+    /**
+     * Compile the node so that it continues with the given state.
+     *
+     * @param node
+     *            node to compile
+     * @param following
+     *            state following the node
+     * @return first state of the node
+     * @throws UnsupportedRegexException
+     *             in case the automaton exceeds {@link Nfa#MAX_STATES}
+     */
+    private int compile(final Node node, final int following)
+	    throws UnsupportedRegexException {
+	if (node instanceof CharNode) {
+	    return add(((CharNode) node).ranges, following, NONE);
+	} else if (node instanceof ConcatNode) {
+	    int state = following;
+	    ConcatNode concat = (ConcatNode) node;
+	    for (int i = concat.nodes.size() - 1; i >= 0; i--) {
+		state = compile(concat.nodes.get(i), state);
+	    }
+	    return state;
+	} else if (node instanceof AlternationNode) {
+	    AlternationNode alternation = (AlternationNode) node;
+	    int last = alternation.nodes.size() - 1;
+	    int state = compile(alternation.nodes.get(last), following);
+	    for (int i = last - 1; i >= 0; i--) {
+		state = add(null, compile(alternation.nodes.get(i), following),
+			state);
+	    }
+	    return state;
+	} else {
+	    RepetitionNode repetition = (RepetitionNode) node;
+	    int state = following;
+	    if (repetition.max == -1) {
+		// loop: either another repetition or continue
+		int loop = add(null, NONE, following);
+		// compile first - it may grow the arrays
+		int body = compile(repetition.node, loop);
+		next[loop] = body;
+		state = loop;
+	    } else {
+		// optional repetitions, each may skip to the continuation
+		for (int i = repetition.min; i < repetition.max; i++) {
+		    state = add(null, compile(repetition.node, state),
+			    following);
+		}
+	    }
+	    for (int i = 0; i < repetition.min; i++) {
+		state = compile(repetition.node, state);
+	    }
+	    return state;
+	}
+    }
+
+    /**
+     * Add a state.
+     *
+     * @param stateRanges
+     *            character ranges or <code>null</code>
+     * @param stateNext
+     *            first following state
+     * @param stateSplit
+     *            second following state
+     * @return added state
+     * @throws UnsupportedRegexException
+     *             in case the automaton exceeds {@link Nfa#MAX_STATES}
+     */
+    private int add(final int[] stateRanges, final int stateNext,
+	    final int stateSplit) throws UnsupportedRegexException {
+	if (size == MAX_STATES) {
+	    throw new UnsupportedRegexException("More than " + MAX_STATES
+		    + " states");
+	}
+	if (size == next.length) {
+	    ranges = Arrays.copyOf(ranges, size * 2);
+	    next = Arrays.copyOf(next, size * 2);
+	    split = Arrays.copyOf(split, size * 2);
+	}
+	ranges[size] = stateRanges;
+	next[size] = stateNext;
+	split[size] = stateSplit;
+	return size++;
+    }
+
+    /**
+     * Check whether the state consumes the character.
+     *
+     * @param state
+     *            state consuming characters
+     * @param c
+     *            character
+     * @return whether the character is within the state's ranges
+     */
+    boolean accepts(final int state, final char c) {
+	int[] r = ranges[state];
+	for (int i = 0; i < r.length; i += 2) {
+	    if (c < r[i]) {
+		return false;
+	    } else if (c <= r[i + 1]) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Check whether the state doesn't consume characters.
+     *
+     * @param state
+     *            state
+     * @return whether the state is an epsilon state
+     */
+    boolean isEpsilon(final int state) {
+	return state != MATCH && ranges[state] == null;
+    }
+
+}
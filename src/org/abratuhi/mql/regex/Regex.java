@@ -0,0 +1,123 @@
+package org.abratuhi.mql.regex;
+
+import java.util.regex.Pattern;
+
+import org.abratuhi.mql.EvaluationBudget;
+
+/**
+ * <p>
+ * Compiled regular expression, matched against the whole value - same as
+ * {@link String#matches(String)}.
+ * </p>
+ * <p>
+ * Regular expressions within the subset supported by {@link RegexParser} are
+ * matched by a lazily built deterministic automaton ({@link LazyDfa}) in
+ * time linear in the length of the value, so that patterns like
+ * <code>(a+)+b</code> can't cause catastrophic backtracking. All other
+ * regular expressions, and values containing supplementary characters, are
+ * matched by {@link java.util.regex}.
+ * </p>
+ * <p>
+ * In case an {@link EvaluationBudget} is bound to the current thread, the
+ * characters consumed are reported to it as steps - including every
+ * character access while {@link java.util.regex} backtracks.
+ * </p>
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class Regex {
+
+    /**
+     * Regular expression as string.
+     */
+    private final String regex;
+    /**
+     * Regular expression compiled by {@link java.util.regex}.
+     */
+    private final Pattern pattern;
+    /**
+     * Automaton, <code>null</code> in case the regular expression is not
+     * supported by the automaton engine.
+     */
+    private final LazyDfa dfa;
+
+    /**
+     * Constructor.
+     *
+     * @param regex
+     *            regular expression
+     * @param pattern
+     *            regular expression compiled by {@link java.util.regex}
+     * @param dfa
+     *            automaton or <code>null</code>
+     */
+    private Regex(final String regex, final Pattern pattern,
+	    final LazyDfa dfa) {
+	this.regex = regex;
+	this.pattern = pattern;
+	this.dfa = dfa;
+    }
+
+    /**
+     * Compile the regular expression.
+     *
+     * @param regex
+     *            regular expression
+     * @return compiled regular expression
+     * @throws java.util.regex.PatternSyntaxException
+     *             in case the regular expression is invalid
+     */
+    public static Regex compile(final String regex) {
+	// validate syntax the same way String.matches does
+	Pattern pattern = Pattern.compile(regex);
+	LazyDfa dfa;
+	try {
+	    dfa = new LazyDfa(new Nfa(RegexParser.parse(regex)));
+	} catch (UnsupportedRegexException e) {
+	    dfa = null;
+	}
+	return new Regex(regex, pattern, dfa);
+    }
+
+    /**
+     * Check whether the whole value matches the regular expression.
+     *
+     * @param value
+     *            value
+     * @return whether the value matches
+     */
+    public boolean matches(final CharSequence value) {
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	int result = dfa == null ? LazyDfa.UNDECIDED : dfa.matches(value);
+	if (result == LazyDfa.UNDECIDED) {
+	    return pattern.matcher(
+		    meter == null ? value : new MeteredCharSequence(value, meter))
+		    .matches();
+	}
+	if (meter != null) {
+	    meter.step(value.length());
+	}
+	return result == LazyDfa.MATCH;
+    }
+
+    /**
+     * Check whether the regular expression is matched by the automaton
+     * engine.
+     *
+     * @return <code>false</code> in case {@link java.util.regex} is used for
+     *         all values
+     */
+    public boolean isAutomaton() {
+	return dfa != null;
+    }
+
+    @Override
+    public String toString() {
+	return regex;
+    }
+
+}
@@ -0,0 +1,589 @@
+package org.abratuhi.mql.regex;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Parser of the regular expression subset supported by the automaton engine.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * alternation ::= <concatenation> ['|' <concatenation>...'|' <concatenation>]
+ * concatenation ::= [<repetition>...<repetition>]
+ * repetition ::= <atom> [*|+|?|{n}|{n,}|{n,m}] [?]
+ * atom ::= <char>|.|<escape>|<class>|(<alternation>)|(?:<alternation>)
+ * }
+ * </pre>
+ *
+ * <p>
+ * <code>^</code> and <code>$</code> are supported at the very beginning and
+ * the very end of the regular expression only - since the whole value has to
+ * match, they don't change the result there. Any other feature of
+ * {@link java.util.regex.Pattern} (back references, look-arounds, flags,
+ * possessive quantifiers, word boundaries, unicode classes, class
+ * intersections, quotations) raises an {@link UnsupportedRegexException}.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class RegexParser {
+
+    /**
+     * Maximal number of copies of a sub-expression created for a bounded
+     * repetition.
+     */
+    private static final int MAX_REPETITION = 1000;
+
+    /**
+     * Ranges of <code>.</code> - any character except line terminators.
+     */
+    static final int[] DOT = complement(new int[] { '\n', '\n', '\r', '\r',
+	    '\u0085', '\u0085', '\u2028', '\u2029' });
+    /**
+     * Ranges of <code>\d</code>.
+     */
+    static final int[] DIGIT = new int[] { '0', '9' };
+    /**
+     * Ranges of <code>\w</code>.
+     */
+    static final int[] WORD = new int[] { '0', '9', 'A', 'Z', '_', '_', 'a',
+	    'z' };
+    /**
+     * Ranges of <code>\s</code>.
+     */
+    static final int[] SPACE = new int[] { '\t', '\r', ' ', ' ' };
+
+    /**
+     * Node of the parsed regular expression.
+     */
+    abstract static class Node {
+    }
+
+    /**
+     * Single character out of a set of character ranges.
+     */
+    static final class CharNode extends Node {
+	/**
+	 * Sorted, non-overlapping ranges as pairs of first and last
+	 * character.
+	 */
+	final int[] ranges;
+
+	/**
+	 * Constructor.
+	 * @param ranges character ranges
+	 */
+	CharNode(final int[] ranges) {
+	    this.ranges = ranges;
+	}
+    }
+
+    /**
+     * Sequence of nodes.
+     */
+    static final class ConcatNode extends Node {
+	/**
+	 * Nodes in order.
+	 */
+	final List<Node> nodes;
+
+	/**
+	 * Constructor.
+	 * @param nodes nodes in order
+	 */
+	ConcatNode(final List<Node> nodes) {
+	    this.nodes = nodes;
+	}
+    }
+
+    /**
+     * Alternative nodes.
+     */
+    static final class AlternationNode extends Node {
+	/**
+	 * Alternatives.
+	 */
+	final List<Node> nodes;
+
+	/**
+	 * Constructor.
+	 * @param nodes alternatives
+	 */
+	AlternationNode(final List<Node> nodes) {
+	    this.nodes = nodes;
+	}
+    }
+
+    /**
+     * Repeated node.
+     */
+    static final class RepetitionNode extends Node {
+	/**
+	 * Repeated node.
+	 */
+	final Node node;
+	/**
+	 * Minimal number of repetitions.
+	 */
+	final int min;
+	/**
+	 * Maximal number of repetitions, <code>-1</code> for unbounded.
+	 */
+	final int max;
+
+	/**
+	 * Constructor.
+	 * @param node repeated node
+	 * @param min minimal number of repetitions
+	 * @param max maximal number of repetitions
+	 */
+	RepetitionNode(final Node node, final int min, final int max) {
+	    this.node = node;
+	    this.min = min;
+	    this.max = max;
+	}
+    }
+
+    /**
+     * Regular expression being parsed.
+     */
+    private final String regex;
+    /**
+     * Current position.
+     */
+    private int position = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param regex
+     *            regular expression
+     */
+    private RegexParser(final String regex) {
+	this.regex = regex;
+    }
+
+    /**
+     * Parse the regular expression.
+     *
+     * @param regex
+     *            regular expression
+     * @return parsed regular expression
+     * @throws UnsupportedRegexException
+     *             in case the regular expression uses unsupported features
+     */
+    static Node parse(final String regex) throws UnsupportedRegexException {
+	int start = regex.startsWith("^") ? 1 : 0;
+	int end = regex.length();
+	if (end > start && regex.charAt(end - 1) == '$' && !escaped(regex,
+		end - 1)) {
+	    end--;
+	}
+	RegexParser parser = new RegexParser(regex.substring(start, end));
+	Node node = parser.parseAlternation();
+	if (parser.position != parser.regex.length()) {
+	    throw new UnsupportedRegexException("Unexpected "
+		    + parser.regex.charAt(parser.position));
+	}
+	return node;
+    }
+
+    /**
+     * Check whether the character at the given position is escaped.
+     *
+     * @param regex
+     *            regular expression
+     * @param index
+     *            position of the character
+     * @return whether it is preceded by an odd number of backslashes
+     */
+    private static boolean escaped(final String regex, final int index) {
+	int backslashes = 0;
+	for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+	    backslashes++;
+	}
+	return backslashes % 2 == 1;
+    }
+
+    /**
+     * Parse alternatives separated by <code>|</code>.
+     *
+     * @return parsed node
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private Node parseAlternation() throws UnsupportedRegexException {
+	List<Node> nodes = new Vector<Node>();
+	nodes.add(parseConcatenation());
+	while (more() && peek() == '|') {
+	    position++;
+	    nodes.add(parseConcatenation());
+	}
+	return nodes.size() == 1 ? nodes.get(0) : new AlternationNode(nodes);
+    }
+
+    /**
+     * Parse a sequence of repetitions.
+     *
+     * @return parsed node
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private Node parseConcatenation() throws UnsupportedRegexException {
+	List<Node> nodes = new Vector<Node>();
+	while (more() && peek() != '|' && peek() != ')') {
+	    nodes.add(parseRepetition());
+	}
+	return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+    }
+
+    /**
+     * Parse an atom followed by an optional quantifier.
+     *
+     * @return parsed node
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private Node parseRepetition() throws UnsupportedRegexException {
+	Node node = parseAtom();
+	if (more()) {
+	    int min;
+	    int max;
+	    char c = peek();
+	    if (c == '*') {
+		min = 0;
+		max = -1;
+		position++;
+	    } else if (c == '+') {
+		min = 1;
+		max = -1;
+		position++;
+	    } else if (c == '?') {
+		min = 0;
+		max = 1;
+		position++;
+	    } else if (c == '{') {
+		position++;
+		min = parseNumber();
+		max = min;
+		if (more() && peek() == ',') {
+		    position++;
+		    max = more() && peek() == '}' ? -1 : parseNumber();
+		}
+		expect('}');
+		if (min > MAX_REPETITION || max > MAX_REPETITION
+			|| (max != -1 && max < min)) {
+		    throw new UnsupportedRegexException("Repetition {" + min
+			    + "," + max + "}");
+		}
+	    } else {
+		return node;
+	    }
+
+	    if (more() && peek() == '?') {
+		// reluctant quantifier - same result when the whole value
+		// has to match
+		position++;
+	    } else if (more() && peek() == '+') {
+		throw new UnsupportedRegexException("Possessive quantifier");
+	    }
+	    if (more() && (peek() == '*' || peek() == '+' || peek() == '?'
+		    || peek() == '{')) {
+		// java.util.regex doesn't simply nest stacked quantifiers
+		throw new UnsupportedRegexException("Stacked quantifier");
+	    }
+	    node = new RepetitionNode(node, min, max);
+	}
+	return node;
+    }
+
+    /**
+     * Parse a single atom.
+     *
+     * @return parsed node
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private Node parseAtom() throws UnsupportedRegexException {
+	char c = regex.charAt(position++);
+	switch (c) {
+	case '(':
+	    if (more() && peek() == '?') {
+		if (position + 1 < regex.length()
+			&& regex.charAt(position + 1) == ':') {
+		    position += 2;
+		} else {
+		    throw new UnsupportedRegexException("Special group");
+		}
+	    }
+	    Node node = parseAlternation();
+	    expect(')');
+	    return node;
+	case '.':
+	    return new CharNode(DOT);
+	case '[':
+	    return new CharNode(parseClass());
+	case '\\':
+	    return new CharNode(parseEscape());
+	case '*':
+	case '+':
+	case '?':
+	case '{':
+	case '^':
+	case '$':
+	    throw new UnsupportedRegexException("Unexpected " + c);
+	default:
+	    if (Character.isSurrogate(c)) {
+		throw new UnsupportedRegexException("Supplementary character");
+	    }
+	    return new CharNode(new int[] { c, c });
+	}
+    }
+
+    /**
+     * Parse a character class, the opening bracket has already been
+     * consumed.
+     *
+     * @return character ranges
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private int[] parseClass() throws UnsupportedRegexException {
+	boolean negated = false;
+	if (more() && peek() == '^') {
+	    negated = true;
+	    position++;
+	}
+	if (more() && peek() == ']') {
+	    throw new UnsupportedRegexException("Empty class");
+	}
+
+	int[] ranges = new int[0];
+	while (more() && peek() != ']') {
+	    char c = regex.charAt(position++);
+	    int[] item;
+	    if (c == '[' || (c == '&' && more() && peek() == '&')) {
+		throw new UnsupportedRegexException("Class union/intersection");
+	    } else if (c == '\\') {
+		item = parseEscape();
+	    } else if (Character.isSurrogate(c)) {
+		throw new UnsupportedRegexException("Supplementary character");
+	    } else {
+		item = new int[] { c, c };
+	    }
+
+	    // range of two single characters
+	    if (item.length == 2 && item[0] == item[1] && more()
+		    && peek() == '-' && position + 1 < regex.length()
+		    && regex.charAt(position + 1) != ']') {
+		position++;
+		char last = regex.charAt(position++);
+		int[] lastItem = last == '\\' ? parseEscape() : new int[] {
+			last, last };
+		if (lastItem.length != 2 || lastItem[0] != lastItem[1]
+			|| lastItem[0] < item[0]
+			|| Character.isSurrogate(last)) {
+		    throw new UnsupportedRegexException("Illegal range");
+		}
+		item = new int[] { item[0], lastItem[0] };
+	    }
+	    ranges = union(ranges, item);
+	}
+	expect(']');
+	return negated ? complement(ranges) : ranges;
+    }
+
+    /**
+     * Parse an escape sequence, the backslash has already been consumed.
+     *
+     * @return character ranges
+     * @throws UnsupportedRegexException
+     *             in case of unsupported features
+     */
+    private int[] parseEscape() throws UnsupportedRegexException {
+	if (!more()) {
+	    throw new UnsupportedRegexException("Trailing backslash");
+	}
+	char c = regex.charAt(position++);
+	switch (c) {
+	case 'd':
+	    return DIGIT;
+	case 'D':
+	    return complement(DIGIT);
+	case 'w':
+	    return WORD;
+	case 'W':
+	    return complement(WORD);
+	case 's':
+	    return SPACE;
+	case 'S':
+	    return complement(SPACE);
+	case 't':
+	    return new int[] { '\t', '\t' };
+	case 'n':
+	    return new int[] { '\n', '\n' };
+	case 'r':
+	    return new int[] { '\r', '\r' };
+	case 'f':
+	    return new int[] { '\f', '\f' };
+	case 'a':
+	    return new int[] { '\u0007', '\u0007' };
+	case 'e':
+	    return new int[] { '\u001B', '\u001B' };
+	case 'x':
+	    int x = parseHex(2);
+	    return new int[] { x, x };
+	case 'u':
+	    int u = parseHex(4);
+	    if (Character.isSurrogate((char) u)) {
+		throw new UnsupportedRegexException("Supplementary character");
+	    }
+	    return new int[] { u, u };
+	default:
+	    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+		    || (c >= '0' && c <= '9') || Character.isSurrogate(c)) {
+		throw new UnsupportedRegexException("Escape \\" + c);
+	    }
+	    return new int[] { c, c };
+	}
+    }
+
+    /**
+     * Parse a fixed number of hexadecimal digits.
+     *
+     * @param digits
+     *            number of digits
+     * @return parsed value
+     * @throws UnsupportedRegexException
+     *             in case of missing or invalid digits
+     */
+    private int parseHex(final int digits) throws UnsupportedRegexException {
+	if (position + digits > regex.length()) {
+	    throw new UnsupportedRegexException("Illegal hexadecimal escape");
+	}
+	try {
+	    int value = Integer.parseInt(
+		    regex.substring(position, position + digits), 16);
+	    position += digits;
+	    return value;
+	} catch (NumberFormatException e) {
+	    throw new UnsupportedRegexException("Illegal hexadecimal escape");
+	}
+    }
+
+    /**
+     * Parse a decimal number.
+     *
+     * @return parsed value
+     * @throws UnsupportedRegexException
+     *             in case of missing or too large number
+     */
+    private int parseNumber() throws UnsupportedRegexException {
+	int start = position;
+	while (more() && peek() >= '0' && peek() <= '9') {
+	    position++;
+	}
+	if (start == position || position - start > 4) {
+	    throw new UnsupportedRegexException("Illegal repetition");
+	}
+	return Integer.parseInt(regex.substring(start, position));
+    }
+
+    /**
+     * Consume the expected character.
+     *
+     * @param c
+     *            expected character
+     * @throws UnsupportedRegexException
+     *             in case the current character is a different one
+     */
+    private void expect(final char c) throws UnsupportedRegexException {
+	if (!more() || peek() != c) {
+	    throw new UnsupportedRegexException("Expected " + c);
+	}
+	position++;
+    }
+
+    /**
+     * Check whether there are characters left.
+     *
+     * @return whether there are characters left
+     */
+    private boolean more() {
+	return position < regex.length();
+    }
+
+    /**
+     * Get the current character without consuming it.
+     *
+     * @return current character
+     */
+    private char peek() {
+	return regex.charAt(position);
+    }
+
+    /**
+     * Union of two sets of character ranges.
+     *
+     * @param a
+     *            sorted, non-overlapping ranges
+     * @param b
+     *            sorted, non-overlapping ranges
+     * @return sorted, non-overlapping ranges
+     */
+    static int[] union(final int[] a, final int[] b) {
+	int[] all = Arrays.copyOf(a, a.length + b.length);
+	System.arraycopy(b, 0, all, a.length, b.length);
+
+	// sort ranges by their first character
+	long[] sorted = new long[all.length / 2];
+	for (int i = 0; i < sorted.length; i++) {
+	    sorted[i] = ((long) all[2 * i] << 32) | all[2 * i + 1];
+	}
+	Arrays.sort(sorted);
+
+	int[] result = new int[all.length];
+	int n = 0;
+	for (long range : sorted) {
+	    int lo = (int) (range >>> 32);
+	    int hi = (int) range;
+	    if (n > 0 && lo <= result[n - 1] + 1) {
+		result[n - 1] = Math.max(result[n - 1], hi);
+	    } else {
+		result[n++] = lo;
+		result[n++] = hi;
+	    }
+	}
+	return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Complement of a set of character ranges.
+     *
+     * @param ranges
+     *            sorted, non-overlapping ranges
+     * @return sorted, non-overlapping ranges
+     */
+    static int[] complement(final int[] ranges) {
+	int[] result = new int[ranges.length + 2];
+	int n = 0;
+	int next = 0;
+	for (int i = 0; i < ranges.length; i += 2) {
+	    if (ranges[i] > next) {
+		result[n++] = next;
+		result[n++] = ranges[i] - 1;
+	    }
+	    next = ranges[i + 1] + 1;
+	}
+	if (next <= Character.MAX_VALUE) {
+	    result[n++] = next;
+	    result[n++] = Character.MAX_VALUE;
+	}
+	return Arrays.copyOf(result, n);
+    }
+
+}
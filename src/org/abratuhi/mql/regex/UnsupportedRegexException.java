@@ -0,0 +1,27 @@
+package org.abratuhi.mql.regex;
+
+/**
+ * <p>
+ * This class represents the exception thrown when the regular expression uses
+ * a feature not supported by the automaton engine, e.g. back references or
+ * look-arounds. Such regular expressions are evaluated by
+ * {@link java.util.regex} instead.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+@SuppressWarnings("serial")
+class UnsupportedRegexException extends Exception {
+
+    /**
+     * Default constructor with error message.
+     *
+     * @param message
+     *            error message
+     */
+    UnsupportedRegexException(final String message) {
+	super(message);
+    }
+
+}
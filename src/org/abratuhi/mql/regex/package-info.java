@@ -0,0 +1,5 @@
+/**
+ * Provides the regular expression engine used by the match comparison
+ * operator.
+ */
+package org.abratuhi.mql.regex;
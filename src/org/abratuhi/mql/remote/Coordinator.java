@@ -0,0 +1,415 @@
+package org.abratuhi.mql.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.IEvaluatable;
+
+/**
+ * <p>
+ * Coordinator class partitions records across {@link Worker}s and evaluates
+ * queries on all of them in parallel, merging the identifiers of the
+ * matching records.
+ * </p>
+ * <p>
+ * Records get consecutive identifiers as they are added, record
+ * <code>id</code> is stored by worker <code>id % N</code>. Queries are sent
+ * as their canonical text - {@link Condition#toString()} - and parsed by each
+ * worker on its own.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * Coordinator<Record> coordinator = new Coordinator<Record>(addresses);
+ * for (Record record : records) {
+ *     coordinator.add(record);
+ * }
+ * QueryResult result = coordinator.select(query, 100, 500);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Each worker stops after <code>limit</code> matches, so the merged result
+ * is the <code>limit</code> smallest identifiers. Workers exceeding the time
+ * limit, failing or not answering in time are reported by the
+ * {@link QueryResult} while the answers of the others are still used.
+ * </p>
+ *
+ * @param <T> base class of the records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Coordinator<T extends Map<String, String>> implements Closeable {
+
+    /**
+     * Time granted to the workers on top of the time limit of a query, for
+     * the network and for sending the results.
+     */
+    public static final long GRACE_MILLIS = 1000;
+
+    /**
+     * Connection to a worker, used by one thread at a time.
+     */
+    private static final class Connection {
+	/**
+	 * Address of the worker.
+	 */
+	private final InetSocketAddress address;
+	/**
+	 * Socket, <code>null</code> while not connected.
+	 */
+	private volatile Socket socket = null;
+	/**
+	 * Stream from the worker.
+	 */
+	private DataInputStream in;
+	/**
+	 * Stream to the worker.
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Constructor.
+	 * @param address address of the worker
+	 */
+	Connection(final InetSocketAddress address) {
+	    this.address = address;
+	}
+
+	/**
+	 * Connect unless connected.
+	 * @throws IOException in case the worker can't be reached
+	 */
+	void open() throws IOException {
+	    if (socket == null) {
+		Socket s = new Socket();
+		s.setTcpNoDelay(true);
+		s.connect(address);
+		in = new DataInputStream(new BufferedInputStream(
+			s.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(
+			s.getOutputStream()));
+		socket = s;
+	    }
+	}
+
+	/**
+	 * Disconnect, unblocking any thread waiting for the worker.
+	 */
+	void close() {
+	    Socket s = socket;
+	    socket = null;
+	    if (s != null) {
+		try {
+		    s.close();
+		} catch (IOException e) {
+		    // ignore
+		}
+	    }
+	}
+    }
+
+    /**
+     * Answer of a worker.
+     */
+    private static final class Answer {
+	/**
+	 * Identifiers of the matching records in ascending order.
+	 */
+	private final int[] ids;
+	/**
+	 * Whether the worker exceeded the time limit.
+	 */
+	private final boolean timedOut;
+
+	/**
+	 * Constructor.
+	 * @param ids identifiers of the matching records
+	 * @param timedOut whether the worker exceeded the time limit
+	 */
+	Answer(final int[] ids, final boolean timedOut) {
+	    this.ids = ids;
+	    this.timedOut = timedOut;
+	}
+    }
+
+    /**
+     * Connections to the workers, by partition.
+     */
+    private final Connection[] connections;
+    /**
+     * Threads querying the workers.
+     */
+    private final ExecutorService executor;
+    /**
+     * Identifier of the next record.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor, the workers are connected lazily.
+     *
+     * @param workers
+     *            addresses of the workers, one per partition
+     */
+    public Coordinator(final List<InetSocketAddress> workers) {
+	this.connections = new Connection[workers.size()];
+	for (int i = 0; i < connections.length; i++) {
+	    connections[i] = new Connection(workers.get(i));
+	}
+	this.executor = Executors.newFixedThreadPool(connections.length,
+		new ThreadFactory() {
+		    @Override
+		    public Thread newThread(final Runnable r) {
+			Thread thread = new Thread(r, "mql-coordinator");
+			thread.setDaemon(true);
+			return thread;
+		    }
+		});
+    }
+
+    /**
+     * Add a record to its partition. The record is buffered and sent to the
+     * worker not later than with the next query.
+     *
+     * @param record
+     *            record to add
+     * @return identifier of the record
+     * @throws IOException
+     *             in case the worker can't be reached
+     */
+    public final synchronized int add(final Map<String, String> record)
+	    throws IOException {
+	Connection connection = connections[size % connections.length];
+	synchronized (connection) {
+	    try {
+		connection.open();
+		connection.out.writeByte(Protocol.ADD);
+		connection.out.writeInt(size);
+		Protocol.writeRecord(connection.out, record);
+	    } catch (IOException e) {
+		connection.close();
+		throw e;
+	    }
+	}
+	return size++;
+    }
+
+    /**
+     * Send the buffered records to the workers.
+     *
+     * @throws IOException
+     *             in case a worker can't be reached
+     */
+    public final void flush() throws IOException {
+	for (Connection connection : connections) {
+	    synchronized (connection) {
+		if (connection.socket != null) {
+		    try {
+			connection.out.flush();
+		    } catch (IOException e) {
+			connection.close();
+			throw e;
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Get number of records added.
+     *
+     * @return number of records
+     */
+    public final synchronized int size() {
+	return size;
+    }
+
+    /**
+     * Select all records matching the query, without a time limit.
+     *
+     * @param query
+     *            query
+     * @return identifiers of the matching records
+     */
+    public final QueryResult select(final IEvaluatable<T> query) {
+	return select(query, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Select the records matching the query.
+     *
+     * @param query
+     *            query
+     * @param limit
+     *            maximal number of identifiers to return, the smallest ones
+     *            are returned
+     * @param timeoutMillis
+     *            time limit of the evaluation, <code>0</code> for unlimited
+     * @return identifiers of the matching records
+     * @throws IllegalArgumentException
+     *             if the limit is negative
+     */
+    public final QueryResult select(final IEvaluatable<T> query,
+	    final int limit, final long timeoutMillis) {
+	if (limit < 0) {
+	    throw new IllegalArgumentException("Limit must not be negative: "
+		    + limit);
+	}
+	final String text = query.toString();
+	List<Future<Answer>> futures = new Vector<Future<Answer>>();
+	for (final Connection connection : connections) {
+	    futures.add(executor.submit(new Callable<Answer>() {
+		@Override
+		public Answer call() throws IOException {
+		    return query(connection, text, limit, timeoutMillis);
+		}
+	    }));
+	}
+
+	long deadline = timeoutMillis > 0 ? System.currentTimeMillis()
+		+ timeoutMillis + GRACE_MILLIS : Long.MAX_VALUE;
+	int[][] partitions = new int[connections.length][];
+	List<String> failures = new Vector<String>();
+	for (int i = 0; i < connections.length; i++) {
+	    partitions[i] = new int[0];
+	    try {
+		long remaining = deadline - System.currentTimeMillis();
+		Answer answer = timeoutMillis > 0 ? futures.get(i).get(
+			Math.max(remaining, 0), TimeUnit.MILLISECONDS)
+			: futures.get(i).get();
+		partitions[i] = answer.ids;
+		if (answer.timedOut) {
+		    failures.add(connections[i].address
+			    + ": time limit exceeded");
+		}
+	    } catch (TimeoutException e) {
+		// unblocks the thread waiting for the worker
+		connections[i].close();
+		failures.add(connections[i].address + ": no answer in time");
+	    } catch (ExecutionException e) {
+		failures.add(connections[i].address + ": "
+			+ e.getCause().getMessage());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		failures.add(connections[i].address + ": interrupted");
+	    }
+	}
+	return new QueryResult(merge(partitions, limit), failures);
+    }
+
+    /**
+     * Evaluate the query on a worker.
+     *
+     * @param connection
+     *            connection to the worker
+     * @param query
+     *            query text
+     * @param limit
+     *            maximal number of identifiers
+     * @param timeoutMillis
+     *            time limit of the evaluation
+     * @return answer of the worker
+     * @throws IOException
+     *             in case the worker can't be reached or failed to evaluate
+     *             the query
+     */
+    private static Answer query(final Connection connection,
+	    final String query, final int limit, final long timeoutMillis)
+	    throws IOException {
+	synchronized (connection) {
+	    String error;
+	    int[] ids = new int[16];
+	    int count = 0;
+	    byte status;
+	    try {
+		connection.open();
+		connection.out.writeByte(Protocol.QUERY);
+		Protocol.writeString(connection.out, query);
+		connection.out.writeInt(limit);
+		connection.out.writeLong(timeoutMillis);
+		connection.out.flush();
+
+		for (int id = connection.in.readInt(); id != Protocol.END; id = connection.in
+			.readInt()) {
+		    if (count == ids.length) {
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		    }
+		    ids[count++] = id;
+		}
+		status = connection.in.readByte();
+		error = status == Protocol.ERROR ? Protocol
+			.readString(connection.in) : null;
+	    } catch (IOException e) {
+		connection.close();
+		throw e;
+	    }
+	    if (error != null) {
+		throw new IOException(error);
+	    }
+	    return new Answer(Arrays.copyOf(ids, count),
+		    status == Protocol.TIMEOUT);
+	}
+    }
+
+    /**
+     * Merge the ascending identifiers of the partitions.
+     *
+     * @param partitions
+     *            identifiers by partition, each in ascending order
+     * @param limit
+     *            maximal number of identifiers
+     * @return smallest identifiers in ascending order
+     */
+    private static int[] merge(final int[][] partitions, final int limit) {
+	int total = 0;
+	for (int[] partition : partitions) {
+	    total += partition.length;
+	}
+	int[] result = new int[Math.min(total, limit)];
+	int[] heads = new int[partitions.length];
+	for (int i = 0; i < result.length; i++) {
+	    int min = -1;
+	    for (int p = 0; p < partitions.length; p++) {
+		if (heads[p] < partitions[p].length
+			&& (min == -1 || partitions[p][heads[p]] < partitions[min][heads[min]])) {
+		    min = p;
+		}
+	    }
+	    result[i] = partitions[min][heads[min]++];
+	}
+	return result;
+    }
+
+    /**
+     * Disconnect from the workers.
+     */
+    @Override
+    public void close() {
+	executor.shutdownNow();
+	for (Connection connection : connections) {
+	    connection.close();
+	}
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.abratuhi.mql.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * <p>
+ * Messages exchanged between the {@link Coordinator} and its
+ * {@link Worker}s over a socket, all numbers in network byte order:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * ADD:      byte 1, int id, int count, count * (string field, boolean present, [string value])
+ * QUERY:    byte 2, string query, int limit, long timeoutMillis
+ * response: int id ... int -1, byte status, [string message]
+ * string:   int length, length * byte (UTF-8)
+ * }
+ * </pre>
+ *
+ * <p>
+ * Records are added without a response. The response to a query streams the
+ * identifiers of the matching records in ascending order.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class Protocol {
+
+    /**
+     * Command adding a record.
+     */
+    static final byte ADD = 1;
+    /**
+     * Command evaluating a query.
+     */
+    static final byte QUERY = 2;
+
+    /**
+     * End of the matching identifiers.
+     */
+    static final int END = -1;
+
+    /**
+     * Query evaluated completely.
+     */
+    static final byte OK = 0;
+    /**
+     * Query evaluation aborted after the time limit, the identifiers sent are
+     * incomplete.
+     */
+    static final byte TIMEOUT = 1;
+    /**
+     * Query evaluation failed, followed by the error message.
+     */
+    static final byte ERROR = 2;
+
+    /**
+     * Number of identifiers sent between two flushes of the stream.
+     */
+    static final int IDS_PER_FLUSH = 256;
+
+    /**
+     * Encoding of the strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Not instantiable.
+     */
+    private Protocol() {
+    }
+
+    /**
+     * Write a string, unlike {@link DataOutputStream#writeUTF(String)} not
+     * limited in length.
+     *
+     * @param out
+     *            stream to write to
+     * @param s
+     *            string
+     * @throws IOException
+     *             in case the stream fails
+     */
+    static void writeString(final DataOutputStream out, final String s)
+	    throws IOException {
+	byte[] bytes = s.getBytes(UTF8);
+	out.writeInt(bytes.length);
+	out.write(bytes);
+    }
+
+    /**
+     * Read a string written by
+     * {@link Protocol#writeString(DataOutputStream, String)}.
+     *
+     * @param in
+     *            stream to read from
+     * @return string
+     * @throws IOException
+     *             in case the stream fails
+     */
+    static String readString(final DataInputStream in) throws IOException {
+	byte[] bytes = new byte[in.readInt()];
+	in.readFully(bytes);
+	return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write the fields of a record.
+     *
+     * @param out
+     *            stream to write to
+     * @param record
+     *            record
+     * @throws IOException
+     *             in case the stream fails
+     */
+    static void writeRecord(final DataOutputStream out,
+	    final Map<String, String> record) throws IOException {
+	out.writeInt(record.size());
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    writeString(out, entry.getKey());
+	    out.writeBoolean(entry.getValue() != null);
+	    if (entry.getValue() != null) {
+		writeString(out, entry.getValue());
+	    }
+	}
+    }
+
+    /**
+     * Read the fields of a record written by
+     * {@link Protocol#writeRecord(DataOutputStream, Map)}.
+     *
+     * @param in
+     *            stream to read from
+     * @param record
+     *            record to put the fields into
+     * @throws IOException
+     *             in case the stream fails
+     */
+    static void readRecord(final DataInputStream in,
+	    final Map<String, String> record) throws IOException {
+	int count = in.readInt();
+	for (int i = 0; i < count; i++) {
+	    String field = readString(in);
+	    record.put(field, in.readBoolean() ? readString(in) : null);
+	}
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.abratuhi.mql.remote;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Result of a query evaluated by the {@link Coordinator}: identifiers of the
+ * matching records in ascending order and the partitions which failed to
+ * answer completely.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class QueryResult {
+
+    /**
+     * Identifiers of the matching records in ascending order.
+     */
+    private final int[] ids;
+    /**
+     * Messages of the partitions which failed to answer completely.
+     */
+    private final List<String> failures;
+
+    /**
+     * Constructor.
+     *
+     * @param ids
+     *            identifiers of the matching records in ascending order
+     * @param failures
+     *            messages of the partitions which failed to answer completely
+     */
+    QueryResult(final int[] ids, final List<String> failures) {
+	this.ids = ids;
+	this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * Get identifiers of the matching records.
+     *
+     * @return identifiers in ascending order, do not modify
+     */
+    public final int[] getIds() {
+	return ids;
+    }
+
+    /**
+     * Check whether all partitions answered completely. Note that an
+     * incomplete result may still contain enough identifiers for the
+     * requested limit.
+     *
+     * @return whether the result is complete
+     */
+    public final boolean isComplete() {
+	return failures.isEmpty();
+    }
+
+    /**
+     * Get messages of the partitions which failed to answer completely -
+     * because of the time limit, a lost connection or an error evaluating
+     * the query.
+     *
+     * @return messages, empty in case the result is complete
+     */
+    public final List<String> getFailures() {
+	return failures;
+    }
+
+}
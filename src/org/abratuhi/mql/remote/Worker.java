@@ -0,0 +1,345 @@
+package org.abratuhi.mql.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.abratuhi.mql.BudgetExceededException;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.store.IRecordFactory;
+import org.abratuhi.mql.store.OffHeapRecordStore;
+
+/**
+ * <p>
+ * Worker class holds one partition of the records in an
+ * {@link OffHeapRecordStore} and evaluates queries sent by the
+ * {@link Coordinator}, parsing them with its own {@link Parser}.
+ * </p>
+ * <p>
+ * The worker listens on the loopback interface only - the protocol has
+ * neither authentication nor encryption. Run it in a separate process with
+ * {@link Worker#main(String[])} or in the current one with
+ * {@link Worker#start()}.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Worker<T extends Map<String, String>> implements Closeable {
+
+    /**
+     * Socket accepting connections of the coordinators.
+     */
+    private final ServerSocket server;
+    /**
+     * Records of the partition.
+     */
+    private final OffHeapRecordStore<T> store;
+    /**
+     * Global identifier by local identifier.
+     */
+    private int[] ids = new int[1024];
+    /**
+     * Guards the store: records are added under the write lock, queries
+     * evaluated under the read lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor, binds the worker to the loopback interface.
+     *
+     * @param factory
+     *            factory of the records
+     * @param port
+     *            port to listen on, <code>0</code> for any free port
+     * @throws IOException
+     *             in case the port can't be bound
+     */
+    public Worker(final IRecordFactory<T> factory, final int port)
+	    throws IOException {
+	this.server = new ServerSocket(port, 50,
+		InetAddress.getLoopbackAddress());
+	this.store = new OffHeapRecordStore<T>(factory);
+    }
+
+    /**
+     * Get the address the worker listens on.
+     *
+     * @return address
+     */
+    public final InetSocketAddress getAddress() {
+	return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    /**
+     * Get the number of records in the partition.
+     *
+     * @return number of records
+     */
+    public final int size() {
+	lock.readLock().lock();
+	try {
+	    return store.size();
+	} finally {
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Start accepting connections in a daemon thread, each connection being
+     * served by a thread of its own.
+     */
+    public final void start() {
+	Thread acceptor = new Thread("mql-worker-" + getAddress().getPort()) {
+	    @Override
+	    public void run() {
+		serve();
+	    }
+	};
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /**
+     * Accept connections until the worker is closed.
+     */
+    private void serve() {
+	while (!server.isClosed()) {
+	    final Socket socket;
+	    try {
+		socket = server.accept();
+	    } catch (IOException e) {
+		continue; // closed
+	    }
+	    Thread connection = new Thread(Thread.currentThread().getName()
+		    + "-" + socket.getPort()) {
+		@Override
+		public void run() {
+		    try {
+			handle(socket);
+		    } catch (IOException e) {
+			// connection lost, the coordinator will notice
+		    } finally {
+			try {
+			    socket.close();
+			} catch (IOException e) {
+			    // ignore
+			}
+		    }
+		}
+	    };
+	    connection.setDaemon(true);
+	    connection.start();
+	}
+    }
+
+    /**
+     * Serve commands of a coordinator until it disconnects.
+     *
+     * @param socket
+     *            connection to the coordinator
+     * @throws IOException
+     *             in case the connection fails
+     */
+    private void handle(final Socket socket) throws IOException {
+	socket.setTcpNoDelay(true);
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+		socket.getInputStream()));
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		socket.getOutputStream()));
+	Map<String, String> record = new HashMap<String, String>();
+	while (true) {
+	    int command = in.read();
+	    if (command == -1) {
+		return;
+	    } else if (command == Protocol.ADD) {
+		int id = in.readInt();
+		record.clear();
+		Protocol.readRecord(in, record);
+		add(id, record);
+	    } else if (command == Protocol.QUERY) {
+		String query = Protocol.readString(in);
+		int limit = in.readInt();
+		long timeoutMillis = in.readLong();
+		query(query, limit, timeoutMillis, out);
+		out.flush();
+	    } else {
+		throw new EOFException("Unknown command " + command);
+	    }
+	}
+    }
+
+    /**
+     * Add a record to the partition.
+     *
+     * @param id
+     *            global identifier of the record
+     * @param record
+     *            record
+     */
+    private void add(final int id, final Map<String, String> record) {
+	lock.writeLock().lock();
+	try {
+	    int local = store.add(record);
+	    if (local == ids.length) {
+		int[] grown = new int[ids.length * 2];
+		System.arraycopy(ids, 0, grown, 0, ids.length);
+		ids = grown;
+	    }
+	    ids[local] = id;
+	} finally {
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Evaluate a query, sending the global identifiers of the matching
+     * records followed by the status. The identifiers are collected under the
+     * read lock and written once it is released.
+     *
+     * @param query
+     *            query text
+     * @param limit
+     *            maximal number of identifiers to send, no identifiers are
+     *            sent for <code>0</code>
+     * @param timeoutMillis
+     *            time limit of the evaluation, <code>0</code> for unlimited
+     * @param out
+     *            stream to the coordinator
+     * @throws IOException
+     *             in case the connection fails
+     */
+    private void query(final String query, final int limit,
+	    final long timeoutMillis, final DataOutputStream out)
+	    throws IOException {
+	IEvaluatable<T> evaluatable;
+	try {
+	    evaluatable = new Parser<T>().parse(query);
+	} catch (ParseException e) {
+	    error(out, e);
+	    return;
+	} catch (RuntimeException e) {
+	    error(out, e);
+	    return;
+	}
+
+	// collected under the lock, sent once it is released, so that a slow
+	// coordinator does not block the writers
+	final int[][] matches = { new int[Math.min(Math.max(limit, 0), 64)] };
+	final int[] count = new int[1];
+	EvaluationBudget.Meter meter = new EvaluationBudget(timeoutMillis, 0)
+		.bind();
+	byte status = Protocol.OK;
+	RuntimeException error = null;
+	lock.readLock().lock();
+	try {
+	    if (limit > 0) {
+		store.scan(evaluatable, new IMatchHandler<T>() {
+		    @Override
+		    public boolean onMatch(final int id, final T record) {
+			if (count[0] == matches[0].length) {
+			    int[] grown = new int[matches[0].length * 2];
+			    System.arraycopy(matches[0], 0, grown, 0, count[0]);
+			    matches[0] = grown;
+			}
+			matches[0][count[0]++] = ids[id];
+			return count[0] < limit;
+		    }
+		});
+	    }
+	} catch (BudgetExceededException e) {
+	    status = Protocol.TIMEOUT;
+	} catch (RuntimeException e) {
+	    // e.g. an invalid regular expression, compiled on first use
+	    error = e;
+	} finally {
+	    lock.readLock().unlock();
+	    meter.unbind();
+	}
+	if (error != null) {
+	    error(out, error);
+	    return;
+	}
+	for (int i = 0; i < count[0]; i++) {
+	    out.writeInt(matches[0][i]);
+	    if ((i + 1) % Protocol.IDS_PER_FLUSH == 0) {
+		out.flush();
+	    }
+	}
+	out.writeInt(Protocol.END);
+	out.writeByte(status);
+    }
+
+    /**
+     * Report a failed evaluation.
+     *
+     * @param out
+     *            stream to the coordinator
+     * @param e
+     *            cause of the failure
+     * @throws IOException
+     *             in case the connection fails
+     */
+    private static void error(final DataOutputStream out, final Exception e)
+	    throws IOException {
+	out.writeInt(Protocol.END);
+	out.writeByte(Protocol.ERROR);
+	Protocol.writeString(out, e.getMessage() != null ? e.getMessage() : e
+		.toString());
+    }
+
+    /**
+     * Stop accepting connections.
+     *
+     * @throws IOException
+     *             in case the socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+	server.close();
+    }
+
+    /**
+     * Run a worker until the process is killed.
+     *
+     * @param args
+     *            port to listen on
+     * @throws IOException
+     *             in case the port can't be bound
+     */
+    public static void main(final String[] args) throws IOException {
+	if (args.length != 1) {
+	    System.err.println("Usage: java " + Worker.class.getName()
+		    + " <port>");
+	    System.exit(1);
+	}
+	Worker<HashMap<String, String>> worker = new Worker<HashMap<String, String>>(
+		new IRecordFactory<HashMap<String, String>>() {
+		    @Override
+		    public HashMap<String, String> newRecord() {
+			return new HashMap<String, String>();
+		    }
+		}, Integer.parseInt(args[0]));
+	System.out.println("Listening on " + worker.getAddress());
+	worker.serve();
+    }
+
+}
@@ -0,0 +1,5 @@
+/**
+ * Provides scatter-gather execution of queries over records partitioned
+ * across worker processes.
+ */
+package org.abratuhi.mql.remote;
@@ -0,0 +1,103 @@
+package org.abratuhi.mql.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Statistics on a collection of records, updated incrementally as records
+ * are added or removed.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class CollectionStatistics {
+
+    /**
+     * Statistics by field name.
+     */
+    private Map<String, FieldStatistics> fields = new HashMap<String, FieldStatistics>();
+    /**
+     * Number of records.
+     */
+    private long count = 0;
+
+    /**
+     * Update the statistics with an added record.
+     *
+     * @param record
+     *            added record
+     */
+    public final void add(final Map<String, String> record) {
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    if (entry.getValue() != null) {
+		FieldStatistics field = fields.get(entry.getKey());
+		if (field == null) {
+		    field = new FieldStatistics();
+		    fields.put(entry.getKey(), field);
+		}
+		field.add(entry.getValue());
+	    }
+	}
+	count++;
+    }
+
+    /**
+     * Update the statistics with a removed record.
+     *
+     * @param record
+     *            removed record, must have been added before
+     */
+    public final void remove(final Map<String, String> record) {
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    FieldStatistics field = fields.get(entry.getKey());
+	    if (entry.getValue() != null && field != null) {
+		field.remove(entry.getValue());
+	    }
+	}
+	count--;
+    }
+
+    /**
+     * Get number of records.
+     *
+     * @return number of records
+     */
+    public final long getCount() {
+	return count;
+    }
+
+    /**
+     * Get statistics of a field.
+     *
+     * @param field
+     *            field name
+     * @return statistics or <code>null</code> in case no record contains the
+     *         field
+     */
+    public final FieldStatistics getField(final String field) {
+	return fields.get(field);
+    }
+
+    /**
+     * Get fraction of records not containing the field or containing
+     * <code>null</code>.
+     *
+     * @param field
+     *            field name
+     * @return null rate between 0 and 1
+     */
+    public final double getNullRate(final String field) {
+	if (count == 0) {
+	    return 0;
+	}
+	FieldStatistics statistics = fields.get(field);
+	return statistics == null ? 1 : 1 - (double) statistics.getCount()
+		/ count;
+    }
+
+}
@@ -0,0 +1,448 @@
+package org.abratuhi.mql.stats;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.LiteralAlternation;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.True;
+
+/**
+ * <p>
+ * Cost model estimating the selectivity and the evaluation cost of parsed
+ * queries from the {@link CollectionStatistics} of the queried collection.
+ * </p>
+ * <p>
+ * Selectivities of the underlying conditions and comparisons are assumed to
+ * be independent. Costs are expressed in abstract units, one unit being the
+ * cost of an equality {@link Comparison}.
+ * </p>
+ * <p>
+ * The estimates are used to:
+ * <ul>
+ * <li>order the underlying conditions and comparisons of each
+ * {@link Condition} so that the cheapest and most decisive ones are evaluated
+ * first - see {@link CostModel#plan(IEvaluatable)}.</li>
+ * <li>choose between scanning the whole collection and looking up the
+ * matching records in an index - see
+ * {@link CostModel#chooseAccessPath(IEvaluatable, Set)}.</li>
+ * </ul>
+ * </p>
+ *
+ * @param <T> base class of the records in the collection.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class CostModel<T extends Map<String, String>> {
+
+    /**
+     * Access path to the records matching a query.
+     */
+    public enum AccessPath {
+	/**
+	 * Evaluate the query on every record.
+	 */
+	SCAN,
+	/**
+	 * Look up the candidate records in an index, evaluate the query on
+	 * the candidates only.
+	 */
+	INDEX
+    };
+
+    /**
+     * Cost of an equality comparison.
+     */
+    public static final double EQUAL_COST = 1;
+    /**
+     * Cost of a regular expression match by the automaton engine.
+     */
+    public static final double LIKE_COST = 4;
+    /**
+     * Cost of a regular expression match by {@link java.util.regex}.
+     */
+    public static final double BACKTRACKING_LIKE_COST = 20;
+    /**
+     * Cost of a {@link LiteralAlternation}.
+     */
+    public static final double ALTERNATION_COST = 2;
+    /**
+     * Cost of any other evaluatable.
+     */
+    public static final double UNKNOWN_COST = 10;
+    /**
+     * Cost of reading the next record during a scan.
+     */
+    public static final double SEQUENTIAL_READ_COST = 1;
+    /**
+     * Cost of reading a record looked up in an index.
+     */
+    public static final double RANDOM_READ_COST = 4;
+    /**
+     * Assumed selectivity of a regular expression on values not tracked as
+     * heavy hitters.
+     */
+    public static final double DEFAULT_LIKE_SELECTIVITY = 0.1;
+    /**
+     * Assumed selectivity of any other evaluatable.
+     */
+    public static final double DEFAULT_SELECTIVITY = 0.5;
+
+    /**
+     * Characters with special meaning in regular expressions.
+     */
+    private static final String REGEX_METACHARACTERS = "\\.[](){}*+?^$|";
+
+    /**
+     * Statistics of the queried collection.
+     */
+    private final CollectionStatistics statistics;
+
+    /**
+     * Constructor.
+     *
+     * @param statistics
+     *            statistics of the queried collection
+     */
+    public CostModel(final CollectionStatistics statistics) {
+	this.statistics = statistics;
+    }
+
+    /**
+     * Estimate the fraction of records matching the query.
+     *
+     * @param query
+     *            parsed query
+     * @return selectivity between 0 and 1
+     */
+    @SuppressWarnings("unchecked")
+    public final double selectivity(final IEvaluatable<T> query) {
+	if (query instanceof Condition) {
+	    Condition<T> condition = (Condition<T>) query;
+	    List<IEvaluatable<T>> conditions = condition.getConditions();
+	    switch (condition.getConditionOperator()) {
+	    case AND:
+		double and = 1;
+		for (IEvaluatable<T> c : conditions) {
+		    and *= selectivity(c);
+		}
+		return and;
+	    case OR:
+		double none = 1;
+		for (IEvaluatable<T> c : conditions) {
+		    none *= 1 - selectivity(c);
+		}
+		return 1 - none;
+	    case NOT:
+		return conditions.isEmpty() ? 0
+			: 1 - selectivity(conditions.get(0));
+	    default:
+		return DEFAULT_SELECTIVITY;
+	    }
+	} else if (query instanceof Comparison) {
+	    return selectivity((Comparison<T>) query);
+	} else if (query instanceof LiteralAlternation) {
+	    double sum = 0;
+	    for (Comparison<T> c : ((LiteralAlternation<T>) query)
+		    .getComparisons()) {
+		sum += selectivity(c);
+	    }
+	    return Math.min(1, sum);
+	} else if (query instanceof True) {
+	    return 1;
+	}
+	return DEFAULT_SELECTIVITY;
+    }
+
+    /**
+     * Estimate the fraction of records matching the comparison.
+     *
+     * @param comparison
+     *            comparison
+     * @return selectivity between 0 and 1
+     */
+    private double selectivity(final Comparison<T> comparison) {
+	long count = statistics.getCount();
+	FieldStatistics field = statistics.getField(comparison.getField());
+	if (count == 0 || field == null) {
+	    return 0;
+	}
+
+	if (comparison.getComparisonOperator()
+		== Comparison.ComparisonOperator.EQUAL
+		|| isLiteral(comparison.getValue())) {
+	    return Math.min(1, (double) field.getFrequency(comparison
+		    .getValue()) / count);
+	}
+
+	// evaluate the regular expression on the most frequent values, assume
+	// the default selectivity for the rest
+	long matching = 0;
+	long tracked = 0;
+	for (Map.Entry<String, Long> hitter : field.getHeavyHitters()
+		.entrySet()) {
+	    tracked += hitter.getValue();
+	    if (comparison.evaluateValue(hitter.getKey())) {
+		matching += hitter.getValue();
+	    }
+	}
+	double rest = Math.max(0, field.getCount() - tracked)
+		* DEFAULT_LIKE_SELECTIVITY;
+	return Math.min(1, (matching + rest) / count);
+    }
+
+    /**
+     * Estimate the cost of evaluating the query on a single record, taking
+     * into account that conditions stop evaluating as soon as the result is
+     * known.
+     *
+     * @param query
+     *            parsed query
+     * @return cost
+     */
+    @SuppressWarnings("unchecked")
+    public final double cost(final IEvaluatable<T> query) {
+	if (query instanceof Condition) {
+	    Condition<T> condition = (Condition<T>) query;
+	    double cost = 0;
+	    // probability that the next underlying evaluatable is evaluated
+	    double reached = 1;
+	    for (IEvaluatable<T> c : condition.getConditions()) {
+		cost += reached * cost(c);
+		switch (condition.getConditionOperator()) {
+		case AND:
+		    reached *= selectivity(c);
+		    break;
+		case OR:
+		    reached *= 1 - selectivity(c);
+		    break;
+		default:
+		    reached = 0;
+		    break;
+		}
+	    }
+	    return cost;
+	} else if (query instanceof Comparison) {
+	    Comparison<T> comparison = (Comparison<T>) query;
+	    if (comparison.getComparisonOperator()
+		    == Comparison.ComparisonOperator.EQUAL) {
+		return EQUAL_COST;
+	    }
+	    return comparison.getRegex().isAutomaton() ? LIKE_COST
+		    : BACKTRACKING_LIKE_COST;
+	} else if (query instanceof LiteralAlternation) {
+	    return ALTERNATION_COST;
+	} else if (query instanceof True) {
+	    return 0;
+	}
+	return UNKNOWN_COST;
+    }
+
+    /**
+     * <p>
+     * Build an equivalent query with the underlying conditions and
+     * comparisons of each {@link Condition} ordered by increasing rank:
+     * </p>
+     * <ul>
+     * <li>AND: <code>cost / (1 - selectivity)</code> - cheap evaluatables
+     * likely to fail first</li>
+     * <li>OR: <code>cost / selectivity</code> - cheap evaluatables likely to
+     * succeed first</li>
+     * </ul>
+     * <p>
+     * For independent evaluatables this order minimizes the expected
+     * evaluation cost.
+     * </p>
+     *
+     * @param query
+     *            parsed query
+     * @return planned query
+     */
+    @SuppressWarnings("unchecked")
+    public final IEvaluatable<T> plan(final IEvaluatable<T> query) {
+	if (!(query instanceof Condition)) {
+	    return query;
+	}
+	Condition<T> condition = (Condition<T>) query;
+	final Condition.ConditionOperator operator = condition
+		.getConditionOperator();
+
+	List<IEvaluatable<T>> planned = new Vector<IEvaluatable<T>>();
+	for (IEvaluatable<T> c : condition.getConditions()) {
+	    planned.add(plan(c));
+	}
+	if (operator != Condition.ConditionOperator.NOT) {
+	    Collections.sort(planned, new Comparator<IEvaluatable<T>>() {
+		@Override
+		public int compare(final IEvaluatable<T> a,
+			final IEvaluatable<T> b) {
+		    return Double.compare(rank(a, operator), rank(b,
+			    operator));
+		}
+	    });
+	}
+
+	Condition<T> result = new Condition<T>();
+	try {
+	    result.setOperator(condition.getOperator());
+	} catch (ParseException e) {
+	    // operator has been parsed before
+	    throw new IllegalStateException(e);
+	}
+	for (IEvaluatable<T> c : planned) {
+	    result.addCondition(c);
+	}
+	return result;
+    }
+
+    /**
+     * Compute the rank of the evaluatable within a condition.
+     *
+     * @param evaluatable
+     *            underlying condition or comparison
+     * @param operator
+     *            logical operator of the condition
+     * @return rank
+     */
+    private double rank(final IEvaluatable<T> evaluatable,
+	    final Condition.ConditionOperator operator) {
+	double selectivity = selectivity(evaluatable);
+	double decisive = operator == Condition.ConditionOperator.AND
+		? 1 - selectivity : selectivity;
+	return decisive == 0 ? Double.POSITIVE_INFINITY : cost(evaluatable)
+		/ decisive;
+    }
+
+    /**
+     * Choose the cheaper access path to the records matching the query.
+     *
+     * @param query
+     *            parsed query
+     * @param indexedFields
+     *            names of the indexed fields
+     * @return access path
+     */
+    public final AccessPath chooseAccessPath(final IEvaluatable<T> query,
+	    final Set<String> indexedFields) {
+	double lookup = indexLookupCost(query, indexedFields);
+	if (lookup < 0) {
+	    return AccessPath.SCAN;
+	}
+	double count = statistics.getCount();
+	double scan = count * (SEQUENTIAL_READ_COST + cost(query));
+	double index = lookup + count * indexSelectivity(query, indexedFields)
+		* (RANDOM_READ_COST + cost(query));
+	return index < scan ? AccessPath.INDEX : AccessPath.SCAN;
+    }
+
+    /**
+     * Estimate the cost of looking up the candidate records in the index.
+     *
+     * @param query
+     *            parsed query
+     * @param indexedFields
+     *            names of the indexed fields
+     * @return cost or <code>-1</code> in case the index can't answer the
+     *         query
+     */
+    @SuppressWarnings("unchecked")
+    private double indexLookupCost(final IEvaluatable<T> query,
+	    final Set<String> indexedFields) {
+	if (query instanceof Comparison) {
+	    Comparison<T> comparison = (Comparison<T>) query;
+	    if (!indexedFields.contains(comparison.getField())) {
+		return -1;
+	    }
+	    FieldStatistics field = statistics.getField(comparison.getField());
+	    long distinct = field == null ? 1 : field.getDistinctCount();
+	    if (comparison.getComparisonOperator()
+		    == Comparison.ComparisonOperator.EQUAL) {
+		// binary search in the term dictionary
+		return Math.log(distinct + 1) / Math.log(2);
+	    }
+	    // regular expression evaluated on each term
+	    return distinct * cost(query);
+	} else if (query instanceof Condition) {
+	    Condition<T> condition = (Condition<T>) query;
+	    List<IEvaluatable<T>> conditions = condition.getConditions();
+	    switch (condition.getConditionOperator()) {
+	    case AND:
+		// look up the most selective indexed comparison only
+		double best = -1;
+		double bestSelectivity = 2;
+		for (IEvaluatable<T> c : conditions) {
+		    double lookup = indexLookupCost(c, indexedFields);
+		    if (lookup >= 0 && selectivity(c) < bestSelectivity) {
+			best = lookup;
+			bestSelectivity = selectivity(c);
+		    }
+		}
+		return best;
+	    case OR:
+		// every alternative must be looked up
+		double sum = 0;
+		for (IEvaluatable<T> c : conditions) {
+		    double lookup = indexLookupCost(c, indexedFields);
+		    if (lookup < 0) {
+			return -1;
+		    }
+		    sum += lookup;
+		}
+		return conditions.isEmpty() ? -1 : sum;
+	    default:
+		return -1;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Estimate the fraction of records returned by the index lookup.
+     *
+     * @param query
+     *            parsed query answerable by the index
+     * @param indexedFields
+     *            names of the indexed fields
+     * @return selectivity between 0 and 1
+     */
+    @SuppressWarnings("unchecked")
+    private double indexSelectivity(final IEvaluatable<T> query,
+	    final Set<String> indexedFields) {
+	if (query instanceof Condition && ((Condition<T>) query)
+		.getConditionOperator() == Condition.ConditionOperator.AND) {
+	    double best = 1;
+	    for (IEvaluatable<T> c : ((Condition<T>) query).getConditions()) {
+		if (indexLookupCost(c, indexedFields) >= 0) {
+		    best = Math.min(best, selectivity(c));
+		}
+	    }
+	    return best;
+	}
+	return selectivity(query);
+    }
+
+    /**
+     * Check whether the regular expression matches only itself.
+     *
+     * @param regex
+     *            regular expression
+     * @return whether the regular expression contains no special characters
+     */
+    private static boolean isLiteral(final String regex) {
+	for (int i = 0; i < regex.length(); i++) {
+	    if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) != -1) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+}
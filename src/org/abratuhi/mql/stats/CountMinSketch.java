@@ -0,0 +1,106 @@
+package org.abratuhi.mql.stats;
+
+/**
+ * <p>
+ * Count-min sketch estimating the frequency of values in fixed memory
+ * (<code>depth * width</code> counters). The estimate never falls below the
+ * true frequency and exceeds it by at most <code>e / width</code> of the
+ * total count with probability <code>1 - exp(-depth)</code>.
+ * </p>
+ * <p>
+ * Removing a value decrements its counters, as long as only values added
+ * before are removed the guarantees above still hold. The sketch is not
+ * thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class CountMinSketch {
+
+    /**
+     * Default number of hash functions.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+    /**
+     * Default number of counters per hash function.
+     */
+    public static final int DEFAULT_WIDTH = 2048;
+
+    /**
+     * Number of counters per hash function.
+     */
+    private final int width;
+    /**
+     * Counters by hash function.
+     */
+    private final long[][] counters;
+    /**
+     * Total count of all values.
+     */
+    private long total = 0;
+
+    /**
+     * Constructor using {@link CountMinSketch#DEFAULT_DEPTH} and
+     * {@link CountMinSketch#DEFAULT_WIDTH}.
+     */
+    public CountMinSketch() {
+	this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param depth
+     *            number of hash functions
+     * @param width
+     *            number of counters per hash function
+     */
+    public CountMinSketch(final int depth, final int width) {
+	this.width = width;
+	this.counters = new long[depth][width];
+    }
+
+    /**
+     * Add occurrences of a value.
+     *
+     * @param value
+     *            value
+     * @param count
+     *            number of occurrences, negative to remove occurrences
+     */
+    public final void add(final String value, final long count) {
+	long hash = Hashing.hash64(value);
+	for (int i = 0; i < counters.length; i++) {
+	    counters[i][Hashing.hash(hash, i) % width] += count;
+	}
+	total += count;
+    }
+
+    /**
+     * Estimate the number of occurrences of a value.
+     *
+     * @param value
+     *            value
+     * @return estimated number of occurrences
+     */
+    public final long estimate(final String value) {
+	long hash = Hashing.hash64(value);
+	long estimate = Long.MAX_VALUE;
+	for (int i = 0; i < counters.length; i++) {
+	    estimate = Math.min(estimate,
+		    counters[i][Hashing.hash(hash, i) % width]);
+	}
+	return Math.max(0, estimate);
+    }
+
+    /**
+     * Get total number of occurrences of all values.
+     *
+     * @return total count
+     */
+    public final long total() {
+	return total;
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.abratuhi.mql.stats;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Statistics on the values of a single field: number of distinct values
+ * ({@link HyperLogLog}), value frequencies and most frequent values
+ * ({@link HeavyHitters}) and the number of records containing the field.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class FieldStatistics {
+
+    /**
+     * Distinct values.
+     */
+    private HyperLogLog distinct = new HyperLogLog();
+    /**
+     * Value frequencies.
+     */
+    private HeavyHitters frequencies = new HeavyHitters();
+    /**
+     * Number of records with a non-<code>null</code> value.
+     */
+    private long count = 0;
+
+    /**
+     * Add a value of the field.
+     *
+     * @param value
+     *            non-<code>null</code> value
+     */
+    public final void add(final String value) {
+	distinct.add(value);
+	frequencies.add(value);
+	count++;
+    }
+
+    /**
+     * Remove a value of the field.
+     *
+     * @param value
+     *            non-<code>null</code> value
+     */
+    public final void remove(final String value) {
+	frequencies.remove(value);
+	count--;
+    }
+
+    /**
+     * Get number of records with a non-<code>null</code> value.
+     *
+     * @return number of values
+     */
+    public final long getCount() {
+	return count;
+    }
+
+    /**
+     * Estimate the number of distinct values.
+     *
+     * @return estimated number of distinct values, at least 1 in case there
+     *         are any values
+     */
+    public final long getDistinctCount() {
+	return count == 0 ? 0 : Math.max(1, distinct.estimate());
+    }
+
+    /**
+     * Estimate the number of occurrences of a value.
+     *
+     * @param value
+     *            value
+     * @return estimated number of occurrences
+     */
+    public final long getFrequency(final String value) {
+	return frequencies.estimate(value);
+    }
+
+    /**
+     * Get the most frequent values.
+     *
+     * @return most frequent values with their estimated number of
+     *         occurrences
+     */
+    public final Map<String, Long> getHeavyHitters() {
+	return frequencies.getHeavyHitters();
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.abratuhi.mql.stats;
+
+/**
+ * <p>
+ * 64-bit hashing of field values, used by the probabilistic data structures.
+ * </p>
+ * <p>
+ * Several independent hash functions are derived from a single 64-bit hash
+ * as <code>h1 + i * h2</code>, where <code>h1</code> and <code>h2</code> are
+ * the halves of the 64-bit hash.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public final class Hashing {
+
+    /**
+     * Utility class.
+     */
+    private Hashing() {
+    }
+
+    /**
+     * Compute the 64-bit hash of the value (FNV-1a followed by the MurmurHash3
+     * finalizer).
+     *
+     * @param value
+     *            value
+     * @return hash
+     */
+    public static long hash64(final String value) {
+	long h = 0xcbf29ce484222325L;
+	for (int i = 0; i < value.length(); i++) {
+	    h ^= value.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+    /**
+     * Derive the i-th hash function from the 64-bit hash.
+     *
+     * @param hash
+     *            64-bit hash
+     * @param i
+     *            index of the hash function
+     * @return non-negative hash
+     */
+    public static int hash(final long hash, final int i) {
+	int h1 = (int) hash;
+	int h2 = (int) (hash >>> 32);
+	return (h1 + i * h2) & Integer.MAX_VALUE;
+    }
+
+}
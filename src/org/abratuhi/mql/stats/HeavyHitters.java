@@ -0,0 +1,129 @@
+package org.abratuhi.mql.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Tracks the (approximately) most frequent values, using a
+ * {@link CountMinSketch} for the frequencies and keeping only the given
+ * number of candidates.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class HeavyHitters {
+
+    /**
+     * Default number of tracked values.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Frequencies of all values.
+     */
+    private final CountMinSketch sketch;
+    /**
+     * Maximal number of tracked values.
+     */
+    private final int capacity;
+    /**
+     * Tracked values with their estimated frequency.
+     */
+    private Map<String, Long> candidates = new HashMap<String, Long>();
+
+    /**
+     * Constructor using {@link HeavyHitters#DEFAULT_CAPACITY} and a
+     * default {@link CountMinSketch}.
+     */
+    public HeavyHitters() {
+	this(DEFAULT_CAPACITY, new CountMinSketch());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            maximal number of tracked values
+     * @param sketch
+     *            sketch for the frequencies of all values
+     */
+    public HeavyHitters(final int capacity, final CountMinSketch sketch) {
+	this.capacity = capacity;
+	this.sketch = sketch;
+    }
+
+    /**
+     * Add an occurrence of a value.
+     *
+     * @param value
+     *            value
+     */
+    public final void add(final String value) {
+	sketch.add(value, 1);
+	long estimate = sketch.estimate(value);
+	if (candidates.containsKey(value) || candidates.size() < capacity) {
+	    candidates.put(value, estimate);
+	    return;
+	}
+
+	// replace the least frequent candidate, if less frequent
+	String least = null;
+	long leastEstimate = Long.MAX_VALUE;
+	for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+	    if (candidate.getValue() < leastEstimate) {
+		least = candidate.getKey();
+		leastEstimate = candidate.getValue();
+	    }
+	}
+	if (estimate > leastEstimate) {
+	    candidates.remove(least);
+	    candidates.put(value, estimate);
+	}
+    }
+
+    /**
+     * Remove an occurrence of a value.
+     *
+     * @param value
+     *            value
+     */
+    public final void remove(final String value) {
+	sketch.add(value, -1);
+	if (candidates.containsKey(value)) {
+	    candidates.put(value, sketch.estimate(value));
+	}
+    }
+
+    /**
+     * Estimate the number of occurrences of a value.
+     *
+     * @param value
+     *            value
+     * @return estimated number of occurrences
+     */
+    public final long estimate(final String value) {
+	return sketch.estimate(value);
+    }
+
+    /**
+     * Get the tracked values with their estimated number of occurrences.
+     *
+     * @return most frequent values
+     */
+    public final Map<String, Long> getHeavyHitters() {
+	Map<String, Long> result = new HashMap<String, Long>();
+	for (String value : candidates.keySet()) {
+	    long estimate = sketch.estimate(value);
+	    if (estimate > 0) {
+		result.put(value, estimate);
+	    }
+	}
+	return result;
+    }
+
+}
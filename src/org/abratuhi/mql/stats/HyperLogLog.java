@@ -0,0 +1,123 @@
+package org.abratuhi.mql.stats;
+
+/**
+ * <p>
+ * HyperLogLog sketch estimating the number of distinct values in fixed
+ * memory (<code>2^precision</code> bytes), with a standard error of about
+ * <code>1.04 / sqrt(2^precision)</code>.
+ * </p>
+ * <p>
+ * Values can't be removed from the sketch, so the estimate stays an upper
+ * bound after removals. The sketch is not thread-safe.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class HyperLogLog {
+
+    /**
+     * Default precision - 4096 registers, standard error of about 1.6%.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+
+    /**
+     * Number of bits of the hash used to select the register.
+     */
+    private final int precision;
+    /**
+     * Registers, each the maximal rank seen.
+     */
+    private final byte[] registers;
+
+    /**
+     * Constructor using {@link HyperLogLog#DEFAULT_PRECISION}.
+     */
+    public HyperLogLog() {
+	this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param precision
+     *            number of bits selecting the register, between 4 and 18
+     */
+    public HyperLogLog(final int precision) {
+	if (precision < 4 || precision > 18) {
+	    throw new IllegalArgumentException("Precision out of range: "
+		    + precision);
+	}
+	this.precision = precision;
+	this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value
+     *            value
+     */
+    public final void add(final String value) {
+	addHash(Hashing.hash64(value));
+    }
+
+    /**
+     * Add a value by its 64-bit hash.
+     *
+     * @param hash
+     *            64-bit hash of the value
+     */
+    public final void addHash(final long hash) {
+	int index = (int) (hash >>> (64 - precision));
+	// rank: position of the first set bit in the remaining bits
+	long rest = (hash << precision) | (1L << (precision - 1));
+	byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+	if (rank > registers[index]) {
+	    registers[index] = rank;
+	}
+    }
+
+    /**
+     * Merge another sketch of the same precision into this one.
+     *
+     * @param other
+     *            sketch to merge
+     */
+    public final void merge(final HyperLogLog other) {
+	if (other.precision != precision) {
+	    throw new IllegalArgumentException("Precision mismatch: "
+		    + other.precision + " != " + precision);
+	}
+	for (int i = 0; i < registers.length; i++) {
+	    if (other.registers[i] > registers[i]) {
+		registers[i] = other.registers[i];
+	    }
+	}
+    }
+
+    /**
+     * Estimate the number of distinct values added.
+     *
+     * @return estimated number of distinct values
+     */
+    public final long estimate() {
+	int m = registers.length;
+	double sum = 0;
+	int zeros = 0;
+	for (byte register : registers) {
+	    sum += 1.0 / (1L << register);
+	    if (register == 0) {
+		zeros++;
+	    }
+	}
+	double alpha = 0.7213 / (1 + 1.079 / m);
+	double estimate = alpha * m * m / sum;
+	if (estimate <= 2.5 * m && zeros > 0) {
+	    // small range correction: linear counting
+	    estimate = m * Math.log((double) m / zeros);
+	}
+	return Math.round(estimate);
+    }
+
+}
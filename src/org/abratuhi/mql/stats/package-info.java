@@ -0,0 +1,5 @@
+/**
+ * Provides statistics over record collections and the cost model using them
+ * to plan queries.
+ */
+package org.abratuhi.mql.stats;
@@ -0,0 +1,276 @@
+package org.abratuhi.mql.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.Condition.ConditionOperator;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IFieldEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.LiteralAlternation;
+import org.abratuhi.mql.QueryDag;
+import org.abratuhi.mql.True;
+import org.abratuhi.mql.stats.CollectionStatistics;
+
+/**
+ * <p>
+ * Base class of the record stores, compiling parsed queries into
+ * {@link IRecordPredicate}s.
+ * </p>
+ * <p>
+ * {@link Condition}s and {@link True} are compiled here, criteria on single
+ * fields ({@link IFieldEvaluatable}) are compiled by the concrete store in
+ * {@link AbstractRecordStore#compileField(IFieldEvaluatable)}. Any other
+ * {@link IEvaluatable} is evaluated on the materialized record.
+ * </p>
+ * <p>
+ * A {@link QueryDag} is compiled as the tree it has been built from: the
+ * compiled criteria are cheap enough to be evaluated again instead of being
+ * remembered per record.
+ * </p>
+ * <p>
+ * Optionally, {@link CollectionStatistics} of the store are kept up to date
+ * as records are added.
+ * </p>
+ * <p>
+ * Scans report each evaluated record to the {@link EvaluationBudget} bound
+ * to the current thread, if any.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public abstract class AbstractRecordStore<T extends Map<String, String>>
+	implements IRecordStore<T> {
+
+    /**
+     * Predicate matching every record.
+     */
+    protected static final IRecordPredicate ALWAYS = new IRecordPredicate() {
+	@Override
+	public boolean evaluate(final int id) {
+	    return true;
+	}
+    };
+
+    /**
+     * Predicate matching no record.
+     */
+    protected static final IRecordPredicate NEVER = new IRecordPredicate() {
+	@Override
+	public boolean evaluate(final int id) {
+	    return false;
+	}
+    };
+
+    /**
+     * Statistics kept up to date on writes, <code>null</code> if disabled.
+     */
+    private CollectionStatistics statistics = null;
+
+    /**
+     * Store the record.
+     *
+     * @param record
+     *            record to store
+     * @return id of the stored record
+     * @throws UnsupportedOperationException
+     *             in case the store is read-only
+     */
+    protected abstract int append(final Map<String, String> record);
+
+    @Override
+    public final int add(final Map<String, String> record) {
+	int id = append(record);
+	if (statistics != null) {
+	    statistics.add(record);
+	}
+	return id;
+    }
+
+    /**
+     * Get statistics of the store.
+     *
+     * @return statistics or <code>null</code> in case they are not
+     *         maintained
+     */
+    public final CollectionStatistics getStatistics() {
+	return statistics;
+    }
+
+    /**
+     * Enable maintenance of the statistics on writes. Records already in the
+     * store are added to the statistics.
+     *
+     * @param statistics
+     *            statistics to maintain or <code>null</code> to disable
+     */
+    public final void setStatistics(final CollectionStatistics statistics) {
+	if (statistics != null) {
+	    for (int id = 0; id < size(); id++) {
+		statistics.add(get(id));
+	    }
+	}
+	this.statistics = statistics;
+    }
+
+    /**
+     * Compile a criteria on a single field against the storage format of
+     * this store.
+     *
+     * @param evaluatable
+     *            criteria on a single field
+     * @return compiled criteria
+     */
+    protected abstract IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable);
+
+    @Override
+    public IRecordPredicate compile(final IEvaluatable<T> query) {
+	return compileQuery(query);
+    }
+
+    /**
+     * Compile a query or a part of it.
+     *
+     * @param query
+     *            query, condition or comparison
+     * @return compiled query
+     */
+    @SuppressWarnings("unchecked")
+    private IRecordPredicate compileQuery(final IEvaluatable<T> query) {
+	if (query instanceof Condition) {
+	    return compileCondition((Condition<T>) query);
+	} else if (query instanceof True) {
+	    return ALWAYS;
+	} else if (query instanceof QueryDag) {
+	    return compileQuery(((QueryDag<T>) query).getRoot());
+	} else if (query instanceof QueryDag.Memo) {
+	    return compileQuery(((QueryDag.Memo<T>) query).getEvaluatable());
+	} else if (query instanceof IFieldEvaluatable) {
+	    return compileField((IFieldEvaluatable<T>) query);
+	} else {
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    return query.evaluate(get(id));
+		}
+	    };
+	}
+    }
+
+    /**
+     * Compile a condition by compiling its underlying conditions and
+     * comparisons.
+     *
+     * @param condition
+     *            condition
+     * @return compiled condition
+     */
+    private IRecordPredicate compileCondition(final Condition<T> condition) {
+	List<IEvaluatable<T>> conditions = condition.getConditions();
+	if (condition.getConditionOperator() == ConditionOperator.OR) {
+	    conditions = LiteralAlternation.fuse(conditions);
+	}
+	final IRecordPredicate[] predicates = new IRecordPredicate[conditions
+		.size()];
+	for (int i = 0; i < predicates.length; i++) {
+	    predicates[i] = compileQuery(conditions.get(i));
+	}
+
+	switch (condition.getConditionOperator()) {
+	case AND:
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    for (IRecordPredicate predicate : predicates) {
+			if (!predicate.evaluate(id)) {
+			    return false;
+			}
+		    }
+		    return true;
+		}
+	    };
+	case OR:
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    for (IRecordPredicate predicate : predicates) {
+			if (predicate.evaluate(id)) {
+			    return true;
+			}
+		    }
+		    return false;
+		}
+	    };
+	case NOT:
+	    // evaluate (NOT) as (NOT(true)), same as Condition does
+	    if (predicates.length == 0) {
+		return NEVER;
+	    }
+	    final IRecordPredicate negated = predicates[0];
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    return !negated.evaluate(id);
+		}
+	    };
+	default:
+	    return NEVER;
+	}
+    }
+
+    @Override
+    public void scan(final IEvaluatable<T> query,
+	    final IMatchHandler<? super T> handler) {
+	IRecordPredicate predicate = compile(query);
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	int size = size();
+	for (int id = 0; id < size; id++) {
+	    boolean match = predicate.evaluate(id);
+	    if (meter != null) {
+		meter.record(match);
+	    }
+	    if (match && !handler.onMatch(id, get(id))) {
+		break;
+	    }
+	}
+    }
+
+    @Override
+    public final List<T> select(final IEvaluatable<T> query) {
+	final List<T> result = new Vector<T>();
+	scan(query, new IMatchHandler<T>() {
+	    @Override
+	    public boolean onMatch(final int id, final T record) {
+		result.add(record);
+		return true;
+	    }
+	});
+	return result;
+    }
+
+    @Override
+    public int count(final IEvaluatable<T> query) {
+	IRecordPredicate predicate = compile(query);
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	int size = size();
+	int count = 0;
+	for (int id = 0; id < size; id++) {
+	    boolean match = predicate.evaluate(id);
+	    if (meter != null) {
+		meter.record(match);
+	    }
+	    if (match) {
+		count++;
+	    }
+	}
+	return count;
+    }
+
+}
@@ -0,0 +1,310 @@
+package org.abratuhi.mql.store;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.Comparison.ComparisonOperator;
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IFieldEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.LiteralAlternation;
+import org.abratuhi.mql.QueryDag;
+
+/**
+ * <p>
+ * Record store grouping the records of another store into blocks of a fixed
+ * size and keeping a summary of each field per block - see {@link ZoneMap}:
+ * minimal and maximal value, a Bloom filter of the values and the number of
+ * records without the field.
+ * </p>
+ * <p>
+ * Before a block is scanned, the query is checked against the summaries of
+ * the block, and the block is skipped in case none of its records can match:
+ * an equality {@link Comparison} can only match a block whose value range
+ * and Bloom filter may contain its value, any other criteria on a single
+ * field can only match a block of a single distinct value if it matches
+ * that value, or if it matches missing values and the block has records
+ * without the field. Skipped records are not reported to the
+ * {@link EvaluationBudget}.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * BlockRecordStore<Record> store = new BlockRecordStore<Record>(
+ * 	new OffHeapRecordStore<Record>(factory));
+ * }
+ * </pre>
+ *
+ * <p>
+ * Only full blocks are skipped, the block being filled is always scanned.
+ * The store is not thread-safe for concurrent writes.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class BlockRecordStore<T extends Map<String, String>> extends
+	AbstractRecordStore<T> {
+
+    /**
+     * Default number of records of a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * Store keeping the records.
+     */
+    private final IRecordStore<T> delegate;
+    /**
+     * Number of records of a block.
+     */
+    private final int blockSize;
+    /**
+     * Summaries of the fields by field name, by block.
+     */
+    private final List<Map<String, ZoneMap>> blocks = new Vector<Map<String, ZoneMap>>();
+
+    /**
+     * Constructor with the default block size.
+     *
+     * @param delegate
+     *            store keeping the records
+     */
+    public BlockRecordStore(final IRecordStore<T> delegate) {
+	this(delegate, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor. Records already in the store are summarized.
+     *
+     * @param delegate
+     *            store keeping the records
+     * @param blockSize
+     *            number of records of a block
+     */
+    public BlockRecordStore(final IRecordStore<T> delegate,
+	    final int blockSize) {
+	if (blockSize <= 0) {
+	    throw new IllegalArgumentException("Block size must be positive: "
+		    + blockSize);
+	}
+	this.delegate = delegate;
+	this.blockSize = blockSize;
+	for (int id = 0; id < delegate.size(); id++) {
+	    summarize(id, delegate.get(id));
+	}
+    }
+
+    @Override
+    protected final int append(final Map<String, String> record) {
+	int id = delegate.add(record);
+	summarize(id, record);
+	return id;
+    }
+
+    /**
+     * Add the values of a record to the summaries of its block.
+     *
+     * @param id
+     *            id of the record
+     * @param record
+     *            record
+     */
+    private void summarize(final int id, final Map<String, String> record) {
+	int block = id / blockSize;
+	while (blocks.size() <= block) {
+	    blocks.add(new HashMap<String, ZoneMap>());
+	}
+	Map<String, ZoneMap> zones = blocks.get(block);
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    if (entry.getValue() != null) {
+		ZoneMap zone = zones.get(entry.getKey());
+		if (zone == null) {
+		    zone = new ZoneMap(blockSize);
+		    zones.put(entry.getKey(), zone);
+		}
+		zone.add(entry.getValue());
+	    }
+	}
+    }
+
+    @Override
+    public final T get(final int id) {
+	return delegate.get(id);
+    }
+
+    @Override
+    public final int size() {
+	return delegate.size();
+    }
+
+    /**
+     * Get number of records of a block.
+     *
+     * @return block size
+     */
+    public final int getBlockSize() {
+	return blockSize;
+    }
+
+    /**
+     * Get the full blocks which may contain records matching the query.
+     *
+     * @param query
+     *            query
+     * @return indexes of the blocks, of the full blocks only
+     */
+    public final BitSet candidates(final IEvaluatable<T> query) {
+	int full = size() / blockSize;
+	BitSet candidates = new BitSet(full);
+	for (int block = 0; block < full; block++) {
+	    if (mayMatch(query, blocks.get(block))) {
+		candidates.set(block);
+	    }
+	}
+	return candidates;
+    }
+
+    /**
+     * Check whether a full block may contain records matching the query.
+     *
+     * @param query
+     *            query
+     * @param zones
+     *            summaries of the fields of the block
+     * @return <code>false</code> in case no record of the block matches the
+     *         query
+     */
+    @SuppressWarnings("unchecked")
+    private boolean mayMatch(final IEvaluatable<T> query,
+	    final Map<String, ZoneMap> zones) {
+	if (query instanceof Condition) {
+	    Condition<T> condition = (Condition<T>) query;
+	    switch (condition.getConditionOperator()) {
+	    case AND:
+		for (IEvaluatable<T> evaluatable : condition.getConditions()) {
+		    if (!mayMatch(evaluatable, zones)) {
+			return false;
+		    }
+		}
+		return true;
+	    case OR:
+		for (IEvaluatable<T> evaluatable : condition.getConditions()) {
+		    if (mayMatch(evaluatable, zones)) {
+			return true;
+		    }
+		}
+		return false;
+	    default:
+		// the summaries can't tell whether all records match
+		return true;
+	    }
+	} else if (query instanceof QueryDag) {
+	    return mayMatch(((QueryDag<T>) query).getRoot(), zones);
+	} else if (query instanceof QueryDag.Memo) {
+	    return mayMatch(((QueryDag.Memo<T>) query).getEvaluatable(), zones);
+	} else if (query instanceof LiteralAlternation) {
+	    for (Comparison<T> comparison : ((LiteralAlternation<T>) query)
+		    .getComparisons()) {
+		if (mayMatch(comparison, zones)) {
+		    return true;
+		}
+	    }
+	    return false;
+	} else if (query instanceof IFieldEvaluatable) {
+	    IFieldEvaluatable<T> evaluatable = (IFieldEvaluatable<T>) query;
+	    ZoneMap zone = zones.get(evaluatable.getField());
+	    if (zone == null) {
+		return evaluatable.evaluateValue(null);
+	    } else if (zone.getCount() < blockSize
+		    && evaluatable.evaluateValue(null)) {
+		return true;
+	    } else if (evaluatable instanceof Comparison
+		    && ((Comparison<T>) evaluatable).getComparisonOperator() == ComparisonOperator.EQUAL) {
+		return zone.mayContain(((Comparison<T>) evaluatable).getValue());
+	    } else if (zone.getMin().equals(zone.getMax())) {
+		return evaluatable.evaluateValue(zone.getMin());
+	    }
+	}
+	return true;
+    }
+
+    @Override
+    public final IRecordPredicate compile(final IEvaluatable<T> query) {
+	final IRecordPredicate predicate = delegate.compile(query);
+	final BitSet candidates = candidates(query);
+	final int full = size() / blockSize;
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		int block = id / blockSize;
+		return (block >= full || candidates.get(block))
+			&& predicate.evaluate(id);
+	    }
+	};
+    }
+
+    @Override
+    protected final IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable) {
+	return delegate.compile(evaluatable);
+    }
+
+    @Override
+    public final void scan(final IEvaluatable<T> query,
+	    final IMatchHandler<? super T> handler) {
+	IRecordPredicate predicate = delegate.compile(query);
+	BitSet candidates = candidates(query);
+	int full = size() / blockSize;
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	int size = size();
+	for (int id = 0; id < size; id++) {
+	    int block = id / blockSize;
+	    if (block < full && !candidates.get(block)) {
+		id = block * blockSize + blockSize - 1;
+		continue;
+	    }
+	    boolean match = predicate.evaluate(id);
+	    if (meter != null) {
+		meter.record(match);
+	    }
+	    if (match && !handler.onMatch(id, get(id))) {
+		break;
+	    }
+	}
+    }
+
+    @Override
+    public final int count(final IEvaluatable<T> query) {
+	IRecordPredicate predicate = delegate.compile(query);
+	BitSet candidates = candidates(query);
+	int full = size() / blockSize;
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	int size = size();
+	int count = 0;
+	for (int id = 0; id < size; id++) {
+	    int block = id / blockSize;
+	    if (block < full && !candidates.get(block)) {
+		id = block * blockSize + blockSize - 1;
+		continue;
+	    }
+	    boolean match = predicate.evaluate(id);
+	    if (meter != null) {
+		meter.record(match);
+	    }
+	    if (match) {
+		count++;
+	    }
+	}
+	return count;
+    }
+
+}
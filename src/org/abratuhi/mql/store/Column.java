@@ -0,0 +1,55 @@
+package org.abratuhi.mql.store;
+
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Values of a single field of all records in a {@link ColumnarRecordStore},
+ * indexed by record id.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+abstract class Column {
+
+    /**
+     * Set value of the field for the record.
+     *
+     * @param id
+     *            record id
+     * @param value
+     *            field value, may be <code>null</code>
+     */
+    abstract void set(final int id, final String value);
+
+    /**
+     * Check whether the record contains the field.
+     *
+     * @param id
+     *            record id
+     * @return whether the record contains the field
+     */
+    abstract boolean contains(final int id);
+
+    /**
+     * Get value of the field for the record.
+     *
+     * @param id
+     *            record id
+     * @return field value or <code>null</code> in case the record doesn't
+     *         contain the field
+     */
+    abstract String get(final int id);
+
+    /**
+     * Compile the criteria on this column's field against the column.
+     *
+     * @param evaluatable
+     *            criteria on the field
+     * @return compiled criteria
+     */
+    abstract IRecordPredicate compile(
+	    final IFieldEvaluatable<?> evaluatable);
+
+}
@@ -0,0 +1,120 @@
+package org.abratuhi.mql.store;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Record store keeping the values of each field in a separate column.
+ * </p>
+ * <p>
+ * Fields with low cardinality (e.g. profession, address, hobby) should be
+ * declared as dictionary-encoded: each distinct value is then stored once and
+ * the criteria on the field are evaluated once per distinct value instead of
+ * once per record, see {@link DictionaryColumn}. All other fields are stored
+ * as they are.
+ * </p>
+ * <p>
+ * The store is not thread-safe for concurrent writes.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class ColumnarRecordStore<T extends Map<String, String>> extends
+	AbstractRecordStore<T> {
+
+    /**
+     * Factory used to materialize the records.
+     */
+    private final IRecordFactory<T> factory;
+    /**
+     * Names of the dictionary-encoded fields.
+     */
+    private final Set<String> dictionaryFields;
+    /**
+     * Columns by field name.
+     */
+    private Map<String, Column> columns = new LinkedHashMap<String, Column>();
+    /**
+     * Number of records in the store.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param factory
+     *            factory used to materialize the records
+     * @param dictionaryFields
+     *            names of the fields to store dictionary-encoded
+     */
+    public ColumnarRecordStore(final IRecordFactory<T> factory,
+	    final String... dictionaryFields) {
+	this.factory = factory;
+	this.dictionaryFields = new HashSet<String>(
+		Arrays.asList(dictionaryFields));
+    }
+
+    @Override
+    protected final int append(final Map<String, String> record) {
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    Column column = columns.get(entry.getKey());
+	    if (column == null) {
+		column = dictionaryFields.contains(entry.getKey())
+			? new DictionaryColumn() : new PlainColumn();
+		columns.put(entry.getKey(), column);
+	    }
+	    column.set(size, entry.getValue());
+	}
+	return size++;
+    }
+
+    @Override
+    public final T get(final int id) {
+	T record = factory.newRecord();
+	for (Map.Entry<String, Column> entry : columns.entrySet()) {
+	    if (entry.getValue().contains(id)) {
+		record.put(entry.getKey(), entry.getValue().get(id));
+	    }
+	}
+	return record;
+    }
+
+    @Override
+    public final int size() {
+	return size;
+    }
+
+    /**
+     * Get number of distinct values of a dictionary-encoded field.
+     *
+     * @param field
+     *            field name
+     * @return number of distinct values or <code>-1</code> in case the field
+     *         is not dictionary-encoded
+     */
+    public final int cardinality(final String field) {
+	Column column = columns.get(field);
+	return column instanceof DictionaryColumn
+		? ((DictionaryColumn) column).cardinality() : -1;
+    }
+
+    @Override
+    protected final IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable) {
+	Column column = columns.get(evaluatable.getField());
+	if (column == null) {
+	    return evaluatable.evaluateValue(null) ? ALWAYS : NEVER;
+	}
+	return column.compile(evaluatable);
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.abratuhi.mql.store;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Column keeping each distinct value of the field once, in a dictionary, and
+ * an integer dictionary code per record.
+ * </p>
+ * <p>
+ * Meant for fields with low cardinality. Criteria on the field are evaluated
+ * against the dictionary instead of the records:
+ * <ul>
+ * <li>equality {@link Comparison} resolves its value to a dictionary code
+ * once and compares the codes of the records.</li>
+ * <li>any other criteria (e.g. regular expression match) is evaluated once per
+ * dictionary entry, the records are checked against the set of matching
+ * codes.</li>
+ * </ul>
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+class DictionaryColumn extends Column {
+
+    /**
+     * Code of the records not containing the field.
+     */
+    private static final int MISSING = -1;
+
+    /**
+     * Dictionary codes by value.
+     */
+    private Map<String, Integer> codes = new HashMap<String, Integer>();
+    /**
+     * Dictionary values by code.
+     */
+    private List<String> values = new Vector<String>();
+    /**
+     * Dictionary codes by record id.
+     */
+    private int[] rows = new int[0];
+
+    @Override
+    final void set(final int id, final String value) {
+	Integer code = codes.get(value);
+	if (code == null) {
+	    code = values.size();
+	    codes.put(value, code);
+	    values.add(value);
+	}
+	if (id >= rows.length) {
+	    int length = rows.length;
+	    rows = Arrays.copyOf(rows, Math.max(id + 1, Math.max(1024,
+		    length * 2)));
+	    Arrays.fill(rows, length, rows.length, MISSING);
+	}
+	rows[id] = code;
+    }
+
+    @Override
+    final boolean contains(final int id) {
+	return code(id) != MISSING;
+    }
+
+    @Override
+    final String get(final int id) {
+	int code = code(id);
+	return code == MISSING ? null : values.get(code);
+    }
+
+    /**
+     * Get number of distinct values in the column.
+     *
+     * @return dictionary size
+     */
+    final int cardinality() {
+	return values.size();
+    }
+
+    @Override
+    final IRecordPredicate compile(final IFieldEvaluatable<?> evaluatable) {
+	final boolean missing = evaluatable.evaluateValue(null);
+
+	if (evaluatable instanceof Comparison
+		&& ((Comparison<?>) evaluatable).getComparisonOperator()
+			== Comparison.ComparisonOperator.EQUAL) {
+	    Integer code = codes.get(((Comparison<?>) evaluatable)
+		    .getValue());
+	    final int expected = code == null ? MISSING - 1 : code;
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    int code = code(id);
+		    return code == MISSING ? missing : code == expected;
+		}
+	    };
+	}
+
+	// evaluate once per distinct value
+	final BitSet matching = new BitSet(values.size());
+	for (int code = 0; code < values.size(); code++) {
+	    if (evaluatable.evaluateValue(values.get(code))) {
+		matching.set(code);
+	    }
+	}
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		int code = code(id);
+		return code == MISSING ? missing : matching.get(code);
+	    }
+	};
+    }
+
+    /**
+     * Get dictionary code of the record.
+     *
+     * @param id
+     *            record id
+     * @return dictionary code
+     */
+    private int code(final int id) {
+	return id < rows.length ? rows[id] : MISSING;
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.abratuhi.mql.store;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Dictionary of field names known to a record store, mapping each field name
+ * to a small integer id used in the encoded records.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+class FieldDictionary {
+
+    /**
+     * Field ids by field name.
+     */
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+    /**
+     * Field names by field id.
+     */
+    private List<String> names = new Vector<String>();
+
+    /**
+     * Get id of the field, registering the field if needed.
+     *
+     * @param name
+     *            field name
+     * @return field id
+     */
+    public final int id(final String name) {
+	Integer id = ids.get(name);
+	if (id == null) {
+	    id = names.size();
+	    ids.put(name, id);
+	    names.add(name);
+	}
+	return id;
+    }
+
+    /**
+     * Get id of the field without registering it.
+     *
+     * @param name
+     *            field name
+     * @return field id or <code>-1</code> in case the field is unknown
+     */
+    public final int lookup(final String name) {
+	Integer id = ids.get(name);
+	return id == null ? -1 : id;
+    }
+
+    /**
+     * Get name of the field.
+     *
+     * @param id
+     *            field id
+     * @return field name
+     */
+    public final String name(final int id) {
+	return names.get(id);
+    }
+
+    /**
+     * Get number of known fields.
+     *
+     * @return number of fields
+     */
+    public final int size() {
+	return names.size();
+    }
+
+}
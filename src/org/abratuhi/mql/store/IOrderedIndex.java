@@ -0,0 +1,44 @@
+package org.abratuhi.mql.store;
+
+import java.util.Map;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+
+/**
+ * <p>
+ * Record store able to pass the records matching a query in order of a
+ * field's value, by walking a sorted index of the field instead of sorting
+ * the matching records.
+ * </p>
+ * <p>
+ * Values are ordered by their code points. Records missing the field or
+ * having a <code>null</code> value come last in both directions, records
+ * with equal values in ascending order of their identifiers.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public interface IOrderedIndex<T extends Map<String, String>> extends
+	IRecordStore<T> {
+
+    /**
+     * Evaluate the query on the records of the store, passing the matching
+     * ones to the handler in order of the field's value.
+     *
+     * @param query
+     *            query to evaluate
+     * @param field
+     *            name of the field to order by
+     * @param descending
+     *            whether to pass the largest values first
+     * @param handler
+     *            handler of the matching records, may stop the scan
+     */
+    public void scanOrdered(final IEvaluatable<T> query, final String field,
+	    final boolean descending, final IMatchHandler<? super T> handler);
+
+}
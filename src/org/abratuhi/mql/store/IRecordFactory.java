@@ -0,0 +1,24 @@
+package org.abratuhi.mql.store;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Factory creating empty records, used by record stores to materialize stored
+ * records.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ * @param <T> base class of the records created.
+ */
+public interface IRecordFactory<T extends Map<String, String>> {
+
+    /**
+     * Create a new empty record.
+     *
+     * @return new empty record
+     */
+    public T newRecord();
+
+}
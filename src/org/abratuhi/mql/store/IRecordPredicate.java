@@ -0,0 +1,26 @@
+package org.abratuhi.mql.store;
+
+/**
+ * <p>
+ * Query compiled against a particular record store, evaluating records by
+ * their id.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public interface IRecordPredicate {
+
+    /**
+     * Evaluate the record with the given id.
+     *
+     * @param id
+     *            - id of the record within the store.
+     * @return <ul>
+     *         <li><code>true</code> - in case the record matches the query</li>
+     *         <li><code>false</code> - otherwise</li>
+     *         </ul>
+     */
+    public boolean evaluate(final int id);
+
+}
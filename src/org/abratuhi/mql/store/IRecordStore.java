@@ -0,0 +1,87 @@
+package org.abratuhi.mql.store;
+
+import java.util.List;
+import java.util.Map;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+
+/**
+ * <p>
+ * Collection of records, addressed by consecutive ids starting with
+ * <code>0</code>, able to evaluate queries against its records.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ * @param <T> base class of the stored records.
+ */
+public interface IRecordStore<T extends Map<String, String>> {
+
+    /**
+     * Add a record to the store.
+     *
+     * @param record
+     *            - record to add
+     * @return id of the added record
+     * @throws UnsupportedOperationException
+     *             - in case the store is read-only, e.g. a {@link Snapshot}
+     */
+    public int add(final Map<String, String> record);
+
+    /**
+     * Materialize the record with the given id.
+     *
+     * @param id
+     *            - record id
+     * @return record
+     */
+    public T get(final int id);
+
+    /**
+     * Get number of records in the store.
+     *
+     * @return number of records
+     */
+    public int size();
+
+    /**
+     * Compile the query against the storage format of this store.
+     *
+     * @param query
+     *            - parsed query
+     * @return compiled query
+     */
+    public IRecordPredicate compile(final IEvaluatable<T> query);
+
+    /**
+     * Pass every record matching the query to the given handler, in order of
+     * record ids, until the handler asks to stop.
+     *
+     * @param query
+     *            - parsed query
+     * @param handler
+     *            - handler of matching records
+     */
+    public void scan(final IEvaluatable<T> query,
+	    final IMatchHandler<? super T> handler);
+
+    /**
+     * Get all records matching the query.
+     *
+     * @param query
+     *            - parsed query
+     * @return matching records
+     */
+    public List<T> select(final IEvaluatable<T> query);
+
+    /**
+     * Count records matching the query without materializing them.
+     *
+     * @param query
+     *            - parsed query
+     * @return number of matching records
+     */
+    public int count(final IEvaluatable<T> query);
+
+}
@@ -0,0 +1,189 @@
+package org.abratuhi.mql.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Record store keeping its records outside of the java heap, in direct
+ * {@link ByteBuffer} arenas.
+ * </p>
+ * <p>
+ * The only per-record structure on the heap is the directory of record
+ * offsets (8 bytes per record), so the heap usage - and the garbage collector
+ * pauses - don't grow with the size of the records.
+ * </p>
+ * <p>
+ * Queries are evaluated directly against the encoded records: an equality
+ * {@link Comparison} compares the UTF-8 bytes of the stored value, any other
+ * criteria on a single field decodes that single field only. Records are
+ * materialized as {@link Map}s only when they match the query.
+ * </p>
+ * <p>
+ * The store is not thread-safe for concurrent writes.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class OffHeapRecordStore<T extends Map<String, String>> extends
+	AbstractRecordStore<T> {
+
+    /**
+     * Default size of an arena in bytes.
+     */
+    public static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Factory used to materialize the records.
+     */
+    private final IRecordFactory<T> factory;
+    /**
+     * Size of a newly allocated arena.
+     */
+    private final int arenaSize;
+    /**
+     * Arenas containing the encoded records, replaced by a grown copy when
+     * an arena is added so that the scans read them without locking.
+     */
+    private volatile ByteBuffer[] arenas = new ByteBuffer[0];
+    /**
+     * Directory of the records: arena index in the upper and offset within
+     * the arena in the lower 32 bits.
+     */
+    private long[] directory = new long[1024];
+    /**
+     * Number of records in the store.
+     */
+    private int size = 0;
+    /**
+     * Dictionary of the field names.
+     */
+    private FieldDictionary fields = new FieldDictionary();
+
+    /**
+     * Constructor.
+     *
+     * @param factory
+     *            factory used to materialize the records
+     */
+    public OffHeapRecordStore(final IRecordFactory<T> factory) {
+	this(factory, DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param factory
+     *            factory used to materialize the records
+     * @param arenaSize
+     *            size of an arena in bytes
+     */
+    public OffHeapRecordStore(final IRecordFactory<T> factory,
+	    final int arenaSize) {
+	this.factory = factory;
+	this.arenaSize = arenaSize;
+    }
+
+    @Override
+    protected final int append(final Map<String, String> record) {
+	byte[] encoded = RecordCodec.encode(record, fields);
+
+	ByteBuffer[] current = arenas;
+	ByteBuffer arena = current.length == 0 ? null
+		: current[current.length - 1];
+	if (arena == null || arena.remaining() < encoded.length) {
+	    // records larger than an arena get an arena of their own
+	    arena = ByteBuffer.allocateDirect(Math.max(arenaSize,
+		    encoded.length));
+	    current = Arrays.copyOf(current, current.length + 1);
+	    current[current.length - 1] = arena;
+	    arenas = current;
+	}
+	int offset = arena.position();
+	arena.put(encoded);
+
+	if (size == directory.length) {
+	    directory = Arrays.copyOf(directory, size * 2);
+	}
+	directory[size] = ((long) (current.length - 1) << 32) | offset;
+	return size++;
+    }
+
+    @Override
+    public final T get(final int id) {
+	T record = factory.newRecord();
+	RecordCodec.decode(arena(id), offset(id), fields, record);
+	return record;
+    }
+
+    @Override
+    public final int size() {
+	return size;
+    }
+
+    @Override
+    protected final IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable) {
+	final int field = fields.lookup(evaluatable.getField());
+	final boolean missing = evaluatable.evaluateValue(null);
+	if (field == -1) {
+	    return missing ? ALWAYS : NEVER;
+	}
+
+	if (evaluatable instanceof Comparison
+		&& ((Comparison<T>) evaluatable).getComparisonOperator()
+			== Comparison.ComparisonOperator.EQUAL) {
+	    final byte[] expected = ((Comparison<T>) evaluatable).getValue()
+		    .getBytes(RecordCodec.UTF8);
+	    return new IRecordPredicate() {
+		@Override
+		public boolean evaluate(final int id) {
+		    ByteBuffer arena = arena(id);
+		    int position = RecordCodec.find(arena, offset(id), field);
+		    return position == -1 ? missing : RecordCodec
+			    .equalsValue(arena, position, expected);
+		}
+	    };
+	}
+
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		ByteBuffer arena = arena(id);
+		int position = RecordCodec.find(arena, offset(id), field);
+		return position == -1 ? missing : evaluatable
+			.evaluateValue(RecordCodec.readValue(arena, position));
+	    }
+	};
+    }
+
+    /**
+     * Get the arena containing the record.
+     *
+     * @param id
+     *            record id
+     * @return arena
+     */
+    private ByteBuffer arena(final int id) {
+	return arenas[(int) (directory[id] >>> 32)];
+    }
+
+    /**
+     * Get offset of the record within its arena.
+     *
+     * @param id
+     *            record id
+     * @return offset
+     */
+    private int offset(final int id) {
+	return (int) directory[id];
+    }
+
+}
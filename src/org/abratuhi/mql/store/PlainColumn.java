@@ -0,0 +1,57 @@
+package org.abratuhi.mql.store;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Column keeping the values of the field as they are.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+class PlainColumn extends Column {
+
+    /**
+     * Values by record id.
+     */
+    private String[] values = new String[1024];
+    /**
+     * Records containing the field.
+     */
+    private BitSet present = new BitSet();
+
+    @Override
+    final void set(final int id, final String value) {
+	if (id >= values.length) {
+	    values = Arrays.copyOf(values, Math.max(id + 1,
+		    values.length * 2));
+	}
+	values[id] = value;
+	present.set(id);
+    }
+
+    @Override
+    final boolean contains(final int id) {
+	return present.get(id);
+    }
+
+    @Override
+    final String get(final int id) {
+	return id < values.length ? values[id] : null;
+    }
+
+    @Override
+    final IRecordPredicate compile(final IFieldEvaluatable<?> evaluatable) {
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		return evaluatable.evaluateValue(get(id));
+	    }
+	};
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.abratuhi.mql.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * <p>
+ * Binary encoding of a record, used by the stores keeping their records
+ * outside of the java heap.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * record ::= <int count> <entry>...<entry>
+ * entry ::= <int field id> <int length> <UTF-8 bytes of the value>
+ * }
+ * </pre>
+ *
+ * <p>
+ * A <code>null</code> value is encoded with the length <code>-1</code>.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class RecordCodec {
+
+    /**
+     * Charset of the encoded values.
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Utility class.
+     */
+    private RecordCodec() {
+    }
+
+    /**
+     * Encode the record.
+     *
+     * @param record
+     *            record to encode
+     * @param fields
+     *            dictionary of field names, new fields are registered
+     * @return encoded record
+     */
+    static byte[] encode(final Map<String, String> record,
+	    final FieldDictionary fields) {
+	int length = 4;
+	int i = 0;
+	byte[][] values = new byte[record.size()][];
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    values[i] = entry.getValue() == null ? null : entry.getValue()
+		    .getBytes(UTF8);
+	    length += 8 + (values[i] == null ? 0 : values[i].length);
+	    i++;
+	}
+
+	ByteBuffer buffer = ByteBuffer.allocate(length);
+	buffer.putInt(values.length);
+	i = 0;
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    buffer.putInt(fields.id(entry.getKey()));
+	    if (values[i] == null) {
+		buffer.putInt(-1);
+	    } else {
+		buffer.putInt(values[i].length);
+		buffer.put(values[i]);
+	    }
+	    i++;
+	}
+	return buffer.array();
+    }
+
+    /**
+     * Decode the record into the given map.
+     *
+     * @param buffer
+     *            buffer containing the encoded record
+     * @param offset
+     *            offset of the encoded record
+     * @param fields
+     *            dictionary of field names
+     * @param record
+     *            map to put the decoded fields into
+     */
+    static void decode(final ByteBuffer buffer, final int offset,
+	    final FieldDictionary fields, final Map<String, String> record) {
+	int count = buffer.getInt(offset);
+	int position = offset + 4;
+	for (int i = 0; i < count; i++) {
+	    String name = fields.name(buffer.getInt(position));
+	    record.put(name, readValue(buffer, position + 4));
+	    position += 8 + Math.max(0, buffer.getInt(position + 4));
+	}
+    }
+
+    /**
+     * Find the value of the field in the encoded record.
+     *
+     * @param buffer
+     *            buffer containing the encoded record
+     * @param offset
+     *            offset of the encoded record
+     * @param field
+     *            field id
+     * @return offset of the value's length or <code>-1</code> in case the
+     *         record doesn't contain the field
+     */
+    static int find(final ByteBuffer buffer, final int offset, final int field) {
+	int count = buffer.getInt(offset);
+	int position = offset + 4;
+	for (int i = 0; i < count; i++) {
+	    if (buffer.getInt(position) == field) {
+		return position + 4;
+	    }
+	    position += 8 + Math.max(0, buffer.getInt(position + 4));
+	}
+	return -1;
+    }
+
+    /**
+     * Read the value at the given offset.
+     *
+     * @param buffer
+     *            buffer containing the encoded record
+     * @param position
+     *            offset of the value's length as returned by
+     *            {@link RecordCodec#find(ByteBuffer, int, int)}
+     * @return value
+     */
+    static String readValue(final ByteBuffer buffer, final int position) {
+	int length = buffer.getInt(position);
+	if (length < 0) {
+	    return null;
+	}
+	byte[] bytes = new byte[length];
+	buffer.get(position + 4, bytes);
+	return new String(bytes, UTF8);
+    }
+
+    /**
+     * Compare the value at the given offset with the expected value without
+     * decoding it.
+     *
+     * @param buffer
+     *            buffer containing the encoded record
+     * @param position
+     *            offset of the value's length as returned by
+     *            {@link RecordCodec#find(ByteBuffer, int, int)}
+     * @param expected
+     *            UTF-8 bytes of the expected value
+     * @return whether the value equals the expected one
+     */
+    static boolean equalsValue(final ByteBuffer buffer, final int position,
+	    final byte[] expected) {
+	if (buffer.getInt(position) != expected.length) {
+	    return false;
+	}
+	int start = position + 4;
+	for (int i = 0; i < expected.length; i++) {
+	    if (buffer.get(start + i) != expected[i]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+}
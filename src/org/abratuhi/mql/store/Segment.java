@@ -0,0 +1,344 @@
+package org.abratuhi.mql.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.abratuhi.mql.Comparison;
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Immutable segment file written by {@link SegmentWriter}, memory-mapped and
+ * read in place: opening a segment reads its field table only, records and
+ * terms are read from the mapped pages when needed.
+ * </p>
+ * <p>
+ * Criteria on a field are evaluated against the term dictionary of the
+ * field: an equality {@link Comparison} looks its value up by binary search,
+ * any other criteria is evaluated once per term. The posting lists of the
+ * matching terms give the matching records.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class Segment {
+
+    /**
+     * Segment file.
+     */
+    private final File file;
+    /**
+     * Global identifier of the first record.
+     */
+    private final int base;
+    /**
+     * Mapped segment file, only read with absolute positions.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Number of records.
+     */
+    private final int size;
+    /**
+     * Dictionary of the field names.
+     */
+    private final FieldDictionary fields = new FieldDictionary();
+    /**
+     * Number of terms by field id.
+     */
+    private final int[] termCounts;
+    /**
+     * Offset of the term table by field id.
+     */
+    private final int[] termTables;
+
+    /**
+     * Open a segment file.
+     *
+     * @param file
+     *            segment file
+     * @param base
+     *            global identifier of the first record
+     * @throws IOException
+     *             in case the file can't be mapped or isn't a segment
+     */
+    Segment(final File file, final int base) throws IOException {
+	this.file = file;
+	this.base = base;
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    MappedByteBuffer mapped = raf.getChannel().map(
+		    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+	    this.buffer = mapped;
+	} finally {
+	    raf.close(); // the mapping stays valid
+	}
+	if (buffer.capacity() < SegmentWriter.HEADER_SIZE
+		|| buffer.getInt(0) != SegmentWriter.MAGIC) {
+	    throw new IOException("Not a segment file: " + file);
+	} else if (buffer.getInt(4) != SegmentWriter.VERSION) {
+	    throw new IOException("Unsupported segment version "
+		    + buffer.getInt(4) + ": " + file);
+	}
+	this.size = buffer.getInt(8);
+	int fieldCount = buffer.getInt(12);
+	this.termCounts = new int[fieldCount];
+	this.termTables = new int[fieldCount];
+	int position = buffer.getInt(16);
+	for (int f = 0; f < fieldCount; f++) {
+	    int length = buffer.getInt(position);
+	    byte[] name = new byte[length];
+	    buffer.get(position + 4, name);
+	    fields.id(new String(name, RecordCodec.UTF8));
+	    termCounts[f] = buffer.getInt(position + 4 + length);
+	    termTables[f] = buffer.getInt(position + 8 + length);
+	    position += 12 + length;
+	}
+    }
+
+    /**
+     * Get the segment file.
+     *
+     * @return file
+     */
+    File getFile() {
+	return file;
+    }
+
+    /**
+     * Get global identifier of the first record.
+     *
+     * @return identifier
+     */
+    int getBase() {
+	return base;
+    }
+
+    /**
+     * Get number of records.
+     *
+     * @return number of records
+     */
+    int size() {
+	return size;
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param id
+     *            identifier of the record within the segment
+     * @param record
+     *            map to put the fields into
+     */
+    void decode(final int id, final Map<String, String> record) {
+	RecordCodec.decode(buffer, buffer.getInt(SegmentWriter.HEADER_SIZE + 4
+		* id), fields, record);
+    }
+
+    /**
+     * Find the records matching a criteria on a single field.
+     *
+     * @param evaluatable
+     *            criteria
+     * @return identifiers within the segment of the matching records
+     */
+    BitSet matches(final IFieldEvaluatable<?> evaluatable) {
+	BitSet result = new BitSet(size);
+	int field = fields.lookup(evaluatable.getField());
+	if (field != -1) {
+	    if (evaluatable instanceof Comparison
+		    && ((Comparison<?>) evaluatable).getComparisonOperator()
+			== Comparison.ComparisonOperator.EQUAL) {
+		int term = find(field, ((Comparison<?>) evaluatable)
+			.getValue().getBytes(RecordCodec.UTF8));
+		if (term >= 0) {
+		    addPostings(field, term, result);
+		}
+	    } else {
+		for (int t = 0; t < termCounts[field]; t++) {
+		    if (evaluatable.evaluateValue(term(field, t))) {
+			addPostings(field, t, result);
+		    }
+		}
+	    }
+	}
+	if (evaluatable.evaluateValue(null)) {
+	    // records missing the field or having a null value
+	    BitSet present = new BitSet(size);
+	    for (int t = 0; field != -1 && t < termCounts[field]; t++) {
+		addPostings(field, t, present);
+	    }
+	    present.flip(0, size);
+	    result.or(present);
+	}
+	return result;
+    }
+
+    /**
+     * Get id of the field.
+     *
+     * @param name
+     *            field name
+     * @return field id or <code>-1</code> in case no record contains the
+     *         field
+     */
+    int field(final String name) {
+	return fields.lookup(name);
+    }
+
+    /**
+     * Get number of terms of the field.
+     *
+     * @param field
+     *            field id
+     * @return number of terms
+     */
+    int termCount(final int field) {
+	return termCounts[field];
+    }
+
+    /**
+     * Get UTF-8 bytes of a term of the field.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term in the term order
+     * @return UTF-8 bytes
+     */
+    byte[] termBytes(final int field, final int term) {
+	int entry = termTables[field] + SegmentWriter.TERM_ENTRY_SIZE * term;
+	byte[] bytes = new byte[buffer.getInt(entry + 4)];
+	buffer.get(buffer.getInt(entry), bytes);
+	return bytes;
+    }
+
+    /**
+     * Get number of records having the term.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term
+     * @return length of the posting list
+     */
+    int postingsCount(final int field, final int term) {
+	return buffer.getInt(termTables[field] + SegmentWriter.TERM_ENTRY_SIZE
+		* term + 12);
+    }
+
+    /**
+     * Get a record having the term.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term
+     * @param index
+     *            index within the posting list
+     * @return identifier within the segment
+     */
+    int posting(final int field, final int term, final int index) {
+	return buffer.getInt(buffer.getInt(termTables[field]
+		+ SegmentWriter.TERM_ENTRY_SIZE * term + 8)
+		+ 4 * index);
+    }
+
+    /**
+     * Get a term of the field.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term in the term order
+     * @return term
+     */
+    private String term(final int field, final int term) {
+	return new String(termBytes(field, term), RecordCodec.UTF8);
+    }
+
+    /**
+     * Find the term by binary search.
+     *
+     * @param field
+     *            field id
+     * @param expected
+     *            UTF-8 bytes of the term
+     * @return index of the term or <code>-1</code> in case there's no such
+     *         term
+     */
+    private int find(final int field, final byte[] expected) {
+	int low = 0;
+	int high = termCounts[field] - 1;
+	while (low <= high) {
+	    int middle = (low + high) >>> 1;
+	    int cmp = compare(field, middle, expected);
+	    if (cmp < 0) {
+		low = middle + 1;
+	    } else if (cmp > 0) {
+		high = middle - 1;
+	    } else {
+		return middle;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Compare a term with the expected bytes in place, as
+     * {@link SegmentWriter#TERM_ORDER} does.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term
+     * @param expected
+     *            UTF-8 bytes to compare with
+     * @return negative, zero or positive as the term is less, equal or
+     *         greater
+     */
+    private int compare(final int field, final int term, final byte[] expected) {
+	int entry = termTables[field] + SegmentWriter.TERM_ENTRY_SIZE * term;
+	int offset = buffer.getInt(entry);
+	int length = buffer.getInt(entry + 4);
+	int common = Math.min(length, expected.length);
+	for (int i = 0; i < common; i++) {
+	    int cmp = (buffer.get(offset + i) & 0xff) - (expected[i] & 0xff);
+	    if (cmp != 0) {
+		return cmp;
+	    }
+	}
+	return length - expected.length;
+    }
+
+    /**
+     * Add the posting list of a term to the set.
+     *
+     * @param field
+     *            field id
+     * @param term
+     *            index of the term
+     * @param set
+     *            set of record identifiers within the segment
+     */
+    private void addPostings(final int field, final int term, final BitSet set) {
+	int entry = termTables[field] + SegmentWriter.TERM_ENTRY_SIZE * term;
+	int position = buffer.getInt(entry + 8);
+	int count = buffer.getInt(entry + 12);
+	for (int i = 0; i < count; i++) {
+	    set.set(buffer.getInt(position + 4 * i));
+	}
+    }
+
+}
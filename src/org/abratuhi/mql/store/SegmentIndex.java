@@ -0,0 +1,672 @@
+package org.abratuhi.mql.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IFieldEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+
+/**
+ * <p>
+ * Persistent record store made of immutable, memory-mapped segment files in
+ * a directory. Opening the store maps the existing segments and reads their
+ * field tables only, so startup doesn't depend on the number of records.
+ * </p>
+ * <p>
+ * Added records are buffered in memory - and queried from there - until
+ * {@link SegmentIndex#flush()} writes them as a new segment. Each segment
+ * file is named after the identifiers of its records,
+ * <code>&lt;first id&gt;-&lt;count&gt;.seg</code>, so no separate catalog
+ * is needed.
+ * </p>
+ * <p>
+ * Adjacent segments are merged in a background thread whenever there are
+ * more than the merge factor of them, smallest pairs first. Identifiers of
+ * the records are kept by merges. A merged segment is written before the
+ * merged ones are deleted; leftovers of an interrupted merge are cleaned up
+ * when the store is opened.
+ * </p>
+ * <p>
+ * The sorted term dictionaries allow passing the matching records in order
+ * of a field without sorting them, see
+ * {@link SegmentIndex#scanOrdered(IEvaluatable, String, boolean, IMatchHandler)}.
+ * </p>
+ * <p>
+ * Queries may run concurrently with merges, but not with
+ * {@link SegmentIndex#add(Map)} or {@link SegmentIndex#flush()}.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class SegmentIndex<T extends Map<String, String>> extends
+	AbstractRecordStore<T> implements IOrderedIndex<T>, Closeable {
+
+    /**
+     * Default maximal number of segments before merging.
+     */
+    public static final int DEFAULT_MERGE_FACTOR = 10;
+    /**
+     * Maximal size of a merged segment file in bytes.
+     */
+    public static final long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024;
+
+    /**
+     * Names of the segment files.
+     */
+    private static final Pattern SEGMENT_NAME = Pattern
+	    .compile("(\\d+)-(\\d+)\\.seg");
+    /**
+     * Suffix of the segment files being written.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Position in the walk over the terms of a field, in a segment or in the
+     * buffered records.
+     */
+    private abstract static class Cursor {
+	/**
+	 * Position of the segment, orders the cursors of equal terms.
+	 */
+	private final int order;
+	/**
+	 * Current term, <code>null</code> once all terms were walked.
+	 */
+	protected byte[] term;
+
+	/**
+	 * Constructor.
+	 * @param order position of the segment
+	 */
+	Cursor(final int order) {
+	    this.order = order;
+	}
+
+	/**
+	 * Move to the next term.
+	 */
+	abstract void next();
+
+	/**
+	 * Get number of records having the current term.
+	 * @return number of records
+	 */
+	abstract int count();
+
+	/**
+	 * Get a record having the current term.
+	 * @param index index of the record, records in ascending order
+	 * @return global identifier
+	 */
+	abstract int id(final int index);
+    }
+
+    /**
+     * Directory of the segment files.
+     */
+    private final File directory;
+    /**
+     * Factory used to materialize the records.
+     */
+    private final IRecordFactory<T> factory;
+    /**
+     * Maximal number of segments before merging.
+     */
+    private final int mergeFactor;
+    /**
+     * Segments ordered by their identifiers, replaced as a whole.
+     */
+    private volatile Segment[] segments;
+    /**
+     * Records not yet written to a segment.
+     */
+    private final List<Map<String, String>> buffer = new Vector<Map<String, String>>();
+    /**
+     * Thread merging the segments.
+     */
+    private final ExecutorService merger;
+    /**
+     * Failure of the last background merge, reported by the next flush.
+     */
+    private volatile IOException mergeFailure = null;
+
+    /**
+     * Open the store, with the default merge factor.
+     *
+     * @param directory
+     *            directory of the segment files, created if missing
+     * @param factory
+     *            factory used to materialize the records
+     * @throws IOException
+     *             in case the segments can't be opened
+     */
+    public SegmentIndex(final File directory, final IRecordFactory<T> factory)
+	    throws IOException {
+	this(directory, factory, DEFAULT_MERGE_FACTOR);
+    }
+
+    /**
+     * Open the store.
+     *
+     * @param directory
+     *            directory of the segment files, created if missing
+     * @param factory
+     *            factory used to materialize the records
+     * @param mergeFactor
+     *            maximal number of segments before merging
+     * @throws IOException
+     *             in case the segments can't be opened
+     */
+    public SegmentIndex(final File directory,
+	    final IRecordFactory<T> factory, final int mergeFactor)
+	    throws IOException {
+	this.directory = directory;
+	this.factory = factory;
+	this.mergeFactor = Math.max(1, mergeFactor);
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Can't create directory " + directory);
+	}
+	this.segments = open(directory);
+	this.merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(final Runnable r) {
+		Thread thread = new Thread(r, "mql-segment-merger");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * Open the segments of the directory, deleting leftovers of interrupted
+     * writes and merges.
+     *
+     * @param directory
+     *            directory of the segment files
+     * @return segments ordered by their identifiers
+     * @throws IOException
+     *             in case a segment can't be opened or is missing
+     */
+    private static Segment[] open(final File directory) throws IOException {
+	for (File file : directory.listFiles(new FilenameFilter() {
+	    @Override
+	    public boolean accept(final File dir, final String name) {
+		return name.endsWith(TEMPORARY_SUFFIX);
+	    }
+	})) {
+	    file.delete();
+	}
+
+	File[] files = directory.listFiles(new FilenameFilter() {
+	    @Override
+	    public boolean accept(final File dir, final String name) {
+		return SEGMENT_NAME.matcher(name).matches();
+	    }
+	});
+	final Map<File, long[]> ranges = new HashMap<File, long[]>();
+	for (File file : files) {
+	    Matcher m = SEGMENT_NAME.matcher(file.getName());
+	    m.matches();
+	    ranges.put(file, new long[] { Long.parseLong(m.group(1)),
+		    Long.parseLong(m.group(2)) });
+	}
+	// by first identifier, larger (merged) segments first
+	Arrays.sort(files, new Comparator<File>() {
+	    @Override
+	    public int compare(final File a, final File b) {
+		long[] ra = ranges.get(a);
+		long[] rb = ranges.get(b);
+		return ra[0] != rb[0] ? Long.compare(ra[0], rb[0]) : Long
+			.compare(rb[1], ra[1]);
+	    }
+	});
+
+	List<Segment> result = new Vector<Segment>();
+	long next = 0;
+	for (File file : files) {
+	    long[] range = ranges.get(file);
+	    if (range[0] + range[1] <= next) {
+		file.delete(); // merged into an already opened segment
+	    } else if (range[0] == next) {
+		Segment segment = new Segment(file, (int) next);
+		if (segment.size() != range[1]) {
+		    throw new IOException("Segment " + file + " contains "
+			    + segment.size() + " records");
+		}
+		result.add(segment);
+		next += range[1];
+	    } else {
+		throw new IOException("Missing segment for the records "
+			+ next + " to " + (range[0] - 1));
+	    }
+	}
+	return result.toArray(new Segment[result.size()]);
+    }
+
+    @Override
+    protected final int append(final Map<String, String> record) {
+	buffer.add(new HashMap<String, String>(record));
+	return size() - 1;
+    }
+
+    /**
+     * Write the buffered records as a new segment and merge the segments in
+     * the background, if needed.
+     *
+     * @throws IOException
+     *             in case the segment can't be written or the last background
+     *             merge failed
+     */
+    public final synchronized void flush() throws IOException {
+	IOException failure = mergeFailure;
+	if (failure != null) {
+	    mergeFailure = null;
+	    throw new IOException("Background merge failed", failure);
+	}
+	if (!buffer.isEmpty()) {
+	    SegmentWriter writer = new SegmentWriter();
+	    for (Map<String, String> record : buffer) {
+		writer.add(record);
+	    }
+	    Segment segment = write(writer, written(segments));
+
+	    Segment[] current = segments;
+	    Segment[] updated = Arrays.copyOf(current, current.length + 1);
+	    updated[current.length] = segment;
+	    segments = updated;
+	    buffer.clear();
+	}
+	if (segments.length > mergeFactor) {
+	    merger.execute(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			merge(mergeFactor);
+		    } catch (IOException e) {
+			mergeFailure = e;
+		    }
+		}
+	    });
+	}
+    }
+
+    /**
+     * Merge adjacent segments, smallest pairs first, until there are at most
+     * the given number of segments or no pair can be merged without
+     * exceeding {@link SegmentIndex#MAX_SEGMENT_BYTES}.
+     *
+     * @param maxSegments
+     *            maximal number of segments
+     * @throws IOException
+     *             in case a merged segment can't be written
+     */
+    public final void merge(final int maxSegments) throws IOException {
+	// one merge at a time, while flushes may continue
+	synchronized (merger) {
+	    while (segments.length > Math.max(1, maxSegments)) {
+		Segment[] current = segments;
+		int best = -1;
+		long bestSize = Long.MAX_VALUE;
+		for (int i = 0; i + 1 < current.length; i++) {
+		    long bytes = current[i].getFile().length()
+			    + current[i + 1].getFile().length();
+		    long records = (long) current[i].size()
+			    + current[i + 1].size();
+		    if (bytes <= MAX_SEGMENT_BYTES && records < bestSize) {
+			best = i;
+			bestSize = records;
+		    }
+		}
+		if (best == -1) {
+		    return;
+		}
+		merge(current[best], current[best + 1]);
+	    }
+	}
+    }
+
+    /**
+     * Merge two adjacent segments.
+     *
+     * @param first
+     *            first segment
+     * @param second
+     *            segment following the first one
+     * @throws IOException
+     *             in case the merged segment can't be written
+     */
+    private void merge(final Segment first, final Segment second)
+	    throws IOException {
+	SegmentWriter writer = new SegmentWriter();
+	Map<String, String> record = new HashMap<String, String>();
+	for (Segment segment : new Segment[] { first, second }) {
+	    for (int id = 0; id < segment.size(); id++) {
+		record.clear();
+		segment.decode(id, record);
+		writer.add(record);
+	    }
+	}
+	Segment merged = write(writer, first.getBase());
+
+	synchronized (this) {
+	    List<Segment> updated = new Vector<Segment>(Arrays.asList(segments));
+	    int index = updated.indexOf(first);
+	    updated.set(index, merged);
+	    updated.remove(index + 1);
+	    segments = updated.toArray(new Segment[updated.size()]);
+	}
+	// mapped pages of the deleted files stay readable by running queries
+	first.getFile().delete();
+	second.getFile().delete();
+    }
+
+    /**
+     * Write a segment file, atomically renaming it once complete.
+     *
+     * @param writer
+     *            records of the segment
+     * @param base
+     *            global identifier of the first record
+     * @return segment written
+     * @throws IOException
+     *             in case the segment can't be written
+     */
+    private Segment write(final SegmentWriter writer, final int base)
+	    throws IOException {
+	String name = base + "-" + writer.size() + ".seg";
+	File temporary = new File(directory, name + TEMPORARY_SUFFIX);
+	File file = new File(directory, name);
+	writer.write(temporary);
+	Files.move(temporary.toPath(), file.toPath(),
+		StandardCopyOption.ATOMIC_MOVE);
+	return new Segment(file, base);
+    }
+
+    /**
+     * Get number of segments.
+     *
+     * @return number of segments
+     */
+    public final int getSegmentCount() {
+	return segments.length;
+    }
+
+    /**
+     * Get number of records written to segments.
+     *
+     * @param current
+     *            segments
+     * @return number of records
+     */
+    private static int written(final Segment[] current) {
+	return current.length == 0 ? 0 : current[current.length - 1]
+		.getBase() + current[current.length - 1].size();
+    }
+
+    /**
+     * Find the segment containing the record.
+     *
+     * @param current
+     *            segments
+     * @param id
+     *            global identifier of a record written to a segment
+     * @return segment
+     */
+    private static Segment segment(final Segment[] current, final int id) {
+	int low = 0;
+	int high = current.length - 1;
+	while (low < high) {
+	    int middle = (low + high + 1) >>> 1;
+	    if (current[middle].getBase() <= id) {
+		low = middle;
+	    } else {
+		high = middle - 1;
+	    }
+	}
+	return current[low];
+    }
+
+    @Override
+    public final T get(final int id) {
+	Segment[] current = segments;
+	int written = written(current);
+	T record = factory.newRecord();
+	if (id < written) {
+	    Segment segment = segment(current, id);
+	    segment.decode(id - segment.getBase(), record);
+	} else {
+	    record.putAll(buffer.get(id - written));
+	}
+	return record;
+    }
+
+    @Override
+    public final int size() {
+	return written(segments) + buffer.size();
+    }
+
+    @Override
+    protected final IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable) {
+	Segment[] current = segments;
+	final int written = written(current);
+	final BitSet matches = new BitSet(written);
+	for (Segment segment : current) {
+	    BitSet local = segment.matches(evaluatable);
+	    for (int i = local.nextSetBit(0); i >= 0; i = local
+		    .nextSetBit(i + 1)) {
+		matches.set(segment.getBase() + i);
+	    }
+	}
+	final String field = evaluatable.getField();
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		return id < written ? matches.get(id) : evaluatable
+			.evaluateValue(buffer.get(id - written).get(field));
+	    }
+	};
+    }
+
+    @Override
+    public final void scanOrdered(final IEvaluatable<T> query,
+	    final String field, final boolean descending,
+	    final IMatchHandler<? super T> handler) {
+	IRecordPredicate predicate = compile(query);
+	EvaluationBudget.Meter meter = EvaluationBudget.meter();
+	Segment[] current = segments;
+	final int written = written(current);
+	int size = written + buffer.size();
+
+	final Comparator<byte[]> termOrder = descending ? Collections
+		.reverseOrder(SegmentWriter.TERM_ORDER)
+		: SegmentWriter.TERM_ORDER;
+	PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(
+		current.length + 1, new Comparator<Cursor>() {
+		    @Override
+		    public int compare(final Cursor a, final Cursor b) {
+			int cmp = termOrder.compare(a.term, b.term);
+			return cmp != 0 ? cmp : a.order - b.order;
+		    }
+		});
+	for (int i = 0; i < current.length; i++) {
+	    Cursor cursor = cursor(current[i], i, field, descending);
+	    if (cursor.term != null) {
+		cursors.add(cursor);
+	    }
+	}
+	Cursor buffered = cursor(written, current.length, field, descending);
+	if (buffered.term != null) {
+	    cursors.add(buffered);
+	}
+
+	// records having a value, in order of the values
+	BitSet present = new BitSet(size);
+	while (!cursors.isEmpty()) {
+	    Cursor cursor = cursors.poll();
+	    for (int i = 0; i < cursor.count(); i++) {
+		int id = cursor.id(i);
+		present.set(id);
+		boolean match = predicate.evaluate(id);
+		if (meter != null) {
+		    meter.record(match);
+		}
+		if (match && !handler.onMatch(id, get(id))) {
+		    return;
+		}
+	    }
+	    cursor.next();
+	    if (cursor.term != null) {
+		cursors.add(cursor);
+	    }
+	}
+
+	// records missing a value
+	for (int id = present.nextClearBit(0); id < size; id = present
+		.nextClearBit(id + 1)) {
+	    boolean match = predicate.evaluate(id);
+	    if (meter != null) {
+		meter.record(match);
+	    }
+	    if (match && !handler.onMatch(id, get(id))) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Create a cursor over the terms of the field in a segment.
+     *
+     * @param segment
+     *            segment
+     * @param order
+     *            position of the segment
+     * @param name
+     *            field name
+     * @param descending
+     *            whether to walk the largest terms first
+     * @return cursor positioned on the first term
+     */
+    private static Cursor cursor(final Segment segment, final int order,
+	    final String name, final boolean descending) {
+	final int field = segment.field(name);
+	final int count = field == -1 ? 0 : segment.termCount(field);
+	Cursor cursor = new Cursor(order) {
+	    private int index = descending ? count : -1;
+
+	    @Override
+	    void next() {
+		index += descending ? -1 : 1;
+		term = index >= 0 && index < count ? segment.termBytes(
+			field, index) : null;
+	    }
+
+	    @Override
+	    int count() {
+		return segment.postingsCount(field, index);
+	    }
+
+	    @Override
+	    int id(final int i) {
+		return segment.getBase() + segment.posting(field, index, i);
+	    }
+	};
+	cursor.next();
+	return cursor;
+    }
+
+    /**
+     * Create a cursor over the values of the field in the buffered records.
+     *
+     * @param written
+     *            number of records written to segments
+     * @param order
+     *            position after the last segment
+     * @param name
+     *            field name
+     * @param descending
+     *            whether to walk the largest values first
+     * @return cursor positioned on the first value
+     */
+    private Cursor cursor(final int written, final int order,
+	    final String name, final boolean descending) {
+	TreeMap<byte[], List<Integer>> values = new TreeMap<byte[], List<Integer>>(
+		SegmentWriter.TERM_ORDER);
+	for (int i = 0; i < buffer.size(); i++) {
+	    String value = buffer.get(i).get(name);
+	    if (value != null) {
+		byte[] bytes = value.getBytes(RecordCodec.UTF8);
+		List<Integer> ids = values.get(bytes);
+		if (ids == null) {
+		    ids = new Vector<Integer>();
+		    values.put(bytes, ids);
+		}
+		ids.add(written + i);
+	    }
+	}
+	final List<Map.Entry<byte[], List<Integer>>> entries = new Vector<Map.Entry<byte[], List<Integer>>>(
+		(descending ? values.descendingMap() : values).entrySet());
+	Cursor cursor = new Cursor(order) {
+	    private int index = -1;
+
+	    @Override
+	    void next() {
+		index++;
+		term = index < entries.size() ? entries.get(index).getKey()
+			: null;
+	    }
+
+	    @Override
+	    int count() {
+		return entries.get(index).getValue().size();
+	    }
+
+	    @Override
+	    int id(final int i) {
+		return entries.get(index).getValue().get(i);
+	    }
+	};
+	cursor.next();
+	return cursor;
+    }
+
+    /**
+     * Stop the background merges, waiting for a running one to complete.
+     * Buffered records are not written.
+     */
+    @Override
+    public void close() {
+	merger.shutdown();
+	try {
+	    merger.awaitTermination(1, TimeUnit.MINUTES);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.abratuhi.mql.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Builder of an immutable {@link Segment} file: records are added in memory,
+ * then written at once together with a sorted term dictionary and posting
+ * lists per field.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * segment     ::= <header> <record offsets> <records> <field table> <term tables> <terms> <postings>
+ * header      ::= <int magic> <int version> <int record count> <int field count> <int field table offset>
+ * record offsets ::= <int offset>...<int offset>          (record count + 1)
+ * records     ::= record encoded by RecordCodec...
+ * field table ::= (<int name length> <UTF-8 name> <int term count> <int term table offset>)...
+ * term table  ::= (<int term offset> <int term length> <int postings offset> <int postings count>)...
+ * postings    ::= <int record>...<int record>             (ascending)
+ * }
+ * </pre>
+ *
+ * <p>
+ * Offsets are absolute positions in the file, numbers big-endian. Terms are
+ * sorted by their UTF-8 bytes, compared unsigned. <code>null</code> values
+ * have no term, as have records missing the field.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class SegmentWriter {
+
+    /**
+     * First bytes of a segment file: <code>MQLS</code>.
+     */
+    static final int MAGIC = 0x4D514C53;
+    /**
+     * Version of the segment format.
+     */
+    static final int VERSION = 1;
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER_SIZE = 20;
+    /**
+     * Size of a term table entry in bytes.
+     */
+    static final int TERM_ENTRY_SIZE = 16;
+
+    /**
+     * Orders terms by their UTF-8 bytes, compared unsigned - the order of
+     * the code points.
+     */
+    static final Comparator<byte[]> TERM_ORDER = new Comparator<byte[]>() {
+	@Override
+	public int compare(final byte[] a, final byte[] b) {
+	    int length = Math.min(a.length, b.length);
+	    for (int i = 0; i < length; i++) {
+		int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+		if (cmp != 0) {
+		    return cmp;
+		}
+	    }
+	    return a.length - b.length;
+	}
+    };
+
+    /**
+     * Growable list of record identifiers.
+     */
+    private static final class Postings {
+	/**
+	 * Identifiers, ascending.
+	 */
+	private int[] ids = new int[4];
+	/**
+	 * Number of identifiers.
+	 */
+	private int size = 0;
+
+	/**
+	 * Append an identifier.
+	 * @param id identifier, greater than all appended before
+	 */
+	void add(final int id) {
+	    if (size == ids.length) {
+		ids = Arrays.copyOf(ids, size * 2);
+	    }
+	    ids[size++] = id;
+	}
+    }
+
+    /**
+     * Dictionary of the field names.
+     */
+    private final FieldDictionary fields = new FieldDictionary();
+    /**
+     * Encoded records.
+     */
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    /**
+     * Offsets of the encoded records within {@link SegmentWriter#records}.
+     */
+    private int[] offsets = new int[1024];
+    /**
+     * Number of records.
+     */
+    private int size = 0;
+    /**
+     * Postings by term, by field id.
+     */
+    private final List<Map<String, Postings>> postings = new Vector<Map<String, Postings>>();
+
+    /**
+     * Add a record.
+     *
+     * @param record
+     *            record
+     */
+    void add(final Map<String, String> record) {
+	byte[] encoded = RecordCodec.encode(record, fields);
+	if (size + 1 >= offsets.length) {
+	    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+	}
+	offsets[size] = records.size();
+	records.write(encoded, 0, encoded.length);
+	offsets[size + 1] = records.size();
+
+	for (Map.Entry<String, String> entry : record.entrySet()) {
+	    if (entry.getValue() == null) {
+		continue;
+	    }
+	    int field = fields.id(entry.getKey());
+	    while (postings.size() <= field) {
+		postings.add(new HashMap<String, Postings>());
+	    }
+	    Postings p = postings.get(field).get(entry.getValue());
+	    if (p == null) {
+		p = new Postings();
+		postings.get(field).put(entry.getValue(), p);
+	    }
+	    p.add(size);
+	}
+	size++;
+    }
+
+    /**
+     * Get number of records added.
+     *
+     * @return number of records
+     */
+    int size() {
+	return size;
+    }
+
+    /**
+     * Write the segment file and force it to the disk.
+     *
+     * @param file
+     *            file to write
+     * @throws IOException
+     *             in case the file can't be written or the segment exceeds
+     *             2GB
+     */
+    void write(final File file) throws IOException {
+	int fieldCount = fields.size();
+	while (postings.size() < fieldCount) {
+	    postings.add(new HashMap<String, Postings>());
+	}
+
+	// sort the terms of each field
+	byte[][] names = new byte[fieldCount][];
+	byte[][][] terms = new byte[fieldCount][][];
+	Postings[][] lists = new Postings[fieldCount][];
+	for (int f = 0; f < fieldCount; f++) {
+	    names[f] = fields.name(f).getBytes(RecordCodec.UTF8);
+	    final Map<byte[], Postings> byBytes = new HashMap<byte[], Postings>();
+	    for (Map.Entry<String, Postings> entry : postings.get(f)
+		    .entrySet()) {
+		byBytes.put(entry.getKey().getBytes(RecordCodec.UTF8),
+			entry.getValue());
+	    }
+	    terms[f] = byBytes.keySet().toArray(new byte[byBytes.size()][]);
+	    Arrays.sort(terms[f], TERM_ORDER);
+	    lists[f] = new Postings[terms[f].length];
+	    for (int t = 0; t < terms[f].length; t++) {
+		lists[f][t] = byBytes.get(terms[f][t]);
+	    }
+	}
+
+	// lay out the file
+	long position = HEADER_SIZE + 4L * (size + 1);
+	long recordsOffset = position;
+	position += records.size();
+	long fieldTableOffset = position;
+	for (int f = 0; f < fieldCount; f++) {
+	    position += 12 + names[f].length;
+	}
+	long[] termTableOffsets = new long[fieldCount];
+	for (int f = 0; f < fieldCount; f++) {
+	    termTableOffsets[f] = position;
+	    position += (long) TERM_ENTRY_SIZE * terms[f].length;
+	}
+	long termsOffset = position;
+	for (int f = 0; f < fieldCount; f++) {
+	    for (byte[] term : terms[f]) {
+		position += term.length;
+	    }
+	}
+	long postingsOffset = position;
+	for (int f = 0; f < fieldCount; f++) {
+	    for (Postings p : lists[f]) {
+		position += 4L * p.size;
+	    }
+	}
+	if (position > Integer.MAX_VALUE) {
+	    throw new IOException("Segment exceeds 2GB: " + position
+		    + " bytes");
+	}
+
+	FileOutputStream stream = new FileOutputStream(file);
+	try {
+	    DataOutputStream out = new DataOutputStream(
+		    new BufferedOutputStream(stream, 64 * 1024));
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    out.writeInt(size);
+	    out.writeInt(fieldCount);
+	    out.writeInt((int) fieldTableOffset);
+	    for (int i = 0; i <= size; i++) {
+		out.writeInt((int) recordsOffset + offsets[i]);
+	    }
+	    records.writeTo(out);
+
+	    for (int f = 0; f < fieldCount; f++) {
+		out.writeInt(names[f].length);
+		out.write(names[f]);
+		out.writeInt(terms[f].length);
+		out.writeInt((int) termTableOffsets[f]);
+	    }
+	    long termPosition = termsOffset;
+	    long postingsPosition = postingsOffset;
+	    for (int f = 0; f < fieldCount; f++) {
+		for (int t = 0; t < terms[f].length; t++) {
+		    out.writeInt((int) termPosition);
+		    out.writeInt(terms[f][t].length);
+		    out.writeInt((int) postingsPosition);
+		    out.writeInt(lists[f][t].size);
+		    termPosition += terms[f][t].length;
+		    postingsPosition += 4L * lists[f][t].size;
+		}
+	    }
+	    for (int f = 0; f < fieldCount; f++) {
+		for (byte[] term : terms[f]) {
+		    out.write(term);
+		}
+	    }
+	    for (int f = 0; f < fieldCount; f++) {
+		for (Postings p : lists[f]) {
+		    for (int i = 0; i < p.size; i++) {
+			out.writeInt(p.ids[i]);
+		    }
+		}
+	    }
+	    out.flush();
+	    stream.getFD().sync();
+	} finally {
+	    stream.close();
+	}
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.abratuhi.mql.store;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IFieldEvaluatable;
+
+/**
+ * <p>
+ * Read-only, consistent view of a {@link VersionedRecordStore} as of a
+ * commit. Records added, updated or removed by later commits are not seen.
+ * </p>
+ * <p>
+ * Ids of records which don't exist in the snapshot - removed, or added by a
+ * later commit - match no query and are materialized as <code>null</code>.
+ * Snapshots don't lock and may be used by several threads.
+ * </p>
+ * <p>
+ * Snapshots reject writes: being an {@link IRecordStore} for the sake of
+ * {@link AbstractRecordStore#compile(IEvaluatable)} and the scans,
+ * {@link Snapshot#add(Map)} throws an
+ * {@link UnsupportedOperationException}. Records are written through the
+ * {@link VersionedRecordStore} instead.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class Snapshot<T extends Map<String, String>> extends
+	AbstractRecordStore<T> implements Closeable {
+
+    /**
+     * Versioned store.
+     */
+    private final VersionedRecordStore<T> store;
+    /**
+     * Factory used to materialize the records.
+     */
+    private final IRecordFactory<T> factory;
+    /**
+     * Version number of the commit seen.
+     */
+    private final long version;
+    /**
+     * Number of record ids assigned as of the commit.
+     */
+    private final int size;
+    /**
+     * Whether the snapshot has been closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Constructor, use {@link VersionedRecordStore#snapshot()}.
+     *
+     * @param store
+     *            versioned store
+     * @param factory
+     *            factory used to materialize the records
+     * @param version
+     *            version number of the commit seen
+     * @param size
+     *            number of record ids assigned as of the commit
+     */
+    Snapshot(final VersionedRecordStore<T> store,
+	    final IRecordFactory<T> factory, final long version, final int size) {
+	this.store = store;
+	this.factory = factory;
+	this.version = version;
+	this.size = size;
+    }
+
+    /**
+     * Get version number of the commit seen.
+     *
+     * @return version number
+     */
+    public final long getVersion() {
+	return version;
+    }
+
+    /**
+     * Snapshots are read-only, so {@link Snapshot#add(Map)} always fails.
+     *
+     * @param record
+     *            record
+     * @return never
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    @Override
+    protected final int append(final Map<String, String> record) {
+	throw new UnsupportedOperationException("Snapshots are read-only");
+    }
+
+    /**
+     * Materialize a record.
+     *
+     * @param id
+     *            id of the record
+     * @return record or <code>null</code> in case it doesn't exist in the
+     *         snapshot
+     */
+    @Override
+    public final T get(final int id) {
+	Map<String, String> record = store.read(id, version);
+	if (record == null) {
+	    return null;
+	}
+	T result = factory.newRecord();
+	result.putAll(record);
+	return result;
+    }
+
+    /**
+     * Get number of record ids assigned as of the commit, including ids of
+     * removed records.
+     *
+     * @return number of ids
+     */
+    @Override
+    public final int size() {
+	return size;
+    }
+
+    @Override
+    public final IRecordPredicate compile(final IEvaluatable<T> query) {
+	final IRecordPredicate predicate = super.compile(query);
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		return store.read(id, version) != null && predicate.evaluate(id);
+	    }
+	};
+    }
+
+    @Override
+    protected final IRecordPredicate compileField(
+	    final IFieldEvaluatable<T> evaluatable) {
+	final String field = evaluatable.getField();
+	return new IRecordPredicate() {
+	    @Override
+	    public boolean evaluate(final int id) {
+		Map<String, String> record = store.read(id, version);
+		return evaluatable.evaluateValue(record != null ? record
+			.get(field) : null);
+	    }
+	};
+    }
+
+    /**
+     * Close the snapshot, letting the versions only it sees be reclaimed.
+     * The snapshot must not be used any more.
+     */
+    @Override
+    public final void close() {
+	if (closed.compareAndSet(false, true)) {
+	    store.release(version);
+	}
+    }
+
+}
@@ -0,0 +1,476 @@
+package org.abratuhi.mql.store;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Record collection keeping multiple versions of each record, so that
+ * queries run against consistent {@link Snapshot}s while records are added,
+ * updated and removed.
+ * </p>
+ * <p>
+ * Every write is a commit with the next version number: it prepends a new
+ * version - a copy of the record, or a removal marker - to the version chain
+ * of the record and then publishes the version number. A snapshot sees the
+ * newest version of each record not newer than the version published when
+ * it was opened. Snapshots never lock; writers are serialized among
+ * themselves only.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * VersionedRecordStore<Record> store = new VersionedRecordStore<Record>(factory);
+ * int id = store.add(record);
+ * store.update(id, changed);
+ * Snapshot<Record> snapshot = store.snapshot();
+ * try {
+ *     List<Record> result = snapshot.select(query);
+ * } finally {
+ *     snapshot.close();
+ * }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Versions no open snapshot can see any more are unlinked from their chains
+ * by a background thread, once a snapshot is closed and after every
+ * {@link VersionedRecordStore#PRUNE_INTERVAL} writes, and then reclaimed by
+ * the garbage collector.
+ * </p>
+ *
+ * @param <T> base class of the stored records.
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+public class VersionedRecordStore<T extends Map<String, String>> implements
+	Closeable {
+
+    /**
+     * Number of writes between two background prunings.
+     */
+    public static final int PRUNE_INTERVAL = 1024;
+    /**
+     * Number of records per chunk of the directory.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Version of a record.
+     */
+    static final class Version {
+	/**
+	 * Immutable copy of the record, <code>null</code> if removed.
+	 */
+	private final Map<String, String> record;
+	/**
+	 * Version number of the commit.
+	 */
+	private final long commit;
+	/**
+	 * Older version, <code>null</code> if none or pruned.
+	 */
+	private volatile Version previous;
+
+	/**
+	 * Constructor.
+	 * @param record copy of the record, <code>null</code> if removed
+	 * @param commit version number
+	 * @param previous older version
+	 */
+	Version(final Map<String, String> record, final long commit,
+		final Version previous) {
+	    this.record = record;
+	    this.commit = commit;
+	    this.previous = previous;
+	}
+    }
+
+    /**
+     * Factory used to materialize the records.
+     */
+    private final IRecordFactory<T> factory;
+    /**
+     * Newest versions by record id, in chunks of
+     * {@link VersionedRecordStore#CHUNK_SIZE}.
+     */
+    private volatile AtomicReferenceArray<Version>[] chunks;
+    /**
+     * Number of record ids assigned.
+     */
+    private volatile int size = 0;
+    /**
+     * Version number of the last commit.
+     */
+    private volatile long committed = 0;
+    /**
+     * Number of open snapshots by version number.
+     */
+    private final ConcurrentSkipListMap<Long, AtomicInteger> snapshots = new ConcurrentSkipListMap<Long, AtomicInteger>();
+    /**
+     * Version number below which versions may have been pruned.
+     */
+    private volatile long horizon = 0;
+    /**
+     * Serializes the writers.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Ids of the records updated or removed since the last pruning, guarded
+     * by {@link VersionedRecordStore#writeLock}.
+     */
+    private BitSet written = new BitSet();
+    /**
+     * Ids of the records whose chains kept versions newer than the horizon
+     * of the last pruning, guarded by the store.
+     */
+    private BitSet retained = new BitSet();
+    /**
+     * Whether a pruning is scheduled.
+     */
+    private final AtomicBoolean pruneScheduled = new AtomicBoolean();
+    /**
+     * Thread pruning the version chains.
+     */
+    private final ExecutorService pruner;
+
+    /**
+     * Constructor.
+     *
+     * @param factory
+     *            factory used to materialize the records
+     */
+    public VersionedRecordStore(final IRecordFactory<T> factory) {
+	this.factory = factory;
+	this.chunks = newChunks(0);
+	this.pruner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(final Runnable r) {
+		Thread thread = new Thread(r, "mql-version-pruner");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * Create an array of directory chunks.
+     *
+     * @param length
+     *            length
+     * @return array
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<Version>[] newChunks(final int length) {
+	return new AtomicReferenceArray[length];
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param record
+     *            record to add, copied
+     * @return id of the record
+     */
+    public final int add(final Map<String, String> record) {
+	Map<String, String> copy = copy(record);
+	synchronized (writeLock) {
+	    int id = size;
+	    if (id % CHUNK_SIZE == 0) {
+		AtomicReferenceArray<Version>[] grown = Arrays.copyOf(chunks,
+			chunks.length + 1);
+		grown[chunks.length] = new AtomicReferenceArray<Version>(
+			CHUNK_SIZE);
+		chunks = grown;
+	    }
+	    long commit = committed + 1;
+	    slots(id).set(id % CHUNK_SIZE, new Version(copy, commit, null));
+	    size = id + 1;
+	    publish(commit);
+	    return id;
+	}
+    }
+
+    /**
+     * Replace a record by a new version.
+     *
+     * @param id
+     *            id of the record
+     * @param record
+     *            new version of the record, copied
+     * @throws IndexOutOfBoundsException
+     *             in case no record has the id
+     */
+    public final void update(final int id, final Map<String, String> record) {
+	write(id, copy(record));
+    }
+
+    /**
+     * Remove a record. The id is not reused.
+     *
+     * @param id
+     *            id of the record
+     * @throws IndexOutOfBoundsException
+     *             in case no record has the id
+     */
+    public final void remove(final int id) {
+	write(id, null);
+    }
+
+    /**
+     * Commit a new version of a record.
+     *
+     * @param id
+     *            id of the record
+     * @param record
+     *            copy of the record, <code>null</code> to remove it
+     */
+    private void write(final int id, final Map<String, String> record) {
+	synchronized (writeLock) {
+	    if (id < 0 || id >= size) {
+		throw new IndexOutOfBoundsException("No record " + id);
+	    }
+	    AtomicReferenceArray<Version> slots = slots(id);
+	    long commit = committed + 1;
+	    slots.set(id % CHUNK_SIZE, new Version(record, commit,
+		    slots.get(id % CHUNK_SIZE)));
+	    written.set(id);
+	    publish(commit);
+	}
+    }
+
+    /**
+     * Publish a commit to the snapshots opened from now on.
+     *
+     * @param commit
+     *            version number
+     */
+    private void publish(final long commit) {
+	committed = commit;
+	if (commit % PRUNE_INTERVAL == 0) {
+	    schedulePrune();
+	}
+    }
+
+    /**
+     * Copy a record.
+     *
+     * @param record
+     *            record
+     * @return immutable copy
+     */
+    private static Map<String, String> copy(final Map<String, String> record) {
+	return Collections.unmodifiableMap(new HashMap<String, String>(record));
+    }
+
+    /**
+     * Get the chunk of the directory containing a record.
+     *
+     * @param id
+     *            id of the record
+     * @return chunk
+     */
+    private AtomicReferenceArray<Version> slots(final int id) {
+	return chunks[id / CHUNK_SIZE];
+    }
+
+    /**
+     * Get number of record ids assigned, including removed records.
+     *
+     * @return number of ids
+     */
+    public final int size() {
+	return size;
+    }
+
+    /**
+     * Get version number of the last commit.
+     *
+     * @return version number
+     */
+    public final long getVersion() {
+	return committed;
+    }
+
+    /**
+     * Open a snapshot of the last commit. The snapshot must be closed to let
+     * the versions it sees be reclaimed.
+     *
+     * @return snapshot
+     */
+    public final Snapshot<T> snapshot() {
+	while (true) {
+	    long version = committed;
+	    int ids = size;
+	    AtomicInteger count = snapshots.get(version);
+	    if (count == null) {
+		AtomicInteger created = new AtomicInteger();
+		count = snapshots.putIfAbsent(version, created);
+		if (count == null) {
+		    count = created;
+		}
+	    }
+	    if (count.getAndIncrement() >= 0) {
+		if (version >= horizon) {
+		    return new Snapshot<T>(this, factory, version, ids);
+		}
+		// the pruner may have missed the registration
+		release(version);
+	    } else {
+		// being removed by release
+		count.decrementAndGet();
+	    }
+	}
+    }
+
+    /**
+     * Release a snapshot.
+     *
+     * @param version
+     *            version number of the snapshot
+     */
+    final void release(final long version) {
+	AtomicInteger count = snapshots.get(version);
+	if (count.decrementAndGet() == 0
+		&& count.compareAndSet(0, Integer.MIN_VALUE)) {
+	    snapshots.remove(version, count);
+	    schedulePrune();
+	}
+    }
+
+    /**
+     * Read the version of a record visible to a snapshot.
+     *
+     * @param id
+     *            id of the record
+     * @param version
+     *            version number of the snapshot
+     * @return record or <code>null</code> in case it doesn't exist in the
+     *         snapshot
+     */
+    final Map<String, String> read(final int id, final long version) {
+	Version v = slots(id).get(id % CHUNK_SIZE);
+	while (v != null && v.commit > version) {
+	    v = v.previous;
+	}
+	return v != null ? v.record : null;
+    }
+
+    /**
+     * Schedule a pruning unless one is scheduled.
+     */
+    private void schedulePrune() {
+	if (pruneScheduled.compareAndSet(false, true)) {
+	    try {
+		pruner.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			pruneScheduled.set(false);
+			prune();
+		    }
+		});
+	    } catch (RejectedExecutionException e) {
+		// closed
+		pruneScheduled.set(false);
+	    }
+	}
+    }
+
+    /**
+     * <p>
+     * Unlink the versions no open snapshot can see from their chains: all
+     * versions older than the newest version visible to the oldest open
+     * snapshot, or to a snapshot opened now if none is open. Removed records
+     * visible as removed to all snapshots are unlinked entirely.
+     * </p>
+     * <p>
+     * Only the chains of the records updated or removed since the last
+     * pruning are walked, together with the chains the last pruning had to
+     * keep versions of, so that the cost doesn't grow with the number of
+     * records.
+     * </p>
+     * <p>
+     * Called by a background thread, may also be called directly.
+     * </p>
+     */
+    public final synchronized void prune() {
+	long oldest = committed;
+	Map.Entry<Long, AtomicInteger> first = snapshots.firstEntry();
+	if (first != null && first.getKey() < oldest) {
+	    oldest = first.getKey();
+	}
+	horizon = oldest;
+	// a snapshot registered before the horizon was raised is still seen
+	first = snapshots.firstEntry();
+	if (first != null && first.getKey() < oldest) {
+	    oldest = first.getKey();
+	}
+
+	BitSet pending;
+	synchronized (writeLock) {
+	    pending = written;
+	    written = new BitSet();
+	}
+	pending.or(retained);
+	BitSet kept = new BitSet();
+	AtomicReferenceArray<Version>[] directory = chunks;
+	for (int id = pending.nextSetBit(0); id >= 0; id = pending
+		.nextSetBit(id + 1)) {
+	    AtomicReferenceArray<Version> slots = directory[id / CHUNK_SIZE];
+	    Version head = slots.get(id % CHUNK_SIZE);
+	    Version v = head;
+	    while (v != null && v.commit > oldest) {
+		v = v.previous;
+	    }
+	    if (v != head) {
+		// versions newer than the horizon, to be pruned later
+		kept.set(id);
+	    }
+	    if (v == null) {
+		continue;
+	    } else if (v == head && v.record == null) {
+		slots.compareAndSet(id % CHUNK_SIZE, head, null);
+	    } else {
+		v.previous = null;
+	    }
+	}
+	retained = kept;
+    }
+
+    /**
+     * Count the versions kept of a record.
+     *
+     * @param id
+     *            id of the record
+     * @return number of versions, including removals
+     */
+    final int versions(final int id) {
+	int count = 0;
+	for (Version v = slots(id).get(id % CHUNK_SIZE); v != null; v = v.previous) {
+	    count++;
+	}
+	return count;
+    }
+
+    /**
+     * Stop the background pruning. Open snapshots stay readable.
+     */
+    @Override
+    public void close() {
+	pruner.shutdownNow();
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.abratuhi.mql.store;
+
+import org.abratuhi.mql.stats.Hashing;
+
+/**
+ * <p>
+ * Summary of the values of a field in a block of records: minimal and
+ * maximal value, number of values and a Bloom filter of the values.
+ * </p>
+ * <p>
+ * The Bloom filter has {@link ZoneMap#BITS_PER_VALUE} bits per record of the
+ * block and {@link ZoneMap#HASHES} hash functions, i.e. about 3% false
+ * positives when all values of a full block are distinct.
+ * </p>
+ *
+ * @author Alexei Bratuhin
+ *
+ */
+final class ZoneMap {
+
+    /**
+     * Bits of the Bloom filter per record of the block.
+     */
+    static final int BITS_PER_VALUE = 8;
+    /**
+     * Number of hash functions of the Bloom filter.
+     */
+    static final int HASHES = 3;
+
+    /**
+     * Minimal value, in the order of {@link String#compareTo(String)}.
+     */
+    private String min = null;
+    /**
+     * Maximal value, in the order of {@link String#compareTo(String)}.
+     */
+    private String max = null;
+    /**
+     * Number of records of the block having the field.
+     */
+    private int count = 0;
+    /**
+     * Bloom filter of the values.
+     */
+    private final long[] bloom;
+
+    /**
+     * Constructor.
+     *
+     * @param blockSize
+     *            number of records of a block
+     */
+    ZoneMap(final int blockSize) {
+	// power of two, so that a bit is selected by a mask
+	int bits = Math.max(64, Integer.highestOneBit(blockSize
+		* BITS_PER_VALUE - 1) << 1);
+	bloom = new long[bits / 64];
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value
+     *            value
+     */
+    void add(final String value) {
+	if (min == null || value.compareTo(min) < 0) {
+	    min = value;
+	}
+	if (max == null || value.compareTo(max) > 0) {
+	    max = value;
+	}
+	count++;
+	long hash = Hashing.hash64(value);
+	int mask = bloom.length * 64 - 1;
+	for (int i = 0; i < HASHES; i++) {
+	    int bit = Hashing.hash(hash, i) & mask;
+	    bloom[bit >>> 6] |= 1L << bit;
+	}
+    }
+
+    /**
+     * Check whether the block may contain a value.
+     *
+     * @param value
+     *            value
+     * @return <code>false</code> in case the block surely doesn't contain
+     *         the value
+     */
+    boolean mayContain(final String value) {
+	if (count == 0 || value.compareTo(min) < 0
+		|| value.compareTo(max) > 0) {
+	    return false;
+	}
+	long hash = Hashing.hash64(value);
+	int mask = bloom.length * 64 - 1;
+	for (int i = 0; i < HASHES; i++) {
+	    int bit = Hashing.hash(hash, i) & mask;
+	    if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Get minimal value.
+     *
+     * @return minimal value, <code>null</code> if there are no values
+     */
+    String getMin() {
+	return min;
+    }
+
+    /**
+     * Get maximal value.
+     *
+     * @return maximal value, <code>null</code> if there are no values
+     */
+    String getMax() {
+	return max;
+    }
+
+    /**
+     * Get number of records of the block having the field.
+     *
+     * @return number of values
+     */
+    int getCount() {
+	return count;
+    }
+
+}
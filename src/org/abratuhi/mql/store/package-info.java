@@ -0,0 +1,5 @@
+/**
+ * Provides record collections that evaluate queries directly against their
+ * own storage format.
+ */
+package org.abratuhi.mql.store;
@@ -0,0 +1,90 @@
+package org.abratuhi.mql;
+
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class LiteralAlternationTest extends TestCase {
+
+    @SuppressWarnings("serial")
+    class Record extends HashMap<String, String> {
+
+    }
+
+    private static final String[] VALUES = { "Potter", "Harry Potter",
+	    "Potter, Harry", "McGonagall", "Minerva McGonagall", "Weasley",
+	    "Ron Weasley", "Hermione", "Harry\nPotter", "Potter\n", "Pott",
+	    "Dumbledore", "Albus Dumbledore", "" };
+
+    private Condition<Record> parse(String query) throws ParseException {
+	return (Condition<Record>) new Parser<Record>().parse(query);
+    }
+
+    @Test
+    public void testFuse() throws ParseException {
+	Condition<Record> condition = parse("(OR('name'~\"Potter\")('age'=\"11\")('name'~\".*McGonagall\")('name'=\"Weasley\")('name'~\"Gr.nger\"))");
+	List<IEvaluatable<Record>> fused = LiteralAlternation.fuse(condition
+		.getConditions());
+	assertEquals(3, fused.size());
+	assertTrue(fused.get(0) instanceof LiteralAlternation);
+	assertEquals("(OR('name'~\"Potter\")('name'~\".*McGonagall\")('name'=\"Weasley\"))",
+		fused.get(0).toString());
+	assertEquals("('age'=\"11\")", fused.get(1).toString());
+	assertEquals("('name'~\"Gr.nger\")", fused.get(2).toString());
+
+	List<IEvaluatable<Record>> notFused = LiteralAlternation
+		.fuse(parse("(OR('name'~\"Potter\")('age'=\"11\"))")
+			.getConditions());
+	assertEquals(2, notFused.size());
+	assertFalse(notFused.get(0) instanceof LiteralAlternation);
+    }
+
+    @Test
+    public void testModifiedComparison() throws ParseException {
+	Condition<Record> condition = parse("(OR('name'=\"Potter\")('name'~\".*Weasley\"))");
+	Record potter = new Record();
+	potter.put("name", "Potter");
+	Record granger = new Record();
+	granger.put("name", "Granger");
+	assertTrue(condition.evaluate(potter));
+	assertFalse(condition.evaluate(granger));
+
+	((Comparison<Record>) condition.getConditions().get(0))
+		.setValue("Granger");
+	assertFalse(condition.evaluate(potter));
+	assertTrue(condition.evaluate(granger));
+
+	((Comparison<Record>) condition.getConditions().get(1))
+		.setField("house");
+	Record ron = new Record();
+	ron.put("name", "Ron Weasley");
+	assertFalse(condition.evaluate(ron));
+	ron.put("house", "The Weasley");
+	assertTrue(condition.evaluate(ron));
+    }
+
+    @Test
+    public void testSameResultAsComparisons() throws ParseException {
+	Condition<Record> condition = parse("(OR('name'~\"Potter\")('name'~\"Weasley.*\")('name'~\".*McGonagall\")('name'~\".*Dumb.*\")('name'=\"Hermione\")('name'~\"Potter.*\"))");
+	LiteralAlternation<Record> alternation = (LiteralAlternation<Record>) LiteralAlternation
+		.fuse(condition.getConditions()).get(0);
+
+	for (String value : VALUES) {
+	    boolean expected = false;
+	    for (IEvaluatable<Record> comparison : condition.getConditions()) {
+		expected |= ((Comparison<Record>) comparison)
+			.evaluateValue(value);
+	    }
+	    assertEquals(value, expected, alternation.evaluateValue(value));
+
+	    Record r = new Record();
+	    r.put("name", value);
+	    assertEquals(value, expected, condition.evaluate(r));
+	}
+	assertFalse(alternation.evaluateValue(null));
+    }
+
+}
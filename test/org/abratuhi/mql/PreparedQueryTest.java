@@ -0,0 +1,159 @@
+package org.abratuhi.mql;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PreparedQueryTest extends TestCase {
+
+    @SuppressWarnings("serial")
+    class Record extends HashMap<String, String> {
+
+	Record(String name, String address) {
+	    put("name", name);
+	    put("address", address);
+	}
+    }
+
+    private static final String TEMPLATE = "(OR(AND('name'~?)('address'=?))(AND('name'=\"Weasley\")('address'=\"Burrow\"))('name'=\"Who?\"))";
+
+    private final Record[] records = { new Record("Potter", "London"),
+	    new Record("Weasley", "Burrow"), new Record("Granger", "London"),
+	    new Record("Who?", "Nowhere"), new Record("Say \"Hi\"", "C:\\") };
+
+    @Test
+    public void testSameAsParsed() throws ParseException {
+	Parser<Record> parser = new Parser<Record>();
+	PreparedQuery<Record> prepared = parser.prepare(TEMPLATE);
+	assertEquals(2, prepared.getParameterCount());
+	assertEquals(TEMPLATE, prepared.toString());
+
+	String[][] bindings = { { "Pot.*", "London" }, { "G.*", "Burrow" },
+		{ ".*", "London" } };
+	for (String[] values : bindings) {
+	    IEvaluatable<Record> bound = prepared.bind(values);
+	    IEvaluatable<Record> parsed = parser.parse(TEMPLATE.replaceFirst(
+		    "\\?", "\"" + values[0] + "\"").replaceFirst("=\\?",
+		    "=\"" + values[1] + "\""));
+	    assertEquals(parsed.toString(), bound.toString());
+	    for (Record record : records) {
+		assertEquals(parsed.evaluate(record), bound.evaluate(record));
+	    }
+	}
+    }
+
+    @Test
+    public void testValuesNotEscaped() throws ParseException {
+	PreparedQuery<Record> prepared = new Parser<Record>()
+		.prepare("(AND('name'=?)('address'=?))");
+	IEvaluatable<Record> bound = prepared.bind("Say \"Hi\"", "C:\\");
+	assertTrue(bound.evaluate(records[4]));
+	assertFalse(bound.evaluate(records[0]));
+    }
+
+    @Test
+    public void testRoundTrip() throws ParseException {
+	Parser<Record> parser = new Parser<Record>();
+	PreparedQuery<Record> prepared = parser
+		.prepare("(AND('name'=?)('address'=?))");
+	String[][] bindings = { { "Say \"Hi\"", "C:\\" },
+		{ "O'Brien", "\\\"" }, { "a\\'b", "\\d\\\\" } };
+	Record[] others = { new Record("O'Brien", "\\\""),
+		new Record("a\\'b", "\\d\\\\"), new Record("a'b", "d\\") };
+	for (String[] values : bindings) {
+	    IEvaluatable<Record> bound = prepared.bind(values);
+	    IEvaluatable<Record> parsed = parser.parse(bound.toString());
+	    assertEquals(bound.toString(), parsed.toString());
+	    Record record = new Record(values[0], values[1]);
+	    assertTrue(parsed.evaluate(record));
+	    for (Record other : others) {
+		assertEquals(bound.evaluate(other), parsed.evaluate(other));
+	    }
+	}
+    }
+
+    @Test
+    public void testSharing() throws ParseException {
+	PreparedQuery<Record> prepared = new Parser<Record>()
+		.prepare(TEMPLATE);
+	Condition<Record> first = (Condition<Record>) prepared.bind("Pot.*",
+		"London");
+	Condition<Record> second = (Condition<Record>) prepared.bind("Pot.*",
+		"Burrow");
+	// subtrees without placeholders are shared
+	assertSame(first.getConditions().get(1), second.getConditions().get(1));
+	assertSame(first.getConditions().get(2), second.getConditions().get(2));
+	// the comparison of the same value is reused, with its regex
+	Condition<Record> and1 = (Condition<Record>) first.getConditions().get(0);
+	Condition<Record> and2 = (Condition<Record>) second.getConditions()
+		.get(0);
+	assertSame(and1.getConditions().get(0), and2.getConditions().get(0));
+	assertNotSame(and1.getConditions().get(1), and2.getConditions().get(1));
+    }
+
+    @Test
+    public void testLiteralSiblings() throws ParseException {
+	Parser<Record> parser = new Parser<Record>();
+	String template = "(OR('name'=\"Potter\")('name'~\"Wea.*\")('name'=?)('name'~?)('address'=?))";
+	PreparedQuery<Record> prepared = parser.prepare(template);
+	String[][] bindings = { { "Granger", ".*\"Hi.*", "Nowhere" },
+		{ "Potter", "Pot.*", "London" }, { "Who?", "X", "Y" } };
+	for (String[] values : bindings) {
+	    IEvaluatable<Record> bound = prepared.bind(values);
+	    IEvaluatable<Record> parsed = parser.parse(bound.toString());
+	    for (Record record : records) {
+		assertEquals(parsed.evaluate(record), bound.evaluate(record));
+	    }
+	}
+	// the groups built when preparing follow the shared comparisons
+	Condition<Record> bound = (Condition<Record>) prepared.bind("X", "Y",
+		"Z");
+	assertTrue(bound.evaluate(records[1]));
+	((Comparison<Record>) bound.getConditions().get(1)).setValue("G.*");
+	assertFalse(bound.evaluate(records[1]));
+	assertTrue(bound.evaluate(records[2]));
+    }
+
+    @Test
+    public void testErrors() throws ParseException {
+	PreparedQuery<Record> prepared = new Parser<Record>()
+		.prepare("('name'=?)");
+	assertEquals(1, prepared.getParameterCount());
+	try {
+	    prepared.bind("Potter", "Weasley");
+	    fail("Bound too many values");
+	} catch (ParseException e) {
+	    // expected
+	}
+	try {
+	    prepared.bind("");
+	    fail("Bound empty value");
+	} catch (ParseException e) {
+	    // expected
+	}
+	try {
+	    new Parser<Record>().prepare("(AND('name'=?)");
+	    fail("Prepared unbalanced query");
+	} catch (ParseException e) {
+	    // expected
+	}
+	assertEquals(0, new Parser<Record>().prepare("('name'=\"?\")")
+		.getParameterCount());
+
+	// literal values looking like placeholders
+	String[] literals = { "\uFDD0\uFDDFx", "\uFDD0\uFDDF", "\uFDD0\uFDDF7",
+		"\uFDD0\uFDDF0", "\uFDD0\uFDDF99999999999" };
+	for (String literal : literals) {
+	    try {
+		new Parser<Record>().prepare("(AND('name'=\"" + literal
+			+ "\")('address'=?))");
+		fail("Prepared literal " + literal);
+	    } catch (ParseException e) {
+		// expected
+	    }
+	}
+    }
+
+}
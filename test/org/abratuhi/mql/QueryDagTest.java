@@ -0,0 +1,124 @@
+package org.abratuhi.mql;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class QueryDagTest extends TestCase {
+
+    @SuppressWarnings("serial")
+    class Record extends HashMap<String, String> {
+
+	Record(String name, String house) {
+	    put("name", name);
+	    put("house", house);
+	}
+    }
+
+    class Counting implements IEvaluatable<Record> {
+	int count = 0;
+
+	@Override
+	public boolean evaluate(Record record) {
+	    count++;
+	    return record.get("house").equals("Gryffindor");
+	}
+    }
+
+    private static final String QUERY = "(OR(AND('name'~\"H.*\")('house'=\"Gryffindor\"))(AND('name'~\"R.*\")(AND('name'~\"H.*\")('house'=\"Gryffindor\")))(NOT(AND('name'~\"H.*\")('house'=\"Gryffindor\"))))";
+
+    private final Record[] records = { new Record("Harry", "Gryffindor"),
+	    new Record("Ron", "Gryffindor"), new Record("Hannah", "Hufflepuff"),
+	    new Record("Draco", "Slytherin") };
+
+    @Test
+    public void testSameResultAsTree() throws ParseException {
+	IEvaluatable<Record> tree = new Parser<Record>().parse(QUERY);
+	Parser<Record> parser = new Parser<Record>();
+	parser.setSharing(true);
+	IEvaluatable<Record> dag = parser.parse(QUERY);
+
+	assertTrue(dag instanceof QueryDag);
+	assertEquals(tree.toString(), dag.toString());
+	for (Record record : records) {
+	    assertEquals(record.get("name"), tree.evaluate(record),
+		    dag.evaluate(record));
+	}
+    }
+
+    @Test
+    public void testShared() throws ParseException {
+	QueryDag<Record> dag = QueryDag.share(new Parser<Record>()
+		.parse(QUERY));
+	// 'name'~"H.*", 'house'="Gryffindor", AND, 'name'~"R.*", AND, NOT, OR
+	assertEquals(7, dag.getNodeCount());
+	// the shared AND, its shared regular expression is only evaluated by it
+	assertEquals(2, dag.getMemoCount());
+
+	Condition<Record> or = (Condition<Record>) dag.getRoot();
+	Condition<Record> nested = (Condition<Record>) or.getConditions().get(1);
+	assertSame(or.getConditions().get(0), nested.getConditions().get(1));
+	assertTrue(or.getConditions().get(0) instanceof QueryDag.Memo);
+    }
+
+    @Test
+    public void testEvaluatedOncePerRecord() {
+	Counting counting = new Counting();
+	Condition<Record> root = new Condition<Record>();
+	try {
+	    root.setOperator("OR");
+	    for (String operator : new String[] { "AND", "AND", "NOT" }) {
+		Condition<Record> condition = new Condition<Record>();
+		condition.setOperator(operator);
+		condition.addCondition(counting);
+		Condition<Record> inner = new Condition<Record>();
+		inner.setOperator("AND");
+		inner.addCondition(condition);
+		root.addCondition(inner);
+	    }
+	} catch (ParseException e) {
+	    fail(e.getMessage());
+	}
+	QueryDag<Record> dag = QueryDag.share(root);
+
+	for (Record record : records) {
+	    counting.count = 0;
+	    boolean expected = root.evaluate(record);
+	    int tree = counting.count;
+	    counting.count = 0;
+	    assertEquals(expected, dag.evaluate(record));
+	    if (record.get("house").equals("Gryffindor")) {
+		assertEquals(1, counting.count);
+	    } else {
+		// (AND counting) is remembered, (NOT counting) is not
+		assertEquals(3, tree);
+		assertEquals(2, counting.count);
+	    }
+	}
+
+	// outside of the evaluation of the graph, memos evaluate every time
+	counting.count = 0;
+	dag.getRoot().evaluate(records[0]);
+	assertEquals(1, counting.count);
+    }
+
+    @Test
+    public void testNested() throws ParseException {
+	final QueryDag<Record> inner = QueryDag.share(new Parser<Record>()
+		.parse("(OR('name'~\"H.*\")('name'~\"H.*\"))"));
+	Condition<Record> root = new Condition<Record>();
+	root.setOperator("AND");
+	root.addCondition(inner);
+	root.addCondition(new Parser<Record>().parse("(OR('name'~\"H.*\")('house'=\"Gryffindor\"))"));
+	root.addCondition(inner);
+	QueryDag<Record> outer = QueryDag.share(root);
+
+	for (Record record : records) {
+	    assertEquals(root.evaluate(record), outer.evaluate(record));
+	    assertEquals(root.evaluate(record), outer.evaluate(record));
+	}
+    }
+
+}
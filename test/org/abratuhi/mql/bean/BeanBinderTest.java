@@ -0,0 +1,127 @@
+package org.abratuhi.mql.bean;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class BeanBinderTest extends TestCase {
+
+    enum House {
+	GRYFFINDOR, SLYTHERIN;
+
+	@Override
+	public String toString() {
+	    return name().charAt(0) + name().substring(1).toLowerCase();
+	}
+    };
+
+    record Student(String name, House house, int year, double grade,
+	    boolean prefect, Long wand) {
+    }
+
+    static class Teacher {
+	private final String name;
+	private final int since;
+	private final boolean head;
+
+	Teacher(String name, int since, boolean head) {
+	    this.name = name;
+	    this.since = since;
+	    this.head = head;
+	}
+
+	public String getName() {
+	    return name;
+	}
+
+	public boolean isHead() {
+	    return head;
+	}
+    }
+
+    private static final Student[] STUDENTS = {
+	    new Student("Harry Potter", House.GRYFFINDOR, 5, 7.5, false, 11L),
+	    new Student("Hermione Granger", House.GRYFFINDOR, 5, 10.0, true,
+		    null),
+	    new Student("Draco Malfoy", House.SLYTHERIN, 5, -0.0, true, 10L),
+	    new Student("Ginny Weasley", House.GRYFFINDOR, 4, 8.0, false, 13L),
+	    new Student(null, House.SLYTHERIN, 1, 0.0, false, null) };
+
+    private static Map<String, String> copy(Student student) {
+	Map<String, String> map = new HashMap<String, String>();
+	if (student.name() != null) {
+	    map.put("name", student.name());
+	}
+	map.put("house", String.valueOf(student.house()));
+	map.put("year", String.valueOf(student.year()));
+	map.put("grade", String.valueOf(student.grade()));
+	map.put("prefect", String.valueOf(student.prefect()));
+	if (student.wand() != null) {
+	    map.put("wand", String.valueOf(student.wand()));
+	}
+	return map;
+    }
+
+    private void assertSameAsMap(String query) throws ParseException {
+	IEvaluatable<Map<String, String>> parsed = new Parser<Map<String, String>>()
+		.parse(query);
+	IEvaluatable<Student> bound = new BeanBinder<Student>(Student.class)
+		.bind(parsed);
+	for (Student student : STUDENTS) {
+	    assertEquals(query + " " + student, parsed.evaluate(copy(student)),
+		    bound.evaluate(student));
+	}
+    }
+
+    @Test
+    public void testRecord() throws ParseException {
+	assertSameAsMap("('name'=\"Harry Potter\")");
+	assertSameAsMap("('name'~\".*Weasley\")");
+	assertSameAsMap("('house'=\"Gryffindor\")");
+	assertSameAsMap("('house'=\"GRYFFINDOR\")");
+	assertSameAsMap("('house'~\"S.*\")");
+	assertSameAsMap("('year'=\"5\")");
+	assertSameAsMap("('year'=\"05\")");
+	assertSameAsMap("('year'=\"five\")");
+	assertSameAsMap("('year'~\"[45]\")");
+	assertSameAsMap("('grade'=\"10.0\")");
+	assertSameAsMap("('grade'=\"10\")");
+	assertSameAsMap("('grade'=\"0.0\")");
+	assertSameAsMap("('grade'=\"-0.0\")");
+	assertSameAsMap("('prefect'=\"true\")");
+	assertSameAsMap("('prefect'=\"TRUE\")");
+	assertSameAsMap("('wand'=\"11\")");
+	assertSameAsMap("('wand'~\"1.\")");
+	assertSameAsMap("(OR(AND('house'=\"Gryffindor\")('year'=\"5\"))(NOT('prefect'=\"false\")))");
+    }
+
+    @Test
+    public void testPlainObject() throws ParseException {
+	IEvaluatable<Teacher> query = new BeanBinder<Teacher>(Teacher.class)
+		.bind(new Parser<Map<String, String>>()
+			.parse("(AND('name'~\"M.*\")('head'=\"true\")('since'=\"1956\"))"));
+	assertTrue(query.evaluate(new Teacher("Minerva McGonagall", 1956, true)));
+	assertFalse(query.evaluate(new Teacher("Minerva McGonagall", 1956,
+		false)));
+	assertFalse(query.evaluate(new Teacher("Severus Snape", 1956, true)));
+    }
+
+    @Test
+    public void testUnknownField() {
+	try {
+	    new BeanBinder<Student>(Student.class)
+		    .bind(new Parser<Map<String, String>>()
+			    .parse("('patronus'=\"Stag\")"));
+	    fail("Unknown field bound");
+	} catch (ParseException e) {
+	    assertTrue(e.getMessage().contains("patronus"));
+	}
+    }
+
+}
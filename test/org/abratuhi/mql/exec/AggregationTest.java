@@ -0,0 +1,119 @@
+package org.abratuhi.mql.exec;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.BudgetExceededException;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.store.OffHeapRecordStore;
+import org.abratuhi.mql.store.TestRecord;
+import org.junit.Test;
+
+public class AggregationTest extends TestCase {
+
+    private static final String[] ADDRESSES = { "London", "Hogwarts",
+	    "Little Whinging", "Godric's Hollow", "Ottery St Catchpole" };
+
+    private List<TestRecord> records;
+    private OffHeapRecordStore<TestRecord> store;
+
+    @Override
+    protected void setUp() {
+	records = new Vector<TestRecord>();
+	store = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY);
+	for (int i = 0; i < 10000; i++) {
+	    TestRecord record = new TestRecord();
+	    record.put("name", "name" + i);
+	    record.put("age", Integer.toString(i % 90));
+	    if (i % 10 != 0) {
+		record.put("address", ADDRESSES[i % ADDRESSES.length]);
+	    }
+	    records.add(record);
+	    store.add(record);
+	}
+    }
+
+    private static Scan<TestRecord> scan(String query, int parallelism)
+	    throws ParseException {
+	IEvaluatable<TestRecord> evaluatable = new Parser<TestRecord>().parse(query);
+	Scan<TestRecord> scan = new Scan<TestRecord>(evaluatable);
+	scan.setParallelism(parallelism);
+	return scan;
+    }
+
+    @Test
+    public void testCount() throws ParseException {
+	String query = "(OR('address'=\"London\")('address'=\"Hogwarts\"))";
+	for (int parallelism : new int[] { 1, 3, 8 }) {
+	    Scan<TestRecord> scan = scan(query, parallelism);
+	    assertEquals(3000L, (long) scan.aggregate(store, new Count<TestRecord>()));
+	    assertEquals(3000L, (long) scan.aggregate(records,
+		    new Count<TestRecord>()));
+	}
+    }
+
+    @Test
+    public void testDistinctCount() throws ParseException {
+	Scan<TestRecord> scan = scan("('age'~\"1.*\")", 4);
+	long distinct = scan.aggregate(store, new DistinctCount<TestRecord>("age"));
+	// 1, 10..19
+	assertEquals(11L, distinct);
+	distinct = scan.aggregate(store, new DistinctCount<TestRecord>("name"));
+	assertEquals(1223.0, distinct, 1223 * 0.05);
+    }
+
+    @Test
+    public void testGroupBy() throws ParseException {
+	for (int parallelism : new int[] { 1, 4 }) {
+	    Scan<TestRecord> scan = scan("(NOT('address'=\"London\"))", parallelism);
+	    Map<String, Long> counts = scan.aggregate(store,
+		    new GroupBy<TestRecord, long[], Long>("address",
+			    new Count<TestRecord>()));
+	    assertEquals(5, counts.size());
+	    assertEquals(1000L, (long) counts.get(null));
+	    assertEquals(2000L, (long) counts.get("Hogwarts"));
+	    assertFalse(counts.containsKey("London"));
+
+	    Map<String, String> oldest = scan.aggregate(store,
+		    new GroupBy<TestRecord, String[], String>("address",
+			    new Max<TestRecord>("age", Extremum.NUMERIC)));
+	    assertEquals("86", oldest.get("Hogwarts"));
+	    assertEquals(oldest, scan.aggregate(records,
+		    new GroupBy<TestRecord, String[], String>("address",
+			    new Max<TestRecord>("age", Extremum.NUMERIC))));
+	}
+    }
+
+    @Test
+    public void testMinMax() throws ParseException {
+	Scan<TestRecord> scan = scan("('address'=\"London\")", 4);
+	assertEquals("5", scan.aggregate(store, new Min<TestRecord>("age",
+		Extremum.NUMERIC)));
+	assertEquals("85", scan.aggregate(store, new Max<TestRecord>("age",
+		Extremum.NUMERIC)));
+	// lexicographic
+	assertEquals("15", scan.aggregate(store, new Min<TestRecord>("age")));
+	assertEquals("name1005", scan.aggregate(store, new Min<TestRecord>("name")));
+	assertNull(scan.aggregate(store, new Min<TestRecord>("unknown")));
+    }
+
+    @Test
+    public void testBudget() throws ParseException {
+	Scan<TestRecord> scan = scan("('name'~\".*5\")", 4);
+	scan.setBudget(new EvaluationBudget(0, 10000));
+	try {
+	    scan.aggregate(store, new Count<TestRecord>());
+	    fail();
+	} catch (BudgetExceededException e) {
+	    assertTrue(e.getStatistics().getSteps() > 10000);
+	}
+	assertNull(EvaluationBudget.meter());
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.abratuhi.mql.exec;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.stats.CollectionStatistics;
+import org.abratuhi.mql.store.OffHeapRecordStore;
+import org.abratuhi.mql.store.TestRecord;
+import org.junit.Test;
+
+public class HashJoinTest extends TestCase {
+
+    private static final String[] HOUSES = { "Gryffindor", "Hufflepuff",
+	    "Ravenclaw", "Slytherin", "Durmstrang" };
+
+    private OffHeapRecordStore<TestRecord> students;
+    private OffHeapRecordStore<TestRecord> houses;
+
+    @Override
+    protected void setUp() {
+	students = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY);
+	for (int i = 0; i < 10000; i++) {
+	    TestRecord student = new TestRecord();
+	    student.put("name", "student" + i);
+	    student.put("year", Integer.toString(1 + i % 7));
+	    if (i % 10 != 0) {
+		student.put("house", HOUSES[i % 4]);
+	    }
+	    students.add(student);
+	}
+	houses = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY);
+	for (int i = 0; i < HOUSES.length; i++) {
+	    TestRecord house = new TestRecord();
+	    house.put("name", HOUSES[i]);
+	    house.put("school", i < 4 ? "Hogwarts" : "Durmstrang");
+	    houses.add(house);
+	}
+	// a second record of a house
+	TestRecord house = new TestRecord();
+	house.put("name", "Slytherin");
+	house.put("school", "Hogwarts");
+	houses.add(house);
+    }
+
+    private IEvaluatable<TestRecord> parse(String query) throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    private List<String> nestedLoop(IEvaluatable<TestRecord> studentQuery,
+	    IEvaluatable<TestRecord> houseQuery) {
+	List<String> pairs = new Vector<String>();
+	for (int s = 0; s < students.size(); s++) {
+	    TestRecord student = students.get(s);
+	    for (int h = 0; h < houses.size(); h++) {
+		TestRecord house = houses.get(h);
+		if (studentQuery.evaluate(student)
+			&& houseQuery.evaluate(house)
+			&& student.get("house") != null
+			&& student.get("house").equals(house.get("name"))) {
+		    pairs.add(student.get("name") + "/" + house.get("name"));
+		}
+	    }
+	}
+	Collections.sort(pairs);
+	return pairs;
+    }
+
+    private List<String> hashJoin(IEvaluatable<TestRecord> studentQuery,
+	    IEvaluatable<TestRecord> houseQuery, int parallelism) {
+	HashJoin<TestRecord, TestRecord> join = new HashJoin<TestRecord, TestRecord>(
+		studentQuery, "house", houseQuery, "name");
+	join.setParallelism(parallelism);
+	final List<String> pairs = new Vector<String>();
+	long count = join.execute(students, houses,
+		new IJoinHandler<TestRecord, TestRecord>() {
+		    @Override
+		    public boolean onMatch(TestRecord student, TestRecord house) {
+			pairs.add(student.get("name") + "/" + house.get("name"));
+			return true;
+		    }
+		});
+	assertEquals(pairs.size(), count);
+	Collections.sort(pairs);
+	return pairs;
+    }
+
+    @Test
+    public void testSameAsNestedLoop() throws ParseException {
+	String[][] queries = {
+		{ "('year'~\".*\")", "('school'=\"Hogwarts\")" },
+		{ "('year'=\"3\")", "(NOT('name'=\"Gryffindor\"))" },
+		{ "('name'~\"student1.*\")", "('name'~\"S.*\")" },
+		{ "('year'=\"8\")", "('school'=\"Hogwarts\")" },
+		{ "('year'=\"1\")", "('school'=\"Beauxbatons\")" } };
+	for (String[] query : queries) {
+	    IEvaluatable<TestRecord> studentQuery = parse(query[0]);
+	    IEvaluatable<TestRecord> houseQuery = parse(query[1]);
+	    List<String> expected = nestedLoop(studentQuery, houseQuery);
+	    assertEquals(expected, hashJoin(studentQuery, houseQuery, 1));
+	    assertEquals(expected, hashJoin(studentQuery, houseQuery, 4));
+	}
+	// Slytherin students join both Slytherin records
+	assertEquals(
+		2 * 2500,
+		hashJoin(parse("('house'=\"Slytherin\")"),
+			parse("('name'=\"Slytherin\")"), 4).size());
+    }
+
+    @Test
+    public void testBuildSide() throws ParseException {
+	HashJoin<TestRecord, TestRecord> join = new HashJoin<TestRecord, TestRecord>(
+		parse("('year'=\"3\")"), "house", parse("('name'~\".*\")"),
+		"name");
+	assertFalse(join.isLeftBuilt(students, houses));
+	assertTrue(join.isLeftBuilt(houses, students));
+
+	// with statistics, the estimated number of matching records counts
+	students.setStatistics(new CollectionStatistics());
+	HashJoin<TestRecord, TestRecord> selective = new HashJoin<TestRecord, TestRecord>(
+		parse("('name'=\"student42\")"), "house",
+		parse("('name'~\".*\")"), "name");
+	assertTrue(selective.isLeftBuilt(students, houses));
+	assertEquals(
+		nestedLoop(parse("('name'=\"student42\")"),
+			parse("('name'~\".*\")")),
+		hashJoin(parse("('name'=\"student42\")"),
+			parse("('name'~\".*\")"), 4));
+    }
+
+    @Test
+    public void testStop() throws ParseException {
+	HashJoin<TestRecord, TestRecord> join = new HashJoin<TestRecord, TestRecord>(
+		parse("('year'~\".*\")"), "house", parse("('name'~\".*\")"),
+		"name");
+	join.setParallelism(4);
+	final AtomicInteger calls = new AtomicInteger();
+	join.execute(students, houses, new IJoinHandler<TestRecord, TestRecord>() {
+	    @Override
+	    public boolean onMatch(TestRecord student, TestRecord house) {
+		return calls.incrementAndGet() < 10;
+	    }
+	});
+	// each thread stops within one check interval
+	assertTrue(calls.get() >= 10);
+	assertTrue(calls.get() < 4 * 256 * 2);
+    }
+
+}
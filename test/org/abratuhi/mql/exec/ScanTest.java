@@ -0,0 +1,137 @@
+package org.abratuhi.mql.exec;
+
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.BudgetExceededException;
+import org.abratuhi.mql.EvaluationBudget;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.ScanStatistics;
+import org.abratuhi.mql.regex.Regex;
+import org.abratuhi.mql.store.OffHeapRecordStore;
+import org.abratuhi.mql.store.TestRecord;
+import org.junit.Test;
+
+public class ScanTest extends TestCase {
+
+    private static List<TestRecord> records(int count, String name) {
+	List<TestRecord> records = new Vector<TestRecord>();
+	for (int i = 0; i < count; i++) {
+	    records.add(new TestRecord("name", name + i));
+	}
+	return records;
+    }
+
+    @Test
+    public void testUnlimited() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\"Harry1.*\")");
+	Scan<TestRecord> scan = new Scan<TestRecord>(query);
+	assertEquals(11, scan.select(records(20, "Harry")).size());
+
+	final List<TestRecord> result = new Vector<TestRecord>();
+	ScanStatistics statistics = scan.execute(records(20, "Harry"),
+		new IMatchHandler<TestRecord>() {
+		    @Override
+		    public boolean onMatch(int id, TestRecord record) {
+			result.add(record);
+			return true;
+		    }
+		});
+	assertEquals(20, statistics.getScanned());
+	assertEquals(11, statistics.getMatched());
+	assertTrue(statistics.getSteps() > 0);
+	assertNull(EvaluationBudget.meter());
+    }
+
+    @Test
+    public void testCatastrophicRegex() throws ParseException {
+	// the back reference is not supported by the automaton, so
+	// java.util.regex backtracks exponentially
+	assertFalse(Regex.compile("((a+)+)\\2b").isAutomaton());
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\"((a+)+)\\\\2b\")");
+	Scan<TestRecord> scan = new Scan<TestRecord>(query);
+	scan.setBudget(new EvaluationBudget(0, 1000000));
+	List<TestRecord> records = new Vector<TestRecord>();
+	records.add(new TestRecord("name", "aab"));
+	records.add(new TestRecord("name", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac"));
+	try {
+	    scan.select(records);
+	    fail();
+	} catch (BudgetExceededException e) {
+	    assertTrue(e.getStatistics().getSteps() > 1000000);
+	    assertTrue(e.getStatistics().getSteps() < 2000000);
+	    assertTrue(e.getMessage().startsWith("Exceeded 1000000"));
+	}
+	assertNull(EvaluationBudget.meter());
+    }
+
+    @Test
+    public void testNestedBudgets() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\"Harry.*\")");
+	EvaluationBudget outer = new EvaluationBudget(0, 0);
+	EvaluationBudget.Meter meter = outer.bind();
+	try {
+	    Scan<TestRecord> scan = new Scan<TestRecord>(query);
+	    scan.setBudget(new EvaluationBudget(0, 0));
+	    assertEquals(10, scan.select(records(10, "Harry")).size());
+	    // the outer execution keeps its meter
+	    assertSame(meter, EvaluationBudget.meter());
+	} finally {
+	    meter.unbind();
+	}
+	assertNull(EvaluationBudget.meter());
+    }
+
+    @Test
+    public void testTimeout() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\".*(Harry|Ron).*\")");
+	Scan<TestRecord> scan = new Scan<TestRecord>(query);
+	scan.setBudget(new EvaluationBudget(1, 0));
+	List<TestRecord> records = records(100000, "Hermione");
+	try {
+	    while (true) {
+		scan.select(records);
+	    }
+	} catch (BudgetExceededException e) {
+	    ScanStatistics statistics = e.getStatistics();
+	    assertEquals(0, statistics.getMatched());
+	    assertTrue(statistics.getScanned() > 0);
+	    assertTrue(statistics.getElapsedNanos() >= 1000000);
+	}
+    }
+
+    @Test
+    public void testStore() throws ParseException {
+	OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<TestRecord>(
+		TestRecord.FACTORY);
+	for (int i = 0; i < 1000; i++) {
+	    store.add(new TestRecord("name", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaac"));
+	}
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\"((a+)+)\\\\2b\")");
+	Scan<TestRecord> scan = new Scan<TestRecord>(query);
+	scan.setBudget(new EvaluationBudget(0, 100000));
+	try {
+	    scan.execute(store, new IMatchHandler<TestRecord>() {
+		@Override
+		public boolean onMatch(int id, TestRecord record) {
+		    return true;
+		}
+	    });
+	    fail();
+	} catch (BudgetExceededException e) {
+	    assertTrue(e.getStatistics().getSteps() > 100000);
+	    assertTrue(e.getStatistics().getScanned() < 1000);
+	}
+    }
+
+}
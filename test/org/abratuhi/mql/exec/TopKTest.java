@@ -0,0 +1,181 @@
+package org.abratuhi.mql.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.store.IRecordPredicate;
+import org.abratuhi.mql.store.IRecordStore;
+import org.abratuhi.mql.store.OffHeapRecordStore;
+import org.abratuhi.mql.store.SegmentIndex;
+import org.abratuhi.mql.store.TestRecord;
+import org.junit.Test;
+
+public class TopKTest extends TestCase {
+
+    private static final String[] NAMES = { "Harry", "Ron", "Hermione",
+	    "Ginny", "Neville", "Luna", "Draco", "\uffe0", "\ud83d\ude00" };
+
+    private List<TestRecord> records;
+    private OffHeapRecordStore<TestRecord> store;
+    private File directory;
+    private SegmentIndex<TestRecord> index;
+
+    @Override
+    protected void setUp() throws IOException {
+	records = new Vector<TestRecord>();
+	store = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY);
+	directory = Files.createTempDirectory("topk").toFile();
+	index = new SegmentIndex<TestRecord>(directory, TestRecord.FACTORY);
+	for (int i = 0; i < 5000; i++) {
+	    TestRecord record = new TestRecord();
+	    record.put("id", Integer.toString(i));
+	    if (i % 7 != 0) {
+		record.put("name", NAMES[(i * 31) % NAMES.length] + (i % 13));
+	    }
+	    record.put("house", i % 4 == 0 ? "Gryffindor" : "Slytherin");
+	    records.add(record);
+	    store.add(record);
+	    index.add(record);
+	    if (i % 1500 == 1499) {
+		index.flush();
+	    }
+	}
+    }
+
+    @Override
+    protected void tearDown() {
+	index.close();
+	for (File file : directory.listFiles()) {
+	    file.delete();
+	}
+	directory.delete();
+    }
+
+    private static Scan<TestRecord> scan(String query, int parallelism)
+	    throws ParseException {
+	IEvaluatable<TestRecord> evaluatable = new Parser<TestRecord>().parse(query);
+	Scan<TestRecord> scan = new Scan<TestRecord>(evaluatable);
+	scan.setParallelism(parallelism);
+	return scan;
+    }
+
+    /**
+     * Sort all matching records, the result top-K must agree with.
+     */
+    private List<TestRecord> sorted(String query, final String field,
+	    final Comparator<String> order, final boolean descending, int k)
+	    throws ParseException {
+	IEvaluatable<TestRecord> evaluatable = new Parser<TestRecord>().parse(query);
+	List<TestRecord> matching = new Vector<TestRecord>();
+	for (TestRecord record : records) {
+	    if (evaluatable.evaluate(record)) {
+		matching.add(record);
+	    }
+	}
+	Collections.sort(matching, new Comparator<TestRecord>() {
+	    @Override
+	    public int compare(TestRecord a, TestRecord b) {
+		String va = a.get(field);
+		String vb = b.get(field);
+		if (va == null || vb == null) {
+		    return va != null ? -1 : vb != null ? 1 : 0;
+		}
+		return descending ? order.compare(vb, va) : order.compare(va,
+			vb);
+	    }
+	}); // stable - equal values keep the order of the identifiers
+	return matching.subList(0, Math.min(k, matching.size()));
+    }
+
+    @Test
+    public void testLimit() throws ParseException {
+	String query = "('house'=\"Gryffindor\")";
+	for (int parallelism : new int[] { 1, 4 }) {
+	    Scan<TestRecord> scan = scan(query, parallelism);
+	    for (int limit : new int[] { 0, 1, 50, 1249, 1250, 5000 }) {
+		List<TestRecord> expected = sorted(query, "unknown",
+			Extremum.LEXICOGRAPHIC, false, limit);
+		assertEquals(expected, scan.select(store, limit));
+		assertEquals(expected, scan.select(records, limit));
+	    }
+	}
+    }
+
+    @Test
+    public void testLimitStopsEarly() throws ParseException {
+	Scan<TestRecord> scan = scan("('house'=\"Gryffindor\")", 4);
+	final int[] evaluated = new int[1];
+	IRecordStore<TestRecord> counting = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY) {
+	    {
+		for (TestRecord record : records) {
+		    add(record);
+		}
+	    }
+
+	    @Override
+	    public IRecordPredicate compile(
+		    IEvaluatable<TestRecord> query) {
+		final IRecordPredicate predicate = super
+			.compile(query);
+		return new IRecordPredicate() {
+		    @Override
+		    public boolean evaluate(int id) {
+			synchronized (evaluated) {
+			    evaluated[0]++;
+			}
+			return predicate.evaluate(id);
+		    }
+		};
+	    }
+	};
+	assertEquals(10, scan.select(counting, 10).size());
+	// each of the 4 threads stops after 10 matches at the latest
+	assertTrue(evaluated[0] <= 4 * 40);
+    }
+
+    @Test
+    public void testTop() throws ParseException {
+	String[] queries = { "('house'=\"Slytherin\")", "(NOT('id'~\".*5\"))" };
+	List<Comparator<String>> orders = new Vector<Comparator<String>>();
+	orders.add(Extremum.LEXICOGRAPHIC);
+	orders.add(Extremum.NUMERIC);
+	for (String query : queries) {
+	    for (Comparator<String> order : orders) {
+		for (boolean descending : new boolean[] { false, true }) {
+		    for (String field : new String[] { "name", "id" }) {
+			for (int k : new int[] { 0, 1, 10, 4000, 6000 }) {
+			    List<TestRecord> expected = sorted(query, field,
+				    order, descending, k);
+			    assertEquals(expected, scan(query, 1).top(
+				    records, field, order, descending, k));
+			    assertEquals(expected, scan(query, 3).top(store,
+				    field, order, descending, k));
+			    assertEquals(expected, scan(query, 1).top(index,
+				    field, order, descending, k));
+			}
+		    }
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testLexicographic() {
+	// code point order: supplementary characters after U+FFE0
+	assertTrue(Extremum.LEXICOGRAPHIC.compare("\uffe0", "\ud83d\ude00") < 0);
+	assertTrue("\uffe0".compareTo("\ud83d\ude00") > 0);
+	assertTrue(Extremum.LEXICOGRAPHIC.compare("Harry", "Harry1") < 0);
+	assertEquals(0, Extremum.LEXICOGRAPHIC.compare("Ron", "Ron"));
+    }
+
+}
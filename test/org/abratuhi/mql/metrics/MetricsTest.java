@@ -0,0 +1,165 @@
+package org.abratuhi.mql.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.exec.Scan;
+import org.junit.Test;
+
+public class MetricsTest extends TestCase {
+
+    private static List<Map<String, String>> records(int count) {
+	List<Map<String, String>> records = new Vector<Map<String, String>>();
+	for (int i = 0; i < count; i++) {
+	    Map<String, String> record = new HashMap<String, String>();
+	    record.put("name", "Student" + i);
+	    records.add(record);
+	}
+	return records;
+    }
+
+    @Test
+    public void testHistogram() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	assertEquals(0, histogram.getValueAtPercentile(50));
+	for (int i = 1; i <= 100000; i++) {
+	    histogram.record(i * 1000L);
+	}
+	assertEquals(100000, histogram.getCount());
+	assertEquals(100000000L, histogram.getMax());
+	assertEquals(50000500.0, histogram.getMean(), 1);
+	assertEquals(50000000, histogram.getValueAtPercentile(50), 500000);
+	assertEquals(99000000, histogram.getValueAtPercentile(99), 990000);
+	assertEquals(99900000, histogram.getValueAtPercentile(99.9), 999000);
+	assertEquals(100000000L, histogram.getValueAtPercentile(100));
+
+	Random random = new Random(42);
+	for (int i = 0; i < 10000; i++) {
+	    long value = random.nextLong() >>> (1 + random.nextInt(63));
+	    int index = LatencyHistogram.index(value);
+	    long highest = LatencyHistogram.highest(index);
+	    assertTrue(value <= highest);
+	    assertTrue(highest - value <= value / 128);
+	    assertEquals(index, LatencyHistogram.index(highest));
+	}
+	assertEquals(Long.MAX_VALUE,
+		LatencyHistogram.highest(LatencyHistogram.index(Long.MAX_VALUE)));
+	// relative error below 1%
+	assertTrue(LatencyHistogram.highest(LatencyHistogram.index(65536)) < 65536 * 1.01);
+
+	LatencyHistogram other = new LatencyHistogram();
+	other.record(200000000L);
+	histogram.add(other);
+	assertEquals(100001, histogram.getCount());
+	assertEquals(200000000L, histogram.getMax());
+    }
+
+    @Test
+    public void testFingerprint() {
+	assertEquals("(AND('name'=\"?\")('house'~\"?\"))",
+		QueryFingerprint.shape("(AND('name'=\"Harry\")('house'~\"Gr\\\"yf.*\"))"));
+	assertEquals(QueryFingerprint.of("('name'=\"Harry\")"),
+		QueryFingerprint.of("('name'=\"Ron\")"));
+	assertFalse(QueryFingerprint.of("('name'=\"Harry\")").equals(
+		QueryFingerprint.of("('name'~\"Harry\")")));
+	assertEquals(16, QueryFingerprint.of("").length());
+    }
+
+    @Test
+    public void testRegistry() throws ParseException {
+	MetricsRegistry metrics = MetricsRegistry.getDefault();
+	metrics.clear();
+	Parser<Map<String, String>> parser = new Parser<Map<String, String>>();
+	IEvaluatable<Map<String, String>> query = parser
+		.parse("('name'~\"Student1.*\")");
+	new Scan<Map<String, String>>(query).select(records(1000));
+	assertTrue(metrics.getCounters().isEmpty());
+
+	metrics.setEnabled(true);
+	try {
+	    parser.parse("('name'~\"Student1.*\")");
+	    try {
+		parser.parse("('name'~\"Student1.*\"");
+		fail("Parsed");
+	    } catch (ParseException e) {
+		// expected
+	    }
+	    Scan<Map<String, String>> scan = new Scan<Map<String, String>>(
+		    query);
+	    scan.select(records(1000));
+	    scan.select(records(1000), 10);
+	} finally {
+	    metrics.setEnabled(false);
+	}
+
+	Map<String, Long> counters = metrics.getCounters();
+	assertEquals(Long.valueOf(2), counters.get(MetricsRegistry.PARSE_COUNT));
+	assertEquals(Long.valueOf(1), counters.get(MetricsRegistry.PARSE_ERRORS));
+	assertEquals(Long.valueOf(2), counters.get(MetricsRegistry.QUERY_COUNT));
+	// 111 matches of 1000, then the first 10 matches: Student1, 10 - 18
+	assertEquals(Long.valueOf(1000 + 19),
+		counters.get(MetricsRegistry.QUERY_SCANNED));
+	assertEquals(Long.valueOf(111 + 10),
+		counters.get(MetricsRegistry.QUERY_MATCHED));
+	assertEquals(2, metrics.histogram(MetricsRegistry.PARSE_LATENCY)
+		.getCount());
+	String scrape = metrics.scrape();
+	assertTrue(scrape.contains(MetricsRegistry.QUERY_LATENCY
+		+ "{quantile=\"0.99\"} "));
+	assertTrue(scrape.contains(MetricsRegistry.QUERY_LATENCY
+		+ "{quantile=\"0.999\"} "));
+	metrics.clear();
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException, ParseException {
+	File file = File.createTempFile("mql", ".jfr");
+	try {
+	    Recording recording = new Recording();
+	    recording.enable(ParseEvent.class);
+	    recording.enable(QueryExecutionEvent.class);
+	    recording.start();
+	    IEvaluatable<Map<String, String>> query = new Parser<Map<String, String>>()
+		    .parse("('name'~\"Student1.*\")");
+	    new Scan<Map<String, String>>(query).select(records(1000));
+	    recording.stop();
+	    recording.dump(file.toPath());
+	    recording.close();
+
+	    int parses = 0;
+	    int executions = 0;
+	    for (RecordedEvent event : RecordingFile.readAllEvents(file
+		    .toPath())) {
+		String name = event.getEventType().getName();
+		if (name.equals("org.abratuhi.mql.Parse")) {
+		    parses++;
+		    assertEquals(QueryFingerprint.of(query.toString()),
+			    event.getString("fingerprint"));
+		    assertTrue(event.getBoolean("success"));
+		} else if (name.equals("org.abratuhi.mql.QueryExecution")) {
+		    executions++;
+		    assertEquals(1000, event.getLong("scanned"));
+		    assertEquals(111, event.getLong("matched"));
+		}
+	    }
+	    assertEquals(1, parses);
+	    assertEquals(1, executions);
+	} finally {
+	    file.delete();
+	}
+    }
+
+}
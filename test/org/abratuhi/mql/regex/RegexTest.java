@@ -0,0 +1,129 @@
+package org.abratuhi.mql.regex;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class RegexTest extends TestCase {
+
+    private static final String[] PATTERNS = { "abc", "a.c", ".*Potter.*",
+	    "football|soccer", "London, .*", "\\$140.*", "[a-c]+x?",
+	    "[^0-9]*", "\\d{2,4}", "(ab|a)(c|bc)", "a{3}", "(?:x|y)*z",
+	    "^Dogs.*$", "\\w+\\s\\w+", "[\\d-]+", "a*?b", "(a|)*", "",
+	    "\\x41\\u0042", "[a-]+", "\\.\\*", "(a+)+b" };
+
+    private static final String[] VALUES = { "", "abc", "abbc", "aXc",
+	    "Harry Potter", "Potter", "soccer", "football", "chess",
+	    "London, Baker street", "Dublin", "$140.50", "140.50", "aabbx",
+	    "ccc", "1234", "12", "12345", "abc", "abcbc", "aaa", "aaaa",
+	    "xyxz", "Dogs and Cats", "Hello World", "12-34", "aaab", "AB",
+	    "a-a", ".*", "a\nc", "\u00e4\u00f6\u00fc", "a\u2028c" };
+
+    @Test
+    public void testSameResultAsJavaRegex() {
+	for (String pattern : PATTERNS) {
+	    Regex regex = Regex.compile(pattern);
+	    assertTrue(pattern, regex.isAutomaton());
+	    for (String value : VALUES) {
+		assertEquals(pattern + " / " + value, value.matches(pattern),
+			regex.matches(value));
+	    }
+	}
+    }
+
+    @Test
+    public void testLongLoopBodies() {
+	// loop bodies growing the state arrays while being compiled
+	String[] patterns = { "(London|Dublin|Paris|Berlin)+",
+		"x(London|Dublin|Paris|Berlin)*", "(abcdefghijklmnopq)*",
+		"(abcdefghijklmnopq)+r", "((ab){20})*" };
+	String[] values = { "", "LondonParis", "xLondon", "xLondonBerlinx",
+		"London", "Lond", "abcdefghijklmnopq",
+		"abcdefghijklmnopqabcdefghijklmnopq", "abcdefghijklmnopqr",
+		"abcdefghijklmnop", "abababababababababababababababababababab",
+		"ababababababababababababababababababab" };
+	for (String pattern : patterns) {
+	    Regex regex = Regex.compile(pattern);
+	    assertTrue(pattern, regex.isAutomaton());
+	    for (String value : values) {
+		assertEquals(pattern + " / " + value, value.matches(pattern),
+			regex.matches(value));
+	    }
+	}
+    }
+
+    @Test
+    public void testFallback() {
+	Regex regex = Regex.compile("(a)\\1");
+	assertFalse(regex.isAutomaton());
+	assertTrue(regex.matches("aa"));
+	assertFalse(regex.matches("ab"));
+
+	assertFalse(Regex.compile("(?i)abc").isAutomaton());
+	assertFalse(Regex.compile("a(?=b)b").isAutomaton());
+	assertFalse(Regex.compile("\\bab").isAutomaton());
+    }
+
+    @Test
+    public void testStackedQuantifiers() {
+	String[] patterns = { "x{2}{2}", "x*{2}", "x+?{3}", "x{2}+{2}",
+		"x?{2}" };
+	for (String pattern : patterns) {
+	    Regex regex = Regex.compile(pattern);
+	    assertFalse(pattern, regex.isAutomaton());
+	    for (String value : new String[] { "", "x", "xx", "xxx", "xxxx" }) {
+		assertEquals(pattern + " / " + value, value.matches(pattern),
+			regex.matches(value));
+	    }
+	}
+    }
+
+    @Test
+    public void testNestedRepetitionFallback() {
+	Regex regex = Regex.compile("((a{1000}){1000}){1000}");
+	assertFalse(regex.isAutomaton());
+	assertFalse(regex.matches("aaa"));
+
+	regex = Regex.compile("(a{1000}){100}");
+	assertFalse(regex.isAutomaton());
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < 100000; i++) {
+	    sb.append('a');
+	}
+	assertTrue(regex.matches(sb));
+	sb.setLength(99999);
+	assertFalse(regex.matches(sb));
+    }
+
+    @Test
+    public void testSupplementaryCharacters() {
+	Regex regex = Regex.compile("a.b");
+	assertTrue(regex.isAutomaton());
+	assertTrue(regex.matches("a\ud83d\ude00b"));
+	assertFalse(regex.matches("a\ud83d\ude00\ud83d\ude00b"));
+    }
+
+    @Test
+    public void testInvalid() {
+	try {
+	    Regex.compile("a(b");
+	    fail();
+	} catch (java.util.regex.PatternSyntaxException e) {
+	    // expected, same as String.matches
+	}
+    }
+
+    @Test
+    public void testNoBacktracking() {
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < 10000; i++) {
+	    sb.append('a');
+	}
+	Regex regex = Regex.compile("(a+)+b");
+	assertTrue(regex.isAutomaton());
+	assertFalse(regex.matches(sb));
+	sb.append('b');
+	assertTrue(regex.matches(sb));
+    }
+
+}
@@ -0,0 +1,193 @@
+package org.abratuhi.mql.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.abratuhi.mql.store.TestRecord;
+import org.junit.Test;
+
+public class CoordinatorTest extends TestCase {
+
+    private static final String[] HOUSES = { "Gryffindor", "Slytherin",
+	    "Ravenclaw", "Hufflepuff" };
+
+    private List<Worker<TestRecord>> workers;
+    private Coordinator<TestRecord> coordinator;
+    private List<TestRecord> records;
+
+    @Override
+    protected void setUp() throws IOException {
+	workers = new Vector<Worker<TestRecord>>();
+	List<InetSocketAddress> addresses = new Vector<InetSocketAddress>();
+	for (int i = 0; i < 3; i++) {
+	    Worker<TestRecord> worker = new Worker<TestRecord>(TestRecord.FACTORY, 0);
+	    worker.start();
+	    workers.add(worker);
+	    addresses.add(worker.getAddress());
+	}
+	coordinator = new Coordinator<TestRecord>(addresses);
+	records = new Vector<TestRecord>();
+	for (int i = 0; i < 1000; i++) {
+	    TestRecord record = new TestRecord();
+	    record.put("name", "Student " + i);
+	    record.put("house", HOUSES[i % 7 % HOUSES.length]);
+	    if (i % 5 == 0) {
+		record.put("pet", i % 2 == 0 ? "owl" : null);
+	    }
+	    records.add(record);
+	    assertEquals(i, coordinator.add(record));
+	}
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+	coordinator.close();
+	for (Worker<TestRecord> worker : workers) {
+	    worker.close();
+	}
+    }
+
+    private int[] expected(IEvaluatable<TestRecord> query, int limit) {
+	List<Integer> ids = new Vector<Integer>();
+	for (int i = 0; i < records.size() && ids.size() < limit; i++) {
+	    if (query.evaluate(records.get(i))) {
+		ids.add(i);
+	    }
+	}
+	int[] result = new int[ids.size()];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = ids.get(i);
+	}
+	return result;
+    }
+
+    @Test
+    public void testPartitions() throws IOException {
+	coordinator.flush();
+	assertEquals(1000, coordinator.size());
+	// the workers read the records asynchronously
+	long deadline = System.currentTimeMillis() + 10000;
+	while (workers.get(0).size() < 334
+		&& System.currentTimeMillis() < deadline) {
+	    Thread.yield();
+	}
+	assertEquals(334, workers.get(0).size());
+    }
+
+    @Test
+    public void testSelect() throws ParseException {
+	String[] queries = {
+		"('house'=\"Gryffindor\")",
+		"(AND('house'=\"Slytherin\")('name'~\"Student 1.*\"))",
+		"(OR('pet'=\"owl\")('name'~\".*99\"))",
+		"(NOT('house'~\".*in.*\"))",
+		"('pet'~\"cat\")" };
+	for (String text : queries) {
+	    IEvaluatable<TestRecord> query = new Parser<TestRecord>().parse(text);
+	    QueryResult result = coordinator.select(query);
+	    assertTrue(result.isComplete());
+	    assertTrue(text, Arrays.equals(expected(query,
+		    Integer.MAX_VALUE), result.getIds()));
+	}
+    }
+
+    @Test
+    public void testLimit() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("(OR('house'=\"Ravenclaw\")('house'=\"Hufflepuff\"))");
+	for (int limit : new int[] { 1, 2, 10, 77 }) {
+	    QueryResult result = coordinator.select(query, limit, 0);
+	    assertTrue(result.isComplete());
+	    assertTrue(Arrays.equals(expected(query, limit),
+		    result.getIds()));
+	}
+    }
+
+    @Test
+    public void testZeroLimit() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('house'=\"Ravenclaw\")");
+	QueryResult result = coordinator.select(query, 0, 0);
+	assertTrue(result.isComplete());
+	assertEquals(0, result.getIds().length);
+	try {
+	    coordinator.select(query, -1, 0);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testTimeout() throws ParseException {
+	TestRecord record = new TestRecord();
+	record.put("name", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac");
+	for (int i = 0; i < 3; i++) {
+	    try {
+		coordinator.add(record);
+	    } catch (IOException e) {
+		fail(e.getMessage());
+	    }
+	}
+	// the back reference requires backtracking by java.util.regex
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("(OR('house'=\"Gryffindor\")('name'~\"((a+)+)\\\\2b\"))");
+	QueryResult result = coordinator.select(query, Integer.MAX_VALUE, 100);
+	assertFalse(result.isComplete());
+	assertEquals(3, result.getFailures().size());
+	assertTrue(result.getFailures().get(0).endsWith("time limit exceeded"));
+	// the matches found before the time limit are kept
+	assertEquals(expected(query, Integer.MAX_VALUE).length,
+		result.getIds().length);
+
+	// the connections are still usable
+	query = new Parser<TestRecord>().parse("('house'=\"Gryffindor\")");
+	assertTrue(coordinator.select(query).isComplete());
+    }
+
+    @Test
+    public void testInvalidRegex() throws ParseException {
+	IEvaluatable<TestRecord> query = new Parser<TestRecord>()
+		.parse("('name'~\"a(b\")");
+	QueryResult result = coordinator.select(query);
+	assertFalse(result.isComplete());
+	assertEquals(3, result.getFailures().size());
+	assertTrue(result.getFailures().get(0).contains("a(b"));
+	assertEquals(0, result.getIds().length);
+
+	// the connections are still usable
+	query = new Parser<TestRecord>().parse("('house'=\"Gryffindor\")");
+	QueryResult valid = coordinator.select(query);
+	assertTrue(valid.isComplete());
+	assertTrue(Arrays.equals(expected(query, Integer.MAX_VALUE),
+		valid.getIds()));
+    }
+
+    @Test
+    public void testError() {
+	IEvaluatable<TestRecord> query = new IEvaluatable<TestRecord>() {
+	    @Override
+	    public boolean evaluate(TestRecord record) {
+		return true;
+	    }
+
+	    @Override
+	    public String toString() {
+		return "no query";
+	    }
+	};
+	QueryResult result = coordinator.select(query);
+	assertFalse(result.isComplete());
+	assertEquals(3, result.getFailures().size());
+	assertEquals(0, result.getIds().length);
+    }
+
+}
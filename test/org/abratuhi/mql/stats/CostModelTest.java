@@ -0,0 +1,115 @@
+package org.abratuhi.mql.stats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.Condition;
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class CostModelTest extends TestCase {
+
+    @SuppressWarnings("serial")
+    class Record extends HashMap<String, String> {
+
+    }
+
+    private CollectionStatistics createStatistics() {
+	CollectionStatistics statistics = new CollectionStatistics();
+	String[] professions = { "Java Developer", "Tester", "Manager",
+		"Java Developer" };
+	for (int i = 0; i < 10000; i++) {
+	    Record r = new Record();
+	    r.put("name", "name" + i);
+	    r.put("profession", professions[i % professions.length]);
+	    if (i % 10 == 0) {
+		r.put("hobby", "chess");
+	    }
+	    statistics.add(r);
+	}
+	return statistics;
+    }
+
+    private IEvaluatable<Record> parse(String query) throws ParseException {
+	return new Parser<Record>().parse(query);
+    }
+
+    @Test
+    public void testHyperLogLog() {
+	HyperLogLog hll = new HyperLogLog();
+	for (int i = 0; i < 100000; i++) {
+	    hll.add("value" + i);
+	    hll.add("value" + i);
+	}
+	assertEquals(100000, hll.estimate(), 5000);
+
+	HyperLogLog other = new HyperLogLog();
+	for (int i = 50000; i < 150000; i++) {
+	    other.add("value" + i);
+	}
+	hll.merge(other);
+	assertEquals(150000, hll.estimate(), 7500);
+    }
+
+    @Test
+    public void testStatistics() {
+	CollectionStatistics statistics = createStatistics();
+	assertEquals(10000, statistics.getCount());
+	assertEquals(0.9, statistics.getNullRate("hobby"), 0.0001);
+	assertEquals(1.0, statistics.getNullRate("unknown"));
+
+	FieldStatistics profession = statistics.getField("profession");
+	assertEquals(3, profession.getDistinctCount());
+	assertTrue(profession.getFrequency("Java Developer") >= 5000);
+	assertTrue(profession.getHeavyHitters().containsKey("Tester"));
+	assertEquals(10000, statistics.getField("name").getDistinctCount(),
+		500);
+
+	Map<String, String> removed = new HashMap<String, String>();
+	removed.put("hobby", "chess");
+	statistics.remove(removed);
+	assertEquals(999, statistics.getField("hobby").getCount());
+    }
+
+    @Test
+    public void testSelectivity() throws ParseException {
+	CostModel<Record> model = new CostModel<Record>(createStatistics());
+	assertEquals(0.5, model.selectivity(parse("('profession'=\"Java Developer\")")), 0.01);
+	assertEquals(0.5, model.selectivity(parse("('profession'~\"Java.*\")")), 0.01);
+	assertEquals(0.1, model.selectivity(parse("('hobby'=\"chess\")")), 0.01);
+	assertEquals(0.05, model.selectivity(parse("(AND('hobby'=\"chess\")('profession'=\"Java Developer\"))")), 0.01);
+	assertEquals(0.0, model.selectivity(parse("('unknown'=\"x\")")));
+    }
+
+    @Test
+    public void testPlan() throws ParseException {
+	CostModel<Record> model = new CostModel<Record>(createStatistics());
+	IEvaluatable<Record> query = parse("(AND('profession'~\".*a.*\")('hobby'=\"chess\")(OR('name'~\"name1.*\")('profession'=\"Tester\")))");
+	Condition<Record> planned = (Condition<Record>) model.plan(query);
+	assertEquals("('hobby'=\"chess\")", planned.getConditions().get(0)
+		.toString());
+	assertEquals(3, planned.getConditions().size());
+	assertTrue(model.cost(planned) <= model.cost(query));
+    }
+
+    @Test
+    public void testAccessPath() throws ParseException {
+	CostModel<Record> model = new CostModel<Record>(createStatistics());
+	HashSet<String> indexed = new HashSet<String>();
+	indexed.add("name");
+	indexed.add("profession");
+	assertEquals(CostModel.AccessPath.INDEX, model.chooseAccessPath(
+		parse("(AND('name'=\"name42\")('hobby'=\"chess\"))"), indexed));
+	assertEquals(CostModel.AccessPath.SCAN, model.chooseAccessPath(
+		parse("('profession'=\"Java Developer\")"), indexed));
+	assertEquals(CostModel.AccessPath.SCAN, model.chooseAccessPath(
+		parse("('hobby'=\"chess\")"), Collections.<String> emptySet()));
+    }
+
+}
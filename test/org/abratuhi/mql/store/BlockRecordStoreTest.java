@@ -0,0 +1,117 @@
+package org.abratuhi.mql.store;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.IMatchHandler;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class BlockRecordStoreTest extends TestCase {
+
+    private static final String[] HOUSES = { "Gryffindor", "Hufflepuff",
+	    "Ravenclaw", "Slytherin" };
+
+    private BlockRecordStore<TestRecord> store;
+    private OffHeapRecordStore<TestRecord> plain;
+
+    @Override
+    protected void setUp() {
+	plain = new OffHeapRecordStore<TestRecord>(TestRecord.FACTORY);
+	store = new BlockRecordStore<TestRecord>(new OffHeapRecordStore<TestRecord>(
+		TestRecord.FACTORY), 100);
+	// records sorted by house, a few of them without a wand
+	for (int i = 0; i < 1050; i++) {
+	    TestRecord record = i % 10 == 3 ? new TestRecord("id", Integer.toString(i),
+		    "house", HOUSES[i * HOUSES.length / 1050]) : new TestRecord(
+		    "id", Integer.toString(i), "house", HOUSES[i
+			    * HOUSES.length / 1050], "wand", "wand" + i % 7);
+	    store.add(record);
+	    plain.add(record);
+	}
+    }
+
+    private IEvaluatable<TestRecord> parse(String query) throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    private void assertSameAsPlain(String text) throws ParseException {
+	IEvaluatable<TestRecord> query = parse(text);
+	final List<Integer> ids = new Vector<Integer>();
+	store.scan(query, new IMatchHandler<TestRecord>() {
+	    @Override
+	    public boolean onMatch(int id, TestRecord record) {
+		ids.add(id);
+		return true;
+	    }
+	});
+	final List<Integer> expected = new Vector<Integer>();
+	plain.scan(query, new IMatchHandler<TestRecord>() {
+	    @Override
+	    public boolean onMatch(int id, TestRecord record) {
+		expected.add(id);
+		return true;
+	    }
+	});
+	assertEquals(text, expected, ids);
+	assertEquals(text, expected.size(), store.count(query));
+
+	IRecordPredicate predicate = store.compile(query);
+	int count = 0;
+	for (int id = 0; id < store.size(); id++) {
+	    if (predicate.evaluate(id)) {
+		count++;
+	    }
+	}
+	assertEquals(text, expected.size(), count);
+    }
+
+    @Test
+    public void testSameResultAsPlain() throws ParseException {
+	assertSameAsPlain("('house'=\"Ravenclaw\")");
+	assertSameAsPlain("('id'=\"1049\")");
+	assertSameAsPlain("('id'=\"17\")");
+	assertSameAsPlain("('id'~\"1.*\")");
+	assertSameAsPlain("('wand'=\"wand3\")");
+	assertSameAsPlain("('wand'=\"wand7\")");
+	assertSameAsPlain("('house'~\"Huff.*\")");
+	assertSameAsPlain("(AND('house'=\"Slytherin\")('id'=\"17\"))");
+	assertSameAsPlain("(OR('house'=\"Slytherin\")('id'=\"17\"))");
+	assertSameAsPlain("(NOT('house'=\"Slytherin\"))");
+	assertSameAsPlain("(OR('id'=\"1\")('id'=\"2\")('id'=\"999\")('id'=\"none\"))");
+	assertSameAsPlain("('patronus'=\"Stag\")");
+    }
+
+    @Test
+    public void testSkippedBlocks() throws ParseException {
+	// 10 full blocks, the last 50 records are not summarized
+	assertEquals(10, store.candidates(parse("('house'~\".*\")"))
+		.cardinality());
+
+	BitSet candidates = store.candidates(parse("('house'=\"Ravenclaw\")"));
+	// records 525 - 787
+	assertEquals(3, candidates.cardinality());
+	assertTrue(candidates.get(5));
+	assertTrue(candidates.get(7));
+
+	assertEquals(1, store.candidates(parse("('id'=\"17\")")).cardinality());
+	assertEquals(0, store.candidates(parse("('wand'=\"wand7\")"))
+		.cardinality());
+	assertEquals(0, store.candidates(parse("('patronus'~\".*\")"))
+		.cardinality());
+
+	// blocks of a single house
+	BitSet like = store.candidates(parse("('house'~\"Huff.*\")"));
+	assertFalse(like.get(0));
+	assertTrue(like.get(3));
+	assertEquals(1, store.candidates(
+		parse("(AND('house'=\"Slytherin\")('id'=\"917\"))"))
+		.cardinality());
+    }
+
+}
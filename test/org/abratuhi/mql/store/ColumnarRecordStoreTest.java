@@ -0,0 +1,71 @@
+package org.abratuhi.mql.store;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class ColumnarRecordStoreTest extends TestCase {
+
+    private ColumnarRecordStore<TestRecord> createStore() {
+	ColumnarRecordStore<TestRecord> store = new ColumnarRecordStore<TestRecord>(
+		TestRecord.FACTORY, "profession", "hobby");
+	String[] professions = { "Java Developer", "Tester", "Manager" };
+	String[] hobbies = { "football", "chess", "soccer", "reading" };
+	for (int i = 0; i < 100; i++) {
+	    TestRecord r = new TestRecord("name", "name" + i, "profession",
+		    professions[i % professions.length]);
+	    if (i % 2 == 0) {
+		r.put("hobby", hobbies[i % hobbies.length]);
+	    }
+	    store.add(r);
+	}
+	return store;
+    }
+
+    private IEvaluatable<TestRecord> parse(String query) throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    @Test
+    public void testCardinality() {
+	ColumnarRecordStore<TestRecord> store = createStore();
+	assertEquals(3, store.cardinality("profession"));
+	assertEquals(2, store.cardinality("hobby"));
+	assertEquals(-1, store.cardinality("name"));
+    }
+
+    @Test
+    public void testGet() {
+	ColumnarRecordStore<TestRecord> store = createStore();
+	assertEquals(new TestRecord("name", "name4", "profession", "Tester",
+		"hobby", "football"), store.get(4));
+	assertEquals(new TestRecord("name", "name5", "profession", "Manager"),
+		store.get(5));
+    }
+
+    @Test
+    public void testEqual() throws ParseException {
+	ColumnarRecordStore<TestRecord> store = createStore();
+	assertEquals(34, store.count(parse("('profession'=\"Java Developer\")")));
+	assertEquals(0, store.count(parse("('profession'=\"Astronaut\")")));
+	assertEquals(75, store.count(parse("(NOT('hobby'=\"football\"))")));
+    }
+
+    @Test
+    public void testLike() throws ParseException {
+	ColumnarRecordStore<TestRecord> store = createStore();
+	IEvaluatable<TestRecord> eval = parse("(AND('hobby'~\"football|soccer\")(NOT('profession'~\".*Developer\")))");
+	List<TestRecord> result = store.select(eval);
+	for (int id = 0; id < store.size(); id++) {
+	    assertEquals(eval.evaluate(store.get(id)),
+		    result.contains(store.get(id)));
+	}
+	assertEquals(33, result.size());
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.abratuhi.mql.store;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class OffHeapRecordStoreTest extends TestCase {
+
+    private OffHeapRecordStore<TestRecord> createStore(int arenaSize) {
+	OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<TestRecord>(
+		TestRecord.FACTORY, arenaSize);
+	store.add(new TestRecord("name", "Potter", "address", "London"));
+	store.add(new TestRecord("name", "Weasley", "address", "London"));
+	store.add(new TestRecord("name", "McGonagall", "location", "Hogwarts"));
+	store.add(new TestRecord("name", "Granger", "address", "London",
+		"hobby", "reading"));
+	return store;
+    }
+
+    private IEvaluatable<TestRecord> parse(String query) throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    @Test
+    public void testGet() {
+	OffHeapRecordStore<TestRecord> store = createStore(32);
+	assertEquals(4, store.size());
+	assertEquals(new TestRecord("name", "Granger", "address", "London",
+		"hobby", "reading"), store.get(3));
+	assertEquals(new TestRecord("name", "McGonagall", "location", "Hogwarts"),
+		store.get(2));
+    }
+
+    @Test
+    public void testNullValue() {
+	OffHeapRecordStore<TestRecord> store = createStore(1024);
+	TestRecord r = new TestRecord("name", null);
+	int id = store.add(r);
+	assertEquals(r, store.get(id));
+    }
+
+    @Test
+    public void testSelect() throws ParseException {
+	OffHeapRecordStore<TestRecord> store = createStore(1024);
+	String query = "(AND(OR('address'=\"London\")('location'=\"Hogwarts\"))(OR('name'~\"Pot.*\")('name'~\"McGon.*\")))";
+	IEvaluatable<TestRecord> eval = parse(query);
+
+	List<TestRecord> result = store.select(eval);
+	assertEquals(2, result.size());
+	assertEquals("Potter", result.get(0).get("name"));
+	assertEquals("McGonagall", result.get(1).get("name"));
+
+	// same result as evaluating the materialized records
+	for (int id = 0; id < store.size(); id++) {
+	    assertEquals(eval.evaluate(store.get(id)),
+		    result.contains(store.get(id)));
+	}
+    }
+
+    @Test
+    public void testCount() throws ParseException {
+	OffHeapRecordStore<TestRecord> store = createStore(1024);
+	assertEquals(3, store.count(parse("('address'=\"London\")")));
+	assertEquals(1, store.count(parse("(NOT('address'=\"London\"))")));
+	assertEquals(0, store.count(parse("('unknown'=\"London\")")));
+	assertEquals(4, store.count(parse("(NOT('unknown'~\".*\"))")));
+    }
+
+}
@@ -0,0 +1,220 @@
+package org.abratuhi.mql.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class SegmentIndexTest extends TestCase {
+
+    private static final String[] QUERIES = {
+	    "('profession'=\"Tester\")",
+	    "('profession'=\"Astronaut\")",
+	    "('hobby'~\"(foot|base)ball\")",
+	    "(NOT('hobby'=\"chess\"))",
+	    "(AND('profession'=\"Manager\")(NOT('pet'=\"owl\")))",
+	    "(OR('name'=\"name7\")('name'=\"name77\")('name'~\".*9\"))",
+	    "('unknown'=\"x\")",
+	    "(NOT('unknown'=\"x\"))" };
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+	directory = Files.createTempDirectory("segments").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+	for (File file : directory.listFiles()) {
+	    file.delete();
+	}
+	directory.delete();
+    }
+
+    private static List<TestRecord> records(int count) {
+	String[] professions = { "Java Developer", "Tester", "Manager" };
+	String[] hobbies = { "football", "chess", "baseball", "r\u00e9ading",
+		"\ud83d\ude00" };
+	List<TestRecord> records = new Vector<TestRecord>();
+	for (int i = 0; i < count; i++) {
+	    TestRecord r = new TestRecord("name", "name" + i, "profession",
+		    professions[i % professions.length]);
+	    if (i % 2 == 0) {
+		r.put("hobby", hobbies[i % hobbies.length]);
+	    }
+	    if (i % 3 == 0) {
+		r.put("pet", i % 2 == 0 ? "owl" : null);
+	    }
+	    records.add(r);
+	}
+	return records;
+    }
+
+    private static IEvaluatable<TestRecord> parse(String query)
+	    throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    private static void assertSameResults(List<TestRecord> records,
+	    IRecordStore<TestRecord> store) throws ParseException {
+	assertEquals(records.size(), store.size());
+	for (String text : QUERIES) {
+	    IEvaluatable<TestRecord> query = parse(text);
+	    List<TestRecord> expected = new Vector<TestRecord>();
+	    for (TestRecord record : records) {
+		if (query.evaluate(record)) {
+		    expected.add(record);
+		}
+	    }
+	    assertEquals(text, expected, store.select(query));
+	}
+	for (int id = 0; id < records.size(); id++) {
+	    assertEquals(records.get(id), store.get(id));
+	}
+    }
+
+    @Test
+    public void testQueries() throws IOException, ParseException {
+	List<TestRecord> records = records(250);
+	SegmentIndex<TestRecord> index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	for (int i = 0; i < records.size(); i++) {
+	    assertEquals(i, index.add(records.get(i)));
+	    if (i % 100 == 99) {
+		index.flush();
+	    }
+	}
+	assertEquals(2, index.getSegmentCount());
+	// the last 50 records are buffered
+	assertSameResults(records, index);
+	index.flush();
+	assertEquals(3, index.getSegmentCount());
+	assertSameResults(records, index);
+	index.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException, ParseException {
+	List<TestRecord> records = records(300);
+	SegmentIndex<TestRecord> index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	for (TestRecord record : records.subList(0, 200)) {
+	    index.add(record);
+	}
+	index.flush();
+	index.close();
+
+	index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	assertEquals(1, index.getSegmentCount());
+	assertSameResults(records.subList(0, 200), index);
+	for (TestRecord record : records.subList(200, 300)) {
+	    index.add(record);
+	}
+	index.flush();
+	index.close();
+
+	index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	assertEquals(2, index.getSegmentCount());
+	assertSameResults(records, index);
+	index.close();
+    }
+
+    @Test
+    public void testMerge() throws IOException, ParseException {
+	List<TestRecord> records = records(500);
+	SegmentIndex<TestRecord> index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY, 100);
+	for (int i = 0; i < records.size(); i++) {
+	    index.add(records.get(i));
+	    if (i % 50 == 49) {
+		index.flush();
+	    }
+	}
+	assertEquals(10, index.getSegmentCount());
+	index.merge(3);
+	assertEquals(3, index.getSegmentCount());
+	assertEquals(3, directory.listFiles().length);
+	assertSameResults(records, index);
+	index.merge(1);
+	assertEquals(1, index.getSegmentCount());
+	assertTrue(new File(directory, "0-500.seg").exists());
+	index.close();
+
+	index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	assertSameResults(records, index);
+	index.close();
+    }
+
+    @Test
+    public void testBackgroundMerge() throws IOException, ParseException,
+	    InterruptedException {
+	List<TestRecord> records = records(400);
+	SegmentIndex<TestRecord> index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY, 2);
+	for (int i = 0; i < records.size(); i++) {
+	    index.add(records.get(i));
+	    if (i % 40 == 39) {
+		index.flush();
+		// queries run concurrently with the merges
+		assertSameResults(records.subList(0, i + 1), index);
+	    }
+	}
+	index.close();
+	assertTrue(index.getSegmentCount() <= 2);
+	assertSameResults(records, index);
+    }
+
+    @Test
+    public void testInterruptedMerge() throws IOException, ParseException {
+	List<TestRecord> records = records(100);
+	SegmentIndex<TestRecord> index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	for (int i = 0; i < records.size(); i++) {
+	    index.add(records.get(i));
+	    if (i % 50 == 49) {
+		index.flush();
+	    }
+	}
+	index.close();
+	// merged segment written, merged segments not deleted yet
+	File merged = new File(directory, "0-100.seg");
+	SegmentWriter writer = new SegmentWriter();
+	for (TestRecord record : records) {
+	    writer.add(record);
+	}
+	writer.write(merged);
+	assertTrue(new File(directory, "0-50.seg").exists());
+	new File(directory, "100-7.seg.tmp").createNewFile();
+
+	index = new SegmentIndex<TestRecord>(directory,
+		TestRecord.FACTORY);
+	assertEquals(1, index.getSegmentCount());
+	assertEquals(1, directory.listFiles().length);
+	assertSameResults(records, index);
+	index.close();
+
+	assertTrue(merged.delete());
+	writer = new SegmentWriter();
+	writer.add(records.get(0));
+	writer.write(new File(directory, "50-1.seg"));
+	try {
+	    new SegmentIndex<TestRecord>(directory, TestRecord.FACTORY);
+	    fail();
+	} catch (IOException e) {
+	    // records 0 to 49 missing
+	}
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.abratuhi.mql.store;
+
+import java.util.HashMap;
+
+/**
+ * Record shared by the tests of the stores and the executors.
+ */
+@SuppressWarnings("serial")
+public class TestRecord extends HashMap<String, String> {
+
+    public static final IRecordFactory<TestRecord> FACTORY = new IRecordFactory<TestRecord>() {
+	@Override
+	public TestRecord newRecord() {
+	    return new TestRecord();
+	}
+    };
+
+    public TestRecord(String... keyValues) {
+	for (int i = 0; i < keyValues.length; i += 2) {
+	    put(keyValues[i], keyValues[i + 1]);
+	}
+    }
+
+}
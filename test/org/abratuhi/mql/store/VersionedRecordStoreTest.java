@@ -0,0 +1,181 @@
+package org.abratuhi.mql.store;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.abratuhi.mql.IEvaluatable;
+import org.abratuhi.mql.ParseException;
+import org.abratuhi.mql.Parser;
+import org.junit.Test;
+
+public class VersionedRecordStoreTest extends TestCase {
+
+    private IEvaluatable<TestRecord> parse(String query) throws ParseException {
+	return new Parser<TestRecord>().parse(query);
+    }
+
+    @Test
+    public void testIsolation() throws ParseException {
+	VersionedRecordStore<TestRecord> store = new VersionedRecordStore<TestRecord>(
+		TestRecord.FACTORY);
+	try {
+	    int potter = store.add(new TestRecord("name", "Potter", "house",
+		    "Gryffindor"));
+	    int malfoy = store.add(new TestRecord("name", "Malfoy", "house",
+		    "Slytherin"));
+	    Snapshot<TestRecord> before = store.snapshot();
+
+	    store.update(malfoy, new TestRecord("name", "Malfoy", "house",
+		    "Gryffindor"));
+	    store.remove(potter);
+	    int granger = store.add(new TestRecord("name", "Granger", "house",
+		    "Gryffindor"));
+	    Snapshot<TestRecord> after = store.snapshot();
+
+	    IEvaluatable<TestRecord> gryffindor = parse("('house'=\"Gryffindor\")");
+	    IEvaluatable<TestRecord> notSlytherin = parse("(NOT('house'=\"Slytherin\"))");
+	    assertEquals(2, before.size());
+	    assertEquals(1, before.count(gryffindor));
+	    assertEquals(1, before.count(notSlytherin));
+	    assertEquals("Potter", before.select(gryffindor).get(0).get("name"));
+	    assertEquals("Slytherin", before.get(malfoy).get("house"));
+
+	    assertEquals(3, after.size());
+	    assertEquals(2, after.count(gryffindor));
+	    assertEquals(2, after.count(notSlytherin));
+	    assertNull(after.get(potter));
+	    assertEquals("Granger", after.get(granger).get("name"));
+	    assertEquals(store.getVersion(), after.getVersion());
+
+	    try {
+		after.add(new TestRecord("name", "Lovegood"));
+		fail("Added to a snapshot");
+	    } catch (UnsupportedOperationException e) {
+		// expected
+	    }
+	    before.close();
+	    after.close();
+	} finally {
+	    store.close();
+	}
+    }
+
+    @Test
+    public void testSnapshotReadOnly() {
+	VersionedRecordStore<TestRecord> store = new VersionedRecordStore<TestRecord>(
+		TestRecord.FACTORY);
+	try {
+	    store.add(new TestRecord("name", "Potter"));
+	    long version = store.getVersion();
+	    Snapshot<TestRecord> snapshot = store.snapshot();
+	    try {
+		snapshot.add(new TestRecord("name", "Weasley"));
+		fail("Added to a snapshot");
+	    } catch (UnsupportedOperationException e) {
+		// the rejected write leaves no trace in the snapshot or the store
+		assertEquals(version, snapshot.getVersion());
+		assertEquals(1, snapshot.size());
+		assertEquals("Potter", snapshot.get(0).get("name"));
+	    } finally {
+		snapshot.close();
+	    }
+	    assertEquals(version, store.getVersion());
+	    assertEquals(1, store.size());
+	} finally {
+	    store.close();
+	}
+    }
+
+    @Test
+    public void testPrune() throws ParseException {
+	VersionedRecordStore<TestRecord> store = new VersionedRecordStore<TestRecord>(
+		TestRecord.FACTORY);
+	try {
+	    int id = store.add(new TestRecord("name", "Potter", "year", "1"));
+	    Snapshot<TestRecord> first = store.snapshot();
+	    for (int year = 2; year <= 7; year++) {
+		store.update(id, new TestRecord("name", "Potter", "year", Integer
+			.toString(year)));
+	    }
+	    Snapshot<TestRecord> last = store.snapshot();
+	    store.update(id, new TestRecord("name", "Potter", "year", "8"));
+
+	    store.prune();
+	    assertEquals(8, store.versions(id));
+	    assertEquals("1", first.get(id).get("year"));
+
+	    first.close();
+	    store.prune();
+	    // year 7 seen by the open snapshot, year 8 by the next ones
+	    assertEquals(2, store.versions(id));
+	    assertEquals("7", last.get(id).get("year"));
+
+	    last.close();
+	    store.remove(id);
+	    store.prune();
+	    assertEquals(0, store.versions(id));
+	    Snapshot<TestRecord> empty = store.snapshot();
+	    assertEquals(0, empty.count(parse("(NOT('name'=\"Potter\"))")));
+	    empty.close();
+	} finally {
+	    store.close();
+	}
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+	final VersionedRecordStore<TestRecord> store = new VersionedRecordStore<TestRecord>(
+		TestRecord.FACTORY);
+	final int records = 100;
+	for (int i = 0; i < records; i++) {
+	    store.add(new TestRecord("round", "0"));
+	}
+	final AtomicBoolean done = new AtomicBoolean();
+	Thread writer = new Thread() {
+	    @Override
+	    public void run() {
+		for (int round = 1; round <= 200; round++) {
+		    for (int id = 0; id < records; id++) {
+			store.update(id, new TestRecord("round", Integer
+				.toString(round)));
+		    }
+		}
+		done.set(true);
+	    }
+	};
+	writer.start();
+	try {
+	    int snapshots = 0;
+	    while (!done.get() || snapshots == 0) {
+		Snapshot<TestRecord> snapshot = store.snapshot();
+		try {
+		    // a round updates the records in ascending order
+		    int first = Integer.parseInt(snapshot.get(0).get("round"));
+		    int changes = 0;
+		    int previous = first;
+		    for (int id = 0; id < records; id++) {
+			int round = Integer.parseInt(snapshot.get(id).get(
+				"round"));
+			assertTrue(round == first || round == first - 1);
+			if (round != previous) {
+			    changes++;
+			}
+			previous = round;
+		    }
+		    assertTrue(changes <= 1);
+		    assertEquals(records - snapshot.count(parse("('round'=\""
+			    + first + "\")")), snapshot.count(parse("('round'=\""
+			    + (first - 1) + "\")")));
+		} finally {
+		    snapshot.close();
+		}
+		snapshots++;
+	    }
+	} finally {
+	    writer.join();
+	    store.close();
+	}
+    }
+
+}